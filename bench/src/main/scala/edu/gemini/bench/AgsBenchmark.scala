@@ -0,0 +1,72 @@
+package edu.gemini.bench
+
+import edu.gemini.ags.api.AgsStrategy
+import edu.gemini.ags.conf.ProbeLimitsTable
+import edu.gemini.ags.impl.{SingleProbeStrategy, SingleProbeStrategyParams}
+import edu.gemini.catalog.votable.CannedBackend
+import edu.gemini.shared.util.immutable.{None => JNone, Some => JSome}
+import edu.gemini.spModel.ags.AgsStrategyKey.GmosNorthOiwfsKey
+import edu.gemini.spModel.core._
+import edu.gemini.spModel.gemini.gmos.InstGmosNorth
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality
+import edu.gemini.spModel.obs.context.ObsContext
+import edu.gemini.spModel.target.SPTarget
+import edu.gemini.spModel.target.env.TargetEnvironment
+
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+
+import scala.concurrent.{Await, ExecutionContext}
+import scala.concurrent.duration._
+import scala.util.Random
+
+/**
+ * GMOS-N OIWFS guide star selection from a canned catalog result, so that
+ * only the selection itself is measured.  Candidates are scattered randomly
+ * (with a fixed seed) over the patrol field with a range of magnitudes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class AgsBenchmark {
+  @Param(Array("10", "100", "1000"))
+  var candidateCount: Int = _
+
+  val magTable = ProbeLimitsTable.loadOrThrow()
+
+  var strategy: SingleProbeStrategy = _
+  var ctx: ObsContext               = _
+
+  // NGC 101, as in the SingleProbeStrategy tests.
+  private val BaseRa  = 5.977558
+  private val BaseDec = -32.536206
+
+  private def candidates(n: Int): List[SiderealTarget] = {
+    val r = new Random(42)
+    (1 to n).toList.map { i =>
+      // Within about 6 arcmin of the base position.
+      val ra  = RightAscension.fromDegrees(BaseRa  + (r.nextDouble() - 0.5) * 0.2)
+      val dec = Declination.fromDegrees(BaseDec + (r.nextDouble() - 0.5) * 0.2).getOrElse(Declination.zero)
+      val mag = Magnitude(10.0 + r.nextDouble() * 10.0, MagnitudeBand.R, None, MagnitudeSystem.Vega)
+      SiderealTarget.empty.copy(name = s"c$i", coordinates = Coordinates(ra, dec), magnitudes = List(mag))
+    }
+  }
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    val inst = new InstGmosNorth
+    inst.setPosAngle(0.0)
+
+    val env  = TargetEnvironment.create(new SPTarget(BaseRa, BaseDec))
+    strategy = SingleProbeStrategy(GmosNorthOiwfsKey, SingleProbeStrategyParams.GmosOiwfsParams(Site.GN), CannedBackend(candidates(candidateCount)))
+    ctx      = ObsContext.create(env, inst, new JSome(Site.GN), SPSiteQuality.Conditions.NOMINAL, null, null, JNone.instance())
+  }
+
+  @Benchmark
+  def select(): Option[AgsStrategy.Selection] =
+    Await.result(strategy.select(ctx, magTable)(ExecutionContext.global), 1.minute)
+}
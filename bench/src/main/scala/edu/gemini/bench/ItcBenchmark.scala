@@ -0,0 +1,86 @@
+package edu.gemini.bench
+
+import edu.gemini.itc.baseline._
+import edu.gemini.itc.baseline.util.Fixture
+import edu.gemini.itc.service.ItcServiceImpl
+import edu.gemini.itc.shared.{InstrumentDetails, ItcParameters, ItcService}
+
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Shared state for ITC benchmarks, using the first and last of each
+ * instrument's baseline test fixtures.  The fixtures are grouped by
+ * observation mode, so this covers both imaging and spectroscopy for the
+ * instruments that support them.
+ */
+abstract class ItcState {
+  @Param(Array("AcqCam", "F2", "GMOS", "GNIRS", "GSAOI", "Michelle", "NIFS", "NIRI", "TRecs"))
+  var instrument: String = _
+
+  @Param(Array("first", "last"))
+  var fixture: String = _
+
+  var params: ItcParameters = _
+
+  private def fixtures: List[Fixture[_ <: InstrumentDetails]] = instrument match {
+    case "AcqCam"   => BaselineAcqCam.Fixtures
+    case "F2"       => BaselineF2.Fixtures
+    case "GMOS"     => BaselineGmos.Fixtures
+    case "GNIRS"    => BaselineGnirs.Fixtures
+    case "GSAOI"    => BaselineGsaoi.Fixtures
+    case "Michelle" => BaselineMichelle.Fixtures
+    case "NIFS"     => BaselineNifs.Fixtures
+    case "NIRI"     => BaselineNiri.Fixtures
+    case "TRecs"    => BaselineTRecs.Fixtures
+    case _          => sys.error(s"Unknown instrument $instrument")
+  }
+
+  @Setup(Level.Trial)
+  def setupParams(): Unit = {
+    val f = if (fixture == "first") fixtures.head else fixtures.last
+    params = ItcParameters(f.src, f.odp, f.ocp, f.tep, f.ins)
+  }
+}
+
+/**
+ * ITC calculations per instrument.  Each invocation uses a new service so
+ * that neither the result nor the spectra are cached; data files are still
+ * cached as they are in a running service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class ItcBenchmark extends ItcState {
+  var service: ItcServiceImpl = _
+
+  @Setup(Level.Invocation)
+  def setup(): Unit =
+    service = new ItcServiceImpl
+
+  @Benchmark
+  def calculate(): ItcService.Result =
+    service.calculate(params)
+}
+
+/**
+ * Repeated ITC calculations per instrument, answered from the result cache
+ * once the first call of the warmup has filled it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class ItcCachedBenchmark extends ItcState {
+  val service = new ItcServiceImpl
+
+  @Benchmark
+  def calculate(): ItcService.Result =
+    service.calculate(params)
+}
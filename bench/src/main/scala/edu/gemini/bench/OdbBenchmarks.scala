@@ -0,0 +1,136 @@
+package edu.gemini.bench
+
+import edu.gemini.pot.sp.{ISPObservation, ISPProgram}
+import edu.gemini.pot.sp.memImpl.MemSerializer
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
+import edu.gemini.spModel.config.ConfigBridge
+import edu.gemini.spModel.config.map.ConfigValMapInstances.IDENTITY_MAP
+import edu.gemini.spModel.io.PioDocumentBuilder
+import edu.gemini.spModel.io.impl.PioSpXmlParser
+import edu.gemini.spModel.obs.plannedtime.{PlannedTimeCalculator, PlannedTimeSummaryService}
+import edu.gemini.spModel.pio.Document
+import edu.gemini.spModel.pio.xml.PioXmlUtil
+
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Shared state for benchmarks that work with a program in a transient
+ * database.
+ */
+abstract class ProgramState {
+  @Param(Array("10", "100"))
+  var obsCount: Int = _
+
+  var odb: IDBDatabaseService = _
+  var prog: ISPProgram        = _
+  var obs: Array[ISPObservation] = _
+
+  @Setup(Level.Trial)
+  def setupProgram(): Unit = {
+    odb  = DBLocalDatabase.createTransient()
+    prog = ProgramFixtures.load(odb, obsCount)
+    obs  = ProgramFixtures.observations(prog)
+  }
+
+  @TearDown(Level.Trial)
+  def tearDownProgram(): Unit =
+    odb.getDBAdmin.shutdown()
+}
+
+/**
+ * Program storage in each of the `MemSerializer` formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class MemSerializerBenchmark extends ProgramState {
+  @Param(Array("JAVA", "COMPACT", "COMPACT_DEFLATE"))
+  var format: String = _
+
+  var serializer: MemSerializer = _
+  var stored: Array[Byte]       = _
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    serializer = new MemSerializer(MemSerializer.Format.valueOf(format))
+    stored     = serializer.store(prog)
+  }
+
+  @Benchmark
+  def store(): Array[Byte] =
+    serializer.store(prog)
+
+  @Benchmark
+  def load(): AnyRef =
+    serializer.load(stored)
+}
+
+/**
+ * PIO XML export and import of a program.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class PioXmlBenchmark extends ProgramState {
+  var doc: Document = _
+  var xml: String   = _
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    doc = PioDocumentBuilder.instance.toDocument(prog)
+    xml = PioXmlUtil.toXmlString(doc)
+  }
+
+  @Benchmark
+  def parse(): AnyRef =
+    PioXmlUtil.read(xml)
+
+  @Benchmark
+  def write(): String =
+    PioXmlUtil.toXmlString(doc)
+
+  /** Program to XML, as done by an export. */
+  @Benchmark
+  def exportProgram(): String =
+    PioXmlUtil.toXmlString(PioDocumentBuilder.instance.toDocument(prog))
+
+  /** XML to program, as done by an import. */
+  @Benchmark
+  def importProgram(): AnyRef =
+    new PioSpXmlParser(odb.getFactory).parseDocument(PioXmlUtil.read(xml))
+}
+
+/**
+ * Sequence expansion and planned time for every observation in a program.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class SequenceBenchmark extends ProgramState {
+
+  @Benchmark
+  def extractSequence(bh: Blackhole): Unit =
+    obs.foreach { o => bh.consume(ConfigBridge.extractSequence(o, null, IDENTITY_MAP)) }
+
+  /** Planned time calculated from scratch, bypassing all caches. */
+  @Benchmark
+  def plannedTimeCalc(bh: Blackhole): Unit =
+    obs.foreach { o => bh.consume(PlannedTimeCalculator.instance.calc(o)) }
+
+  /** Planned time through the service, as requested by clients. */
+  @Benchmark
+  def plannedTimeSummary(): AnyRef =
+    PlannedTimeSummaryService.getTotalTime(prog)
+}
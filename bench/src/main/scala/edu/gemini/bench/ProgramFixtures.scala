@@ -0,0 +1,72 @@
+package edu.gemini.bench
+
+import edu.gemini.pot.sp.{ISPFactory, ISPObservation, ISPProgram, Instrument, SPNodeKey}
+import edu.gemini.pot.spdb.IDBDatabaseService
+import edu.gemini.spModel.core.SPProgramID
+import edu.gemini.spModel.gemini.seqcomp.{SeqRepeatFlatObs, SeqRepeatOffset}
+import edu.gemini.spModel.io.impl.PioSpXmlParser
+import edu.gemini.spModel.seqcomp.SeqRepeatObserve
+
+import java.io.File
+
+/**
+ * Programs used by the ODB benchmarks.
+ *
+ * By default a GMOS-N queue program is generated with the requested number
+ * of observations, each with a target, conditions, instrument and a sequence
+ * of flats and dithered science exposures.  Setting the system property
+ * `edu.gemini.bench.program` to an exported program XML file runs the
+ * benchmarks against that program instead, in which case the observation
+ * count parameter is ignored.
+ */
+object ProgramFixtures {
+  val ProgramProp = "edu.gemini.bench.program"
+
+  val ProgramId = SPProgramID.toProgramID("GN-2016A-Q-1")
+
+  /** Loads (or generates) the benchmark program and adds it to the database. */
+  def load(odb: IDBDatabaseService, obsCount: Int): ISPProgram = {
+    val prog = sys.props.get(ProgramProp).fold(generate(odb.getFactory, obsCount)) { path =>
+      new PioSpXmlParser(odb.getFactory).parseDocument(new File(path)).asInstanceOf[ISPProgram]
+    }
+    odb.put(prog)
+  }
+
+  /** Generates a GMOS-N program with the given number of observations. */
+  def generate(f: ISPFactory, obsCount: Int): ISPProgram = {
+    val prog = f.createProgram(new SPNodeKey(), ProgramId)
+    (0 until obsCount).foreach { i =>
+      val obs = f.createObservation(prog, Instrument.GmosNorth.some(), null)
+      prog.addObservation(obs)
+      addSequence(f, prog, obs, i)
+    }
+    prog
+  }
+
+  // A flat followed by a dither pattern of 4 offset positions with 1 to 4
+  // exposures at each.
+  private def addSequence(f: ISPFactory, prog: ISPProgram, obs: ISPObservation, i: Int): Unit = {
+    val root = obs.getSeqComponent
+
+    root.addSeqComponent(f.createSeqComponent(prog, SeqRepeatFlatObs.SP_TYPE, null))
+
+    val offsets = f.createSeqComponent(prog, SeqRepeatOffset.SP_TYPE, null)
+    val off     = offsets.getDataObject.asInstanceOf[SeqRepeatOffset]
+    (0 until 4).foreach { j => off.getPosList.addPosition(j * 5.0, (i % 3) * 5.0) }
+    offsets.setDataObject(off)
+
+    val observe = f.createSeqComponent(prog, SeqRepeatObserve.SP_TYPE, null)
+    val obsDo   = observe.getDataObject.asInstanceOf[SeqRepeatObserve]
+    obsDo.setStepCount(1 + i % 4)
+    observe.setDataObject(obsDo)
+
+    offsets.addSeqComponent(observe)
+    root.addSeqComponent(offsets)
+  }
+
+  /** All the observations in the program. */
+  def observations(prog: ISPProgram): Array[ISPObservation] = {
+    val lst = prog.getAllObservations
+    lst.toArray(new Array[ISPObservation](lst.size))
+  }
+}
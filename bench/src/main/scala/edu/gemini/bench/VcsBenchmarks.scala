@@ -0,0 +1,55 @@
+package edu.gemini.bench
+
+import edu.gemini.pot.sp.ISPProgram
+import edu.gemini.pot.sp.version._
+import edu.gemini.sp.vcs2.ProgramDiff
+
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Version comparison and diff computation as done when synchronizing a
+ * program.  The remote program is a copy of the local one, with a separate
+ * lifespan, in which `edits` observations have been modified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Array("-Xms2g", "-Xmx2g"))
+class VcsBenchmark extends ProgramState {
+  @Param(Array("0", "1", "10"))
+  var edits: Int = _
+
+  var remote: ISPProgram     = _
+  var localVm: VersionMap    = _
+  var remoteVm: VersionMap   = _
+  var diff: ProgramDiff      = _
+
+  @Setup(Level.Trial)
+  def setup(): Unit = {
+    remote = odb.getFactory.copyWithNewLifespanId(prog)
+    ProgramFixtures.observations(remote).take(edits).foreach { o =>
+      val dataObj = o.getDataObject
+      dataObj.setTitle(dataObj.getTitle + " (edited)")
+      o.setDataObject(dataObj)
+    }
+    localVm  = prog.getVersions
+    remoteVm = remote.getVersions
+    diff     = ProgramDiff.compare(prog, remoteVm, Set.empty)
+  }
+
+  @Benchmark
+  def versionMapTryCompare(): Option[Int] =
+    VersionMap.tryCompare(localVm, remoteVm)
+
+  @Benchmark
+  def programDiff(): ProgramDiff =
+    ProgramDiff.compare(prog, remote.getVersions, Set.empty)
+
+  @Benchmark
+  def mergePlanCompare(): AnyRef =
+    diff.plan.compare(remoteVm)
+}
@@ -2,7 +2,7 @@ package edu.gemini.dataman.app
 
 import edu.gemini.dataman.core._
 import edu.gemini.gsa.query.QaRequest
-import edu.gemini.pot.sp.{ISPProgram, SPCompositeChange}
+import edu.gemini.pot.sp.{ISPNode, ISPObsQaLog, ISPProgram, SPCompositeChange}
 import edu.gemini.pot.spdb.{ProgramEvent, ProgramEventListener, IDBTriggerAction, IDBTriggerCondition, IDBDatabaseService}
 import edu.gemini.spModel.dataset.{DatasetQaState, DatasetLabel}
 import edu.gemini.spModel.dataset.Implicits._
@@ -81,6 +81,9 @@ object QaRequestTrigger {
     }.toList.map((QaRequest.apply _).tupled)
 
   object Condition extends IDBTriggerCondition {
+    override def getNodeType: Class[_ <: ISPNode] =
+      classOf[ISPObsQaLog]
+
     /** Returns a List[QaRequest] if the change matches and there are updates,
       * `null` otherwise (as required by the `IDBTriggerCondition` contract).
       *
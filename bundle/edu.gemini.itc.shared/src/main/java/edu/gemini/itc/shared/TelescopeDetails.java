@@ -5,6 +5,7 @@ import edu.gemini.spModel.telescope.IssPort;
 import edu.gemini.spModel.type.DisplayableSpType;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Container for telescope parameters.
@@ -54,5 +55,15 @@ public final class TelescopeDetails implements Serializable {
         return telescopeDiameter;
     }
 
+    @Override public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TelescopeDetails)) return false;
+        final TelescopeDetails that = (TelescopeDetails) o;
+        return mirrorCoating == that.mirrorCoating && instrumentPort == that.instrumentPort && wfs == that.wfs;
+    }
+
+    @Override public int hashCode() {
+        return Objects.hash(mirrorCoating, instrumentPort, wfs);
+    }
 
 }
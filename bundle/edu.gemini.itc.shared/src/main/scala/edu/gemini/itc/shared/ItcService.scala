@@ -87,6 +87,8 @@ case object SingleS2NData     extends SpcDataType { val instance: SpcDataType =
 case object FinalS2NData      extends SpcDataType { val instance: SpcDataType = this }  // final S2N over wavelength [nm]
 case object PixSigData        extends SpcDataType { val instance: SpcDataType = this }  // signal over pixels
 case object PixBackData       extends SpcDataType { val instance: SpcDataType = this }  // background over pixels
+case object ExposureTimeData  extends SpcDataType { val instance: SpcDataType = this }  // exposure time for requested S/N over wavelength [nm]
+case object ExposuresData     extends SpcDataType { val instance: SpcDataType = this }  // number of exposures for requested S/N over wavelength [nm]
 
 /** Series of (x,y) data points used to create charts and text data files. */
 final case class SpcSeriesData(dataType: SpcDataType, title: String, data: Array[Array[Double]], color: Option[Color] = None) {
@@ -186,6 +188,16 @@ trait ItcService {
 
   def calculate(p: ItcParameters): Result
 
+  /** Evaluates the ITC for every point of the sweep. Results for individual points may be errors; the sweep as a
+    * whole only fails if the sweep itself is invalid.
+    */
+  def sweep(s: ItcSweep): SweepResult
+
+  /** Finds the exposure time or number of exposures needed to reach the given total S/N directly from a single
+    * evaluation of the ITC, instead of searching for it with repeated calls to `calculate`.
+    */
+  def solve(p: ItcParameters, s2n: Double, solveFor: ItcSolveFor): SolveResult
+
 }
 
 sealed trait ItcMessage
@@ -203,10 +215,26 @@ object ItcService {
 
   type Result = ItcError \/ ItcResult
 
+  type SweepResult = ItcError \/ ItcSweepResult
+
+  type SolveResult = ItcError \/ ItcSolution
+
   /** Performs an ITC call on the given host. */
   def calculate(peer: Peer, inputs: ItcParameters): Future[Result] =
     TrpcClient(peer).withoutKeys future { r =>
       r[ItcService].calculate(inputs)
     }
 
+  /** Performs an ITC parameter sweep on the given host. */
+  def sweep(peer: Peer, s: ItcSweep): Future[SweepResult] =
+    TrpcClient(peer).withoutKeys future { r =>
+      r[ItcService].sweep(s)
+    }
+
+  /** Solves for the exposure time or number of exposures needed to reach the given S/N on the given host. */
+  def solve(peer: Peer, inputs: ItcParameters, s2n: Double, solveFor: ItcSolveFor): Future[SolveResult] =
+    TrpcClient(peer).withoutKeys future { r =>
+      r[ItcService].solve(inputs, s2n, solveFor)
+    }
+
 }
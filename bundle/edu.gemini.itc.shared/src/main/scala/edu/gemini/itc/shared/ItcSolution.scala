@@ -0,0 +1,18 @@
+package edu.gemini.itc.shared
+
+/** What to solve for when looking for the exposure needed to reach a requested S/N. */
+sealed trait ItcSolveFor extends Serializable
+
+/** Keeps the number of exposures of the parameters and solves for the exposure time. */
+case object SolveExposureTime extends ItcSolveFor { val instance: ItcSolveFor = this }
+
+/** Keeps the exposure time of the parameters and solves for the number of exposures. */
+case object SolveExposures    extends ItcSolveFor { val instance: ItcSolveFor = this }
+
+/** The exposure time in seconds and number of exposures needed to reach a requested total S/N, solved from the
+  * noise terms of a single ITC evaluation. Like `ItcResult.maxTotalSNRatio` this refers to the best S/N, i.e. the
+  * best CCD for imaging and the best wavelength bin for spectroscopy. For spectroscopy the values needed in each
+  * wavelength bin are given as data series, one per CCD or IFU element; bins in which the requested S/N can not
+  * be reached are infinite.
+  */
+final case class ItcSolution(exposureTime: Double, exposures: Int, bins: List[SpcSeriesData])
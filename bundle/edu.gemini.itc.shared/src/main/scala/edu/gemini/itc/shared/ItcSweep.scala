@@ -0,0 +1,95 @@
+package edu.gemini.itc.shared
+
+import scalaz.\/
+
+/** A parameter sweep: a base configuration and a set of axes along which it is varied. The sweep is evaluated for
+  * every combination of axis values, i.e. for the cartesian product of all axes. This allows clients like the OT
+  * to explore e.g. different exposure times and magnitudes for an observation with a single ITC service call.
+  */
+final case class ItcSweep(base: ItcParameters, axes: List[ItcSweepAxis]) {
+
+  /** Number of points in the grid. */
+  val size: Int = axes.map(_.size).product
+
+  /** All points of the grid in row-major order, i.e. the values of the last axis vary fastest. */
+  def points: List[ItcParameters] =
+    axes.foldLeft(List(base)) { (ps, axis) =>
+      for {
+        p <- ps
+        i <- (0 until axis.size).toList
+      } yield axis.update(p, i)
+    }
+
+}
+
+/** An axis of a parameter sweep, with the values along the axis. */
+sealed trait ItcSweepAxis extends Serializable {
+  def size: Int
+  def update(p: ItcParameters, i: Int): ItcParameters
+}
+
+/** Varies the exposure time in seconds. */
+final case class ExposureTimeAxis(values: List[Double]) extends ItcSweepAxis {
+  val size: Int = values.size
+  def update(p: ItcParameters, i: Int): ItcParameters = {
+    val t = values(i)
+    p.copy(observation = p.observation.copy(calculationMethod = p.observation.calculationMethod match {
+      case m: ImagingS2N      => m.copy(exposureTime = t)
+      case m: ImagingInt      => m.copy(exposureTime = t)
+      case m: SpectroscopyS2N => m.copy(exposureTime = t)
+    }))
+  }
+}
+
+/** Varies the number of exposures; only applicable to signal to noise calculations. */
+final case class ExposuresAxis(values: List[Int]) extends ItcSweepAxis {
+  val size: Int = values.size
+  def update(p: ItcParameters, i: Int): ItcParameters = {
+    val n = values(i)
+    p.copy(observation = p.observation.copy(calculationMethod = p.observation.calculationMethod match {
+      case m: ImagingS2N      => m.copy(exposures = n)
+      case m: SpectroscopyS2N => m.copy(exposures = n)
+      case m: ImagingInt      => throw new IllegalArgumentException("The number of exposures can not be varied for integration time calculations.")
+    }))
+  }
+}
+
+/** Varies the source brightness, in the units of the base source definition. */
+final case class BrightnessAxis(values: List[Double]) extends ItcSweepAxis {
+  val size: Int = values.size
+  def update(p: ItcParameters, i: Int): ItcParameters =
+    p.copy(source = p.source.copy(norm = values(i)))
+}
+
+/** Varies the observing conditions. */
+final case class ConditionsAxis(values: List[ObservingConditions]) extends ItcSweepAxis {
+  val size: Int = values.size
+  def update(p: ItcParameters, i: Int): ItcParameters =
+    p.copy(conditions = values(i))
+}
+
+/** The most relevant numbers of an ITC result; for instruments with several CCDs these are the maximum values
+  * across all CCDs. Charts are not included in order to keep the results for large grids compact.
+  */
+final case class ItcSweepValue(
+    singleSNRatio:    Double,
+    totalSNRatio:     Double,
+    peakPixelFlux:    Int,
+    percentFullWell:  Double,
+    warnings:         List[ItcWarning])
+
+object ItcSweepValue {
+  def apply(r: ItcResult): ItcSweepValue =
+    ItcSweepValue(r.maxSingleSNRatio, r.maxTotalSNRatio, r.maxPeakPixelFlux, r.maxPercentFullWell, r.warnings)
+}
+
+/** The results of a sweep for all points of the grid in row-major order (see `ItcSweep.points`). */
+final case class ItcSweepResult(axes: List[ItcSweepAxis], values: Vector[ItcError \/ ItcSweepValue]) {
+
+  /** Gets the result for the given index along each axis. */
+  def apply(indices: Int*): ItcError \/ ItcSweepValue = {
+    require(indices.size == axes.size, s"expected ${axes.size} indices")
+    values(axes.zip(indices).foldLeft(0) { case (ix, (axis, i)) => ix * axis.size + i })
+  }
+
+}
@@ -30,6 +30,7 @@ public class AcquisitionCamera extends Instrument {
     private static final String FILENAME = "acquisition_camera" + getSuffix();
 
     // Keep a reference to the color filter to ask for effective wavelength
+    private final AcquisitionCamParameters params;
     private Filter _colorFilter;
 
     /**
@@ -37,6 +38,7 @@ public class AcquisitionCamera extends Instrument {
      */
     public AcquisitionCamera(final AcquisitionCamParameters params) {
         super(Site.GN, Bands.VISIBLE, INSTR_DIR, FILENAME);
+        this.params = params;
         _colorFilter = Filter.fromFile(getPrefix(), "colfilt_" + params.colorFilter().name(), getDirectory() + "/");
         addFilter(_colorFilter);
         addComponent(new NDFilterWheel(params.ndFilter(), getDirectory() + "/"));
@@ -86,4 +88,9 @@ public class AcquisitionCamera extends Instrument {
             add(new SaturationLimitRule(WellDepth, 0.80));
         }};
     }
+
+    @Override public Object getConfiguration() {
+        return params;
+    }
+
 }
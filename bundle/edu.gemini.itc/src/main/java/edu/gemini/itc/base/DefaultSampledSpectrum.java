@@ -245,6 +245,14 @@ public class DefaultSampledSpectrum implements VisitableSampledSpectrum {
         _y[bin] = y;
     }
 
+    @Override public void multiply(double[] factors) {
+        SpectrumOps.multiply(_y, factors);
+    }
+
+    @Override public void add(double[] values) {
+        SpectrumOps.add(_y, values);
+    }
+
     /**
      * Rescales X axis by specified factor. Doesn't change sampling size.
      */
@@ -7,6 +7,7 @@ import scala.Option;
 import scala.Some;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -48,6 +49,9 @@ public abstract class Instrument {
     private final List<TransmissionElement> components;
     // Each Instrument adds its own background.
     private ArraySpectrum background;
+    // The combined transmission of all components, see convolveComponents.
+    // Reset whenever a component is added.
+    private volatile TransmissionElement.Sampled fused;
 
     // The filter (if any)
     public Option<Filter> filter;
@@ -78,19 +82,39 @@ public abstract class Instrument {
      * Method adds the instrument background flux to the specified spectrum.
      */
     public void addBackground(ArraySpectrum sky) {
+        if (sky instanceof SampledSpectrum) {
+            final SampledSpectrum s = (SampledSpectrum) sky;
+            s.add(SpectrumOps.sample(background, s));
+            return;
+        }
         for (int i = 0; i < sky.getLength(); i++) {
             sky.setY(i, background.getY(sky.getX(i)) + sky.getY(i));
         }
     }
 
     /**
-     * Method to iterate through the Components list and apply the
-     * accept method of each component to a sed.
+     * Applies the transmission of all components to a sed. Instead of
+     * visiting the sed with each component in turn, the product of their
+     * transmissions is applied in a single pass. The product is kept for the
+     * grid it was calculated for, since source and sky are usually convolved
+     * with the components on the same grid.
      */
     public void convolveComponents(VisitableSampledSpectrum sed) {
+        sed.multiply(transmission(sed));
+    }
+
+    private double[] transmission(final SampledSpectrum grid) {
+        final TransmissionElement.Sampled f = fused;
+        if (f != null && f.isFor(grid)) {
+            return f.values;
+        }
+        final double[] product = new double[grid.getLength()];
+        Arrays.fill(product, 1.0);
         for (final TransmissionElement te : components) {
-            sed.accept(te);
+            SpectrumOps.multiply(product, te.sample(grid));
         }
+        fused = new TransmissionElement.Sampled(grid, product);
+        return product;
     }
 
     /**
@@ -101,7 +125,7 @@ public abstract class Instrument {
     protected void addFilter(Filter f) {
         if (filter.isDefined()) throw new IllegalStateException();
         filter = new Some<>(f);
-        components.add(f);
+        addComponent(f);
         validate();
     }
 
@@ -115,13 +139,14 @@ public abstract class Instrument {
         disperser = new Some<>(d);
         // we know that all dispersers are transmission elements, it would be nice to reflect this in the object
         // hierarchy but that's a refactoring for a later time
-        components.add((TransmissionElement) d);
+        addComponent((TransmissionElement) d);
         validate();
     }
 
 
     protected void addComponent(TransmissionElement c) {
         components.add(c);
+        fused = null;
     }
 
     /**
@@ -221,6 +246,15 @@ public abstract class Instrument {
      */
     public abstract String getDirectory();
 
+    /**
+     * Returns a value which identifies how this instrument changes the source and sky spectra: two instances of the
+     * same class with equal configurations change them in the same way. The exposure time and number of exposures
+     * must not be part of it, so that calculations which differ only in those can share their spectra.
+     *
+     * @see SourceCache
+     */
+    public abstract Object getConfiguration();
+
     /**
      * The suffix on instrument data files.
      */
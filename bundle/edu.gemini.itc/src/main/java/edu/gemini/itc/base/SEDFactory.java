@@ -45,6 +45,14 @@ public final class SEDFactory {
             this.sky                = sky;
             this.halo               = halo;
         }
+
+        /** Creates a deep copy of this result which can be modified independently. */
+        public SourceResult copy() {
+            return new SourceResult(
+                    (VisitableSampledSpectrum) sed.clone(),
+                    (VisitableSampledSpectrum) sky.clone(),
+                    halo.isDefined() ? Option.apply((VisitableSampledSpectrum) halo.get().clone()) : halo);
+        }
     }
 
     /**
@@ -188,6 +196,10 @@ public final class SEDFactory {
     }
 
     public static SourceResult calculate(final Instrument instrument, final SourceDefinition sdp, final ObservingConditions odp, final TelescopeDetails tp, final Option<AOSystem> ao) {
+        return SourceCache.get(instrument, sdp, odp, tp, ao, () -> calculateSource(instrument, sdp, odp, tp, ao));
+    }
+
+    private static SourceResult calculateSource(final Instrument instrument, final SourceDefinition sdp, final ObservingConditions odp, final TelescopeDetails tp, final Option<AOSystem> ao) {
         // Module 1b
         // Define the source energy (as function of wavelength).
         //
@@ -43,4 +43,26 @@ public interface SampledSpectrum extends ArraySpectrum {
 
     void trim(double wavelengthStart, double wavelengthEnd);
 
+    /**
+     * Multiplies the y values by the given factors, which must be sampled on
+     * the same grid as this spectrum.
+     */
+    default void multiply(final double[] factors) {
+        final int n = Math.min(getLength(), factors.length);
+        for (int i = 0; i < n; ++i) {
+            setY(i, getY(i) * factors[i]);
+        }
+    }
+
+    /**
+     * Adds the given values, which must be sampled on the same grid as this
+     * spectrum, to the y values.
+     */
+    default void add(final double[] values) {
+        final int n = Math.min(getLength(), values.length);
+        for (int i = 0; i < n; ++i) {
+            setY(i, getY(i) + values[i]);
+        }
+    }
+
 }
@@ -0,0 +1,85 @@
+package edu.gemini.itc.base;
+
+import edu.gemini.itc.shared.ObservingConditions;
+import edu.gemini.itc.shared.SourceDefinition;
+import edu.gemini.itc.shared.TelescopeDetails;
+import scala.Option;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A cache for the results of {@link SEDFactory#calculate}, shared by ITC calculations which differ only in
+ * parameters that are not used to create the source and sky spectra (e.g. the exposure time or the number of
+ * exposures). The cache is keyed by the inputs of the calculation: the source, the observing conditions, the
+ * telescope, the instrument class and its {@link Instrument#getConfiguration configuration}, and the kind of AO
+ * system if any. The AO systems themselves are not compared since they are created from the other inputs.
+ * <p>
+ * The cache is only consulted by calculations run with {@link #use}, and the recipes always get their own copy
+ * of the cached spectra since they modify them.
+ */
+public final class SourceCache {
+
+    private static final ThreadLocal<SourceCache> CURRENT = new ThreadLocal<>();
+
+    private final ConcurrentHashMap<Key, SEDFactory.SourceResult> results = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the given calculation using this cache for all spectra calculated by it on the current thread.
+     */
+    public <A> A use(final Supplier<A> calculation) {
+        final SourceCache previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return calculation.get();
+        } finally {
+            if (previous == null) CURRENT.remove(); else CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Gets a rough estimate of the memory in bytes used by the cached spectra, which hold one double per sample.
+     */
+    public long bytes() {
+        long samples = 0;
+        for (final SEDFactory.SourceResult r : results.values()) {
+            samples += r.sed.getLength() + r.sky.getLength() + (r.halo.isDefined() ? r.halo.get().getLength() : 0);
+        }
+        return samples * 8;
+    }
+
+    /**
+     * Gets the spectra for the given inputs from the cache in use on the current thread, if any, or calculates them.
+     */
+    static SEDFactory.SourceResult get(
+            final Instrument instrument,
+            final SourceDefinition sdp,
+            final ObservingConditions odp,
+            final TelescopeDetails tp,
+            final Option<AOSystem> ao,
+            final Supplier<SEDFactory.SourceResult> calculation) {
+        final SourceCache cache = CURRENT.get();
+        if (cache == null) return calculation.get();
+
+        final Key key = new Key(instrument.getClass(), instrument.getConfiguration(), sdp, odp, tp, ao.isDefined() ? ao.get().getClass() : null);
+        return cache.results.computeIfAbsent(key, k -> calculation.get()).copy();
+    }
+
+    private static final class Key {
+        private final Object[] values;
+
+        private Key(final Object... values) {
+            this.values = values;
+        }
+
+        @Override public boolean equals(final Object o) {
+            return (o instanceof Key) && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package edu.gemini.itc.base;
+
+/**
+ * Element-wise operations on the values of sampled spectra, done in plain loops over primitive arrays which the
+ * JIT can unroll and vectorize. These replace the per-bin <code>getY</code>/<code>setY</code> calls and the
+ * binary search done by {@link DefaultArraySpectrum#getY(double)} for every bin when a transmission curve is
+ * applied to a spectrum.
+ */
+public final class SpectrumOps {
+
+    private SpectrumOps() {
+    }
+
+    /**
+     * Samples the given spectrum at <code>start + i * sampling</code> for <code>i = 0..length-1</code>, using the
+     * same linear interpolation as {@link DefaultArraySpectrum#getY(double)}, i.e. values outside of the range of
+     * the spectrum are zero. Since the sampling points are increasing, the bins of the spectrum are found in a
+     * single pass instead of one binary search per point. Other spectra are sampled using their own
+     * <code>getY</code>.
+     */
+    public static double[] sample(final ArraySpectrum s, final double start, final double sampling, final int length) {
+        if (!(s instanceof DefaultArraySpectrum)) {
+            final double[] result = new double[length];
+            for (int i = 0; i < length; ++i) {
+                result[i] = s.getY(start + i * sampling);
+            }
+            return result;
+        }
+
+        final double[][] data = s.getData();
+        final double[] xs     = data[0];
+        final double[] ys     = data[1];
+        final int n           = xs.length;
+        final double first    = xs[0];
+        final double last     = xs[n - 1];
+
+        final double[] result = new double[length];
+        int above = 0; // number of x values of s which are smaller than x
+        for (int i = 0; i < length; ++i) {
+            final double x = start + i * sampling;
+            if (x < first || x > last) continue;
+            while (above < n && xs[above] < x) ++above;
+            final int lo = Math.max(0, above - 1);
+            if (lo + 1 >= n) {
+                result[i] = ys[lo];
+            } else {
+                final double slope = (ys[lo + 1] - ys[lo]) / (xs[lo + 1] - xs[lo]);
+                result[i] = slope * (x - xs[lo]) + ys[lo];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Samples the given spectrum on the grid of the given sampled spectrum.
+     */
+    public static double[] sample(final ArraySpectrum s, final SampledSpectrum grid) {
+        return sample(s, grid.getStart(), grid.getSampling(), grid.getLength());
+    }
+
+    /**
+     * Multiplies <code>y</code> element-wise by <code>factors</code>, in place.
+     */
+    public static void multiply(final double[] y, final double[] factors) {
+        final int n = Math.min(y.length, factors.length);
+        for (int i = 0; i < n; ++i) {
+            y[i] *= factors[i];
+        }
+    }
+
+    /**
+     * Adds <code>values</code> element-wise to <code>y</code>, in place.
+     */
+    public static void add(final double[] y, final double[] values) {
+        final int n = Math.min(y.length, values.length);
+        for (int i = 0; i < n; ++i) {
+            y[i] += values[i];
+        }
+    }
+
+}
@@ -13,6 +13,10 @@ public class TransmissionElement implements SampledSpectrumVisitor {
 
     private final ArraySpectrum _trans;
 
+    // The transmission sampled on the grid it was last applied to; the
+    // source and sky spectra of a calculation usually share their grid.
+    private volatile Sampled _sampled;
+
     /**
      * Constructs a TransmissionElement
      */
@@ -31,14 +35,41 @@ public class TransmissionElement implements SampledSpectrumVisitor {
      * Apply the transmission convolution for this component.
      */
     public void visit(final SampledSpectrum sed) {
-        for (int i = 0; i < sed.getLength(); i++) {
-            final double startval = sed.getX(i);
-            final double multiplier = _trans.getY(startval);
-            sed.setY(i, sed.getY(i) * multiplier);
-        }
+        sed.multiply(sample(sed));
+    }
+
+    /**
+     * Gets the transmission sampled on the grid of the given spectrum.
+     * The returned array must not be modified.
+     */
+    public double[] sample(final SampledSpectrum grid) {
+        final Sampled s = _sampled;
+        if (s != null && s.isFor(grid)) return s.values;
+        final Sampled n = new Sampled(grid, SpectrumOps.sample(_trans, grid));
+        _sampled = n;
+        return n.values;
     }
 
     public ArraySpectrum get_trans() {
         return _trans;
     }
+
+    /**
+     * Values sampled on the grid of a spectrum.
+     */
+    static final class Sampled {
+        final double start;
+        final double sampling;
+        final double[] values;
+
+        Sampled(final SampledSpectrum grid, final double[] values) {
+            this.start    = grid.getStart();
+            this.sampling = grid.getSampling();
+            this.values   = values;
+        }
+
+        boolean isFor(final SampledSpectrum grid) {
+            return start == grid.getStart() && sampling == grid.getSampling() && values.length == grid.getLength();
+        }
+    }
 }
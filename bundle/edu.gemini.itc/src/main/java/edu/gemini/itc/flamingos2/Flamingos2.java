@@ -176,5 +176,8 @@ public final class Flamingos2 extends Instrument implements SpectroscopyInstrume
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return params;
+    }
 
 }
@@ -9,6 +9,7 @@ import edu.gemini.spModel.gemini.gmos.GmosSouthType;
 import scala.Option;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -403,4 +404,8 @@ public abstract class Gmos extends Instrument implements BinningProvider, Spectr
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return Arrays.asList(gp, odp.calculationMethod() instanceof Imaging, odp.analysisMethod(), _detectorCcdIndex);
+    }
+
 }
@@ -10,6 +10,7 @@ import edu.gemini.spModel.gemini.gnirs.GNIRSParams.PixelScale;
 import scala.Option;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -405,5 +406,8 @@ public final class Gnirs extends Instrument implements SpectroscopyInstrument {
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return Arrays.asList(params, _mode instanceof Imaging);
+    }
 
 }
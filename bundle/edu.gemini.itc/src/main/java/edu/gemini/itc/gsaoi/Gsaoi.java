@@ -118,4 +118,8 @@ public final class Gsaoi extends Instrument {
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return params;
+    }
+
 }
@@ -7,6 +7,7 @@ import edu.gemini.spModel.data.YesNoType;
 import edu.gemini.spModel.gemini.michelle.MichelleParams;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -231,4 +232,8 @@ public final class Michelle extends Instrument implements SpectroscopyInstrument
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return Arrays.asList(params, _mode instanceof Imaging);
+    }
+
 }
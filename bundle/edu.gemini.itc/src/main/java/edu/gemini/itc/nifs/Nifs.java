@@ -6,6 +6,7 @@ import edu.gemini.spModel.core.Site;
 import edu.gemini.spModel.gemini.nifs.NIFSParams;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -52,6 +53,8 @@ public final class Nifs extends Instrument implements SpectroscopyInstrument {
 
     protected double _readNoiseValue;
 
+    private final NifsParameters params;
+
 
 
     public Nifs(final NifsParameters gp, final ObservationDetails odp) {
@@ -61,6 +64,7 @@ public final class Nifs extends Instrument implements SpectroscopyInstrument {
         // the instrument.  But with a filter in place, the filter
         // transmits wavelengths that are a subset of the original range.
 
+        params = gp;
         _sampling = super.getSampling();
 
         _centralWavelength = gp.centralWavelength().toNanometers();
@@ -240,5 +244,8 @@ public final class Nifs extends Instrument implements SpectroscopyInstrument {
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return Arrays.asList(params, _mode instanceof Imaging, _IFUMethod);
+    }
 
 }
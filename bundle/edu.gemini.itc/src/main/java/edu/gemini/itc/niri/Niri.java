@@ -7,6 +7,7 @@ import edu.gemini.spModel.gemini.niri.Niri.Disperser;
 import edu.gemini.spModel.gemini.niri.Niri.Mask;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -262,4 +263,8 @@ public class Niri extends Instrument implements SpectroscopyInstrument {
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return Arrays.asList(params, _mode instanceof Imaging);
+    }
+
 }
@@ -28,8 +28,7 @@ public final class ImagingPointS2NMethodBCalculation extends ImagingS2NCalculati
     public void calculate() {
         super.calculate();
 
-        final double req_source_exposures = (req_s2n / signal) * (req_s2n / signal) *
-                (signal + noiseFactor * sourceless_noise * sourceless_noise);
+        final double req_source_exposures = sourceExposuresFor(req_s2n);
 
         int_req_source_exposures =
                 new Double(Math.ceil(req_source_exposures)).intValue();
@@ -16,4 +16,10 @@ public interface ImagingS2NCalculatable extends Calculatable {
     double singleSNRatio();
     double totalSNRatio();
 
+    /** Number of source exposures needed to reach the given total S/N with the calculated exposure time. */
+    double sourceExposuresFor(double s2n);
+
+    /** Exposure time needed to reach the given total S/N with the given number of source exposures. */
+    double exposureTimeFor(double s2n, double sourceExposures);
+
 }
@@ -93,5 +93,15 @@ public abstract class ImagingS2NCalculation implements ImagingS2NCalculatable {
         return signal / noise;
     }
 
+    @Override public double sourceExposuresFor(final double s2n) {
+        return S2NSolver.sourceExposures(s2n, signal, sourceless_noise * sourceless_noise, noiseFactor);
+    }
+
+    @Override public double exposureTimeFor(final double s2n, final double sourceExposures) {
+        final double signalRate     = sed_integral * source_fraction + secondary_integral * secondary_source_fraction;
+        final double sourcelessRate = sky_integral * pixel_size * pixel_size * Npix * elfinParam + dark_current * Npix;
+        return S2NSolver.exposureTime(s2n, sourceExposures, signalRate, sourcelessRate, var_readout, noiseFactor);
+    }
+
 
 }
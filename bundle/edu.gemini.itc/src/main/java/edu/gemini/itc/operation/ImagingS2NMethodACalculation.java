@@ -6,6 +6,18 @@ import edu.gemini.itc.shared.ObservationDetails;
 
 public final class ImagingS2NMethodACalculation extends ImagingS2NCalculation {
 
+    /** How far the number of source exposures may be from an integer. */
+    private static final double EPSILON = 0.2;
+
+    /**
+     * Whether the number of source exposures, i.e. the number of exposures
+     * times the fraction with source, is close enough to an integer.
+     */
+    public static boolean isIntegral(final double number_source_exposures) {
+        final int iNumExposures = (int) (number_source_exposures + 0.5);
+        return Math.abs(number_source_exposures - iNumExposures) <= EPSILON;
+    }
+
     private final int number_exposures;
     private final double frac_with_source;
 
@@ -28,14 +40,11 @@ public final class ImagingS2NMethodACalculation extends ImagingS2NCalculation {
     public void calculate() {
         super.calculate();
 
-        final double epsilon = 0.2;
         final double number_source_exposures = numberSourceExposures();
-        final int iNumExposures = (int) (number_source_exposures + 0.5);
-        final double diff = number_source_exposures - iNumExposures;
-        if (Math.abs(diff) > epsilon) {
+        if (!isIntegral(number_source_exposures)) {
             throw new IllegalArgumentException(
                     "Fraction with source value produces non-integral number of source exposures with source (" +
-                            number_source_exposures + " vs. " + iNumExposures + ").");
+                            number_source_exposures + " vs. " + (int) (number_source_exposures + 0.5) + ").");
         }
 
     }
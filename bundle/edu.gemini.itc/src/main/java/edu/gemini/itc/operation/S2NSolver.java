@@ -0,0 +1,52 @@
+package edu.gemini.itc.operation;
+
+/**
+ * Solves the signal to noise equation used by the ITC for the exposure time or the number of exposures.
+ * The final S/N of n source exposures with an exposure time t is
+ * <pre>
+ *     S/N = sqrt(n) * s t / sqrt(s t + k (b t + r))
+ * </pre>
+ * where s is the source flux, b the background and dark current flux and r the read noise variance in the
+ * aperture, and k is the noise factor which accounts for the sky aperture. Since all terms are either proportional
+ * to t or constant, the equation can be solved directly for t and n once the terms are known, instead of
+ * searching for them by repeating the whole calculation.
+ */
+public final class S2NSolver {
+
+    private S2NSolver() {}
+
+    /**
+     * Gets the number of source exposures needed to reach the given S/N.
+     *
+     * @param s2n                requested final S/N
+     * @param signal             source signal of a single exposure
+     * @param sourcelessVariance variance of the background, dark current and read noise of a single exposure
+     * @param noiseFactor        noise factor for the sky aperture
+     * @return number of source exposures, infinity if there is no signal
+     */
+    public static double sourceExposures(final double s2n, final double signal, final double sourcelessVariance, final double noiseFactor) {
+        if (signal <= 0) return Double.POSITIVE_INFINITY;
+        return (s2n / signal) * (s2n / signal) * (signal + noiseFactor * sourcelessVariance);
+    }
+
+    /**
+     * Gets the exposure time needed to reach the given S/N with the given number of source exposures.
+     *
+     * @param s2n                requested final S/N
+     * @param sourceExposures    number of source exposures
+     * @param signalRate         source signal per second
+     * @param sourcelessRate     background and dark current per second
+     * @param readVariance       read noise variance of a single exposure
+     * @param noiseFactor        noise factor for the sky aperture
+     * @return exposure time in seconds, infinity if there is no signal
+     */
+    public static double exposureTime(final double s2n, final double sourceExposures, final double signalRate, final double sourcelessRate, final double readVariance, final double noiseFactor) {
+        if (signalRate <= 0 || sourceExposures <= 0) return Double.POSITIVE_INFINITY;
+        // positive root of n s^2 t^2 - S/N^2 (s + k b) t - S/N^2 k r = 0
+        final double a = sourceExposures * signalRate * signalRate;
+        final double b = s2n * s2n * (signalRate + noiseFactor * sourcelessRate);
+        final double c = s2n * s2n * noiseFactor * readVariance;
+        return (b + Math.sqrt(b * b + 4 * a * c)) / (2 * a);
+    }
+
+}
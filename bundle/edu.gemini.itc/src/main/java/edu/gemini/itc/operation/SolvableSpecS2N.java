@@ -0,0 +1,23 @@
+package edu.gemini.itc.operation;
+
+import edu.gemini.itc.base.VisitableSampledSpectrum;
+
+/**
+ * A spectroscopy S/N result which keeps the noise terms of its final S/N and can therefore be solved for the
+ * exposure time or the number of exposures needed to reach a given final S/N.
+ */
+public interface SolvableSpecS2N extends SpecS2N {
+
+    /**
+     * Gets the exposure time needed to reach the given final S/N with the given number of exposures for each
+     * wavelength bin. Bins in which the S/N can not be reached are infinite.
+     */
+    VisitableSampledSpectrum getExposureTimeSpectrum(final double s2n, final int exposures);
+
+    /**
+     * Gets the number of exposures needed to reach the given final S/N with the given exposure time for each
+     * wavelength bin. Bins in which the S/N can not be reached are infinite.
+     */
+    VisitableSampledSpectrum getExposuresSpectrum(final double s2n, final double exposureTime);
+
+}
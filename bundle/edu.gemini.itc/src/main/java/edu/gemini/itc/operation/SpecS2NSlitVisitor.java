@@ -14,7 +14,7 @@ import edu.gemini.itc.shared.*;
  * relevant values are set in the constructor, e.g. halo information if used with an AO system. Ideally this
  * could be changed so that instances of this class become immutable.
  */
-public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
+public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SolvableSpecS2N {
 
     private static final Logger Log = Logger.getLogger( SpecS2NSlitVisitor.class.getName() );
     private final ObservationDetails odp;
@@ -51,6 +51,12 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
     private VisitableSampledSpectrum resultS2NSingle;
     private VisitableSampledSpectrum resultS2NFinal;
 
+    // the noise terms of the final S/N, kept for solving for exposure time or number of exposures
+    private VisitableSampledSpectrum solverSignal;
+    private VisitableSampledSpectrum solverBackground;
+    private double solverDarkNoise;
+    private double solverReadNoise;
+
     /**
      * Constructs SpecS2NVisitor.
      */
@@ -174,6 +180,11 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
         // final S2N for all exposures
         resultS2NFinal = finalS2N(signal, background, darkNoise, readNoise);
 
+        solverSignal     = signal;
+        solverBackground = background;
+        solverDarkNoise  = darkNoise;
+        solverReadNoise  = readNoise;
+
     }
 
     /** Calculates signal and background. */
@@ -265,8 +276,8 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
         return singleS2N;
     }
 
-    /** Calculates the final signal to noise ratio for all exposures. */
-    private VisitableSampledSpectrum finalS2N(final VisitableSampledSpectrum signal, final VisitableSampledSpectrum background, final double darkNoise, final double readNoise) {
+    /** Calculates the noise factor for the sky aperture. */
+    private double noiseFactor() {
 
         // sky aper is either the aperture or the number of fibres in the IFU case
         final double skyAper;
@@ -280,7 +291,13 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
         }
 
         // calculate the noise factor for the given skyAper
-        final double noiseFactor = 1 + (1 / skyAper);
+        return 1 + (1 / skyAper);
+    }
+
+    /** Calculates the final signal to noise ratio for all exposures. */
+    private VisitableSampledSpectrum finalS2N(final VisitableSampledSpectrum signal, final VisitableSampledSpectrum background, final double darkNoise, final double readNoise) {
+
+        final double noiseFactor = noiseFactor();
 
         // the number of exposures measuring the source flux is
         final double spec_number_source_exposures = numberExposures * sourceFraction;
@@ -303,6 +320,48 @@ public class SpecS2NSlitVisitor implements SampledSpectrumVisitor, SpecS2N {
         return finalS2N;
     }
 
+    /**
+     * Solves the final S/N for the exposure time in each bin. Signal, background and dark current were
+     * calculated for the given exposure time and scale with it, the read noise does not.
+     */
+    @Override
+    public VisitableSampledSpectrum getExposureTimeSpectrum(final double s2n, final int exposures) {
+        final double noiseFactor     = noiseFactor();
+        final double sourceExposures = exposures * sourceFraction;
+        final VisitableSampledSpectrum time = solverResult();
+        for (int i = firstCcdPixel; i <= lastCcdPixel(time.getLength()); ++i) {
+            time.setY(i, S2NSolver.exposureTime(s2n, sourceExposures,
+                    solverSignal.getY(i) / exposureTime,
+                    (solverBackground.getY(i) + solverDarkNoise) / exposureTime,
+                    solverReadNoise,
+                    noiseFactor));
+        }
+        return time;
+    }
+
+    /**
+     * Solves the final S/N for the number of exposures in each bin.
+     */
+    @Override
+    public VisitableSampledSpectrum getExposuresSpectrum(final double s2n, final double exposureTime) {
+        final double noiseFactor = noiseFactor();
+        final double scale       = exposureTime / this.exposureTime;
+        final VisitableSampledSpectrum exposures = solverResult();
+        for (int i = firstCcdPixel; i <= lastCcdPixel(exposures.getLength()); ++i) {
+            final double sourcelessVariance = (solverBackground.getY(i) + solverDarkNoise) * scale + solverReadNoise;
+            exposures.setY(i, S2NSolver.sourceExposures(s2n, solverSignal.getY(i) * scale, sourcelessVariance, noiseFactor) / sourceFraction);
+        }
+        return exposures;
+    }
+
+    // A spectrum on the result grid with all bins set to infinity.
+    private VisitableSampledSpectrum solverResult() {
+        if (solverSignal == null) throw new IllegalStateException("S/N has not been calculated yet.");
+        final VisitableSampledSpectrum result = (VisitableSampledSpectrum) solverSignal.clone();
+        for (int i = 0; i < result.getLength(); ++i) { result.setY(i, Double.POSITIVE_INFINITY); }
+        return result;
+    }
+
     private double totalFlux(final double flux, final double throughput) {
         return flux * throughput * exposureTime * disperser.dispersion();
     }
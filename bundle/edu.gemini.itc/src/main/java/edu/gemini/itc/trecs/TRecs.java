@@ -10,6 +10,7 @@ import edu.gemini.spModel.gemini.trecs.TReCSParams.WindowWheel;
 import scala.Option;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
@@ -44,10 +45,12 @@ public final class TRecs extends Instrument implements SpectroscopyInstrument {
     private final Mask _focalPlaneMask;
     private final CalculationMethod _mode;
     private final double _centralWavelength;
+    private final TRecsParameters params;
 
     public TRecs(final TRecsParameters tp, final ObservationDetails odp) {
         super(Site.GS, Bands.MID_IR, INSTR_DIR, FILENAME);
 
+        params = tp;
         _focalPlaneMask = tp.mask();
         _grating = tp.grating();
         _centralWavelength = tp.centralWavelength().toNanometers();
@@ -239,4 +242,8 @@ public final class TRecs extends Instrument implements SpectroscopyInstrument {
         }};
     }
 
+    @Override public Object getConfiguration() {
+        return Arrays.asList(params, _mode instanceof Imaging);
+    }
+
 }
@@ -1,6 +1,13 @@
 package edu.gemini.itc.base
 
+import java.io.ByteArrayOutputStream
+import java.lang.ref.SoftReference
+import java.net.URL
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.{Paths, StandardOpenOption}
 import java.util.Scanner
+import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.Logger
 import java.util.regex.Pattern
 
@@ -15,10 +22,19 @@ import scalaz._
  * know all the numbers are doubles. Using scan.next().toDouble is much more efficient than scan.nextDouble().
  * The contract regarding missing files and parsing errors is that this results in unchecked exceptions which
  * bubble all the way up to the servlet. This isn't better or worse than what we had originally.
+ *
+ * Dat files which contain only numbers are converted at build time to a binary file with the same name and a
+ * ".bin" suffix holding all the values as doubles (see build.sbt). Arrays and filters are read from these binary
+ * files if they are available, which avoids the parsing altogether; the text files are only parsed as a fallback.
  */
 object DatFile {
   lazy val Log = Logger.getLogger(getClass.getName)
 
+  /** Comma separated list of resource directories (e.g. "gmos,flamingos2") for which the binary data files
+    * are read when the bundle is started. */
+  val WarmDirectories: List[String] =
+    Option(System.getProperty("edu.gemini.itc.base.DatFile.warm")).toList.flatMap(_.split(",")).map(_.trim).filter(_.nonEmpty)
+
   // ===== Data containers
 
   type Data = Array[Array[Double]]
@@ -84,16 +100,85 @@ object DatFile {
     scanArray(scan)
   }
 
-  // ===== Cached data file loaders
+  // ===== Binary utils
+
+  // The binary files consist of a header with a magic number, the version and the number of values, padded to
+  // 16 bytes, followed by the values. Everything is big endian. Must match the conversion done in build.sbt.
+  private val BinaryMagic   = 0x49544344 // "ITCD"
+  private val BinaryVersion = 1
+  private val BinaryHeader  = 16
+
+  /** The resource listing all dat files for which a binary file is available. */
+  private val BinaryIndex   = "/datfile.index"
 
-  val arrays = cache { s =>
-    scanArray(s)
+  /** Values of binary files read by warm which have not been requested as arrays or filters yet. They are held
+    * strongly until then, so that warming isn't undone by the garbage collector before the first calculation; the
+    * caches hold them softly from there on. */
+  private val preloaded = new ConcurrentHashMap[String, Array[Double]]()
+
+  /** Gets all values of the given dat file from its binary file, if there is one. */
+  private def binary(f: String): Option[Array[Double]] =
+    Option(preloaded.remove(f)).orElse(Option(getClass.getResource(f + ".bin")).map(readBinary))
+
+  private[base] def readBinary(url: URL): Array[Double] = {
+    val buf = mapResource(url)
+    if (buf.getInt(0) != BinaryMagic || buf.getInt(4) != BinaryVersion)
+      throw new IllegalArgumentException(s"Unsupported binary data file $url")
+    val values = new Array[Double](buf.getInt(8))
+    buf.position(BinaryHeader)
+    buf.asDoubleBuffer().get(values)
+    values
   }
 
-  val filters = cache { s =>
-    Filter(s.nextDouble(), scanArray(s))
+  // Resources in the file system are memory mapped, resources packed in the bundle jar can't be mapped and are
+  // read in one go instead.
+  private def mapResource(url: URL): ByteBuffer =
+    if (url.getProtocol == "file") {
+      val ch = FileChannel.open(Paths.get(url.toURI), StandardOpenOption.READ)
+      try ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size) finally ch.close()
+    } else {
+      val in  = url.openStream()
+      val out = new ByteArrayOutputStream()
+      try {
+        val b = new Array[Byte](64 * 1024)
+        var n = in.read(b)
+        while (n >= 0) {
+          out.write(b, 0, n)
+          n = in.read(b)
+        }
+      } finally in.close()
+      ByteBuffer.wrap(out.toByteArray)
+    }
+
+  // Splits the values starting at the given offset into x and y arrays.
+  private def pairs(f: String, values: Array[Double], from: Int): Data = {
+    val n = (values.length - from) / 2
+    if (from + 2 * n != values.length) throw new IllegalArgumentException(s"Odd number of values in data file $f")
+    val data = Array(new Array[Double](n), new Array[Double](n))
+    var i = 0
+    while (i < n) {
+      data(0)(i) = values(from + 2 * i)
+      data(1)(i) = values(from + 2 * i + 1)
+      i += 1
+    }
+    data
   }
 
+  private def toArray(f: String, values: Array[Double]): Data =
+    pairs(f, values, 0)
+
+  private def toFilter(f: String, values: Array[Double]): Filter =
+    Filter(values(0), pairs(f, values, 1))
+
+  // ===== Cached data file loaders
+
+  val arrays = new SoftCache[Data](f => binary(f).fold(scanArray(scanFile(f)))(toArray(f, _)))
+
+  val filters = new SoftCache[Filter](f => binary(f).fold {
+    val s = scanFile(f)
+    Filter(s.nextDouble(), scanArray(s))
+  } (toFilter(f, _)))
+
   val gratings = cache { s =>
     val l = mutable.MutableList[Grating]()
     while (s.hasNext) {
@@ -111,7 +196,7 @@ object DatFile {
     Instrument(s.next, s.nextInt, s.nextInt, s.nextDouble, s.next, s.nextDouble, s.nextDouble, s.nextDouble)
   }
 
-  private def scanArray(s: Scanner): Array[Array[Double]] = {
+  private[base] def scanArray(s: Scanner): Array[Array[Double]] = {
     val l = mutable.MutableList[(Double, Double)]()
     while (s.hasNext) {
       val pair = (s.next().toDouble, s.next().toDouble)
@@ -124,11 +209,48 @@ object DatFile {
   }
 
   /** Loads a file and parses it using the given scanner unless it is already available in the cache. */
-  // Note: this could be changed to use a weak hash map in case we run into memory issues
   private def cache[T](load: Scanner => T): String => T = Memo.immutableHashMapMemo[String, T] { f =>
     Log.info(s"Caching file $f")
     load(scanFile(f))
   }
 
+  /** Loads a file unless it is still available in the cache. The data is only softly referenced, so the data of
+    * rarely used files can be reclaimed by the garbage collector when memory gets low, in which case it is loaded
+    * again the next time it is needed. */
+  final class SoftCache[T <: AnyRef](load: String => T) extends (String => T) {
+    private val entries = new ConcurrentHashMap[String, SoftReference[T]]()
+
+    def apply(f: String): T =
+      Option(entries.get(f)).flatMap(r => Option(r.get)).getOrElse {
+        Log.info(s"Caching file $f")
+        val t = load(f)
+        entries.put(f, new SoftReference(t))
+        t
+      }
+  }
+
+  /** Reads the values of all binary data files in the given resource directories ahead of time. The binary files
+    * don't tell whether they hold an array or a filter, so the values are only turned into one or the other when
+    * the file is requested through arrays or filters. Returns the number of files read. */
+  def warm(dirs: Seq[String]): Int = {
+    val prefixes = dirs.map(d => "/" + d.stripPrefix("/").stripSuffix("/") + "/")
+    val files    = Option(getClass.getResourceAsStream(BinaryIndex)).fold(List.empty[String]) { in =>
+      val s = new Scanner(in, "UTF-8")
+      try {
+        val l = mutable.ListBuffer[String]()
+        while (s.hasNextLine) l += s.nextLine().trim
+        l.toList
+      } finally s.close()
+    }.filter(f => prefixes.exists(f.startsWith))
+
+    files.foreach { f =>
+      Option(getClass.getResource(f + ".bin")).foreach { url =>
+        preloaded.put(f, readBinary(url))
+      }
+    }
+    Log.info(s"Read ${files.size} data files for ${dirs.mkString(", ")}")
+    files.size
+  }
+
 }
 
@@ -3,6 +3,7 @@ package edu.gemini.itc.osgi
 import java.util.logging.Level._
 import java.util.logging.Logger
 
+import edu.gemini.itc.base.DatFile
 import edu.gemini.itc.osgi.Activator._
 import edu.gemini.itc.service.ItcServiceImpl
 import edu.gemini.itc.shared.ItcService
@@ -44,6 +45,13 @@ class Activator extends BundleActivator {
         Log.log(SEVERE, "Registration of itc service failed.", t)
     }
 
+    // load the data files of the instruments in use..
+    if (DatFile.WarmDirectories.nonEmpty) Future {
+      DatFile.warm(DatFile.WarmDirectories)
+    } onFailure {
+      case t => Log.log(WARNING, "Loading of itc data files failed.", t)
+    }
+
   }
 
   def stop(ctx: BundleContext): Unit = {
@@ -0,0 +1,61 @@
+package edu.gemini.itc.service
+
+import java.util.concurrent.atomic.AtomicLong
+
+/** Hit, miss and eviction counts and the current size of a cache. */
+final case class ItcCacheStats(name: String, hits: Long, misses: Long, evictions: Long, entries: Int, weight: Long, maxWeight: Long) {
+  def hitRatio: Double = if (hits + misses == 0) 0.0 else hits.toDouble / (hits + misses)
+
+  override def toString: String =
+    f"$name: $entries entries, $weight/$maxWeight, $hits hits, $misses misses ($hitRatio%.2f), $evictions evicted"
+}
+
+/** A thread safe least recently used cache bounded by the total weight of its values, e.g. their estimated size
+  * in bytes. Values are computed outside of the lock, so concurrent misses for the same key may compute the same
+  * value more than once.
+  */
+final class ItcCache[K, V](name: String, maxWeight: Long, weigh: V => Long) {
+
+  private final class Entry(val value: V, val weight: Long)
+
+  private val hits      = new AtomicLong
+  private val misses    = new AtomicLong
+  private val evictions = new AtomicLong
+  private var weight    = 0L
+
+  // access ordered, i.e. the eldest entry is the least recently used one
+  private val entries = new java.util.LinkedHashMap[K, Entry](16, 0.75f, true)
+
+  def get(k: K): Option[V] = {
+    val e = synchronized(Option(entries.get(k)))
+    (if (e.isDefined) hits else misses).incrementAndGet()
+    e.map(_.value)
+  }
+
+  /** Puts or replaces a value, weighing it anew.  A value heavier than the whole cache is not kept. */
+  def put(k: K, v: V): Unit = {
+    val w = weigh(v)
+    if (w > maxWeight) synchronized {
+      Option(entries.remove(k)).foreach(old => weight -= old.weight)
+    } else synchronized {
+      Option(entries.put(k, new Entry(v, w))).foreach(old => weight -= old.weight)
+      weight += w
+      val it = entries.values.iterator
+      while (weight > maxWeight && it.hasNext) {
+        weight -= it.next().weight
+        it.remove()
+        evictions.incrementAndGet()
+      }
+    }
+  }
+
+  def clear(): Unit = synchronized {
+    entries.clear()
+    weight = 0L
+  }
+
+  def stats: ItcCacheStats = synchronized {
+    ItcCacheStats(name, hits.get, misses.get, evictions.get, entries.size, weight, maxWeight)
+  }
+
+}
@@ -9,112 +9,289 @@ import edu.gemini.itc.gnirs.GnirsRecipe
 import edu.gemini.itc.gsaoi.GsaoiRecipe
 import edu.gemini.itc.nifs.NifsRecipe
 import edu.gemini.itc.niri.NiriRecipe
+import edu.gemini.itc.operation.{ImagingS2NMethodACalculation, SolvableSpecS2N}
 import edu.gemini.itc.shared._
-import edu.gemini.spModel.core.{AuxFileSpectrum, UserDefinedSpectrum, SpectralDistribution, SPProgramID}
+import edu.gemini.spModel.core.{AuxFileSpectrum, UserDefinedSpectrum, SPProgramID}
+
+import java.security.MessageDigest
+import java.util.Collections
+import java.util.concurrent.{Callable, Executors, ThreadFactory}
+import java.util.function.Supplier
+
+import scala.collection.JavaConverters._
 
 import scalaz._
 import Scalaz._
 
+object ItcServiceImpl {
+
+  private val Prefix = classOf[ItcServiceImpl].getName
+
+  /** Number of sweep points that are evaluated in parallel. */
+  val SweepThreads: Int =
+    Integer.getInteger(Prefix + ".sweepThreads", Runtime.getRuntime.availableProcessors).intValue
+
+  /** Approximate memory in bytes used for cached results. */
+  val ResultCacheBytes: Long =
+    java.lang.Long.getLong(Prefix + ".resultCacheBytes", 64L * 1024 * 1024).longValue
+
+  /** Approximate memory in bytes used for cached user defined SEDs read from aux files. */
+  val AuxFileCacheBytes: Long =
+    java.lang.Long.getLong(Prefix + ".auxFileCacheBytes", 16L * 1024 * 1024).longValue
+
+  /** Approximate memory in bytes used for cached source and sky spectra. */
+  val SpectraCacheBytes: Long =
+    java.lang.Long.getLong(Prefix + ".spectraCacheBytes", 128L * 1024 * 1024).longValue
+
+  private lazy val sweepPool = Executors.newFixedThreadPool(SweepThreads, new ThreadFactory {
+    def newThread(r: Runnable): Thread = {
+      val t = new Thread(r, "ITC sweep")
+      t.setDaemon(true)
+      t
+    }
+  })
+
+  /** Results are keyed by the parameters as sent by the client and the checksum of the user defined SED, if it
+    * has to be read from an aux file. */
+  private final case class ResultKey(params: ItcParameters, sedChecksum: Option[String])
+
+  /** A user defined SED read from an aux file, along with the file attributes used to check if it changed. */
+  private final case class AuxSed(size: Long, lastModified: Long, checksum: String, spectrum: UserDefinedSpectrum)
+
+  // Calculations which differ only in their exposure time and number of exposures share the source and sky spectra.
+  private def sourceKey(p: ItcParameters): ItcParameters =
+    p.copy(observation = p.observation.copy(calculationMethod = p.observation.calculationMethod match {
+      case m: ImagingS2N      => m.copy(exposures = 0, exposureTime = 0)
+      case m: ImagingInt      => m.copy(exposureTime = 0)
+      case m: SpectroscopyS2N => m.copy(exposures = 0, exposureTime = 0)
+    }))
+
+  // Rough estimate of the memory used by a result, which is dominated by the chart data for spectroscopy.
+  private def resultBytes(r: ItcResult): Long = {
+    val charts = r match {
+      case ItcImagingResult(_)         => 0L
+      case ItcSpectroscopyResult(_, g) => g.flatMap(_.charts).flatMap(_.series).map(_.data.map(_.length.toLong).sum * 8).sum
+    }
+    charts + 256L * r.ccds.size
+  }
+
+  private def checksum(bytes: Array[Byte]): String =
+    BigInt(1, MessageDigest.getInstance("SHA-1").digest(bytes)).toString(16)
+
+}
+
 /**
  * The ITC service implementation.
  *
  * Note that all results are repacked in simplified Scala case classes in order not to leak out any of the
  * implementation details of the underlying ITC functionality.
+ *
+ * Results are cached, as are the source and sky spectra which only depend on the source, conditions, telescope
+ * and instrument configuration, and user defined SEDs read from aux files. See `cacheStats`.
  */
 class ItcServiceImpl extends ItcService {
 
   import ItcService._
+  import ItcServiceImpl._
+
+  // For now we can assume that the ITC service is running on the same machine as the database (localhost).
+  // In case this setup changes, we need to change this here, too.
+  private lazy val auxFileClient = new AuxFileClient("localhost", 8443)
+
+  private val results  = new ItcCache[ResultKey, ItcResult]("results", ResultCacheBytes, resultBytes)
+  private val spectra  = new ItcCache[ItcParameters, SourceCache]("spectra", SpectraCacheBytes, _.bytes)
+  private val auxFiles = new ItcCache[(SPProgramID, String), AuxSed]("aux files", AuxFileCacheBytes, _.spectrum.spectrum.length * 2L)
+
+  /** Hit and miss counts and sizes of the caches. */
+  def cacheStats: List[ItcCacheStats] =
+    List(results.stats, spectra.stats, auxFiles.stats)
 
   def calculate(p: ItcParameters): Result = try {
+    val (key, updated) = prepare(p)
+    cached(key, updated)
+  } catch {
+    case e: Throwable => ItcResult.forException(e)
+  }
 
-    // update parameters sent from client with stuff that needs to be done on the server
-    val updatedParams: ItcParameters = {
+  def sweep(s: ItcSweep): SweepResult = try {
 
-      // Get the SED data from an aux file. For now we can assume that the ITC service is running on the same
-      // machine as the database (localhost). In case this setup changes, we need to change this here, too.
-      def readAuxFile(id: String, name: String): SpectralDistribution = {
-        val programId     = SPProgramID.toProgramID(id)
-        val spectrumBytes = new AuxFileClient("localhost", 8443).fetchToMemory(programId, name)
-        val spectrum      = new String(spectrumBytes)
-        UserDefinedSpectrum(name, spectrum)
-      }
+    // the parameters are updated once for the whole sweep, not for every point
+    val (key, base) = prepare(s.base)
+    val points      = s.points.zip(s.copy(base = base).points).toVector
 
-      // if a user defined source distribution is involved we need to read the aux file and update the parameters accordingly
-      def updatedSrc(s: SourceDefinition) = s.distribution match {
-        case AuxFileSpectrum.Undefined    => throw new RuntimeException("The user SED is undefined.")   // "User Defined", but no SED file was available
-        case AuxFileSpectrum(anId, aName) => s.copy(distribution = readAuxFile(anId, aName))            // "User Defined", we need to replace placeholder with aux file
-        case _                            => s                                                          // for all other cases we can use what's there
+    val tasks  = points.map { case (p, updated) =>
+      new Callable[ItcError \/ ItcSweepValue] {
+        def call(): ItcError \/ ItcSweepValue = {
+          try cached(ResultKey(p, key.sedChecksum), updated) catch {
+            case e: Throwable => ItcResult.forException(e)
+          }
+        }.map(ItcSweepValue(_))
       }
-
-      // do any updates necessary
-      p.copy(source = updatedSrc(p.source))
     }
 
-    // execute ITC service call with updated parameters
-    updatedParams.observation.calculationMethod match {
-      case _: Imaging       => calculateImaging(updatedParams)
-      case _: Spectroscopy  => calculateSpectroscopy(updatedParams)
-    }
+    ItcSweepResult(s.axes, sweepPool.invokeAll(tasks.asJava).asScala.map(_.get).toVector).right
 
   } catch {
-    case e: Throwable => ItcResult.forException(e)
+    case e: Throwable => ItcError(e.getMessage).left
   }
 
-  // === Imaging
+  def solve(p: ItcParameters, s2n: Double, solveFor: ItcSolveFor): SolveResult = try {
+    val (_, updated) = prepare(p)
+    withSpectra(updated)(solveUpdated(updated, s2n, solveFor))
+  } catch {
+    case e: Throwable => ItcError(e.getMessage).left
+  }
 
-  private def calculateImaging(p: ItcParameters): Result =
-    p.instrument match {
-      case _: MichelleParameters          => ItcResult.forMessage ("Imaging not implemented.")
-      case _: TRecsParameters             => ItcResult.forMessage ("Imaging not implemented.")
-      case i: AcquisitionCamParameters    => imagingResult        (new AcqCamRecipe(p, i))
-      case i: Flamingos2Parameters        => imagingResult        (new Flamingos2Recipe(p, i))
-      case i: GmosParameters              => imagingResult        (new GmosRecipe(p, i))
-      case i: GsaoiParameters             => imagingResult        (new GsaoiRecipe(p, i))
-      case i: NiriParameters              => imagingResult        (new NiriRecipe(p, i))
-      case i: GnirsParameters             => imagingResult        (new GnirsRecipe(p, i))
-      case _                              => ItcResult.forMessage ("Imaging with this instrument is not supported by ITC.")
-    }
+  // Gets the result from the cache or calculates it, using the cached spectra for its source configuration.
+  private def cached(key: ResultKey, p: ItcParameters): Result =
+    results.get(key).fold {
+      val r = withSpectra(p)(calculateUpdated(p))
+      r.foreach(results.put(key, _))
+      r
+    }(ItcResult.forResult)
 
-  private def imagingResult(recipe: ImagingRecipe): Result = {
-    val r = recipe.calculateImaging()
-    val s = recipe.serviceResult(r)
-    ItcResult.forResult(s)
+  // Runs the calculation with the cached spectra for its source configuration.  The spectra are only calculated
+  // as the calculation asks for them, so they are (re)weighed and put in the cache once it is done.
+  private def withSpectra[A](p: ItcParameters)(calculation: => A): A = {
+    val key   = sourceKey(p)
+    val cache = spectra.get(key).getOrElse(new SourceCache)
+    try cache.use(new Supplier[A] {
+      def get(): A = calculation
+    }) finally spectra.put(key, cache)
   }
 
-  private def imagingResult(recipe: ImagingArrayRecipe): Result = {
-    val r = recipe.calculateImaging()
-    val s = recipe.serviceResult(r)
-    ItcResult.forResult(s)
+  // update parameters sent from client with stuff that needs to be done on the server
+  private def prepare(p: ItcParameters): (ResultKey, ItcParameters) =
+    p.source.distribution match {
+      // "User Defined", but no SED file was available
+      case AuxFileSpectrum.Undefined    =>
+        throw new RuntimeException("The user SED is undefined.")
+
+      // "User Defined", we need to replace placeholder with aux file
+      case AuxFileSpectrum(anId, aName) =>
+        val sed = readAuxFile(anId, aName)
+        (ResultKey(p, Some(sed.checksum)), p.copy(source = p.source.copy(distribution = sed.spectrum)))
+
+      // for all other cases we can use what's there
+      case _                            =>
+        (ResultKey(p, None), p)
+    }
+
+  // Get the SED data from an aux file. The file is only fetched if it is not cached or its size or modification
+  // time changed since it was cached.
+  private def readAuxFile(id: String, name: String): AuxSed = {
+    val programId = SPProgramID.toProgramID(id)
+    val info      = auxFileClient.list(programId, Collections.singletonList(name)).asScala.headOption.getOrElse {
+      throw new RuntimeException(s"The user SED $name does not exist.")
+    }
+    auxFiles.get((programId, name)).filter(s => s.size == info.getSize && s.lastModified == info.getLastModified).getOrElse {
+      val spectrumBytes = auxFileClient.fetchToMemory(programId, name)
+      val sed           = AuxSed(info.getSize, info.getLastModified, checksum(spectrumBytes), UserDefinedSpectrum(name, new String(spectrumBytes)))
+      auxFiles.put((programId, name), sed)
+      sed
+    }
   }
 
+  // execute ITC service call with updated parameters
+  private def calculateUpdated(p: ItcParameters): Result =
+    p.observation.calculationMethod match {
+      case _: Imaging       => calculateImaging(p)
+      case _: Spectroscopy  => calculateSpectroscopy(p)
+    }
+
+  // === Imaging
+
+  private def calculateImaging(p: ItcParameters): Result =
+    imaging(p)(r => r.serviceResult(r.calculateImaging()), r => r.serviceResult(r.calculateImaging()))
+
+  // Runs `single` or `array` with the imaging recipe for the instrument.
+  private def imaging[A](p: ItcParameters)(single: ImagingRecipe => A, array: ImagingArrayRecipe => A): ItcError \/ A =
+    p.instrument match {
+      case _: MichelleParameters          => ItcError("Imaging not implemented.").left
+      case _: TRecsParameters             => ItcError("Imaging not implemented.").left
+      case i: AcquisitionCamParameters    => single(new AcqCamRecipe(p, i)).right
+      case i: Flamingos2Parameters        => single(new Flamingos2Recipe(p, i)).right
+      case i: GmosParameters              => array (new GmosRecipe(p, i)).right
+      case i: GsaoiParameters             => single(new GsaoiRecipe(p, i)).right
+      case i: NiriParameters              => single(new NiriRecipe(p, i)).right
+      case i: GnirsParameters             => single(new GnirsRecipe(p, i)).right
+      case _                              => ItcError("Imaging with this instrument is not supported by ITC.").left
+    }
+
 
   // === Spectroscopy
 
   private def calculateSpectroscopy(p: ItcParameters): Result =
+    spectroscopy(p)(r => r.serviceResult(r.calculateSpectroscopy()), r => r.serviceResult(r.calculateSpectroscopy()))
+
+  // Runs `single` or `array` with the spectroscopy recipe for the instrument.
+  private def spectroscopy[A](p: ItcParameters)(single: SpectroscopyRecipe => A, array: SpectroscopyArrayRecipe => A): ItcError \/ A =
     p.instrument match {
-      case i: MichelleParameters          => ItcResult.forMessage ("Spectroscopy not implemented.")
-      case i: TRecsParameters             => ItcResult.forMessage ("Spectroscopy not implemented.")
-      case i: Flamingos2Parameters        => spectroscopyResult   (new Flamingos2Recipe(p, i))
-      case i: GmosParameters              => spectroscopyResult   (new GmosRecipe(p, i))
-      case i: GnirsParameters             => spectroscopyResult   (new GnirsRecipe(p, i))
-      case i: NifsParameters              => spectroscopyResult   (new NifsRecipe(p, i))
-      case i: NiriParameters              => spectroscopyResult   (new NiriRecipe(p, i))
-      case _                              => ItcResult.forMessage ("Spectroscopy with this instrument is not supported by ITC.")
+      case i: MichelleParameters          => ItcError("Spectroscopy not implemented.").left
+      case i: TRecsParameters             => ItcError("Spectroscopy not implemented.").left
+      case i: Flamingos2Parameters        => single(new Flamingos2Recipe(p, i)).right
+      case i: GmosParameters              => array (new GmosRecipe(p, i)).right
+      case i: GnirsParameters             => single(new GnirsRecipe(p, i)).right
+      case i: NifsParameters              => single(new NifsRecipe(p, i)).right
+      case i: NiriParameters              => single(new NiriRecipe(p, i)).right
+      case _                              => ItcError("Spectroscopy with this instrument is not supported by ITC.").left
+    }
+
 
+  // === Solving for exposure time and number of exposures
+
+  private def solveUpdated(p: ItcParameters, s2n: Double, solveFor: ItcSolveFor): SolveResult = {
+    val method = p.observation.calculationMethod
+    method match {
+      case _: Imaging       => imaging(p)(r => List(r.calculateImaging()), _.calculateImaging().toList).map(solveImaging(method, _, s2n, solveFor))
+      case _: Spectroscopy  => spectroscopy(p)(r => List(r.calculateSpectroscopy()), _.calculateSpectroscopy().toList).flatMap(solveSpectroscopy(method, _, s2n, solveFor))
     }
+  }
 
-  private def spectroscopyResult(recipe: SpectroscopyRecipe): Result = {
-    val r = recipe.calculateSpectroscopy()
-    val s = recipe.serviceResult(r)
-    ItcResult.forResult(s)
+  private def solveImaging(m: CalculationMethod, rs: List[ImagingResult], s2n: Double, solveFor: ItcSolveFor): ItcSolution =
+    solveFor match {
+      case SolveExposureTime =>
+        val n = exposures(m)
+        val t = reachable(rs.map(_.is2nCalc.exposureTimeFor(s2n, n * m.sourceFraction)).min)
+        ItcSolution(t, n, Nil)
+
+      case SolveExposures    =>
+        val n = reachable(rs.map(_.is2nCalc.sourceExposuresFor(s2n)).min)
+        ItcSolution(m.exposureTime, exposuresFor(n, m.sourceFraction), Nil)
+    }
+
+  // Combined results (GNIRS cross-dispersed, GMOS IFU) don't keep the noise terms needed to solve the S/N.
+  private def solveSpectroscopy(m: CalculationMethod, rs: List[SpectroscopyResult], s2n: Double, solveFor: ItcSolveFor): ItcError \/ ItcSolution = {
+    val specS2N  = rs.flatMap(_.specS2N.toList)
+    val solvable = specS2N.collect { case s: SolvableSpecS2N => s }
+    if (solvable.size != specS2N.size) ItcError("Solving for the exposure time or number of exposures is not supported for this configuration.").left
+    else solveFor match {
+      case SolveExposureTime =>
+        val n    = exposures(m)
+        val bins = solvable.map(s => SpcSeriesData(ExposureTimeData, "Exposure Time", s.getExposureTimeSpectrum(s2n, n).getData))
+        ItcSolution(reachable(bins.map(_.yValues.min).min), n, bins).right
+
+      case SolveExposures    =>
+        val bins = solvable.map(s => SpcSeriesData(ExposuresData, "Exposures", s.getExposuresSpectrum(s2n, m.exposureTime).getData))
+        ItcSolution(m.exposureTime, math.ceil(reachable(bins.map(_.yValues.min).min)).toInt, bins).right
+    }
   }
 
-  private def spectroscopyResult(recipe: SpectroscopyArrayRecipe): Result = {
-    val r = recipe.calculateSpectroscopy()
-    val s = recipe.serviceResult(r)
-    ItcResult.forResult(s)
+  private def exposures(m: CalculationMethod): Int = m match {
+    case m: S2NMethod => m.exposures
+    case _            => throw new IllegalArgumentException("Solving for the exposure time requires a number of exposures.")
   }
 
+  // The fewest exposures that give at least the required number of source exposures, which must be (nearly)
+  // integral as ImagingS2NMethodACalculation checks.  With a fraction f this is found within 1/f tries.
+  private def exposuresFor(sourceExposures: Double, fraction: Double): Int =
+    if (fraction <= 0) throw new IllegalArgumentException("The fraction of exposures with source must be positive.")
+    else Iterator.from(math.max(1, math.floor(reachable(sourceExposures / fraction)).toInt)).find { e =>
+      e * fraction >= sourceExposures * (1 - 1e-12) && ImagingS2NMethodACalculation.isIntegral(e * fraction)
+    }.get
 
+  private def reachable(v: Double): Double =
+    if (v.isNaN || v.isInfinity || v > Int.MaxValue) throw new IllegalArgumentException("The requested S/N can not be reached.")
+    else v
 
 }
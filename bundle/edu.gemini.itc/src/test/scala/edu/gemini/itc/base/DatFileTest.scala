@@ -1,5 +1,7 @@
 package edu.gemini.itc.base
 
+import java.io.{DataOutputStream, File, FileOutputStream}
+
 import org.junit.Test
 
 /**
@@ -202,4 +204,53 @@ class DatFileTest {
     assert(data(1).size == 25)
   }
 
+  @Test
+  def readBinaryFile(): Unit = {
+    val f = File.createTempFile("datfile", ".dat.bin")
+    f.deleteOnExit()
+    val o = new DataOutputStream(new FileOutputStream(f))
+    try {
+      o.writeInt(0x49544344)
+      o.writeInt(1)
+      o.writeInt(3)
+      o.writeInt(0)
+      List(1.0, 2.5, -3.0).foreach(o.writeDouble)
+    } finally o.close()
+    val values = DatFile.readBinary(f.toURI.toURL)
+    assert(values.toList == List(1.0, 2.5, -3.0))
+  }
+
+  // Values of the generated binary file of the given resource.
+  private def binaryValues(f: String): List[Double] = {
+    val url = getClass.getResource(f + ".bin")
+    assert(url != null, s"missing binary file for $f")
+    DatFile.readBinary(url).toList
+  }
+
+  @Test
+  def binaryArrayMatchesText(): Unit = {
+    List("/acqcam/colfilt_B_G0152.dat", "/flamingos2/HK.dat", "/gems/canopus_background.dat").foreach { f =>
+      val text = DatFile.scanArray(DatFile.scanFile(f))
+      assert(binaryValues(f) == text(0).zip(text(1)).flatMap(p => List(p._1, p._2)).toList)
+    }
+  }
+
+  @Test
+  def binaryFilterMatchesText(): Unit = {
+    val f    = "/michelle/michelle_SI_1.dat"
+    val s    = DatFile.scanFile(f)
+    val wl   = s.nextDouble()
+    val text = DatFile.scanArray(s)
+    assert(binaryValues(f) == wl :: text(0).zip(text(1)).flatMap(p => List(p._1, p._2)).toList)
+  }
+
+  @Test
+  def warmedFilesAreDecodedWhenRequested(): Unit = {
+    // warming only reads the values, they are turned into a filter when requested as one
+    assert(DatFile.warm(List("michelle")) > 0)
+    val filter = DatFile.filters("/michelle/michelle_SI_1.dat")
+    assert(filter.wavelength == 7734)
+    assert(filter.data(0).size == 13)
+  }
+
 }
@@ -0,0 +1,58 @@
+package edu.gemini.itc.base
+
+import java.util.function.Supplier
+
+import edu.gemini.itc.flamingos2.Flamingos2
+import edu.gemini.itc.shared.TelescopeDetails.Coating
+import edu.gemini.itc.shared._
+import edu.gemini.spModel.core.{LibraryStar, MagnitudeBand, MagnitudeSystem, PointSource, Redshift}
+import edu.gemini.spModel.gemini.flamingos2.Flamingos2._
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.{CloudCover, ImageQuality, SkyBackground, WaterVapor}
+import edu.gemini.spModel.guide.GuideProbe
+import edu.gemini.spModel.telescope.IssPort
+import org.junit.Test
+import org.junit.Assert._
+
+/**
+ * Validate that cached spectra are found by their inputs rather than by the order in which they are requested.
+ */
+class SourceCacheTest {
+
+  private val source     = SourceDefinition(PointSource, LibraryStar.A0V, 20.0, MagnitudeSystem.Vega, MagnitudeBand.K, Redshift(0.0))
+  private val conditions = ObservingConditions(ImageQuality.PERCENT_70, CloudCover.PERCENT_50, WaterVapor.PERCENT_50, SkyBackground.PERCENT_50, 1.5)
+  private val telescope  = new TelescopeDetails(Coating.SILVER, IssPort.SIDE_LOOKING, GuideProbe.Type.OIWFS)
+
+  private def f2(filter: Filter) =
+    new Flamingos2(Flamingos2Parameters(filter, Disperser.NONE, FPUnit.FPU_NONE, None, ReadMode.MEDIUM_OBJECT_SPEC))
+
+  private var calculations = 0
+
+  // Gets spectra whose flux identifies the calculation that produced them.
+  private def get(instrument: Instrument, sdp: SourceDefinition): Double =
+    SourceCache.get(instrument, sdp, conditions, telescope, scala.Option.empty[AOSystem], new Supplier[SEDFactory.SourceResult] {
+      def get(): SEDFactory.SourceResult = {
+        calculations += 1
+        val s = new DefaultSampledSpectrum(Array(calculations.toDouble), 0.0, 1.0)
+        new SEDFactory.SourceResult(s, s, scala.Option.empty[VisitableSampledSpectrum])
+      }
+    }).sed.getY(0)
+
+  private def use[A](cache: SourceCache)(a: => A): A =
+    cache.use(new Supplier[A] { def get(): A = a })
+
+  @Test
+  def equalInputsShareSpectra(): Unit = {
+    val cache = new SourceCache
+    val h     = get(f2(Filter.H), source)
+    val (a, b, c) = use(cache)((get(f2(Filter.H), source), get(f2(Filter.J), source), get(f2(Filter.H), source.copy(norm = 19.0))))
+
+    // the uncached calculation doesn't count and a different order finds the same spectra
+    val (c2, b2, a2) = use(cache)((get(f2(Filter.H), source.copy(norm = 19.0)), get(f2(Filter.J), source), get(f2(Filter.H), source)))
+
+    assertEquals(1.0, h, 0.0)
+    assertEquals(List(2.0, 3.0, 4.0), List(a, b, c))
+    assertEquals(List(a, b, c), List(a2, b2, c2))
+    assertEquals(4, calculations)
+  }
+
+}
@@ -0,0 +1,78 @@
+package edu.gemini.itc.base
+
+import edu.gemini.itc.flamingos2.Flamingos2
+import edu.gemini.itc.shared.Flamingos2Parameters
+import edu.gemini.spModel.gemini.flamingos2.Flamingos2._
+import org.junit.Test
+import org.junit.Assert._
+
+import scala.collection.JavaConverters._
+
+/**
+ * Validate that applying the fused transmission of all instrument components gives the same result as applying
+ * each component in turn, and that the fused transmission follows changes to the components.
+ */
+class TransmissionTest {
+
+  private val Tolerance = 1e-12
+
+  private def instruments = List(
+    new Flamingos2(Flamingos2Parameters(Filter.H, Disperser.NONE, FPUnit.FPU_NONE, None, ReadMode.MEDIUM_OBJECT_SPEC)),
+    new Flamingos2(Flamingos2Parameters(Filter.J_LOW, Disperser.R1200JH, FPUnit.LONGSLIT_1, None, ReadMode.FAINT_OBJECT_SPEC)))
+
+  // A spectrum on the instrument's grid with some structure in it.
+  private def spectrum(i: Instrument): VisitableSampledSpectrum = {
+    val n = ((i.getObservingEnd - i.getObservingStart) / i.getSampling).toInt
+    new DefaultSampledSpectrum(Array.tabulate(n)(k => 1.0 + (k % 7) * 0.25), i.getObservingStart, i.getSampling)
+  }
+
+  // Applies each component with its own visit.
+  private def visited(i: Instrument): VisitableSampledSpectrum = {
+    val s = spectrum(i)
+    i.getComponents.asScala.foreach(_.visit(s))
+    s
+  }
+
+  // Applies each component bin by bin as the ITC did before transmissions were sampled on a grid.
+  private def interpolated(i: Instrument): VisitableSampledSpectrum = {
+    val s = spectrum(i)
+    for (k <- 0 until s.getLength) {
+      val x = s.getX(k)
+      s.setY(k, i.getComponents.asScala.foldLeft(s.getY(k))((y, te) => y * te.get_trans.getY(x)))
+    }
+    s
+  }
+
+  private def fused(i: Instrument): VisitableSampledSpectrum = {
+    val s = spectrum(i)
+    i.convolveComponents(s)
+    s
+  }
+
+  private def assertClose(expected: VisitableSampledSpectrum, actual: VisitableSampledSpectrum): Unit = {
+    assertEquals(expected.getLength, actual.getLength)
+    for (k <- 0 until expected.getLength) {
+      val e = expected.getY(k)
+      assertEquals(s"bin $k", e, actual.getY(k), Tolerance * math.max(1.0, math.abs(e)))
+    }
+  }
+
+  @Test
+  def fusedMatchesVisitingEachComponent(): Unit =
+    instruments.foreach { i =>
+      val f = fused(i)
+      assertClose(visited(i), f)
+      assertClose(interpolated(i), f)
+      assertClose(f, fused(i)) // again, with the cached product
+    }
+
+  @Test
+  def addingAComponentInvalidatesTheFusedTransmission(): Unit = {
+    val i = instruments.head
+    fused(i)
+    i.addComponent(new TransmissionElement(new DefaultArraySpectrum(Array(Array(0.0, 1.0e5), Array(0.5, 0.5)))))
+    assertClose(visited(i), fused(i))
+    assertClose(interpolated(i), fused(i))
+  }
+
+}
@@ -0,0 +1,136 @@
+package edu.gemini.itc.operation
+
+import edu.gemini.itc.service.ItcServiceImpl
+import edu.gemini.itc.shared.TelescopeDetails.Coating
+import edu.gemini.itc.shared._
+import edu.gemini.spModel.core.{LibraryStar, MagnitudeBand, MagnitudeSystem, PointSource, Redshift, Site}
+import edu.gemini.spModel.core.WavelengthConversions._
+import edu.gemini.spModel.gemini.flamingos2.Flamingos2
+import edu.gemini.spModel.gemini.gmos.GmosCommonType.{AmpGain, AmpReadMode, DetectorManufacturer}
+import edu.gemini.spModel.gemini.gmos.GmosSouthType.{DisperserSouth, FPUnitSouth, FilterSouth}
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.{CloudCover, ImageQuality, SkyBackground, WaterVapor}
+import edu.gemini.spModel.guide.GuideProbe
+import edu.gemini.spModel.telescope.IssPort
+import org.junit.Test
+import org.junit.Assert._
+
+/**
+ * Validate that solving the S/N equation reproduces the S/N it was solved for, both for the equation itself and
+ * for the ITC, where calculating with the solved exposure time or number of exposures must give the requested S/N.
+ */
+class S2NSolverTest {
+
+  private val signalRate     = 12.5
+  private val sourcelessRate = 40.0
+  private val readVariance   = 100.0
+  private val noiseFactor    = 1.2
+
+  private def s2n(n: Double, t: Double): Double =
+    math.sqrt(n) * signalRate * t / math.sqrt(signalRate * t + noiseFactor * (sourcelessRate * t + readVariance))
+
+  @Test
+  def solvesForExposureTime(): Unit = {
+    val t = S2NSolver.exposureTime(25.0, 4, signalRate, sourcelessRate, readVariance, noiseFactor)
+    assertEquals(25.0, s2n(4, t), 1e-9)
+  }
+
+  @Test
+  def solvesForSourceExposures(): Unit = {
+    val t = 120.0
+    val n = S2NSolver.sourceExposures(25.0, signalRate * t, sourcelessRate * t + readVariance, noiseFactor)
+    assertEquals(25.0, s2n(n, t), 1e-9)
+  }
+
+  @Test
+  def withoutSignalTheS2NCanNotBeReached(): Unit = {
+    assertTrue(S2NSolver.exposureTime(25.0, 4, 0.0, sourcelessRate, readVariance, noiseFactor).isInfinity)
+    assertTrue(S2NSolver.sourceExposures(25.0, 0.0, readVariance, noiseFactor).isInfinity)
+  }
+
+  // ===== Solve and calculate with the ITC
+
+  private val itc    = new ItcServiceImpl
+  private val target = 25.0
+
+  private def params(m: CalculationMethod, a: AnalysisMethod, i: InstrumentDetails) = ItcParameters(
+    SourceDefinition(PointSource, LibraryStar.A0V, 18.0, MagnitudeSystem.Vega, MagnitudeBand.R, Redshift(0.0)),
+    ObservationDetails(m, a),
+    ObservingConditions(ImageQuality.PERCENT_70, CloudCover.PERCENT_50, WaterVapor.PERCENT_50, SkyBackground.PERCENT_50, 1.5),
+    new TelescopeDetails(Coating.SILVER, IssPort.SIDE_LOOKING, GuideProbe.Type.OIWFS),
+    i)
+
+  private val f2Imaging  = Flamingos2Parameters(Flamingos2.Filter.H, Flamingos2.Disperser.NONE, Flamingos2.FPUnit.FPU_NONE, None, Flamingos2.ReadMode.MEDIUM_OBJECT_SPEC)
+  private val f2Slit     = Flamingos2Parameters(Flamingos2.Filter.H, Flamingos2.Disperser.R1200HK, Flamingos2.FPUnit.LONGSLIT_4, None, Flamingos2.ReadMode.MEDIUM_OBJECT_SPEC)
+  private def gmos(fpu: FPUnitSouth) = GmosParameters(FilterSouth.g_G0325, DisperserSouth.R150_G5326, 500.nm, fpu, AmpGain.HIGH, AmpReadMode.SLOW, None, 2, 4, DetectorManufacturer.E2V, Site.GS)
+
+  private def solved(p: ItcParameters, solveFor: ItcSolveFor): ItcSolution =
+    itc.solve(p, target, solveFor).fold(e => throw new AssertionError(e.msg), identity)
+
+  private def totalS2N(p: ItcParameters): Double =
+    itc.calculate(p).fold(e => throw new AssertionError(e.msg), _.maxTotalSNRatio)
+
+  // Calculating with the solved exposure time must give the requested S/N.
+  private def checkExposureTime(m: S2NMethod, a: AnalysisMethod, i: InstrumentDetails, copy: Double => CalculationMethod): Unit = {
+    val sol = solved(params(m, a, i), SolveExposureTime)
+    assertEquals(m.exposures, sol.exposures)
+    assertEquals(target, totalS2N(params(copy(sol.exposureTime), a, i)), target * 1e-6)
+  }
+
+  // The solved number of exposures must reach the requested S/N, the next smaller number that the calculation
+  // accepts must not.  For imaging that is the next one with a (nearly) integral number of source exposures.
+  private def checkExposures(m: CalculationMethod, a: AnalysisMethod, i: InstrumentDetails, copy: Int => CalculationMethod): Unit = {
+    def valid(n: Int) = !m.isInstanceOf[Imaging] || ImagingS2NMethodACalculation.isIntegral(n * m.sourceFraction)
+    val sol = solved(params(m, a, i), SolveExposures)
+    assertEquals(m.exposureTime, sol.exposureTime, 0.0)
+    assertTrue(valid(sol.exposures))
+    assertTrue(totalS2N(params(copy(sol.exposures), a, i)) >= target * (1 - 1e-9))
+    (sol.exposures - 1 to 1 by -1).find(valid).foreach { n =>
+      assertTrue(totalS2N(params(copy(n), a, i)) < target)
+    }
+  }
+
+  @Test
+  def imagingReachesSolvedS2N(): Unit = {
+    val m = ImagingS2N(4, 30.0, 1.0)
+    checkExposureTime(m, AutoAperture(5.0), f2Imaging, t => m.copy(exposureTime = t))
+    checkExposures   (m, AutoAperture(5.0), f2Imaging, n => m.copy(exposures = n))
+  }
+
+  @Test
+  def imagingWithSourceFractionReachesSolvedS2N(): Unit = {
+    // only every other exposure is on source, so the solved number of exposures must be even
+    val m = ImagingS2N(4, 30.0, 0.5)
+    checkExposures(m, AutoAperture(5.0), f2Imaging, n => m.copy(exposures = n))
+    assertEquals(0, solved(params(m, AutoAperture(5.0), f2Imaging), SolveExposures).exposures % 2)
+  }
+
+  @Test
+  def imagingMethodBReachesSolvedS2N(): Unit = {
+    // method B finds the number of exposures for its sigma with the same solver
+    val m = ImagingInt(target, 30.0, 1.0)
+    checkExposures(m, AutoAperture(5.0), f2Imaging, n => ImagingS2N(n, m.exposureTime, m.sourceFraction))
+    assertTrue(totalS2N(params(m, AutoAperture(5.0), f2Imaging)) >= target * (1 - 1e-9))
+  }
+
+  @Test
+  def slitSpectroscopyReachesSolvedS2N(): Unit = {
+    val m = SpectroscopyS2N(4, 300.0, 0.5)
+    checkExposureTime(m, AutoAperture(5.0), f2Slit, t => m.copy(exposureTime = t))
+    checkExposures   (m, AutoAperture(5.0), f2Slit, n => m.copy(exposures = n))
+  }
+
+  @Test
+  def gmosSpectroscopyReachesSolvedS2N(): Unit = {
+    // GMOS results are calculated per CCD by the array recipe
+    val m = SpectroscopyS2N(4, 300.0, 0.5)
+    checkExposureTime(m, AutoAperture(5.0), gmos(FPUnitSouth.LONGSLIT_2), t => m.copy(exposureTime = t))
+    checkExposures   (m, AutoAperture(5.0), gmos(FPUnitSouth.LONGSLIT_2), n => m.copy(exposures = n))
+  }
+
+  @Test
+  def gmosIfuCanNotBeSolved(): Unit = {
+    val p = params(SpectroscopyS2N(4, 300.0, 0.5), IfuSingle(1, 0.5), gmos(FPUnitSouth.IFU_1))
+    assertTrue(itc.solve(p, target, SolveExposures).isLeft)
+  }
+
+}
@@ -0,0 +1,63 @@
+package edu.gemini.itc.service
+
+import org.junit.Test
+import org.junit.Assert._
+
+/**
+ * Validate eviction and statistics of the ITC caches.
+ */
+class ItcCacheTest {
+
+  private def cache = new ItcCache[Int, String]("test", 10, _.length.toLong)
+
+  @Test
+  def evictsLeastRecentlyUsed(): Unit = {
+    val c = cache
+    c.put(1, "aaaa")
+    c.put(2, "bbbb")
+    assertEquals(Some("aaaa"), c.get(1))   // 2 is now the least recently used entry
+    c.put(3, "cccc")
+    assertEquals(None,         c.get(2))
+    assertEquals(Some("aaaa"), c.get(1))
+    assertEquals(Some("cccc"), c.get(3))
+    assertEquals(8L,           c.stats.weight)
+    assertEquals(1L,           c.stats.evictions)
+  }
+
+  @Test
+  def ignoresValuesLargerThanCache(): Unit = {
+    val c = cache
+    c.put(1, "a" * 11)
+    assertEquals(None, c.get(1))
+    assertEquals(0,    c.stats.entries)
+  }
+
+  @Test
+  def reweighsReplacedValues(): Unit = {
+    // values that grow after they are cached, like the spectra, are weighed again when put back
+    val c = new ItcCache[Int, StringBuilder]("test", 10, _.length.toLong)
+    val v = new StringBuilder("aa")
+    c.put(1, v)
+    v.append("aaaa")
+    assertEquals(2L, c.stats.weight)
+    c.put(1, v)
+    assertEquals(6L, c.stats.weight)
+    v.append("aaaaa")
+    c.put(1, v)
+    assertEquals(None, c.get(1))
+    assertEquals(0L,   c.stats.weight)
+  }
+
+  @Test
+  def countsHitsAndMisses(): Unit = {
+    val c = cache
+    assertEquals(None,      c.get(1))
+    c.put(1, "a")
+    assertEquals(Some("a"), c.get(1))
+    assertEquals(None,      c.get(2))
+    val s = c.stats
+    assertEquals(1L, s.hits)
+    assertEquals(2L, s.misses)
+  }
+
+}
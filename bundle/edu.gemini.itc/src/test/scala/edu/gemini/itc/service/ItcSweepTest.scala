@@ -0,0 +1,56 @@
+package edu.gemini.itc.service
+
+import edu.gemini.itc.shared.TelescopeDetails.Coating
+import edu.gemini.itc.shared._
+import edu.gemini.spModel.core.{LibraryStar, MagnitudeBand, MagnitudeSystem, PointSource, Redshift}
+import edu.gemini.spModel.gemini.flamingos2.Flamingos2._
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.{CloudCover, ImageQuality, SkyBackground, WaterVapor}
+import edu.gemini.spModel.guide.GuideProbe
+import edu.gemini.spModel.telescope.IssPort
+import org.junit.Test
+import org.junit.Assert._
+
+import scalaz._
+import Scalaz._
+
+/**
+ * Validate the expansion of parameter sweeps into grid points and the lookup of their results.
+ */
+class ItcSweepTest {
+
+  private val base = ItcParameters(
+    SourceDefinition(PointSource, LibraryStar.A0V, 20.0, MagnitudeSystem.Vega, MagnitudeBand.K, Redshift(0.0)),
+    ObservationDetails(ImagingS2N(10, 200.0, 0.5), AutoAperture(5.0)),
+    ObservingConditions(ImageQuality.PERCENT_70, CloudCover.PERCENT_50, WaterVapor.PERCENT_50, SkyBackground.PERCENT_50, 1.5),
+    new TelescopeDetails(Coating.SILVER, IssPort.SIDE_LOOKING, GuideProbe.Type.OIWFS),
+    Flamingos2Parameters(Filter.H, Disperser.NONE, FPUnit.FPU_NONE, None, ReadMode.MEDIUM_OBJECT_SPEC))
+
+  private val sweep = ItcSweep(base, List(
+    BrightnessAxis(List(18.0, 19.0, 20.0)),
+    ExposureTimeAxis(List(30.0, 60.0))))
+
+  @Test
+  def pointsVaryLastAxisFastest(): Unit = {
+    val ps = sweep.points
+    assertEquals(6, sweep.size)
+    assertEquals(6, ps.size)
+    assertEquals(List(18.0, 18.0, 19.0, 19.0, 20.0, 20.0), ps.map(_.source.norm))
+    assertEquals(List(30.0, 60.0, 30.0, 60.0, 30.0, 60.0), ps.map(_.observation.exposureTime))
+    assertEquals(List.fill(6)(10), ps.map(_.observation.calculationMethod.asInstanceOf[ImagingS2N].exposures))
+  }
+
+  @Test
+  def resultsAreIndexedByAxis(): Unit = {
+    val values = sweep.points.map(p => ItcSweepValue(p.source.norm, p.observation.exposureTime, 0, 0, Nil).right[ItcError]).toVector
+    val result = ItcSweepResult(sweep.axes, values)
+    assertEquals(ItcSweepValue(19.0, 60.0, 0, 0, Nil).right[ItcError], result(1, 1))
+    assertEquals(ItcSweepValue(20.0, 30.0, 0, 0, Nil).right[ItcError], result(2, 0))
+  }
+
+  @Test(expected = classOf[IllegalArgumentException])
+  def exposuresRequireS2NMethod(): Unit = {
+    val p = base.copy(observation = ObservationDetails(ImagingInt(5, 300.0, 1.0), AutoAperture(5.0)))
+    ItcSweep(p, List(ExposuresAxis(List(1, 2)))).points
+  }
+
+}
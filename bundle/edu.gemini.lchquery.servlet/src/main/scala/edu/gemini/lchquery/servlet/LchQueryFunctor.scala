@@ -9,9 +9,9 @@ import java.util.logging.{Level, Logger}
 
 import edu.gemini.odb.browser._
 import edu.gemini.pot.sp.{ISPNode, ISPObservation, ISPProgram}
-import edu.gemini.pot.spdb.{DBAbstractQueryFunctor, IDBDatabaseService}
+import edu.gemini.pot.spdb.{DBAbstractQueryFunctor, DBIndexPredicate, IDBDatabaseService}
 import edu.gemini.skycalc.{DDMMSS, HHMMSS}
-import edu.gemini.spModel.gemini.obscomp.SPSiteQuality
+import edu.gemini.spModel.gemini.obscomp.{SPProgram, SPSiteQuality}
 import edu.gemini.spModel.obs.ObservationStatus
 import edu.gemini.spModel.rich.shared.immutable._
 import edu.gemini.spModel.target.{SPCoordinates, SPSkyObject, SPTarget}
@@ -267,4 +267,22 @@ object LchQueryFunctor {
 
   def queryType(pathInfo: String): Option[QueryType] =
     QueryTypes.find(q => pathInfo.startsWith(q.prefix))
+
+  /**
+   * An index predicate that selects at least the programs matching the given
+   * program parameters, so that the query need not visit every program.
+   * Only the active flag is indexed.  Observation parameters don't narrow the
+   * programs since matching programs are reported even without matching
+   * observations.
+   */
+  def indexPredicate(programParams: List[(LchQueryParam[ISPProgram], String)]): DBIndexPredicate =
+    programParams.foldLeft(DBIndexPredicate.ALL) {
+      case (p, (LchQueryParam.ProgramActiveParam, expression)) =>
+        SPProgram.Active.values.filter(LchQueryParam.ProgramActiveMatcher.matchesValue(expression, _)).toList match {
+          case List(a) => p.withActive(a == SPProgram.Active.YES)
+          case _       => p
+        }
+      case (p, _)                                              =>
+        p
+    }
 }
\ No newline at end of file
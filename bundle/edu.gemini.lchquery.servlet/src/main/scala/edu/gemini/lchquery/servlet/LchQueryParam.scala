@@ -62,10 +62,11 @@ object ValueMatcher {
       case _ => expression
     }
 
-    override def matches(expression: String, x: A): Boolean = (for {
-      r <- Option(expression).map(transform).map(_.toRegex)
-      m <- Option(x).flatMap(extractor).map(_.displayValue)
-    } yield r.findFirstMatchIn(m).isDefined).getOrElse(false)
+    override def matches(expression: String, x: A): Boolean =
+      Option(x).flatMap(extractor).exists(matchesValue(expression, _))
+
+    def matchesValue(expression: String, b: B): Boolean =
+      Option(expression).map(transform).map(_.toRegex).exists(_.findFirstMatchIn(b.displayValue).isDefined)
   }
 }
 
@@ -243,12 +244,12 @@ object LchQueryParam {
     }
   )
 
-  private[servlet] val ProgramActiveParam = LchQueryParam("programActive",
-    new BooleanValueMatcher[ISPProgram,SPProgram.Active] {
-      override protected def extractor(prog: ISPProgram): Option[Active] =
-        prog.toSPProg.getActive.some
-    }
-  )
+  private[servlet] val ProgramActiveMatcher = new BooleanValueMatcher[ISPProgram,SPProgram.Active] {
+    override protected def extractor(prog: ISPProgram): Option[Active] =
+      prog.toSPProg.getActive.some
+  }
+
+  private[servlet] val ProgramActiveParam = LchQueryParam("programActive", ProgramActiveMatcher)
 
   private[servlet] val ProgramCompletedParam = LchQueryParam("programCompleted",
     new BooleanValueMatcher[ISPProgram,YesNoType] {
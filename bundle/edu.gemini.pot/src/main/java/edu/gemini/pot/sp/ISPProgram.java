@@ -8,6 +8,7 @@
 package edu.gemini.pot.sp;
 
 import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.pot.sp.version.VersionHash;
 import edu.gemini.shared.util.VersionVector;
 
 
@@ -48,5 +49,11 @@ public interface ISPProgram extends ISPGroupContainer, ISPObservationContainer,
 
     VersionVector<LifespanId, Integer> getVersions(SPNodeKey key);
     void setVersions(SPNodeKey key, VersionVector<LifespanId, Integer> vv);
+
+    /**
+     * Gets a hash of the versions of all the nodes in the program.  Copies of
+     * a program with the same hash have the same versions.
+     */
+    VersionHash getVersionHash();
 }
 
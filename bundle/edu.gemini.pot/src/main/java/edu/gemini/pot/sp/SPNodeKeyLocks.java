@@ -2,41 +2,404 @@ package edu.gemini.pot.sp;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Provides a low-level API for getting read/write locks associated with
- * SPNodeKeys.  Locks are created on demand but never removed.
+ * SPNodeKeys.  Locks are created on demand and reclaimed once no thread
+ * holds or is waiting for them.  The lock table is a concurrent map, so
+ * locking distinct keys does not contend on a shared monitor.
+ *
+ * <p>Contention and hold-time statistics are gathered in total and, while
+ * a key's lock is in use, for that key.  When a lock is reclaimed its
+ * statistics are kept only if the key saw contention or timeouts, and then
+ * only for the most contended keys, so that heavily contended programs can
+ * be identified without keeping an entry for every key ever locked.  See
+ * {@link #getStatistics()}.
  */
 public enum SPNodeKeyLocks {
     instance;
 
-    private Map<SPNodeKey, ReentrantReadWriteLock> locks = new HashMap<SPNodeKey, ReentrantReadWriteLock>();
+    /**
+     * Property that sets the number of contended keys whose statistics are
+     * kept after their locks are reclaimed.
+     */
+    private static final String MAX_TRACKED_PROP = SPNodeKeyLocks.class.getName() + ".maxTracked";
+
+    private static final int MAX_TRACKED = Integer.getInteger(MAX_TRACKED_PROP, 64);
+
+    // A lock along with the number of acquisitions that are outstanding or
+    // in progress.  The count is only modified inside ConcurrentHashMap
+    // compute operations, which are atomic for a given key.
+    private static final class Entry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final Stats stats = new Stats();
+        int refs;
+
+        // Time the current outermost write lock was acquired.  Only
+        // accessed by the thread holding the write lock.
+        long writeStart;
+    }
+
+    // Statistics for a single key.  Updated only while the key's lock
+    // entry is in use, so the monitor is shared only by threads locking the
+    // same key.
+    private static final class Stats {
+        private long acquisitions;
+        private long contended;
+        private long timeouts;
+        private long waitNanos;
+        private long maxWaitNanos;
+        private long holdNanos;
+        private long maxHoldNanos;
+
+        synchronized void recordAcquisition() {
+            ++acquisitions;
+        }
+
+        synchronized void recordWait(long nanos) {
+            ++contended;
+            waitNanos   += nanos;
+            maxWaitNanos = Math.max(maxWaitNanos, nanos);
+        }
+
+        synchronized void recordTimeout() {
+            ++timeouts;
+        }
+
+        synchronized void recordHold(long nanos) {
+            holdNanos   += nanos;
+            maxHoldNanos = Math.max(maxHoldNanos, nanos);
+        }
+
+        synchronized boolean isContended() {
+            return (contended > 0) || (timeouts > 0);
+        }
+
+        synchronized long waitNanos() {
+            return waitNanos;
+        }
+
+        synchronized Stats copy() {
+            final Stats res = new Stats();
+            res.acquisitions = acquisitions;
+            res.contended    = contended;
+            res.timeouts     = timeouts;
+            res.waitNanos    = waitNanos;
+            res.maxWaitNanos = maxWaitNanos;
+            res.holdNanos    = holdNanos;
+            res.maxHoldNanos = maxHoldNanos;
+            return res;
+        }
+
+        // Adds a copy of the other statistics, so only one monitor is held
+        // at a time.
+        void add(Stats that) {
+            final Stats c = that.copy();
+            synchronized (this) {
+                acquisitions += c.acquisitions;
+                contended    += c.contended;
+                timeouts     += c.timeouts;
+                waitNanos    += c.waitNanos;
+                maxWaitNanos  = Math.max(maxWaitNanos, c.maxWaitNanos);
+                holdNanos    += c.holdNanos;
+                maxHoldNanos  = Math.max(maxHoldNanos, c.maxHoldNanos);
+            }
+        }
+    }
+
+    // Statistics for all keys, which every lock operation updates.
+    private static final class Totals {
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended    = new LongAdder();
+        final LongAdder timeouts     = new LongAdder();
+        final LongAdder waitNanos    = new LongAdder();
+        final LongAdder holdNanos    = new LongAdder();
+    }
+
+    /**
+     * A snapshot of the locking statistics for a single key, or for all
+     * keys if the key is <code>null</code>.  Hold times are recorded for
+     * write locks only.  Maximum times are not kept in total.
+     */
+    public static final class LockStatistics {
+        public final SPNodeKey key;
+        public final long acquisitions;
+        public final long contended;
+        public final long timeouts;
+        public final long waitNanos;
+        public final long maxWaitNanos;
+        public final long writeHoldNanos;
+        public final long maxWriteHoldNanos;
+
+        private LockStatistics(SPNodeKey key, Stats stats) {
+            final Stats s = stats.copy();
+            this.key               = key;
+            this.acquisitions      = s.acquisitions;
+            this.contended         = s.contended;
+            this.timeouts          = s.timeouts;
+            this.waitNanos         = s.waitNanos;
+            this.maxWaitNanos      = s.maxWaitNanos;
+            this.writeHoldNanos    = s.holdNanos;
+            this.maxWriteHoldNanos = s.maxHoldNanos;
+        }
+
+        private LockStatistics(Totals t) {
+            this.key               = null;
+            this.acquisitions      = t.acquisitions.sum();
+            this.contended         = t.contended.sum();
+            this.timeouts          = t.timeouts.sum();
+            this.waitNanos         = t.waitNanos.sum();
+            this.maxWaitNanos      = 0;
+            this.writeHoldNanos    = t.holdNanos.sum();
+            this.maxWriteHoldNanos = 0;
+        }
+
+        @Override public String toString() {
+            return String.format("%s: acquisitions=%d, contended=%d, timeouts=%d, wait=%.1fms (max %.1fms), write hold=%.1fms (max %.1fms)",
+                    (key == null) ? "total" : key, acquisitions, contended, timeouts, waitNanos / 1e6, maxWaitNanos / 1e6,
+                    writeHoldNanos / 1e6, maxWriteHoldNanos / 1e6);
+        }
+    }
+
+    private final ConcurrentHashMap<SPNodeKey, Entry> locks = new ConcurrentHashMap<>();
+
+    private volatile Totals totals = new Totals();
+
+    // Statistics of reclaimed locks for at most MAX_TRACKED contended keys.
+    // Guarded by its own monitor.
+    private final Map<SPNodeKey, Stats> tracked = new HashMap<>();
+
+    // Finds or creates the entry for the key and registers the caller's
+    // interest in it so that it will not be reclaimed.
+    private Entry reserve(SPNodeKey key) {
+        return locks.compute(key, (k, e) -> {
+            final Entry res = (e == null) ? new Entry() : e;
+            ++res.refs;
+            return res;
+        });
+    }
+
+    // Drops the caller's interest in the entry, removing it from the table
+    // when no longer referenced.
+    private void release(SPNodeKey key) {
+        final Entry[] reclaimed = new Entry[1];
+        locks.computeIfPresent(key, (k, e) -> {
+            if (--e.refs > 0) return e;
+            reclaimed[0] = e;
+            return null;
+        });
+        if (reclaimed[0] != null) retire(key, reclaimed[0].stats);
+    }
+
+    // Keeps the statistics of a reclaimed lock if the key is already
+    // tracked or was contended, dropping the least contended key if there
+    // are now too many.
+    private void retire(SPNodeKey key, Stats s) {
+        synchronized (tracked) {
+            final Stats t = tracked.get(key);
+            if (t != null) {
+                t.add(s);
+            } else if (s.isContended() && (MAX_TRACKED > 0)) {
+                tracked.put(key, s);
+                if (tracked.size() > MAX_TRACKED) {
+                    SPNodeKey least = null;
+                    long leastWait  = Long.MAX_VALUE;
+                    for (Map.Entry<SPNodeKey, Stats> me : tracked.entrySet()) {
+                        final long w = me.getValue().waitNanos();
+                        if (w < leastWait) {
+                            least     = me.getKey();
+                            leastWait = w;
+                        }
+                    }
+                    tracked.remove(least);
+                }
+            }
+        }
+    }
+
+    private Entry existing(SPNodeKey key) {
+        final Entry e = locks.get(key);
+        if (e == null) throw new IllegalMonitorStateException("Lock not held for " + key);
+        return e;
+    }
+
+    private void recordWait(Entry e, long nanos) {
+        final Totals t = totals;
+        t.contended.increment();
+        t.waitNanos.add(nanos);
+        e.stats.recordWait(nanos);
+    }
+
+    private void recordAcquisition(Entry e) {
+        totals.acquisitions.increment();
+        e.stats.recordAcquisition();
+    }
+
+    private void acquire(Entry e, Lock l) {
+        if (!l.tryLock()) {
+            final long t0 = System.nanoTime();
+            l.lock();
+            recordWait(e, System.nanoTime() - t0);
+        }
+        recordAcquisition(e);
+    }
+
+    private boolean tryAcquire(Entry e, Lock l, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!l.tryLock()) {
+            final long t0 = System.nanoTime();
+            final boolean res;
+            try {
+                res = l.tryLock(timeout, unit);
+            } finally {
+                recordWait(e, System.nanoTime() - t0);
+            }
+            if (!res) {
+                totals.timeouts.increment();
+                e.stats.recordTimeout();
+                return false;
+            }
+        }
+        recordAcquisition(e);
+        return true;
+    }
+
+    private void startWriteHold(Entry e) {
+        if (e.lock.getWriteHoldCount() == 1) e.writeStart = System.nanoTime();
+    }
 
-    private synchronized ReentrantReadWriteLock getLock(SPNodeKey key) {
-        ReentrantReadWriteLock l = locks.get(key);
-        if (l == null) {
-            l = new ReentrantReadWriteLock();
-            locks.put(key, l);
+    public void readLock(SPNodeKey key) {
+        final Entry e = reserve(key);
+        try {
+            acquire(e, e.lock.readLock());
+        } catch (RuntimeException | Error ex) {
+            release(key);
+            throw ex;
         }
-        return l;
     }
 
-    private Lock getReadLock(SPNodeKey key)  { return getLock(key).readLock();  }
-    private Lock getWriteLock(SPNodeKey key) { return getLock(key).writeLock(); }
+    public void readUnlock(SPNodeKey key) {
+        existing(key).lock.readLock().unlock();
+        release(key);
+    }
+
+    public void writeLock(SPNodeKey key) {
+        final Entry e = reserve(key);
+        try {
+            acquire(e, e.lock.writeLock());
+        } catch (RuntimeException | Error ex) {
+            release(key);
+            throw ex;
+        }
+        startWriteHold(e);
+    }
 
-    public void readLock(SPNodeKey key)     { getReadLock(key).lock();   }
-    public void readUnlock(SPNodeKey key)   { getReadLock(key).unlock(); }
+    public void writeUnlock(SPNodeKey key) {
+        final Entry e = existing(key);
+        final long start = (e.lock.getWriteHoldCount() == 1) ? e.writeStart : 0;
+        e.lock.writeLock().unlock();
+        if (start != 0) {
+            final long nanos = System.nanoTime() - start;
+            totals.holdNanos.add(nanos);
+            e.stats.recordHold(nanos);
+        }
+        release(key);
+    }
 
-    public void writeLock(SPNodeKey key)    { getWriteLock(key).lock();   }
-    public void writeUnlock(SPNodeKey key)  { getWriteLock(key).unlock(); }
+    /**
+     * Attempts to obtain the read lock for the key, waiting at most the
+     * given amount of time.
+     *
+     * @return <code>true</code> if the lock was obtained, in which case it
+     * must be released with {@link #readUnlock}
+     */
+    public boolean tryReadLock(SPNodeKey key, long timeout, TimeUnit unit) throws InterruptedException {
+        final Entry e = reserve(key);
+        boolean locked = false;
+        try {
+            locked = tryAcquire(e, e.lock.readLock(), timeout, unit);
+        } finally {
+            if (!locked) release(key);
+        }
+        return locked;
+    }
+
+    /**
+     * Attempts to obtain the write lock for the key, waiting at most the
+     * given amount of time.
+     *
+     * @return <code>true</code> if the lock was obtained, in which case it
+     * must be released with {@link #writeUnlock}
+     */
+    public boolean tryWriteLock(SPNodeKey key, long timeout, TimeUnit unit) throws InterruptedException {
+        final Entry e = reserve(key);
+        boolean locked = false;
+        try {
+            locked = tryAcquire(e, e.lock.writeLock(), timeout, unit);
+        } finally {
+            if (!locked) release(key);
+        }
+        if (locked) startWriteHold(e);
+        return locked;
+    }
 
     /**
      * Returns <code>true</code> if the current thread has a write lock for the
      * indicated program key.
      */
     public boolean isWriteLockHeld(SPNodeKey key) {
-        return getLock(key).isWriteLockedByCurrentThread();
+        final Entry e = locks.get(key);
+        return (e != null) && e.lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Returns the number of locks currently in the table, which is the
+     * number of keys that are locked or being waited upon.
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    /**
+     * Returns a snapshot of the locking statistics gathered since the
+     * statistics were last reset for each key that is currently locked or
+     * that is among the most contended keys.
+     */
+    public Map<SPNodeKey, LockStatistics> getStatistics() {
+        final Map<SPNodeKey, Stats> merged = new HashMap<>();
+        synchronized (tracked) {
+            tracked.forEach((k, s) -> merged.put(k, s.copy()));
+        }
+        locks.forEach((k, e) -> {
+            final Stats s = merged.get(k);
+            if (s == null) merged.put(k, e.stats.copy()); else s.add(e.stats);
+        });
+
+        final Map<SPNodeKey, LockStatistics> res = new HashMap<>();
+        merged.forEach((k, s) -> res.put(k, new LockStatistics(k, s)));
+        return res;
+    }
+
+    /**
+     * Returns a snapshot of the locking statistics for all keys gathered
+     * since the statistics were last reset.
+     */
+    public LockStatistics getTotalStatistics() {
+        return new LockStatistics(totals);
+    }
+
+    /**
+     * Discards the statistics gathered so far, except for those of locks
+     * that are currently in use.
+     */
+    public void resetStatistics() {
+        totals = new Totals();
+        synchronized (tracked) {
+            tracked.clear();
+        }
     }
 }
@@ -3,6 +3,7 @@ package edu.gemini.pot.sp.memImpl;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.version.JavaVersionMapOps;
 import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.pot.sp.version.VersionHash;
 import edu.gemini.pot.spdb.Locking;
 import edu.gemini.pot.sp.SPNodeKeyLocks;
 import edu.gemini.pot.sp.SPNodeKey;
@@ -33,6 +34,10 @@ public class DocumentData implements Serializable {
     private final Map<Object, Object> _programClientData;
     private scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = JavaVersionMapOps.emptyVersionMap();
 
+    // Hash of versions, updated along with it.  Computed on demand after
+    // deserialization or when the versions are replaced wholesale.
+    private transient volatile VersionHash versionHash = VersionHash.Zero();
+
     // The last modification timestamp.
     private long _lastModified;
 
@@ -105,7 +110,7 @@ public class DocumentData implements Serializable {
             getProgramWriteLock();
             try {
                 _lastModified = System.currentTimeMillis();
-                versions = versions.updated(node.getNodeKey(), newVersion);
+                putVersionVector(node.getNodeKey(), newVersion);
             } finally {
                 returnProgramWriteLock();
             }
@@ -124,12 +129,41 @@ public class DocumentData implements Serializable {
     void setVersions(scala.collection.immutable.Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions) {
         getProgramWriteLock();
         try {
-            this.versions = versions;
+            this.versions    = versions;
+            this.versionHash = null;
         } finally {
             returnProgramWriteLock();
         }
     }
 
+    // Must be called with the write lock held.
+    private void putVersionVector(SPNodeKey key, VersionVector<LifespanId, Integer> vv) {
+        if (versionHash != null) {
+            versionHash = VersionHash.update(versionHash, key, JavaVersionMapOps.getOrNull(versions, key), vv);
+        }
+        versions = versions.updated(key, vv);
+    }
+
+    /**
+     * Gets the hash of all the version information, which changes whenever
+     * any node's version changes.
+     */
+    VersionHash getVersionHash() {
+        getProgramReadLock();
+        try {
+            // Concurrent readers may each compute the hash, but the versions
+            // can't change while the read lock is held so they agree.
+            VersionHash h = versionHash;
+            if (h == null) {
+                h = VersionHash.of(versions);
+                versionHash = h;
+            }
+            return h;
+        } finally {
+            returnProgramReadLock();
+        }
+    }
+
     boolean containsVersion(SPNodeKey key) {
         getProgramReadLock();
         try {
@@ -151,7 +185,7 @@ public class DocumentData implements Serializable {
     void setVersionVector(SPNodeKey key, VersionVector<LifespanId, Integer> vv) {
         getProgramWriteLock();
         try {
-            versions = versions.updated(key, vv);
+            putVersionVector(key, vv);
         } finally {
             returnProgramWriteLock();
         }
@@ -2,6 +2,7 @@ package edu.gemini.pot.sp.memImpl;
 
 import edu.gemini.pot.sp.*;
 import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.pot.sp.version.VersionHash;
 import edu.gemini.shared.util.VersionVector;
 import edu.gemini.spModel.core.SPProgramID;
 
@@ -138,6 +139,10 @@ public final class MemProgram extends MemAbstractContainer implements ISPProgram
         getDocumentData().setVersionVector(key, vv);
     }
 
+    public VersionHash getVersionHash() {
+        return getDocumentData().getVersionHash();
+    }
+
     public long lastModified() {
         return getDocumentData().lastModified();
     }
@@ -3,15 +3,50 @@ package edu.gemini.pot.sp.memImpl;
 import edu.gemini.pot.sp.ISPRootNode;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Reads and writes program trees.  Programs may be stored either with plain
+ * Java serialization or in a compact, versioned binary format.  The compact
+ * format starts with a {@link #COMPACT_MAGIC magic number}, a format version
+ * and flags, followed by a serialization stream in which equal strings are
+ * written only once.  The stream body may optionally be deflated.  Loading
+ * detects the format automatically, so files written in either format may be
+ * read regardless of how the serializer is configured.
+ */
 public final class MemSerializer {
     private static final Logger LOG = Logger.getLogger(MemSerializer.class.getName());
 
+    /**
+     * Format in which programs are stored.
+     */
+    public enum Format {
+        /** Plain Java serialization. */
+        JAVA,
+
+        /** Compact binary format, uncompressed. */
+        COMPACT,
+
+        /** Compact binary format with a deflated body. */
+        COMPACT_DEFLATE,
+    }
+
+    /** Magic number that starts a file in the compact format ("GSPB"). */
+    public static final int COMPACT_MAGIC = 0x47535042;
+
+    /** Current version of the compact format. */
+    public static final int COMPACT_VERSION = 1;
+
+    private static final int FLAG_DEFLATE = 0x1;
+
     // An ObjectInputStream that uses the bundle's class loader if possible to
     // resolve classes.
-    private final class ClassLoaderObjectInputStream extends ObjectInputStream {
+    private class ClassLoaderObjectInputStream extends ObjectInputStream {
         private final ClassLoader loader;
 
         ClassLoaderObjectInputStream(ClassLoader loader, InputStream is) throws IOException {
@@ -28,17 +63,126 @@ public final class MemSerializer {
         }
     }
 
+    // Writes equal strings only once.  Java serialization refers back to an
+    // object that was already written by its handle, but only if it is the
+    // very same instance.  Programs read from disk, imported from XML or
+    // edited in the OT hold many equal strings that are distinct instances
+    // (parameter names, option values, titles), each of which would be
+    // written in full.  Replacing them with a canonical instance makes all
+    // but the first a back reference.  Class descriptors are written as
+    // usual so that the standard rules for compatible class changes apply.
+    private static final class CompactObjectOutputStream extends ObjectOutputStream {
+        private final Map<String, String> strings = new HashMap<>();
+
+        CompactObjectOutputStream(OutputStream os) throws IOException {
+            super(os);
+            enableReplaceObject(true);
+        }
+
+        @Override protected void writeStreamHeader() {
+            // the compact header is written separately
+        }
+
+        @Override protected Object replaceObject(Object obj) {
+            if (!(obj instanceof String)) return obj;
+            final String s = (String) obj;
+            final String c = strings.putIfAbsent(s, s);
+            return (c == null) ? s : c;
+        }
+    }
+
+    // Reads the body of a compact stream, which is a plain serialization
+    // stream without the stream header.
+    private final class CompactObjectInputStream extends ClassLoaderObjectInputStream {
+        CompactObjectInputStream(ClassLoader loader, InputStream is) throws IOException {
+            super(loader, is);
+        }
+
+        @Override protected void readStreamHeader() {
+            // the compact header is read separately
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int res   = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) throw new StreamCorruptedException("Malformed varint");
+            b = in.readByte();
+            res |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return res;
+    }
+
+    private final Format format;
+
+    /**
+     * Constructs a serializer that stores programs with plain Java
+     * serialization.
+     */
+    public MemSerializer() {
+        this(Format.JAVA);
+    }
+
+    /**
+     * Constructs a serializer that stores programs in the given format.
+     */
+    public MemSerializer(Format format) {
+        if (format == null) throw new NullPointerException("format");
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
     private ClassLoader getLoader() {
         return MemSerializer.class.getClassLoader();
     }
 
     public MemAbstractBase load(File file) throws IOException {
-        final FileInputStream fis = new FileInputStream(file);
-        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new BufferedInputStream(fis)));
+        return loadAndClose(openInput(new BufferedInputStream(new FileInputStream(file))));
     }
 
     public MemAbstractBase load(byte[] blob) throws IOException {
-        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new ByteArrayInputStream(blob)));
+        return loadAndClose(openInput(new ByteArrayInputStream(blob)));
+    }
+
+    // Peeks at the first bytes of the stream to determine its format.
+    private ObjectInputStream openInput(InputStream is) throws IOException {
+        is.mark(4);
+        final DataInputStream dis = new DataInputStream(is);
+        final int magic;
+        try {
+            magic = dis.readInt();
+        } catch (EOFException ex) {
+            is.close();
+            throw new StreamCorruptedException("Empty or truncated program file");
+        }
+
+        if (magic != COMPACT_MAGIC) {
+            is.reset();
+            return new ClassLoaderObjectInputStream(getLoader(), is);
+        }
+
+        final int version = readVarInt(dis);
+        if (version > COMPACT_VERSION) {
+            is.close();
+            throw new StreamCorruptedException("Unsupported compact format version: " + version);
+        }
+        final int flags = dis.readUnsignedByte();
+        final InputStream body = ((flags & FLAG_DEFLATE) != 0) ? new BufferedInputStream(new InflaterInputStream(is)) : is;
+        return new CompactObjectInputStream(getLoader(), body);
     }
 
     private MemAbstractBase loadAndClose(ObjectInputStream ois) throws IOException {
@@ -56,15 +200,30 @@ public final class MemSerializer {
 
     public void store(ISPRootNode mab, File file) throws IOException {
         final FileOutputStream fos = new FileOutputStream(file);
-        storeAndClose(mab, new ObjectOutputStream(new BufferedOutputStream(fos)));
+        storeAndClose(mab, openOutput(new BufferedOutputStream(fos)));
     }
 
     public byte[] store(ISPRootNode mab) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        storeAndClose(mab, new ObjectOutputStream(baos));
+        storeAndClose(mab, openOutput(baos));
         return baos.toByteArray();
     }
 
+    private ObjectOutputStream openOutput(OutputStream os) throws IOException {
+        if (format == Format.JAVA) return new ObjectOutputStream(os);
+
+        final DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(COMPACT_MAGIC);
+        writeVarInt(dos, COMPACT_VERSION);
+        if (format == Format.COMPACT_DEFLATE) {
+            dos.writeByte(FLAG_DEFLATE);
+            return new CompactObjectOutputStream(new DeflaterOutputStream(os));
+        } else {
+            dos.writeByte(0);
+            return new CompactObjectOutputStream(os);
+        }
+    }
+
     private void storeAndClose(ISPRootNode mab, ObjectOutputStream oos) throws IOException {
         try { store(mab, oos); oos.flush(); } finally { oos.close(); }
     }
@@ -0,0 +1,145 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPRootNode;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Command line utility for working with stored program files.  It can
+ * convert a database directory from one {@link MemSerializer.Format} to
+ * another and benchmark the formats against each other.
+ *
+ * <pre>
+ *   MemSerializerTool convert &lt;dbDir&gt; &lt;format&gt;
+ *   MemSerializerTool benchmark &lt;dbDir&gt; [iterations]
+ * </pre>
+ */
+public final class MemSerializerTool {
+    private MemSerializerTool() {}
+
+    private static final FileFilter PROGRAM_FILES = f -> f.isFile() && (f.getName().endsWith(".sp") || f.getName().endsWith(".pl"));
+
+    // Journals of incremental changes, see FileManager.JOURNAL_SUFFIX.
+    private static final FileFilter JOURNAL_FILES = f -> f.isFile() && f.getName().endsWith(".jnl");
+
+    private static File[] programFiles(File dir) throws IOException {
+        final File[] files = dir.listFiles(PROGRAM_FILES);
+        if (files == null) throw new IOException("Not a readable directory: " + dir);
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return files;
+    }
+
+    /**
+     * Rewrites every program file in the directory in the given format.
+     * Files that cannot be read are reported and left untouched.  Journals
+     * of incremental changes are only understood by the database itself, so
+     * the conversion is refused while there are any.
+     *
+     * @return number of files converted
+     * @throws IOException if the directory contains journal files
+     */
+    public static int convert(File dir, MemSerializer.Format format) throws IOException {
+        final File[] journals = dir.listFiles(JOURNAL_FILES);
+        if ((journals != null) && (journals.length > 0)) {
+            throw new IOException(dir + " contains " + journals.length + " program journals which the database must fold into their program files first");
+        }
+
+        final MemSerializer ser = new MemSerializer(format);
+        int count = 0;
+        for (File f : programFiles(dir)) {
+            final ISPRootNode root;
+            try {
+                root = (ISPRootNode) ser.load(f);
+            } catch (Exception ex) {
+                System.err.println("Could not read " + f + ": " + ex);
+                continue;
+            }
+
+            final File tmp = File.createTempFile("_spdb", null, dir);
+            ser.store(root, tmp);
+            f.delete();
+            if (!tmp.renameTo(f)) throw new IOException("Couldn't rename " + tmp + " to " + f);
+            ++count;
+        }
+        return count;
+    }
+
+    private static final class Totals {
+        long bytes;
+        long storeNanos;
+        long loadNanos;
+    }
+
+    /**
+     * Loads each program in the directory and measures, for each format, the
+     * time to store and load it and the resulting size.  Results are printed
+     * as tab-separated values.
+     */
+    public static void benchmark(File dir, int iterations) throws IOException {
+        final MemSerializer.Format[] formats = MemSerializer.Format.values();
+        final Totals[] totals = new Totals[formats.length];
+        for (int i=0; i<totals.length; ++i) totals[i] = new Totals();
+
+        final MemSerializer reader = new MemSerializer();
+        int programs = 0;
+        for (File f : programFiles(dir)) {
+            final ISPRootNode root;
+            try {
+                root = (ISPRootNode) reader.load(f);
+            } catch (Exception ex) {
+                System.err.println("Could not read " + f + ": " + ex);
+                continue;
+            }
+            ++programs;
+
+            for (int i=0; i<formats.length; ++i) {
+                final MemSerializer ser = new MemSerializer(formats[i]);
+                byte[] blob = null;
+                for (int j=0; j<iterations; ++j) {
+                    final long t0 = System.nanoTime();
+                    blob = ser.store(root);
+                    final long t1 = System.nanoTime();
+                    ser.load(blob);
+                    final long t2 = System.nanoTime();
+                    totals[i].storeNanos += t1 - t0;
+                    totals[i].loadNanos  += t2 - t1;
+                }
+                totals[i].bytes += blob.length;
+            }
+        }
+
+        System.out.println("format\tprograms\tbytes\tstore_ms\tload_ms");
+        for (int i=0; i<formats.length; ++i) {
+            System.out.println(String.format("%s\t%d\t%d\t%.1f\t%.1f", formats[i], programs, totals[i].bytes,
+                    totals[i].storeNanos / (1e6 * iterations), totals[i].loadNanos / (1e6 * iterations)));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: MemSerializerTool convert <dbDir> <" + Arrays.toString(MemSerializer.Format.values()) + ">");
+        System.err.println("       MemSerializerTool benchmark <dbDir> [iterations]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) usage();
+
+        final File dir = new File(args[1]);
+        switch (args[0]) {
+            case "convert":
+                if (args.length != 3) usage();
+                final int count = convert(dir, MemSerializer.Format.valueOf(args[2].toUpperCase()));
+                System.out.println("Converted " + count + " files.");
+                break;
+            case "benchmark":
+                benchmark(dir, (args.length > 2) ? Integer.parseInt(args[2]) : 5);
+                break;
+            default:
+                usage();
+        }
+    }
+}
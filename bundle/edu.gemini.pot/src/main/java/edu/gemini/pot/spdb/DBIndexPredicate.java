@@ -0,0 +1,125 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.SPComponentType;
+import edu.gemini.spModel.obs.ObservationStatus;
+import edu.gemini.spModel.too.TooType;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A predicate over the attributes maintained by the database's secondary
+ * indexes.  Index-backed queries (see
+ * {@link IDBQueryRunner#queryObservations(DBIndexPredicate, IDBQueryFunctor)})
+ * only apply their functor to the nodes that match the predicate.
+ *
+ * <p>Each attribute is either unconstrained or constrained to a set of
+ * acceptable values; a node matches if it satisfies every constrained
+ * attribute.  Predicates are immutable, each <code>with</code> method
+ * returning an updated copy.  For example:
+ *
+ * <pre>
+ *   DBIndexPredicate.ALL.withStatus(ObservationStatus.READY).withBand("1", "2").withActive(true)
+ * </pre>
+ *
+ * <p>Status, instrument and ToO type are attributes of observations.  The
+ * semester, queue band and active flag are attributes of the program and
+ * apply to all of its observations.  A program matches a predicate with
+ * observation constraints if any of its observations match.
+ */
+public final class DBIndexPredicate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The predicate that matches everything. */
+    public static final DBIndexPredicate ALL = new DBIndexPredicate(null, null, null, null, null, null);
+
+    private final Set<ObservationStatus> _status;
+    private final Set<SPComponentType> _instrument;
+    private final Set<TooType> _too;
+    private final Set<String> _semester;
+    private final Set<String> _band;
+    private final Boolean _active;
+
+    private DBIndexPredicate(Set<ObservationStatus> status, Set<SPComponentType> instrument, Set<TooType> too,
+                             Set<String> semester, Set<String> band, Boolean active) {
+        _status     = status;
+        _instrument = instrument;
+        _too        = too;
+        _semester   = semester;
+        _band       = band;
+        _active     = active;
+    }
+
+    @SafeVarargs
+    private static <T> Set<T> setOf(T... values) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(values)));
+    }
+
+    /** Restricts matches to observations with one of the given statuses. */
+    public DBIndexPredicate withStatus(ObservationStatus... status) {
+        return new DBIndexPredicate(setOf(status), _instrument, _too, _semester, _band, _active);
+    }
+
+    /** Restricts matches to observations that use one of the given instruments. */
+    public DBIndexPredicate withInstrument(SPComponentType... instrument) {
+        return new DBIndexPredicate(_status, setOf(instrument), _too, _semester, _band, _active);
+    }
+
+    /** Restricts matches to observations with one of the given ToO types. */
+    public DBIndexPredicate withTooType(TooType... too) {
+        return new DBIndexPredicate(_status, _instrument, setOf(too), _semester, _band, _active);
+    }
+
+    /**
+     * Restricts matches to programs in one of the given semesters, for
+     * example "2016A".
+     */
+    public DBIndexPredicate withSemester(String... semester) {
+        return new DBIndexPredicate(_status, _instrument, _too, setOf(semester), _band, _active);
+    }
+
+    /** Restricts matches to programs in one of the given queue bands. */
+    public DBIndexPredicate withBand(String... band) {
+        return new DBIndexPredicate(_status, _instrument, _too, _semester, setOf(band), _active);
+    }
+
+    /** Restricts matches to programs that are (or are not) active. */
+    public DBIndexPredicate withActive(boolean active) {
+        return new DBIndexPredicate(_status, _instrument, _too, _semester, _band, active);
+    }
+
+    Set<ObservationStatus> getStatus()     { return _status;     }
+    Set<SPComponentType> getInstrument()   { return _instrument; }
+    Set<TooType> getTooType()              { return _too;        }
+    Set<String> getSemester()              { return _semester;   }
+    Set<String> getBand()                  { return _band;       }
+    Boolean getActive()                    { return _active;     }
+
+    private static <T> boolean accepts(Set<T> s, T value) {
+        return (s == null) || s.contains(value);
+    }
+
+    /**
+     * Determines whether the predicate constrains any observation-level
+     * attribute.
+     */
+    boolean hasObservationConstraints() {
+        return (_status != null) || (_instrument != null) || (_too != null);
+    }
+
+    boolean matchesProgram(String semester, String band, boolean active) {
+        return accepts(_semester, semester) && accepts(_band, band) && ((_active == null) || (_active == active));
+    }
+
+    boolean matchesObservation(ObservationStatus status, SPComponentType instrument, TooType too) {
+        return accepts(_status, status) && accepts(_instrument, instrument) && accepts(_too, too);
+    }
+
+    @Override public String toString() {
+        return "DBIndexPredicate{status=" + _status + ", instrument=" + _instrument + ", too=" + _too +
+                ", semester=" + _semester + ", band=" + _band + ", active=" + _active + "}";
+    }
+}
@@ -8,6 +8,7 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
 import edu.gemini.spModel.core.OcsVersionUtil;
 import edu.gemini.spModel.core.SPProgramID;
 import edu.gemini.spModel.core.Version;
@@ -32,10 +33,27 @@ public final class DBLocalDatabase implements IDBDatabaseService {
 
     private static final Logger LOG = Logger.getLogger(DBLocalDatabase.class.getName());
 
+    /**
+     * Property that names the {@link MemSerializer.Format} in which programs
+     * are stored.  Defaults to plain Java serialization.
+     */
+    public static final String STORAGE_FORMAT_PROP = DBLocalDatabase.class.getName() + ".storageFormat";
+
     public static IDBDatabaseService create(final File dbRootDir) throws IOException {
         final File dbDir = getVersionedDatabaseDir(dbRootDir);
         initDbDir(dbDir);
-        return new DBLocalDatabase(loadUuid(dbRootDir), new FileManager(dbDir));
+        return new DBLocalDatabase(loadUuid(dbRootDir), new FileManager(dbDir, getStorageFormat()));
+    }
+
+    private static MemSerializer.Format getStorageFormat() {
+        final String propStr = System.getProperty(STORAGE_FORMAT_PROP);
+        if (propStr == null) return MemSerializer.Format.JAVA;
+        try {
+            return MemSerializer.Format.valueOf(propStr.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOG.warning("Unknown storage format '" + propStr + "', using " + MemSerializer.Format.JAVA);
+            return MemSerializer.Format.JAVA;
+        }
     }
 
     public static IDBDatabaseService createTransient() {
@@ -336,6 +354,10 @@ public final class DBLocalDatabase implements IDBDatabaseService {
         _triggerRegistrar.unregister(condition, action);
     }
 
+    public TriggerStatistics getTriggerStatistics() {
+        return _triggerRegistrar.getStatistics();
+    }
+
 }
 
 
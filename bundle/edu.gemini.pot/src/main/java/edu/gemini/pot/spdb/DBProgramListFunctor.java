@@ -24,7 +24,7 @@ import java.util.logging.Logger;
  * be used by clients to obtain a listing of all the available program
  * IDs.
  */
-public class DBProgramListFunctor extends DBAbstractQueryFunctor implements IDBParallelFunctor {
+public class DBProgramListFunctor extends DBAbstractQueryFunctor implements IDBParallelFunctor, IDBShardedQueryFunctor {
 
     private List<SPNodeKey> _keyList;
 
@@ -50,6 +50,10 @@ public class DBProgramListFunctor extends DBAbstractQueryFunctor implements IDBP
         }
     }
 
+    public IDBShardedQueryFunctor newShard() {
+        return new DBProgramListFunctor();
+    }
+
     public void mergeResults(Collection<IDBFunctor> functorCollection) {
         List<SPNodeKey> res = new ArrayList<SPNodeKey>();
         for (IDBFunctor f : functorCollection) {
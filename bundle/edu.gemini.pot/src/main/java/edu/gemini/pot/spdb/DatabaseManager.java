@@ -12,6 +12,8 @@ import edu.gemini.pot.util.POTUtil;
 
 import java.io.IOException;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
 
 
 /**
@@ -20,17 +22,35 @@ import java.util.UUID;
  * as the file, program, and storage managers.
  */
 final class DatabaseManager {
+    private static final Logger LOG = Logger.getLogger(DatabaseManager.class.getName());
+
+    private static final String QUERY_PARALLELISM_PROP = DatabaseManager.class.getName() + ".queryParallelism";
+
+    /**
+     * If set to a positive value, programs are loaded on demand and at most
+     * this many are strongly held in memory.  Otherwise all programs are
+     * loaded at startup.
+     */
+    private static final String MAX_RESIDENT_PROP = DatabaseManager.class.getName() + ".maxResidentPrograms";
+
     private final IDBPersister _persister;
     private final ProgramManager<ISPProgram> _progMan;
     private final ProgramManager<ISPNightlyRecord> _planMan;
     private final StorageManager<ISPProgram> _progStoreMan;
     private final StorageManager<ISPNightlyRecord> _planStoreMan;
+    private final QueryIndex _queryIndex;
 
     //private DBAdmin _admin;
     private final ISPFactory _fact;
 
     final FunctorLogger functorLogger;
 
+    /**
+     * Pool used to execute {@link IDBShardedQueryFunctor} shards, or
+     * <code>null</code> if parallel queries are disabled.
+     */
+    final ForkJoinPool queryPool;
+
     /**
      * Constructs with the database directory to use.
      *
@@ -39,13 +59,14 @@ final class DatabaseManager {
      */
     DatabaseManager(IDBPersister persister, UUID uuid) throws IOException {
         this.functorLogger = new FunctorLogger();
+        this.queryPool     = createQueryPool();
 
         // Create the file manager and load the programs in the database.
         _persister = persister;
 
         // Give the programs to the program manager.  It will keep track of
         // them and provide access to them.
-        _progMan = new ProgramManager<ISPProgram>(_persister.reloadPrograms());
+        _progMan = createProgramManager(_persister);
         _planMan = new ProgramManager<ISPNightlyRecord>(_persister.reloadPlans());
 
         // Create the storage manager to keep the program files up-to-date
@@ -53,9 +74,47 @@ final class DatabaseManager {
         _progStoreMan = new StorageManager<ISPProgram>(_progMan, _persister);
         _planStoreMan = new StorageManager<ISPNightlyRecord>(_planMan, _persister);
 
+        // Maintain secondary indexes for index-backed queries.
+        _queryIndex = new QueryIndex(_progMan);
+
         _fact = POTUtil.createFactory(uuid);
     }
 
+    /**
+     * Creates the program manager, either loading all programs up front or
+     * indexing them for loading on demand according to the
+     * <code>maxResidentPrograms</code> property.
+     */
+    private static ProgramManager<ISPProgram> createProgramManager(IDBPersister persister) throws IOException {
+        final int maxResident = Integer.getInteger(MAX_RESIDENT_PROP, 0);
+        if (maxResident <= 0) return new ProgramManager<>(persister.reloadPrograms());
+
+        LOG.info("Loading programs on demand, max resident: " + maxResident);
+        final ProgramIndex index = persister.indexPrograms();
+        return new ProgramManager<>(index.loaded, index.unloaded, persister::loadProgram, maxResident);
+    }
+
+    /**
+     * Creates the sharded query pool according to the
+     * <code>queryParallelism</code> property, which defaults to the number of
+     * available processors.  A parallelism of 1 or less disables parallel
+     * queries altogether.
+     */
+    private static ForkJoinPool createQueryPool() {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        final String propStr = System.getProperty(QUERY_PARALLELISM_PROP);
+        if (propStr != null) {
+            try {
+                parallelism = Integer.parseInt(propStr.trim());
+            } catch (NumberFormatException ex) {
+                LOG.warning("Could not parse value of property '" +
+                            QUERY_PARALLELISM_PROP + "': " + propStr);
+            }
+        }
+        LOG.fine("Query parallelism.......: " + parallelism);
+        return (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+    }
+
     /**
      * Gets the factory used to create new program nodes.
      */
@@ -99,15 +158,24 @@ final class DatabaseManager {
         return _planStoreMan;
     }
 
+    /**
+     * Obtains a reference to the secondary indexes over the programs.
+     */
+    QueryIndex getQueryIndex() {
+        return _queryIndex;
+    }
+
     /**
      * Shuts down the database, storing any outstanding modifications.
      */
     void shutdown() {
+        _queryIndex.shutdown();
         _progStoreMan.shutdown();
         _planStoreMan.shutdown();
         _progMan.shutdown();
         _planMan.shutdown();
         functorLogger.cancel();
+        if (queryPool != null) queryPool.shutdown();
     }
 
     /**
@@ -24,17 +24,25 @@ import java.util.*;
  * <code>{@link StorageManager}</code>.  It contains a thread that
  * periodically checks for "dirty" programs (via the
  * <code>getDirtyPrograms()</code> method of this class) and saves.
+ *
+ * <p>Along with each dirty program, the listener records the nodes whose
+ * data objects were modified.  If anything else about the program changes,
+ * the program is instead marked as requiring a full store.
  */
 @SuppressWarnings("unchecked")
 final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChangeListener {
-    private final Set<N> _progSet;
+    private static final String DATA_OBJECT_PROP = SPUtil.getDataObjectPropertyName();
+
+    // Maps each dirty program to the nodes whose data objects have changed,
+    // or to null if the whole program must be stored.
+    private final Map<N, Set<ISPNode>> _progMap;
 
     /**
      * Default constructor declared because superclass default constructor
      * throws <code>RemoteException</code>.
      */
     DirtyProgramListener()  {
-        _progSet = new HashSet<N>();
+        _progMap = new HashMap<N, Set<ISPNode>>();
     }
 
     @Override public void propertyChange(PropertyChangeEvent pce) {
@@ -43,9 +51,20 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
         final Object src = pce.getSource();
         if (!(src instanceof ISPNode)) return;
 
-        ISPRootNode root = ((ISPNode) src).getRootAncestor();
+        final ISPNode node = (ISPNode) src;
+        final ISPRootNode root = node.getRootAncestor();
         if (root != null) {
-            synchronized (this) { _progSet.add((N)root); }
+            final boolean dataOnly = DATA_OBJECT_PROP.equals(pce.getPropertyName());
+            synchronized (this) {
+                final N prog = (N) root;
+                if (!_progMap.containsKey(prog)) {
+                    _progMap.put(prog, dataOnly ? new HashSet<ISPNode>() : null);
+                }
+                final Set<ISPNode> nodes = _progMap.get(prog);
+                if (nodes != null) {
+                    if (dataOnly) nodes.add(node); else _progMap.put(prog, null);
+                }
+            }
         }
     }
 
@@ -54,12 +73,14 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
      * being dirty.  In other words, immediately after this method is called
      * no programs are marked dirty.
      *
-     * @return the modified programs, or <code>null</code> if there are none
+     * @return the modified programs, each mapped to the set of nodes whose
+     * data objects were modified or else to <code>null</code> if the
+     * program must be stored in full
      */
-    synchronized List<N> getDirtyPrograms() {
-        final List<N> lst = _progSet.isEmpty() ? Collections.<N>emptyList() : new ArrayList<N>(_progSet);
-        _progSet.clear();
-        return lst;
+    synchronized Map<N, Set<ISPNode>> getDirtyPrograms() {
+        final Map<N, Set<ISPNode>> res = _progMap.isEmpty() ? Collections.<N, Set<ISPNode>>emptyMap() : new HashMap<N, Set<ISPNode>>(_progMap);
+        _progMap.clear();
+        return res;
     }
 
     /**
@@ -67,7 +88,7 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
      * programs.  If the program isn't in the collection, then nothing is done.
      */
     synchronized void removeProgram(N prog) {
-        if (_progSet.size() == 0) return;
-        _progSet.remove(prog);
+        if (_progMap.size() == 0) return;
+        _progMap.remove(prog);
     }
 }
@@ -1,9 +1,11 @@
 package edu.gemini.pot.spdb;
 
 import edu.gemini.pot.sp.ISPNightlyRecord;
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.SPNodeKey;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -27,10 +29,22 @@ public final class DoNothingPersister implements IDBPersister {
         return Collections.emptyList();
     }
 
+    @Override public ProgramIndex indexPrograms() {
+        return ProgramIndex.EMPTY;
+    }
+
+    @Override public ISPProgram loadProgram(SPNodeKey key) {
+        return null;
+    }
+
     @Override public void store(ISPRootNode node) {
         // Do nothing.
     }
 
+    @Override public void storeChanges(ISPRootNode node, Collection<ISPNode> modified) {
+        // Do nothing.
+    }
+
     @Override public void remove(SPNodeKey key) {
         // Do nothing.
     }
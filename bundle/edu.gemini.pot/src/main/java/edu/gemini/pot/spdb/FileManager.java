@@ -6,7 +6,16 @@ import edu.gemini.shared.util.GeminiRuntimeException;
 import edu.gemini.spModel.core.SPProgramID;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -17,6 +26,38 @@ import java.util.*;
  * <code>FileManager</code>.
  */
 final class FileManager implements IDBPersister {
+    private static final Logger LOG = Logger.getLogger(FileManager.class.getName());
+
+    /**
+     * Property that sets the number of threads used to decode program files
+     * when the database is loaded at startup.
+     */
+    private static final String LOAD_THREADS_PROP = FileManager.class.getName() + ".loadThreads";
+
+    /**
+     * Name of the file, in the database directory, that holds the program
+     * index used when programs are loaded on demand.
+     */
+    private static final String INDEX_FILE = "programs.idx";
+
+    /**
+     * Property that turns on incremental storage.  When set, data object
+     * changes are appended to a per-program journal rather than rewriting the
+     * whole program file.  See <code>{@link ProgramJournal}</code>.
+     */
+    private static final String JOURNAL_PROP = FileManager.class.getName() + ".journal";
+
+    /**
+     * Property that sets the journal size (in bytes) at which the journal is
+     * compacted into a new program file.  The journal is also compacted once
+     * it grows beyond half the size of the program file itself.
+     */
+    private static final String JOURNAL_MAX_PROP = FileManager.class.getName() + ".journalMax";
+
+    private static final long DEFAULT_JOURNAL_MAX = 1024 * 1024;
+
+    /** Suffix added to a program file name to name its journal. */
+    public static final String JOURNAL_SUFFIX = ".jnl";
 
     /** The file suffix that is appended to programs in the database. */
     public static final String PROGRAM_SUFFIX = ".sp";
@@ -52,6 +93,20 @@ final class FileManager implements IDBPersister {
     private final MemSerializer _ser;
     private final Map<SPNodeKey, File> _fileMap = new HashMap<SPNodeKey, File>();
 
+    private final boolean _journal = Boolean.getBoolean(JOURNAL_PROP);
+    private final long _journalMax = Long.getLong(JOURNAL_MAX_PROP, DEFAULT_JOURNAL_MAX);
+
+    // Per program monitors that guard journal appends against concurrent
+    // full stores of the same program, which delete the journal.  Only used
+    // when journaling is enabled.  Always taken after the program's read
+    // lock, which callers such as the VCS server may already hold as a write
+    // lock, never the other way around.
+    private final ConcurrentMap<SPNodeKey, Object> _journalLocks = new ConcurrentHashMap<>();
+
+    private Object _journalLock(SPNodeKey key) {
+        return _journalLocks.computeIfAbsent(key, k -> new Object());
+    }
+
     /**
      * Constructs the <code>FileManager</code> with the database directory
      * to use.  The <code>dbDir</code> argument must either be non-existent
@@ -60,9 +115,21 @@ final class FileManager implements IDBPersister {
      * @throws IOException if <code>dbDir</code> is not valid
      */
     FileManager(final File dbDir) throws IOException {
+        this(dbDir, MemSerializer.Format.JAVA);
+    }
+
+    /**
+     * Constructs the <code>FileManager</code> with the database directory
+     * to use and the format in which programs are stored.  Existing files
+     * in either format are read regardless of the storage format, so a
+     * database is converted as its programs are modified.
+     *
+     * @throws IOException if <code>dbDir</code> is not valid
+     */
+    FileManager(final File dbDir, MemSerializer.Format format) throws IOException {
         _setupDbDirectory(dbDir);
         _dbDir = dbDir;
-        _ser   = new MemSerializer();
+        _ser   = new MemSerializer(format);
     }
 
     /**
@@ -137,6 +204,106 @@ final class FileManager implements IDBPersister {
         return reload("plan", _planFilter);
     }
 
+    /**
+     * The result of decoding a single program file.  Exactly one of
+     * <code>node</code> or <code>problem</code> is set unless the file simply
+     * contained nothing.
+     */
+    private static final class LoadResult {
+        final File file;
+        final long bytes;
+        final long millis;
+        final ISPRootNode node;
+        final Exception problem;
+
+        LoadResult(File file, long bytes, long millis, ISPRootNode node, Exception problem) {
+            this.file    = file;
+            this.bytes   = bytes;
+            this.millis  = millis;
+            this.node    = node;
+            this.problem = problem;
+        }
+    }
+
+    /**
+     * Reads and deserializes a single program file, recording the time it
+     * takes and the number of bytes read.  Any problem is captured in the
+     * result rather than thrown.
+     */
+    private LoadResult _load(File progFile) {
+        final long start = System.currentTimeMillis();
+        long bytes = 0;
+        try {
+            final byte[] blob = Files.readAllBytes(progFile.toPath());
+            bytes = blob.length;
+            final ISPRootNode node = (ISPRootNode) _ser.load(blob);
+            if (node != null) {
+                final int replayed = ProgramJournal.replay(_getJournalFile(progFile), node);
+                if (replayed > 0) LOG.fine(String.format("Replayed %d journal records for %s", replayed, progFile.getName()));
+            }
+            return new LoadResult(progFile, bytes, System.currentTimeMillis() - start, node, null);
+        } catch (Exception ex) {
+            return new LoadResult(progFile, bytes, System.currentTimeMillis() - start, null, ex);
+        }
+    }
+
+    /**
+     * Gets the number of threads to use when loading the database, which is
+     * the number of available processors unless overridden by the
+     * <code>loadThreads</code> property.
+     */
+    private static int _getLoadThreads() {
+        final int defaultVal = Runtime.getRuntime().availableProcessors();
+        final String propStr = System.getProperty(LOAD_THREADS_PROP);
+        if (propStr == null) return defaultVal;
+        try {
+            return Math.max(1, Integer.parseInt(propStr.trim()));
+        } catch (NumberFormatException ex) {
+            LOG.warning("Could not parse value of property '" + LOAD_THREADS_PROP + "': " + propStr);
+            return defaultVal;
+        }
+    }
+
+    /**
+     * Decodes all the files concurrently on a bounded pool, returning the
+     * results in the same order as the files.
+     */
+    private List<LoadResult> _loadAll(File[] fileA) throws IOException {
+        final int threads = Math.min(_getLoadThreads(), Math.max(1, fileA.length));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "ODB Loader");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            final List<Future<LoadResult>> futures = new ArrayList<>(fileA.length);
+            for (final File progFile : fileA) futures.add(pool.submit(() -> _load(progFile)));
+
+            final List<LoadResult> results = new ArrayList<>(fileA.length);
+            for (Future<LoadResult> f : futures) results.add(f.get());
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the database", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Problem loading the database", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void _reportProblem(LoadResult res) {
+        final Exception ex = res.problem;
+        final String path  = _getPath(res.file);
+        if ((ex instanceof InvalidClassException) || (ex.getCause() instanceof InvalidClassException)) {
+            System.err.println("Warning: incompatible file: '" + path + "'. Please delete and reimport from XML");
+        } else {
+            System.err.println("Problem reading program file `" + path + "': " + ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     private <T extends ISPRootNode> List<T> reload(final String name, final FileFilter filter) throws IOException {
         System.out.println(String.format("Loading the %s database ...", name));
 
@@ -144,29 +311,32 @@ final class FileManager implements IDBPersister {
         final File[] fileA    = _dbDir.listFiles(filter);
         final List<T> retList = new ArrayList<T>(fileA.length);
 
-        // Try to load each file.
-        for (final File progFile : fileA) {
-
-            // Load the program file.
-            final T prog;
-            try {
-                prog = (T) _ser.load(progFile);
-                if (prog == null) continue;
-            } catch (Exception ex) {
-                String path = _getPath(progFile);
-                if (ex.getCause() instanceof InvalidClassException) {
-                    System.err.println("Warning: incompatible file: '" + path + "'. Please delete and reimport from XML");
-                } else {
-                    System.err.println("Problem reading program file `" + path + "': " + ex);
-                }
+        // Sort so that duplicate keys are always resolved the same way
+        // regardless of the order in which the files finish loading.
+        Arrays.sort(fileA, Comparator.comparing(File::getName));
+
+        long totalBytes = 0;
+        for (final LoadResult res : _loadAll(fileA)) {
+            final File progFile = res.file;
+            totalBytes += res.bytes;
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(String.format("Loaded %s: %d bytes in %d ms", progFile.getName(), res.bytes, res.millis));
+            }
+
+            if (res.problem != null) {
+                _reportProblem(res);
                 continue;
             }
 
+            final T prog = (T) res.node;
+            if (prog == null) continue;
+
             // If there are two program files with the same program (i.e.,
             // with the same key), just skip the next one read.
             final SPNodeKey key = prog.getNodeKey();
             if (_fileMap.get(key) != null) {
-                System.out.println("Already loaded: " + key);
+                System.out.println("Already loaded: " + key + " (skipping " + progFile.getName() + ")");
                 continue; // already loaded
             }
             _fileMap.put(key, progFile);
@@ -176,12 +346,140 @@ final class FileManager implements IDBPersister {
 
         final long time2 = System.currentTimeMillis();
 
-        final String msg = String.format("Finished loading: %d ms, %d %ss", time2-time1, fileA.length, name);
+        final String msg = String.format("Finished loading: %d ms, %d %ss, %d bytes", time2-time1, fileA.length, name, totalBytes);
         System.out.println(msg);
         return retList;
 
     }
 
+    /**
+     * An index entry as recorded in the index file, along with the size and
+     * modification time of the program file it summarizes.  An entry is only
+     * trusted if the file has not changed since it was written.
+     */
+    private static final class IndexRecord implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final ProgramIndexEntry entry;
+        final long length;
+        final long lastModified;
+
+        IndexRecord(ProgramIndexEntry entry, File f) {
+            this.entry        = entry;
+            this.length       = f.length();
+            this.lastModified = f.lastModified();
+        }
+
+        boolean isCurrent(File f) {
+            return (f.length() == length) && (f.lastModified() == lastModified);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, IndexRecord> _readIndex() {
+        final File indexFile = new File(_dbDir, INDEX_FILE);
+        if (!indexFile.exists()) return new HashMap<>();
+
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            return (Map<String, IndexRecord>) ois.readObject();
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Could not read the program index, all programs will be loaded", ex);
+            return new HashMap<>();
+        }
+    }
+
+    private void _writeIndex(HashMap<String, IndexRecord> index) {
+        try {
+            final File indexFile = new File(_dbDir, INDEX_FILE);
+            final File tmpFile   = _createTempFile(indexFile);
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                oos.writeObject(index);
+            }
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) throw new IOException("Couldn't rename " + tmpFile);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Could not write the program index", ex);
+        }
+    }
+
+    /**
+     * Indexes the program files, deserializing only those whose index entry
+     * is missing or out of date.  The updated index is written back to the
+     * database directory so that the next startup can skip them as well.
+     * Duplicate keys are resolved in file name order, as in
+     * {@link #reloadPrograms}.
+     */
+    public ProgramIndex indexPrograms() throws IOException {
+        System.out.println("Indexing the program database ...");
+
+        final long time1   = System.currentTimeMillis();
+        final File[] fileA = _dbDir.listFiles(_progFilter);
+        Arrays.sort(fileA, Comparator.comparing(File::getName));
+
+        final Map<String, IndexRecord> oldIndex = _readIndex();
+        final HashMap<String, IndexRecord> newIndex = new HashMap<>();
+
+        final List<File> stale = new ArrayList<>();
+        for (File f : fileA) {
+            final IndexRecord rec = oldIndex.get(f.getName());
+            if ((rec == null) || !rec.isCurrent(f) || _getJournalFile(f).exists()) stale.add(f);
+        }
+
+        final Map<File, LoadResult> loadMap = new HashMap<>();
+        for (LoadResult res : _loadAll(stale.toArray(new File[stale.size()]))) {
+            loadMap.put(res.file, res);
+        }
+
+        final List<ISPProgram> loaded = new ArrayList<>(stale.size());
+        final List<ProgramIndexEntry> unloaded = new ArrayList<>(fileA.length - stale.size());
+        for (File f : fileA) {
+            final LoadResult res = loadMap.get(f);
+            final ProgramIndexEntry entry;
+            final ISPProgram prog;
+            if (res == null) {
+                entry = oldIndex.get(f.getName()).entry;
+                prog  = null;
+            } else if (res.problem != null) {
+                _reportProblem(res);
+                continue;
+            } else if (res.node == null) {
+                continue;
+            } else {
+                prog  = (ISPProgram) res.node;
+                entry = ProgramIndexEntry.of(prog);
+            }
+
+            if (_fileMap.get(entry.key) != null) {
+                System.out.println("Already loaded: " + entry.key + " (skipping " + f.getName() + ")");
+                continue;
+            }
+            _fileMap.put(entry.key, f);
+            newIndex.put(f.getName(), new IndexRecord(entry, f));
+
+            if (prog == null) unloaded.add(entry); else loaded.add(prog);
+        }
+
+        _writeIndex(newIndex);
+
+        final long time2 = System.currentTimeMillis();
+        System.out.println(String.format("Finished indexing: %d ms, %d programs, %d loaded", time2-time1, fileA.length, loaded.size()));
+        return new ProgramIndex(loaded, unloaded);
+    }
+
+    public ISPProgram loadProgram(SPNodeKey key) throws IOException {
+        final File f;
+        synchronized (this) {
+            f = _fileMap.get(key);
+        }
+        if (f == null) return null;
+
+        final LoadResult res = _load(f);
+        if (res.problem instanceof IOException) throw (IOException) res.problem;
+        if (res.problem != null) throw new IOException("Problem reading program file " + _getPath(f), res.problem);
+        LOG.fine(String.format("Faulted in %s: %d bytes in %d ms", f.getName(), res.bytes, res.millis));
+        return (ISPProgram) res.node;
+    }
+
     public void store(ISPRootNode mab) throws IOException {
         if (mab instanceof ISPNightlyRecord) {
             _storeProgram(mab, PLAN_SUFFIX);
@@ -191,6 +489,50 @@ final class FileManager implements IDBPersister {
     }
 
 
+    /**
+     * Gets the journal file associated with the given program file.
+     */
+    private static File _getJournalFile(File progFile) {
+        return new File(progFile.getParentFile(), progFile.getName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Appends the modified nodes to the program's journal when incremental
+     * storage is enabled, compacting the journal into a new program file once
+     * it grows too large.  Otherwise, or if the program has not yet been
+     * stored under its current name, the whole program is stored.
+     */
+    public void storeChanges(ISPRootNode mab, Collection<ISPNode> modified) throws IOException {
+        final String suffix = (mab instanceof ISPNightlyRecord) ? PLAN_SUFFIX : PROGRAM_SUFFIX;
+        final File progFile = _getDocumentFile(mab, suffix);
+
+        final boolean stored;
+        synchronized (this) {
+            stored = progFile.equals(_fileMap.get(mab.getNodeKey())) && progFile.exists();
+        }
+        if (!_journal || !stored) {
+            store(mab);
+            return;
+        }
+
+        final File journal = _getJournalFile(progFile);
+        final SPNodeKey key = mab.getProgramKey();
+        SPNodeKeyLocks.instance.readLock(key);
+        try {
+            synchronized (_journalLock(key)) {
+                ProgramJournal.append(journal, mab, modified);
+            }
+        } finally {
+            SPNodeKeyLocks.instance.readUnlock(key);
+        }
+
+        final long len = journal.length();
+        if ((len > _journalMax) || (len > progFile.length() / 2)) {
+            LOG.fine(String.format("Compacting journal for %s (%d bytes)", progFile.getName(), len));
+            store(mab);
+        }
+    }
+
     private File _storeProgram(ISPRootNode node, String suffix) throws IOException {
         final SPNodeKey key = node.getNodeKey();
         final File newFile = _getDocumentFile(node, suffix);
@@ -202,6 +544,7 @@ final class FileManager implements IDBPersister {
             if ((oldFile != null) && !newFile.equals(oldFile) && oldFile.exists()) {
                 // Cleanup the old file
                 oldFile.delete();
+                _getJournalFile(oldFile).delete();
             }
             _fileMap.put(key, newFile);
         }
@@ -219,28 +562,47 @@ final class FileManager implements IDBPersister {
         final SPNodeKey key = node.getProgramKey();
         SPNodeKeyLocks.instance.readLock(key);
         try {
-            // Write the object to the temp file.
-            _ser.store(node, tmpFile);
-
-            // Rename the temp file to the destination file.
-            file.delete(); // under win2k, rename fails if file exists
-            if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
+            if (_journal) {
+                synchronized (_journalLock(key)) {
+                    _replaceProgramFile(node, tmpFile, file);
+                }
+            } else {
+                _replaceProgramFile(node, tmpFile, file);
+            }
         } finally {
             SPNodeKeyLocks.instance.readUnlock(key);
         }
     }
 
+    private void _replaceProgramFile(ISPRootNode node, File tmpFile, File file) throws IOException {
+        // Write the object to the temp file.
+        _ser.store(node, tmpFile);
+
+        // Rename the temp file to the destination file.
+        file.delete(); // under win2k, rename fails if file exists
+        if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
+
+        // The journal is now reflected in the program file.  Should we crash
+        // before deleting it, its records are older than the nodes in the new
+        // program file and skipped on replay.
+        _getJournalFile(file).delete();
+    }
+
     @Override public synchronized long size(SPNodeKey key) {
         final File f = _fileMap.get(key);
-        return (f == null) ? -1 : f.length();
+        return (f == null) ? -1 : f.length() + _getJournalFile(f).length();
     }
 
     /**
      * Removes the given program, erasing the file associated with it.
      */
     public synchronized void remove(SPNodeKey key) {
+        _journalLocks.remove(key);
         final File progFile = _fileMap.remove(key);
-        if (progFile != null) progFile.delete();
+        if (progFile != null) {
+            progFile.delete();
+            _getJournalFile(progFile).delete();
+        }
     }
 
     /**
@@ -273,7 +635,7 @@ final class FileManager implements IDBPersister {
         final File[] fileA    = _dbDir.listFiles(filter);
         long total = 0L;
         for (final File progFile : fileA)
-            total = total + progFile.length();
+            total = total + progFile.length() + _getJournalFile(progFile).length();
         return total;
     }
 
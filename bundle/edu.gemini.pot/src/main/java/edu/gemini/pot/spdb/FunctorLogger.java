@@ -4,6 +4,8 @@
 
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.SPNodeKey;
+
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.logging.Level;
@@ -134,6 +136,18 @@ final class FunctorLogger {
         LOG.log(level, "Finished" + (query ? " query " : " ") + " functor " + functor.getClass().getName() + " in " + execTime + " ms on thread " + Thread.currentThread().getName());
     }
 
+    /**
+     * Records the execution time of a single program shard of an
+     * {@link IDBShardedQueryFunctor}.
+     */
+    void logShard(IDBFunctor shard, SPNodeKey progKey, int nodeCount, long execTime) {
+        Level level = Level.FINE;
+        if (getWarningThreshold() <= execTime) level = Level.WARNING;
+        if (!LOG.isLoggable(level)) return;
+
+        LOG.log(level, "Finished shard of query functor " + shard.getClass().getName() + " on program " + progKey + " (" + nodeCount + " nodes) in " + execTime + " ms on thread " + Thread.currentThread().getName());
+    }
+
     void cancel() {
         functorTimer.cancel();
     }
@@ -191,6 +191,11 @@ public interface IDBDatabaseService {
 
     void unregisterTrigger(IDBTriggerCondition condition, IDBTriggerAction action);
 
+    /**
+     * Gets statistics about the dispatch of trigger actions, for monitoring.
+     */
+    TriggerStatistics getTriggerStatistics();
+
     /**
      * Finds the program node key associated with the given program id, if any.
      * @return the program key that identifies the program with the given
@@ -3,6 +3,7 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.*;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 // A lame interface that closely matches the existing FileManager so as to
@@ -11,7 +12,28 @@ import java.util.List;
 interface IDBPersister {
     List<ISPProgram> reloadPrograms() throws IOException;
     List<ISPNightlyRecord> reloadPlans() throws IOException;
+
+    /**
+     * Indexes the stored programs without necessarily deserializing them.
+     * Used instead of {@link #reloadPrograms} when programs are loaded on
+     * demand.
+     */
+    ProgramIndex indexPrograms() throws IOException;
+
+    /**
+     * Deserializes the stored program with the given key, or returns
+     * <code>null</code> if there is no such program.
+     */
+    ISPProgram loadProgram(SPNodeKey key) throws IOException;
+
     void store(ISPRootNode node) throws IOException;
+
+    /**
+     * Stores the changes made to the data objects of the given nodes of the
+     * program since it was last stored.  Persisters that cannot store changes
+     * incrementally simply store the whole program.
+     */
+    void storeChanges(ISPRootNode node, Collection<ISPNode> modified) throws IOException;
     void remove(SPNodeKey key);
 
     /** Gets the size of the program file on disk, or -1 if not known. */
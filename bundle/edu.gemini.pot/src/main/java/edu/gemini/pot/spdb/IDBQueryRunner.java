@@ -36,6 +36,28 @@ public interface IDBQueryRunner {
      */
     <T extends IDBQueryFunctor> T queryPrograms(T functor) ;
 
+    /**
+     * Queries the observations that match the given <code>predicate</code>,
+     * applying the given <code>functor</code> on each.  The matching
+     * observations are found with the database's secondary indexes, so only
+     * those observations are visited.
+     *
+     * @return the query functor itself; if called remotely the return
+     * value will (of course) be a distinct copy of the method argument
+     */
+    <T extends IDBQueryFunctor> T queryObservations(DBIndexPredicate predicate, T functor) ;
+
+    /**
+     * Queries the programs that match the given <code>predicate</code>,
+     * applying the given <code>functor</code> on each.  The matching
+     * programs are found with the database's secondary indexes, so only
+     * those programs are visited.
+     *
+     * @return the query functor itself; if called remotely the return
+     * value will (of course) be a distinct copy of the method argument
+     */
+    <T extends IDBQueryFunctor> T queryPrograms(DBIndexPredicate predicate, T functor) ;
+
     /**
      * Queries the available nightly plans, applying the given
      * <code>functor</code> on each.
@@ -0,0 +1,42 @@
+package edu.gemini.pot.spdb;
+
+import java.util.Collection;
+
+/**
+ * An <code>{@link IDBQueryFunctor}</code> that may be executed in parallel,
+ * one shard per program.  When a functor implementing this interface is
+ * passed to the <code>{@link IDBQueryRunner}</code>, the runner creates a
+ * fresh shard (via {@link #newShard}) for each program and applies it to that
+ * program's nodes on a worker thread while holding the program's read lock.
+ * Each shard sees the usual <code>init</code>, <code>isDone</code>,
+ * <code>execute</code>, <code>finished</code> sequence, but only for the
+ * nodes of its own program.
+ *
+ * <p>Once all shards complete, the original functor's
+ * {@link #mergeResults} method is called with the executed shards so that
+ * it can combine them into a single result.  The original functor itself is
+ * never passed to <code>execute</code> in this mode, though its
+ * <code>init</code> and <code>finished</code> methods are called before
+ * and after the shards run respectively.
+ *
+ * <p>Functors that do not implement this interface are executed
+ * sequentially, exactly as before.
+ */
+public interface IDBShardedQueryFunctor extends IDBQueryFunctor {
+
+    /**
+     * Creates a new, empty functor of the same type and configuration as this
+     * one that will be applied to the nodes of a single program.
+     */
+    IDBShardedQueryFunctor newShard();
+
+    /**
+     * Merges the results contained in the collection of executed shards into
+     * this functor.  Shards are supplied in program order, as they would have
+     * been visited by a sequential query.
+     *
+     * @param functorCollection collection of shards created by
+     * {@link #newShard} and executed by the query runner
+     */
+    void mergeResults(Collection<IDBFunctor> functorCollection);
+}
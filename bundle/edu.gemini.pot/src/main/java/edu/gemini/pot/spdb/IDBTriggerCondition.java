@@ -3,6 +3,7 @@
 //
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.SPCompositeChange;
 
 import java.io.Serializable;
@@ -18,7 +19,9 @@ import java.io.Serializable;
  * value has changed.
  *
  * <p>When a trigger condition is matched, the associated
- * {@link IDBTriggerAction} registered with it is executed.
+ * {@link IDBTriggerAction} registered with it is executed.  Repeated matches
+ * with equal handback objects that happen close together in time may be
+ * coalesced into a single execution of the action with the latest change.
  */
 public interface IDBTriggerCondition extends Serializable {
 
@@ -34,4 +37,15 @@ public interface IDBTriggerCondition extends Serializable {
      * passed to the corresponding {@link IDBTriggerAction}
      */
     Object matches(SPCompositeChange change);
+
+    /**
+     * The type of node whose changes may match this condition.  Changes to
+     * other nodes are not passed to {@link #matches}, which saves evaluating
+     * the condition for the many changes that cannot be of interest.
+     *
+     * @return node type of interest, by default any node
+     */
+    default Class<? extends ISPNode> getNodeType() {
+        return ISPNode.class;
+    }
 }
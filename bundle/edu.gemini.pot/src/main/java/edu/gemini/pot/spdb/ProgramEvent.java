@@ -18,15 +18,26 @@ import java.util.EventObject;
 public final class ProgramEvent<N extends ISPRootNode> extends EventObject {
     private final N _old;
     private final N _new;
+    private final boolean _reload;
 
     /**
      * Constructs with the <code>ProgramManager</code> reference and the
      * program that was added or removed.
      */
     public ProgramEvent(Object source, N oldRoot, N newRoot) {
+        this(source, oldRoot, newRoot, false);
+    }
+
+    /**
+     * Constructs with the <code>ProgramManager</code> reference, the
+     * program that was added or removed, and whether the program was added
+     * because it was loaded back from storage.
+     */
+    public ProgramEvent(Object source, N oldRoot, N newRoot, boolean reload) {
         super(source);
-        _old = oldRoot;
-        _new = newRoot;
+        _old    = oldRoot;
+        _new    = newRoot;
+        _reload = reload;
     }
 
     /**
@@ -42,5 +53,13 @@ public final class ProgramEvent<N extends ISPRootNode> extends EventObject {
      * removed, <code>null</code> is returned.
      */
     public N getNewProgram() { return _new; }
+
+    /**
+     * Determines whether this event announces a copy of an existing program
+     * that was loaded back from storage after having been evicted from
+     * memory, rather than a new program.  Listeners should attach to the new
+     * copy as for any added program.
+     */
+    public boolean isReload() { return _reload; }
 }
 
@@ -0,0 +1,23 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPProgram;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of indexing the stored programs at startup.  Programs that had
+ * to be deserialized in order to index them are returned in full, the rest
+ * are represented only by their <code>{@link ProgramIndexEntry}</code>.
+ */
+final class ProgramIndex {
+    static final ProgramIndex EMPTY = new ProgramIndex(Collections.<ISPProgram>emptyList(), Collections.<ProgramIndexEntry>emptyList());
+
+    final List<ISPProgram> loaded;
+    final List<ProgramIndexEntry> unloaded;
+
+    ProgramIndex(List<ISPProgram> loaded, List<ProgramIndexEntry> unloaded) {
+        this.loaded   = Collections.unmodifiableList(loaded);
+        this.unloaded = Collections.unmodifiableList(unloaded);
+    }
+}
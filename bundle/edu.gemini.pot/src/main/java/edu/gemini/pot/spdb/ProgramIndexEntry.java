@@ -0,0 +1,54 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.core.ProgramId;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.core.Semester;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+
+import java.io.Serializable;
+
+/**
+ * A small summary of a stored program that is kept in memory in place of the
+ * full program tree when the program is not resident.  See
+ * <code>{@link ProgramManager}</code>.
+ */
+final class ProgramIndexEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final SPNodeKey key;
+    final SPProgramID progId;
+    final boolean active;
+    final String semester;
+
+    ProgramIndexEntry(SPNodeKey key, SPProgramID progId, boolean active, String semester) {
+        if (key == null) throw new NullPointerException("key");
+        this.key      = key;
+        this.progId   = progId;
+        this.active   = active;
+        this.semester = semester;
+    }
+
+    /**
+     * Creates the index entry that corresponds to the given program.
+     */
+    static ProgramIndexEntry of(ISPProgram prog) {
+        final SPProgramID id = prog.getProgramID();
+
+        final Object dataObj = prog.getDataObject();
+        final boolean active = !(dataObj instanceof SPProgram) || ((SPProgram) dataObj).isActive();
+
+        String semester = null;
+        if (id != null) {
+            final scala.Option<Semester> s = ProgramId.parse(id.stringValue()).semester();
+            if (s.isDefined()) semester = s.get().toString();
+        }
+
+        return new ProgramIndexEntry(prog.getProgramKey(), id, active, semester);
+    }
+
+    @Override public String toString() {
+        return "ProgramIndexEntry{key=" + key + ", progId=" + progId + ", active=" + active + ", semester=" + semester + "}";
+    }
+}
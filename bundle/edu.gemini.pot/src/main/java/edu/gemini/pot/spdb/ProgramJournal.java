@@ -0,0 +1,172 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPContainerNode;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPRootNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.data.ISPDataObject;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only journal of node-level changes made to a program since it
+ * was last stored in full.  Each record holds the data object and version
+ * vector of a single node as they were when the record was written.  When a
+ * program is loaded, the records are replayed in order on top of the stored
+ * program, so a program may be persisted by writing just the nodes that
+ * changed rather than the whole tree.
+ *
+ * <p>Only data object changes are journaled.  Any other modification (for
+ * example a change to the structure of the program) requires storing the
+ * whole program, which also discards the journal.
+ *
+ * <p>Records are length-prefixed.  A truncated final record, as might be
+ * left behind by a crash while appending, is ignored and trimmed from the
+ * file when the journal is replayed.
+ *
+ * <p>A record is only applied if its version vector is newer than that of
+ * the node in the stored program.  The journal is deleted after a new
+ * program file replaces the old one, so a crash in between leaves behind a
+ * journal whose records are all already reflected in the newer program
+ * file.  Since every modification advances the node's version, those
+ * records are recognized as stale and skipped rather than applied over the
+ * newer state.
+ */
+final class ProgramJournal {
+    private static final Logger LOG = Logger.getLogger(ProgramJournal.class.getName());
+
+    private ProgramJournal() {}
+
+    private static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final SPNodeKey key;
+        final ISPDataObject dataObject;
+        final VersionVector<LifespanId, Integer> version;
+
+        Entry(ISPNode node) {
+            key        = node.getNodeKey();
+            dataObject = node.getDataObject();
+            version    = node.getVersion();
+        }
+    }
+
+    // Resolves classes with the bundle's class loader if possible.
+    private static final class EntryInputStream extends ObjectInputStream {
+        EntryInputStream(InputStream is) throws IOException {
+            super(is);
+        }
+
+        @Override protected Class<?> resolveClass(ObjectStreamClass osc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(osc.getName(), false, ProgramJournal.class.getClassLoader());
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(osc);
+            }
+        }
+    }
+
+    /**
+     * Appends a record for each of the given nodes of <code>root</code> to
+     * the journal file.  The program read lock is held while the records
+     * are created so that each reflects a consistent state.
+     */
+    static void append(File journal, ISPRootNode root, Collection<ISPNode> nodes) throws IOException {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(records);
+
+        root.getProgramReadLock();
+        try {
+            for (ISPNode node : nodes) {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                    oos.writeObject(new Entry(node));
+                }
+                dos.writeInt(baos.size());
+                baos.writeTo(dos);
+            }
+        } finally {
+            root.returnProgramReadLock();
+        }
+
+        try (FileOutputStream fos = new FileOutputStream(journal, true)) {
+            records.writeTo(fos);
+            fos.flush();
+        }
+    }
+
+    private static void collect(ISPNode node, Map<SPNodeKey, ISPNode> m) {
+        m.put(node.getNodeKey(), node);
+        if (node instanceof ISPContainerNode) {
+            for (ISPNode child : ((ISPContainerNode) node).getChildren()) collect(child, m);
+        }
+    }
+
+    /**
+     * Replays the records in the journal file, if any, on top of the given
+     * program.  Records that are not newer than the corresponding node are
+     * skipped.
+     *
+     * @return number of records applied
+     */
+    static int replay(File journal, ISPRootNode root) throws IOException {
+        if (!journal.exists()) return 0;
+
+        final Map<SPNodeKey, ISPNode> nodes = new HashMap<>();
+        collect(root, nodes);
+
+        int count = 0;
+        int stale = 0;
+        long end  = 0; // end of the last complete record
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            while (true) {
+                final byte[] record;
+                try {
+                    final int len = dis.readInt();
+                    if (len < 0) throw new StreamCorruptedException("Bad record length in " + journal + ": " + len);
+                    record = new byte[len];
+                    dis.readFully(record);
+                } catch (EOFException ex) {
+                    break; // end of journal, or a truncated final record
+                }
+                end += 4 + record.length;
+
+                final Entry e;
+                try (ObjectInputStream ois = new EntryInputStream(new ByteArrayInputStream(record))) {
+                    e = (Entry) ois.readObject();
+                } catch (ClassNotFoundException ex) {
+                    throw new IOException("Could not read journal record in " + journal, ex);
+                }
+
+                final ISPNode node = nodes.get(e.key);
+                if (node == null) {
+                    LOG.log(Level.WARNING, "Journal " + journal.getName() + " refers to missing node " + e.key);
+                } else if (e.version.compareOrIncomparable(node.getVersion()) != 1) {
+                    ++stale;
+                } else {
+                    node.setDataObjectAndVersion(e.dataObject, e.version);
+                    ++count;
+                }
+            }
+        }
+
+        if (stale > 0) {
+            LOG.log(Level.WARNING, String.format("Skipped %d stale records in journal %s", stale, journal.getName()));
+        }
+
+        if (end < journal.length()) {
+            LOG.log(Level.WARNING, "Trimming incomplete record from journal " + journal.getName());
+            try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+                raf.setLength(end);
+            }
+        }
+        return count;
+    }
+}
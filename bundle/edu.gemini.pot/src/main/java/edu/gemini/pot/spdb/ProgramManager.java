@@ -4,6 +4,8 @@ import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.SPNodeKey;
 import edu.gemini.spModel.core.SPProgramID;
 
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.logging.Level;
@@ -15,29 +17,213 @@ import java.util.logging.Logger;
  * to all the programs in the database are kept.  It provides access to those
  * programs and support for listening to changes when programs are added or
  * removed.
+ *
+ * <p>The program manager may optionally be configured to load programs on
+ * demand.  In this mode only a {@link ProgramIndexEntry} is kept for programs
+ * that have not been used, and the full program is faulted in from storage
+ * the first time it is looked up.  At most <code>maxResident</code> programs
+ * are strongly held, in least-recently-used order.  Evicted programs are
+ * only softly held so that they are reclaimed under memory pressure but any
+ * program still referenced elsewhere (for example because it has unsaved
+ * modifications) is found again rather than reloaded from disk.  Programs
+ * are read from storage without holding the program manager's lock.
+ *
+ * <p>A program faulted in from storage is a new copy, so listeners that
+ * were attached to an evicted copy must attach to it again.  Residency
+ * listeners are told through {@link ResidencyListener#programLoaded}; all
+ * other program event listeners receive a <code>programAdded</code> event
+ * for which {@link ProgramEvent#isReload} is set.
  */
 final class ProgramManager<N extends ISPRootNode> {
     private static final Logger LOG = Logger.getLogger(ProgramManager.class.getName());
 
+    /**
+     * Loads a program that is not resident.
+     */
+    interface ProgramLoader<N> {
+        N load(SPNodeKey key) throws IOException;
+    }
+
+    /**
+     * Notified whenever a program is faulted in from storage, so that
+     * listeners that were attached to a previously evicted copy may be
+     * attached to the new one.
+     */
+    interface ResidencyListener<N> {
+        void programLoaded(N prog);
+    }
+
     private final List<ProgramEventListener<N>> _listeners;  // Can't use EventSupport with non-public inf.
-    private final Map<SPNodeKey, N>   _progKeyMap;
-    private final Map<SPProgramID, N> _progIdMap;
+    private final List<ResidencyListener<N>> _residencyListeners;
+
+    private final Set<SPNodeKey> _allKeys;
+    private final Map<SPNodeKey, N> _progKeyMap;
+    private final Map<SPProgramID, SPNodeKey> _progIdMap;
+
+    // Only used when loading on demand.
+    private final ProgramLoader<N> _loader;
+    private final int _maxResident;
+    private final Map<SPNodeKey, SoftReference<N>> _evicted;
 
     /**
-     * Constructs with the initial collection of programs.
+     * Constructs with the initial collection of programs, all of which are
+     * kept resident.
      */
     ProgramManager(Collection<N> progCollection) {
-        _listeners  = new ArrayList<>();
-        _progKeyMap = new TreeMap<>();
-        _progIdMap  = new TreeMap<>();
+        this(progCollection, Collections.<ProgramIndexEntry>emptyList(), null, Integer.MAX_VALUE);
+    }
 
-        for (N prog : progCollection) {
-            _progKeyMap.put(prog.getProgramKey(), prog);
+    /**
+     * Constructs a program manager that loads programs on demand.
+     *
+     * @param loaded programs that have already been loaded
+     * @param unloaded index entries for the programs that have not been
+     * loaded
+     * @param loader used to fault in programs when they are first accessed
+     * @param maxResident maximum number of programs to strongly hold
+     */
+    ProgramManager(Collection<N> loaded, Collection<ProgramIndexEntry> unloaded, ProgramLoader<N> loader, int maxResident) {
+        _listeners          = new ArrayList<>();
+        _residencyListeners = new ArrayList<>();
+        _allKeys            = new TreeSet<>();
+        _progKeyMap         = new LinkedHashMap<>(16, 0.75f, true);
+        _progIdMap          = new TreeMap<>();
+        _loader             = loader;
+        _maxResident        = Math.max(1, maxResident);
+        _evicted            = new HashMap<>();
+
+        for (ProgramIndexEntry e : unloaded) {
+            _allKeys.add(e.key);
+            if (e.progId != null) _progIdMap.put(e.progId, e.key);
+        }
+
+        for (N prog : loaded) {
+            final SPNodeKey key = prog.getProgramKey();
+            _allKeys.add(key);
             final SPProgramID progId = prog.getProgramID();
-            if (progId != null) _progIdMap.put(progId, prog);
+            if (progId != null) _progIdMap.put(progId, key);
+            _makeResident(key, prog);
         }
     }
 
+    /**
+     * Adds a listener that is informed whenever a program is faulted in.
+     */
+    void addResidencyListener(ResidencyListener<N> rl) {
+        synchronized (_residencyListeners) {
+            if (!_residencyListeners.contains(rl)) _residencyListeners.add(rl);
+        }
+    }
+
+    void removeResidencyListener(ResidencyListener<N> rl) {
+        synchronized (_residencyListeners) {
+            _residencyListeners.remove(rl);
+        }
+    }
+
+    /**
+     * Records the program as resident and most recently used, evicting the
+     * least recently used programs if there are now too many.
+     */
+    private void _makeResident(SPNodeKey key, N prog) {
+        _evicted.remove(key);
+        _progKeyMap.put(key, prog);
+
+        if (_progKeyMap.size() <= _maxResident) return;
+
+        final Iterator<Map.Entry<SPNodeKey, N>> it = _progKeyMap.entrySet().iterator();
+        while (_progKeyMap.size() > _maxResident) {
+            final Map.Entry<SPNodeKey, N> me = it.next();
+            it.remove();
+            _evicted.put(me.getKey(), new SoftReference<>(me.getValue()));
+        }
+    }
+
+    /**
+     * Finds the program if it is resident or was evicted but is still
+     * reachable.  Must be called with the lock held.
+     */
+    private N _resident(SPNodeKey key) {
+        N prog = _progKeyMap.get(key);
+        if (prog != null) return prog;
+
+        final SoftReference<N> ref = _evicted.get(key);
+        if (ref != null) {
+            prog = ref.get();
+            if (prog != null) {
+                _makeResident(key, prog);
+                return prog;
+            }
+            _evicted.remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the program if it is resident or still reachable, falling back
+     * to a copy faulted in earlier without the lock if the program is still
+     * known.  Must be called with the lock held.
+     */
+    private N _resident(SPNodeKey key, N faulted) {
+        final N prog = _resident(key);
+        return ((prog == null) && (faulted != null) && _allKeys.contains(key)) ? faulted : prog;
+    }
+
+    /**
+     * Finds the program if it is resident, was evicted but is still
+     * reachable, or can be faulted in.  Must be called without the lock held
+     * since faulting in the program reads it from storage.
+     */
+    private N _lookup(SPNodeKey key) {
+        synchronized (this) {
+            final N prog = _resident(key);
+            if ((prog != null) || (_loader == null) || !_allKeys.contains(key)) return prog;
+        }
+
+        final N loaded;
+        try {
+            loaded = _loader.load(key);
+        } catch (IOException ex) {
+            LOG.log(Level.SEVERE, "Could not load program " + key, ex);
+            return null;
+        }
+        if (loaded == null) return null;
+
+        synchronized (this) {
+            // Another thread may have loaded, replaced or removed the program
+            // in the meantime.
+            final N prog = _resident(key);
+            if (prog != null) return prog;
+            if (!_allKeys.contains(key)) return null;
+            _makeResident(key, loaded);
+        }
+
+        _fireProgramLoaded(loaded);
+        return loaded;
+    }
+
+    private void _fireProgramLoaded(N prog) {
+        final List<ResidencyListener<N>> listeners;
+        synchronized (_residencyListeners) {
+            listeners = new ArrayList<>(_residencyListeners);
+        }
+        for (ResidencyListener<N> rl : listeners) {
+            try {
+                rl.programLoaded(prog);
+            } catch (Exception ex) {
+                LOG.log(Level.SEVERE, "Couldn't notify " + rl + " of loaded program", ex);
+            }
+        }
+
+        // Everybody else sees the reloaded copy as an added program.
+        final List<ProgramEventListener<N>> others;
+        synchronized (_listeners) {
+            others = new ArrayList<>(_listeners);
+        }
+        others.removeAll(listeners);
+        _fireEvent(others, new ProgramEvent<>(this, null, prog, true), "programAdded");
+    }
+
     /**
      * Adds a program manager listener; it will be informed when programs are
      * added or removed.  If the listener is already present, nothing changes.
@@ -71,8 +257,11 @@ final class ProgramManager<N extends ISPRootNode> {
             if (_listeners.size() == 0) return;  // nobody to notify anyway
             listeners = new ArrayList<>(_listeners);
         }
+        _fireEvent(listeners, new ProgramEvent<>(this, oldProg, newProg), methodName);
+    }
 
-        final ProgramEvent<N> pme = new ProgramEvent<>(this, oldProg, newProg);
+    private void _fireEvent(List<ProgramEventListener<N>> listeners, ProgramEvent<N> pme, String methodName) {
+        if (listeners.isEmpty()) return;
 
         final Method method;
         try {
@@ -106,20 +295,20 @@ final class ProgramManager<N extends ISPRootNode> {
      * Fetches the named program if the <code>ProgramManager</code>
      * knows of it; returns <code>null</code> otherwise.
      */
-    synchronized N lookupProgram(SPNodeKey progKey) {
-        return _progKeyMap.get(progKey);
+    N lookupProgram(SPNodeKey progKey) {
+        return _lookup(progKey);
     }
 
     synchronized SPNodeKey lookupProgramKey(SPProgramID progID) {
-        final N prog = lookupProgramByID(progID);
-        return (prog == null) ? null : prog.getProgramKey();
+        return (progID == null) ? null : _progIdMap.get(progID);
     }
 
     /**
      * Fetches the named program if found; returns <code>null</code> otherwise
      */
-    synchronized N lookupProgramByID(SPProgramID progID) {
-        return (progID == null) ? null : _progIdMap.get(progID);
+    N lookupProgramByID(SPProgramID progID) {
+        final SPNodeKey key = lookupProgramKey(progID);
+        return (key == null) ? null : _lookup(key);
     }
 
     /**
@@ -129,17 +318,19 @@ final class ProgramManager<N extends ISPRootNode> {
     N putProgram(N newProg) throws DBIDClashException {
         final SPNodeKey  key = newProg.getProgramKey();
         final SPProgramID id = newProg.getProgramID();
+        // Fault in any stored copy without the lock.
+        final N existing = _lookup(key);
         final N oldProg;
         synchronized (this) {
-            final N tmp0 = _progKeyMap.get(key);
+            final N tmp0 = _resident(key, existing);
             if (tmp0 == newProg) return null; // already present, do nothing
             oldProg = tmp0;
 
             // If some other program has the same id, we cannot add newProg
             if (id != null) {
-                final N tmp1 = _progIdMap.get(id);
-                if ((tmp1 != null) && (tmp1 != oldProg)) {
-                    throw new DBIDClashException(id, tmp1.getProgramKey(), key);
+                final SPNodeKey tmp1 = _progIdMap.get(id);
+                if ((tmp1 != null) && !tmp1.equals(key)) {
+                    throw new DBIDClashException(id, tmp1, key);
                 }
             }
 
@@ -148,8 +339,9 @@ final class ProgramManager<N extends ISPRootNode> {
                 _progIdMap.remove(oldProg.getProgramID());
             }
 
-            _progKeyMap.put(key, newProg);
-            if (id != null) _progIdMap.put(id, newProg);
+            _allKeys.add(key);
+            _makeResident(key, newProg);
+            if (id != null) _progIdMap.put(id, key);
         }
 
         _fireProgramEvent(oldProg, newProg);
@@ -164,10 +356,14 @@ final class ProgramManager<N extends ISPRootNode> {
      * as a result of this call
      */
     boolean removeProgram(SPNodeKey key) {
+        final N existing = _lookup(key); // see putProgram
         final N prog;
         synchronized (this) {
-            prog = _progKeyMap.remove(key);
+            prog = _resident(key, existing);
             if (prog == null) return false;
+            _progKeyMap.remove(key);
+            _evicted.remove(key);
+            _allKeys.remove(key);
             final SPProgramID id = prog.getProgramID();
             if (id != null) _progIdMap.remove(id);
         }
@@ -177,18 +373,75 @@ final class ProgramManager<N extends ISPRootNode> {
     }
 
     /**
-     * Fetches a <code>List</code> of the available programs.  The list may
-     * be freely modified by the caller.
+     * Fetches the available programs.  When loading on demand, programs
+     * that are not resident are faulted in one at a time as they are
+     * iterated, and are not held on to by the result, so iterating over all
+     * the programs does not pin the whole database in memory.
+     */
+    Iterable<N> getPrograms() {
+        return getPrograms(getProgramKeys());
+    }
+
+    /**
+     * Fetches the programs with the given keys, faulting them in one at a
+     * time as they are iterated.  Programs that are no longer known, or that
+     * can't be loaded, are skipped.
+     */
+    Iterable<N> getPrograms(final Collection<SPNodeKey> keys) {
+        return () -> new Iterator<N>() {
+            private final Iterator<SPNodeKey> it = keys.iterator();
+            private N next = _advance();
+
+            private N _advance() {
+                while (it.hasNext()) {
+                    final N prog = _lookup(it.next());
+                    if (prog != null) return prog;
+                }
+                return null;
+            }
+
+            @Override public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override public N next() {
+                if (next == null) throw new NoSuchElementException();
+                final N res = next;
+                next = _advance();
+                return res;
+            }
+        };
+    }
+
+    /**
+     * Fetches the keys of all the programs known to the manager, whether or
+     * not they are resident, without faulting any in.
      */
-    synchronized List<N> getPrograms() {
-        return new ArrayList<>(_progKeyMap.values());
+    synchronized List<SPNodeKey> getProgramKeys() {
+        return new ArrayList<>(_allKeys);
+    }
+
+    /**
+     * Fetches a <code>List</code> of the programs that are currently in
+     * memory, without faulting in any others.  When all programs are kept
+     * resident this is equivalent to {@link #getPrograms}.
+     */
+    synchronized List<N> getResidentPrograms() {
+        final List<N> res = new ArrayList<>(_progKeyMap.values());
+        for (SoftReference<N> ref : _evicted.values()) {
+            final N prog = ref.get();
+            if (prog != null) res.add(prog);
+        }
+        return res;
     }
 
     /**
      * Shuts down the program manager, un-exporting all of its programs.
      */
     synchronized void shutdown() {
+        _allKeys.clear();
         _progKeyMap.clear();
         _progIdMap.clear();
+        _evicted.clear();
     }
 }
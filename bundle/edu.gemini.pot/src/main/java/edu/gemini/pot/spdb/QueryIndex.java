@@ -0,0 +1,508 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.spModel.obs.ObservationStatus;
+import edu.gemini.spModel.obs.SPObservation;
+import edu.gemini.spModel.too.Too;
+import edu.gemini.spModel.too.TooType;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Secondary indexes over the programs and observations in the
+ * <code>{@link ProgramManager}</code>, used to answer
+ * <code>{@link DBIndexPredicate}</code> queries without scanning every
+ * observation in the database.
+ *
+ * <p>The index listens for program events and composite changes but does
+ * no work in the listeners other than recording which programs and
+ * observations are stale.  Stale entries are recomputed at the start of the
+ * next query, with the program read lock held so that each entry reflects a
+ * consistent state of its program.  A program is only marked up to date
+ * once its entries have been recomputed, and every query recomputes all the
+ * entries it finds stale itself, so no query sees outdated entries.  A
+ * program that can't be reindexed stays stale and is matched by scanning it
+ * directly until it can.  Programs that have not been loaded when the index
+ * is created (see <code>maxResidentPrograms</code>) are indexed by the first
+ * query, which therefore loads each of them once.
+ *
+ * <p>Locks are always taken in the order: program lock, index lock
+ * (<code>this</code>), staleness lock.  In particular no program lock is
+ * taken while either of the other two is held, since writers mark programs
+ * stale while they hold the program write lock.
+ */
+final class QueryIndex implements ProgramEventListener<ISPProgram>, ProgramManager.ResidencyListener<ISPProgram>, PropertyChangeListener {
+    private static final Logger LOG = Logger.getLogger(QueryIndex.class.getName());
+
+    private static final class ObsEntry {
+        final SPNodeKey progKey;
+        final ObservationStatus status;
+        final SPComponentType instrument;
+        final TooType too;
+
+        ObsEntry(SPNodeKey progKey, ObservationStatus status, SPComponentType instrument, TooType too) {
+            this.progKey    = progKey;
+            this.status     = status;
+            this.instrument = instrument;
+            this.too        = too;
+        }
+    }
+
+    private static final class ProgEntry {
+        final String semester;
+        final String band;
+        final boolean active;
+        final Set<SPNodeKey> obsKeys = new HashSet<>();
+
+        ProgEntry(String semester, String band, boolean active) {
+            this.semester = semester;
+            this.band     = band;
+            this.active   = active;
+        }
+    }
+
+    // Maps attribute values to the keys of the nodes that have them.
+    private static final class Postings<V> {
+        private final Map<V, Set<SPNodeKey>> _map = new HashMap<>();
+
+        void add(V value, SPNodeKey key) {
+            _map.computeIfAbsent(value, v -> new HashSet<>()).add(key);
+        }
+
+        void remove(V value, SPNodeKey key) {
+            final Set<SPNodeKey> s = _map.get(value);
+            if ((s != null) && s.remove(key) && s.isEmpty()) _map.remove(value);
+        }
+
+        // Collects the keys with any of the given values.
+        Set<SPNodeKey> lookup(Set<V> values) {
+            final Set<SPNodeKey> res = new HashSet<>();
+            for (V v : values) {
+                final Set<SPNodeKey> s = _map.get(v);
+                if (s != null) res.addAll(s);
+            }
+            return res;
+        }
+
+        int count(Set<V> values) {
+            int res = 0;
+            for (V v : values) {
+                final Set<SPNodeKey> s = _map.get(v);
+                if (s != null) res += s.size();
+            }
+            return res;
+        }
+    }
+
+    private final ProgramManager<ISPProgram> _progMan;
+
+    // Index state, guarded by "this".
+    private final Map<SPNodeKey, ProgEntry> _progs = new HashMap<>();
+    private final Map<SPNodeKey, ObsEntry> _obs    = new HashMap<>();
+    private final Postings<String> _progBySemester = new Postings<>();
+    private final Postings<String> _progByBand     = new Postings<>();
+    private final Postings<ObservationStatus> _obsByStatus  = new Postings<>();
+    private final Postings<SPComponentType> _obsByInstrument = new Postings<>();
+    private final Postings<TooType> _obsByToo      = new Postings<>();
+
+    // Records that a program is stale.  If obsKeys is null the program must
+    // be reindexed in full, otherwise only the observations in the set.  The
+    // number of times the program was marked stale tells whether it changed
+    // again while being reindexed.
+    private static final class Stale {
+        Set<SPNodeKey> obsKeys;
+        int marks;
+
+        Stale(Set<SPNodeKey> obsKeys) {
+            this.obsKeys = obsKeys;
+        }
+
+        Stale copy() {
+            final Stale res = new Stale((obsKeys == null) ? null : new HashSet<>(obsKeys));
+            res.marks = marks;
+            return res;
+        }
+    }
+
+    // Staleness records, guarded by _stale.
+    private final Map<SPNodeKey, Stale> _stale = new HashMap<>();
+
+    QueryIndex(ProgramManager<ISPProgram> progMan) {
+        _progMan = progMan;
+
+        progMan.addListener(this);
+        progMan.addResidencyListener(this);
+        for (ISPProgram prog : progMan.getResidentPrograms()) prog.addCompositeChangeListener(this);
+
+        synchronized (_stale) {
+            for (SPNodeKey key : progMan.getProgramKeys()) _stale.put(key, new Stale(null));
+        }
+    }
+
+    void shutdown() {
+        _progMan.removeListener(this);
+        _progMan.removeResidencyListener(this);
+        for (ISPProgram prog : _progMan.getResidentPrograms()) prog.removeCompositeChangeListener(this);
+    }
+
+    // ---------------------------------------------------------------------
+    // Change tracking
+    // ---------------------------------------------------------------------
+
+    private void _markStale(SPNodeKey progKey, SPNodeKey obsKey) {
+        synchronized (_stale) {
+            Stale st = _stale.get(progKey);
+            if (st == null) {
+                st = new Stale((obsKey == null) ? null : new HashSet<>());
+                _stale.put(progKey, st);
+            }
+            if (obsKey == null) {
+                st.obsKeys = null;
+            } else if (st.obsKeys != null) {
+                st.obsKeys.add(obsKey);
+            }
+            ++st.marks;
+        }
+    }
+
+    @Override public void propertyChange(PropertyChangeEvent pce) {
+        if (SPUtil.isTransientClientDataPropertyName(pce.getPropertyName())) return;
+
+        final Object src = pce.getSource();
+        if (!(src instanceof ISPNode)) return;
+
+        final ISPNode node = (ISPNode) src;
+        final ISPRootNode root = node.getRootAncestor();
+        if (root == null) return;
+
+        final ISPObservation obs = node.getContextObservation();
+        _markStale(root.getProgramKey(), (obs == null) ? null : obs.getNodeKey());
+    }
+
+    public void programAdded(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getNewProgram();
+        prog.addCompositeChangeListener(this);
+        _markStale(prog.getProgramKey(), null);
+    }
+
+    public void programReplaced(ProgramEvent<ISPProgram> pme) {
+        pme.getOldProgram().removeCompositeChangeListener(this);
+        synchronized (this) {
+            _removeProgram(pme.getOldProgram().getProgramKey());
+        }
+        programAdded(pme);
+    }
+
+    public void programRemoved(ProgramEvent<ISPProgram> pme) {
+        final ISPProgram prog = pme.getOldProgram();
+        prog.removeCompositeChangeListener(this);
+        synchronized (_stale) {
+            _stale.remove(prog.getProgramKey());
+        }
+        synchronized (this) {
+            _removeProgram(prog.getProgramKey());
+        }
+    }
+
+    public void programLoaded(ISPProgram prog) {
+        // The index entries of an evicted program remain valid, so it is
+        // only necessary to track changes to the new copy.
+        prog.addCompositeChangeListener(this);
+    }
+
+    // ---------------------------------------------------------------------
+    // Index maintenance
+    // ---------------------------------------------------------------------
+
+    private void _removeObs(SPNodeKey obsKey) {
+        final ObsEntry e = _obs.remove(obsKey);
+        if (e == null) return;
+        _obsByStatus.remove(e.status, obsKey);
+        _obsByInstrument.remove(e.instrument, obsKey);
+        _obsByToo.remove(e.too, obsKey);
+        final ProgEntry pe = _progs.get(e.progKey);
+        if (pe != null) pe.obsKeys.remove(obsKey);
+    }
+
+    private void _putObs(SPNodeKey obsKey, ObsEntry e) {
+        _removeObs(obsKey);
+        _obs.put(obsKey, e);
+        _obsByStatus.add(e.status, obsKey);
+        _obsByInstrument.add(e.instrument, obsKey);
+        _obsByToo.add(e.too, obsKey);
+        final ProgEntry pe = _progs.get(e.progKey);
+        if (pe != null) pe.obsKeys.add(obsKey);
+    }
+
+    private void _removeProgram(SPNodeKey progKey) {
+        final ProgEntry pe = _progs.get(progKey);
+        if (pe == null) return;
+        for (SPNodeKey obsKey : new ArrayList<>(pe.obsKeys)) _removeObs(obsKey);
+        _progs.remove(progKey);
+        _progBySemester.remove(pe.semester, progKey);
+        _progByBand.remove(pe.band, progKey);
+    }
+
+    private void _putProgram(SPNodeKey progKey, ProgEntry pe) {
+        _removeProgram(progKey);
+        _progs.put(progKey, pe);
+        _progBySemester.add(pe.semester, progKey);
+        _progByBand.add(pe.band, progKey);
+    }
+
+    private static SPComponentType _instrument(ISPObservation obs) {
+        for (ISPObsComponent oc : obs.getObsComponents()) {
+            final SPComponentType type = oc.getType();
+            if (type.broadType == SPComponentBroadType.INSTRUMENT) return type;
+        }
+        return null;
+    }
+
+    private static ObsEntry _obsEntry(SPNodeKey progKey, ISPObservation obs) {
+        ObservationStatus status;
+        try {
+            status = ObservationStatus.computeFor(obs);
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "Could not compute the status of observation " + obs.getObservationID(), ex);
+            status = null;
+        }
+        return new ObsEntry(progKey, status, _instrument(obs), _too(obs));
+    }
+
+    private static TooType _too(ISPObservation obs) {
+        final boolean isProgram = obs.getProgram().getDataObject() instanceof SPProgram;
+        return (isProgram && (obs.getDataObject() instanceof SPObservation)) ? Too.get(obs) : TooType.none;
+    }
+
+    private static ProgEntry _progEntry(ISPProgram prog) {
+        final ProgramIndexEntry e = ProgramIndexEntry.of(prog);
+        final Object dataObj = prog.getDataObject();
+        final String band = (dataObj instanceof SPProgram) ? ((SPProgram) dataObj).getQueueBand() : null;
+        return new ProgEntry(e.semester, band, e.active);
+    }
+
+    // Computes the entries of all the observations of the program, or just
+    // the given ones if obsKeys is not null.  Must be called with the program
+    // read lock held.
+    private static Map<SPNodeKey, ObsEntry> _obsEntries(SPNodeKey progKey, ISPProgram prog, Set<SPNodeKey> obsKeys) {
+        final Map<SPNodeKey, ObsEntry> entries = new HashMap<>();
+        for (ISPObservation obs : prog.getAllObservations()) {
+            if ((obsKeys == null) || obsKeys.contains(obs.getNodeKey())) entries.put(obs.getNodeKey(), _obsEntry(progKey, obs));
+        }
+        return entries;
+    }
+
+    // Checks the lock order documented above before taking a program lock.
+    private void _checkLockOrder() {
+        assert !Thread.holdsLock(this) && !Thread.holdsLock(_stale) : "program lock taken while holding an index lock";
+    }
+
+    // Recomputes the entries for a program, or just the given observations
+    // of the program if obsKeys is not null.  The program read lock is held
+    // while the entries are both computed and applied, so concurrent updates
+    // of the same program always apply its current state.
+    private void _reindex(SPNodeKey progKey, Set<SPNodeKey> obsKeys) {
+        final ISPProgram prog = _progMan.lookupProgram(progKey);
+        if (prog == null) return;
+
+        _checkLockOrder();
+        prog.getProgramReadLock();
+        try {
+            if (obsKeys == null) {
+                final ProgEntry pe = _progEntry(prog);
+                final Map<SPNodeKey, ObsEntry> entries = _obsEntries(progKey, prog, null);
+                synchronized (this) {
+                    _putProgram(progKey, pe);
+                    for (Map.Entry<SPNodeKey, ObsEntry> me : entries.entrySet()) _putObs(me.getKey(), me.getValue());
+                }
+            } else {
+                final Map<SPNodeKey, ObsEntry> entries = _obsEntries(progKey, prog, obsKeys);
+                synchronized (this) {
+                    for (SPNodeKey obsKey : obsKeys) {
+                        final ObsEntry e = entries.get(obsKey);
+                        if (e == null) _removeObs(obsKey); else _putObs(obsKey, e);
+                    }
+                }
+            }
+        } finally {
+            prog.returnProgramReadLock();
+        }
+    }
+
+    /**
+     * Brings the index up to date with any changes recorded before the call.
+     * Each program's staleness record is cleared only once it has been
+     * reindexed and only if the program was not marked stale again in the
+     * meantime.  Concurrent refreshes may reindex the same program, which is
+     * harmless since each applies the program's current state.
+     *
+     * @return keys of the programs that could not be reindexed and remain
+     * stale
+     */
+    Set<SPNodeKey> refresh() {
+        final Map<SPNodeKey, Stale> stale = new HashMap<>();
+        synchronized (_stale) {
+            if (_stale.isEmpty()) return Collections.emptySet();
+            _stale.forEach((k, st) -> stale.put(k, st.copy()));
+        }
+
+        final Set<SPNodeKey> failed = new HashSet<>();
+        for (Map.Entry<SPNodeKey, Stale> me : stale.entrySet()) {
+            final SPNodeKey key = me.getKey();
+            try {
+                _reindex(key, me.getValue().obsKeys);
+            } catch (RuntimeException ex) {
+                // Retried by the next refresh, scanned by queries until then.
+                LOG.log(Level.WARNING, "Could not index program " + key, ex);
+                failed.add(key);
+                continue;
+            }
+
+            synchronized (this) {
+                synchronized (_stale) {
+                    final Stale st = _stale.get(key);
+                    if ((st != null) && (st.marks == me.getValue().marks)) _stale.remove(key);
+                }
+            }
+        }
+        return failed;
+    }
+
+    // Matches the observations of a program that could not be reindexed
+    // directly against its current state, adding them to res.  Any problem
+    // is thrown to the query rather than answering from outdated entries.
+    private void _scan(DBIndexPredicate pred, SPNodeKey progKey, SortedMap<SPNodeKey, Set<SPNodeKey>> res) {
+        final ISPProgram prog = _progMan.lookupProgram(progKey);
+        if (prog == null) return;
+
+        _checkLockOrder();
+        prog.getProgramReadLock();
+        try {
+            final ProgEntry pe = _progEntry(prog);
+            if (!_matchesProgram(pred, pe)) return;
+            for (Map.Entry<SPNodeKey, ObsEntry> me : _obsEntries(progKey, prog, null).entrySet()) {
+                final ObsEntry e = me.getValue();
+                if (pred.matchesObservation(e.status, e.instrument, e.too)) {
+                    res.computeIfAbsent(progKey, k -> new HashSet<>()).add(me.getKey());
+                }
+            }
+        } finally {
+            prog.returnProgramReadLock();
+        }
+    }
+
+    // Determines whether a program that could not be reindexed matches by
+    // checking its current state.
+    private boolean _scanProgram(DBIndexPredicate pred, SPNodeKey progKey) {
+        final ISPProgram prog = _progMan.lookupProgram(progKey);
+        if (prog == null) return false;
+
+        _checkLockOrder();
+        prog.getProgramReadLock();
+        try {
+            return _matchesProgram(pred, _progEntry(prog));
+        } finally {
+            prog.returnProgramReadLock();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Queries
+    // ---------------------------------------------------------------------
+
+    private boolean _matchesProgram(DBIndexPredicate pred, ProgEntry pe) {
+        return (pe != null) && pred.matchesProgram(pe.semester, pe.band, pe.active);
+    }
+
+    private boolean _matchesObs(DBIndexPredicate pred, ObsEntry e) {
+        return pred.matchesObservation(e.status, e.instrument, e.too) && _matchesProgram(pred, _progs.get(e.progKey));
+    }
+
+    // Picks the smallest set of candidate observations given the constrained
+    // observation attributes.  Must be called with the lock held.
+    private Collection<SPNodeKey> _obsCandidates(DBIndexPredicate pred) {
+        int best = Integer.MAX_VALUE;
+        Set<SPNodeKey> res = null;
+
+        if (pred.getStatus() != null) {
+            final int c = _obsByStatus.count(pred.getStatus());
+            if (c < best) { best = c; res = _obsByStatus.lookup(pred.getStatus()); }
+        }
+        if (pred.getInstrument() != null) {
+            final int c = _obsByInstrument.count(pred.getInstrument());
+            if (c < best) { best = c; res = _obsByInstrument.lookup(pred.getInstrument()); }
+        }
+        if (pred.getTooType() != null) {
+            final int c = _obsByToo.count(pred.getTooType());
+            if (c < best) res = _obsByToo.lookup(pred.getTooType());
+        }
+        return res;
+    }
+
+    // Picks the smallest set of candidate programs given the constrained
+    // program attributes.  Must be called with the lock held.
+    private Collection<SPNodeKey> _progCandidates(DBIndexPredicate pred) {
+        if (pred.getSemester() != null) {
+            if ((pred.getBand() == null) || (_progBySemester.count(pred.getSemester()) <= _progByBand.count(pred.getBand()))) {
+                return _progBySemester.lookup(pred.getSemester());
+            }
+        }
+        if (pred.getBand() != null) return _progByBand.lookup(pred.getBand());
+        return new ArrayList<>(_progs.keySet());
+    }
+
+    /**
+     * Finds the observations that match the predicate.
+     *
+     * @return keys of the matching observations, grouped by the key of the
+     * program that contains them and ordered by program key
+     */
+    SortedMap<SPNodeKey, Set<SPNodeKey>> matchObservations(DBIndexPredicate pred) {
+        final Set<SPNodeKey> failed = refresh();
+
+        final SortedMap<SPNodeKey, Set<SPNodeKey>> res = new TreeMap<>();
+        synchronized (this) {
+            if (pred.hasObservationConstraints()) {
+                for (SPNodeKey obsKey : _obsCandidates(pred)) {
+                    final ObsEntry e = _obs.get(obsKey);
+                    if (!failed.contains(e.progKey) && _matchesObs(pred, e)) res.computeIfAbsent(e.progKey, k -> new HashSet<>()).add(obsKey);
+                }
+            } else {
+                for (SPNodeKey progKey : _progCandidates(pred)) {
+                    final ProgEntry pe = _progs.get(progKey);
+                    if (!failed.contains(progKey) && _matchesProgram(pred, pe) && !pe.obsKeys.isEmpty()) res.put(progKey, new HashSet<>(pe.obsKeys));
+                }
+            }
+        }
+        for (SPNodeKey progKey : failed) _scan(pred, progKey, res);
+        return res;
+    }
+
+    /**
+     * Finds the programs that match the predicate.  If the predicate
+     * constrains observation attributes, a program matches if any of its
+     * observations match.
+     *
+     * @return keys of the matching programs in key order
+     */
+    SortedSet<SPNodeKey> matchPrograms(DBIndexPredicate pred) {
+        if (pred.hasObservationConstraints()) return new TreeSet<>(matchObservations(pred).keySet());
+
+        final Set<SPNodeKey> failed = refresh();
+        final SortedSet<SPNodeKey> res = new TreeSet<>();
+        synchronized (this) {
+            for (SPNodeKey progKey : _progCandidates(pred)) {
+                if (!failed.contains(progKey) && _matchesProgram(pred, _progs.get(progKey))) res.add(progKey);
+            }
+        }
+        for (SPNodeKey progKey : failed) {
+            if (_scanProgram(pred, progKey)) res.add(progKey);
+        }
+        return res;
+    }
+}
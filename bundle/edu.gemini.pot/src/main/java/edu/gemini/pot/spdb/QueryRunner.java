@@ -3,12 +3,18 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.*;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -35,27 +41,77 @@ final class QueryRunner implements IDBQueryRunner {
      * Runs a query on the available observations.
      */
     public <T extends IDBQueryFunctor> T queryObservations(T queryFunctor) {
-        List<ISPObservation> lst = new LinkedList<>();
-        for (ISPProgram prog : _dataMan.getProgramManager().getPrograms()) {
-            lst.addAll(prog.getAllObservations());
+        final ProgramManager<ISPProgram> pm = _dataMan.getProgramManager();
+        if (_isSharded(queryFunctor)) {
+            return _doShardedQuery(pm.getProgramKeys(), pm::lookupProgram, ISPProgram::getAllObservations, queryFunctor);
         }
-        return _doQuery(lst, queryFunctor);
+        return _doQuery(_flatten(pm.getPrograms(), ISPProgram::getAllObservations), queryFunctor);
     }
 
     /**
      * Runs a query on the available programs.
      */
     public <T extends IDBQueryFunctor> T queryPrograms(T queryFunctor) {
-        List<ISPProgram> lst = _dataMan.getProgramManager().getPrograms();
-        return _doQuery(lst, queryFunctor);
+        final ProgramManager<ISPProgram> pm = _dataMan.getProgramManager();
+        if (_isSharded(queryFunctor)) {
+            return _doShardedQuery(pm.getProgramKeys(), pm::lookupProgram, Collections::singletonList, queryFunctor);
+        }
+        return _doQuery(pm.getPrograms(), queryFunctor);
+    }
+
+    /**
+     * Runs a query on the observations matching the predicate.
+     */
+    public <T extends IDBQueryFunctor> T queryObservations(DBIndexPredicate predicate, T queryFunctor) {
+        final ProgramManager<ISPProgram> pm = _dataMan.getProgramManager();
+        final SortedMap<SPNodeKey, Set<SPNodeKey>> matches = _dataMan.getQueryIndex().matchObservations(predicate);
+
+        final Function<ISPProgram, List<? extends ISPNode>> obs = prog -> {
+            final Set<SPNodeKey> keys = matches.get(prog.getProgramKey());
+            final List<ISPObservation> res = new ArrayList<>(keys.size());
+            for (ISPObservation o : prog.getAllObservations()) {
+                if (keys.contains(o.getNodeKey())) res.add(o);
+            }
+            return res;
+        };
+
+        if (_isSharded(queryFunctor)) {
+            return _doShardedQuery(matches.keySet(), pm::lookupProgram, obs, queryFunctor);
+        }
+        return _doQuery(_flatten(pm.getPrograms(matches.keySet()), obs), queryFunctor);
+    }
+
+    /**
+     * Runs a query on the programs matching the predicate.
+     */
+    public <T extends IDBQueryFunctor> T queryPrograms(DBIndexPredicate predicate, T queryFunctor) {
+        final ProgramManager<ISPProgram> pm = _dataMan.getProgramManager();
+        final Collection<SPNodeKey> keys = _dataMan.getQueryIndex().matchPrograms(predicate);
+        if (_isSharded(queryFunctor)) {
+            return _doShardedQuery(keys, pm::lookupProgram, Collections::singletonList, queryFunctor);
+        }
+        return _doQuery(pm.getPrograms(keys), queryFunctor);
     }
 
     /**
      * Runs a query on the available nightly plans.
      */
     public <T extends IDBQueryFunctor> T queryNightlyPlans(T queryFunctor) {
-        List<ISPNightlyRecord> lst = _dataMan.getNightlyPlanManager().getPrograms();
-        return _doQuery(lst, queryFunctor);
+        final ProgramManager<ISPNightlyRecord> pm = _dataMan.getNightlyPlanManager();
+        if (_isSharded(queryFunctor)) {
+            return _doShardedQuery(pm.getProgramKeys(), pm::lookupProgram, Collections::singletonList, queryFunctor);
+        }
+        return _doQuery(pm.getPrograms(), queryFunctor);
+    }
+
+    /**
+     * Lazily expands each root into the nodes extracted from it by
+     * <code>nodes</code>, so that only the root being visited is held.
+     */
+    private static <R extends ISPRootNode> Iterable<ISPNode> _flatten(final Iterable<R> roots, final Function<R, List<? extends ISPNode>> nodes) {
+        return () -> StreamSupport.stream(roots.spliterator(), false)
+                                  .<ISPNode>flatMap(r -> nodes.apply(r).stream())
+                                  .iterator();
     }
 
     public <T extends IDBFunctor> T execute(T functor, ISPNode node) throws SPNodeNotLocalException {
@@ -65,7 +121,7 @@ final class QueryRunner implements IDBQueryRunner {
     /**
      * Runs the query on the given node list using the given functor.
      */
-    <T extends IDBQueryFunctor> T _doQuery(final List<? extends ISPNode> nodeList, final T queryFunctor) {
+    <T extends IDBQueryFunctor> T _doQuery(final Iterable<? extends ISPNode> nodeList, final T queryFunctor) {
         WithPriority.exec(queryFunctor.getPriority(), () -> {
             Iterator<? extends ISPNode> it = nodeList.iterator();
             FunctorLogger.Handback hb = _dataMan.functorLogger.logQueryStart(queryFunctor);
@@ -85,4 +141,85 @@ final class QueryRunner implements IDBQueryRunner {
         return queryFunctor;
     }
 
+    /**
+     * Determines whether the functor should be run in parallel, one shard per
+     * program.  Only functors that opt in by implementing
+     * <code>{@link IDBShardedQueryFunctor}</code> are sharded, and then only
+     * if the database was configured with a query pool.
+     */
+    private boolean _isSharded(IDBQueryFunctor queryFunctor) {
+        return (queryFunctor instanceof IDBShardedQueryFunctor) && (_dataMan.queryPool != null);
+    }
+
+    /**
+     * Runs the query in parallel on the query pool, creating a shard of the
+     * functor for each root node and applying it to the nodes extracted from
+     * that root by <code>nodes</code> while holding the root's read lock.
+     * The shards are then merged back into the <code>queryFunctor</code>.
+     * Roots are looked up by key inside each shard, so only the programs
+     * currently being queried need to be in memory.
+     */
+    <R extends ISPRootNode, T extends IDBQueryFunctor> T _doShardedQuery(final Collection<SPNodeKey> keys, final Function<SPNodeKey, R> lookup, final Function<R, List<? extends ISPNode>> nodes, final T queryFunctor) {
+        final IDBShardedQueryFunctor sharded = (IDBShardedQueryFunctor) queryFunctor;
+        WithPriority.exec(queryFunctor.getPriority(), () -> {
+            FunctorLogger.Handback hb = _dataMan.functorLogger.logQueryStart(queryFunctor);
+            final List<ForkJoinTask<IDBFunctor>> tasks = new ArrayList<>(keys.size());
+            try {
+                queryFunctor.init();
+                for (SPNodeKey key : keys) {
+                    final IDBShardedQueryFunctor shard = sharded.newShard();
+                    tasks.add(_dataMan.queryPool.submit(() -> _runShard(shard, key, lookup, nodes)));
+                }
+
+                final List<IDBFunctor> shards = new ArrayList<>(tasks.size());
+                for (ForkJoinTask<IDBFunctor> task : tasks) shards.add(task.join());
+
+                sharded.mergeResults(shards);
+                queryFunctor.finished();
+            } catch (Exception ex) {
+                for (ForkJoinTask<IDBFunctor> task : tasks) task.cancel(false);
+                LOG.log(Level.WARNING, "Problem running functor: " + queryFunctor, ex);
+                queryFunctor.setException(ex);
+            }
+            _dataMan.functorLogger.logQueryEnd(queryFunctor, hb);
+        });
+        return queryFunctor;
+    }
+
+    /**
+     * Applies a single shard to the nodes of one program with the program's
+     * read lock held.  Any exception is recorded in the shard and rethrown so
+     * that the query as a whole fails as it would have sequentially.  A
+     * program that can no longer be found contributes an empty shard.
+     */
+    private <R extends ISPRootNode> IDBFunctor _runShard(final IDBShardedQueryFunctor shard, final SPNodeKey key, final Function<SPNodeKey, R> lookup, final Function<R, List<? extends ISPNode>> nodes) {
+        WithPriority.exec(shard.getPriority(), () -> {
+            final R root = lookup.apply(key);
+            if (root == null) {
+                shard.init();
+                shard.finished();
+                return;
+            }
+
+            final long start = System.currentTimeMillis();
+            int count = 0;
+            SPNodeKeyLocks.instance.readLock(key);
+            try {
+                shard.init();
+                final Iterator<? extends ISPNode> it = nodes.apply(root).iterator();
+                while (!shard.isDone() && it.hasNext()) {
+                    shard.execute(_database, it.next(), _principals);
+                    ++count;
+                }
+                shard.finished();
+            } catch (RuntimeException ex) {
+                shard.setException(ex);
+                throw ex;
+            } finally {
+                SPNodeKeyLocks.instance.readUnlock(key);
+            }
+            _dataMan.functorLogger.logShard(shard, key, count, Math.max(System.currentTimeMillis() - start, 0));
+        });
+        return shard;
+    }
 }
@@ -7,16 +7,19 @@
 
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.spModel.core.SPProgramID;
 
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The <code>StorageManager</code>
  */
-final class StorageManager<N extends ISPRootNode> implements ProgramEventListener<N> {
+final class StorageManager<N extends ISPRootNode> implements ProgramEventListener<N>, ProgramManager.ResidencyListener<N> {
     private static final Logger LOG = Logger.getLogger(StorageManager.class.getName());
 
     /**
@@ -43,7 +46,7 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
 
             public void run() {
                 while (!done) {
-                    _storeDirtyPrograms();
+                    _storeDirtyPrograms(false);
                     try {
                         Thread.sleep(_storageInterval);
                     } catch (InterruptedException ex) {
@@ -123,9 +126,10 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
         _dirty     = new DirtyProgramListener<N>();
 
         pm.addListener(this);
+        pm.addResidencyListener(this);
 
         // Add the dirty listener to all the existing programs.
-        for (N prog : pm.getPrograms()) prog.addCompositeChangeListener(_dirty);
+        for (N prog : pm.getResidentPrograms()) prog.addCompositeChangeListener(_dirty);
 
         // Start the thread that periodically looks for modifications.
         _storeWorker = new StorageWorker();
@@ -142,11 +146,12 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
 
         // Do some cleanup, removing listeners.
         _progMan.removeListener(this);
+        _progMan.removeResidencyListener(this);
 
-        for (N prog : _progMan.getPrograms()) prog.removeCompositeChangeListener(_dirty);
+        for (N prog : _progMan.getResidentPrograms()) prog.removeCompositeChangeListener(_dirty);
 
         // Write out any last modifications.
-        _storeDirtyPrograms();
+        _storeDirtyPrograms(true);
     }
 
     /**
@@ -180,6 +185,16 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
         }
     }
 
+    /**
+     * Starts monitoring a program that was faulted in from storage for
+     * changes.  Implements the
+     * <code>{@link ProgramManager.ResidencyListener#programLoaded}</code>
+     * method.
+     */
+    public void programLoaded(N prog) {
+        prog.addCompositeChangeListener(_dirty);
+    }
+
     public void programReplaced(ProgramEvent<N> pme) {
         programRemoved(pme);
         programAdded(pme);
@@ -198,12 +213,19 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     }
 
     /**
-     * Stores all the modified programs, if any.
+     * Stores all the modified programs, if any.  Programs in which only data
+     * objects have changed are stored incrementally unless
+     * <code>full</code> is set.
      */
-    private void _storeDirtyPrograms() {
-        for (N n : _dirty.getDirtyPrograms()) {
+    private void _storeDirtyPrograms(boolean full) {
+        for (Map.Entry<N, Set<ISPNode>> me : _dirty.getDirtyPrograms().entrySet()) {
+            final N n = me.getKey();
             try {
-                _persister.store(n);
+                if (full || (me.getValue() == null)) {
+                    _persister.store(n);
+                } else {
+                    _persister.storeChanges(n, me.getValue());
+                }
             } catch (Exception ex) {
                 log(n, ex);
             }
@@ -234,5 +256,5 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     }
 
     /** Checkpoints all the outstanding modifications. */
-    void checkpoint() { _storeDirtyPrograms(); }
+    void checkpoint() { _storeDirtyPrograms(false); }
 }
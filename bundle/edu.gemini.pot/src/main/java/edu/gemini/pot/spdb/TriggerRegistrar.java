@@ -1,5 +1,6 @@
 package edu.gemini.pot.spdb;
 
+import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.SPCompositeChange;
 import java.util.logging.Logger;
@@ -8,37 +9,106 @@ import java.util.logging.Level;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles trigger registration (and execution).
+ *
+ * <p>Matching trigger actions are held for a short window during which
+ * further matches of the same registration with an equal handback are merged
+ * into the pending action, so that a burst of changes (for example from an
+ * import or a VCS merge) executes the action once with the latest change.
+ * Actions then run on a bounded pool of worker threads.  If the queue of
+ * actions waiting for a worker is full, the submitting thread runs the action
+ * itself, which slows the producer down instead of losing the action.
  */
-final class TriggerRegistrar implements PropertyChangeListener, ProgramEventListener<ISPProgram> {
+final class TriggerRegistrar implements PropertyChangeListener, ProgramEventListener<ISPProgram>, ProgramManager.ResidencyListener<ISPProgram> {
     private static final Logger LOG = Logger.getLogger(TriggerRegistrar.class.getName());
 
+    /** Number of worker threads executing trigger actions. */
+    private static final String THREADS_PROP = TriggerRegistrar.class.getName() + ".threads";
+    private static final int DEFAULT_THREADS = 4;
+
+    /** Maximum number of trigger actions waiting for a worker. */
+    private static final String QUEUE_CAPACITY_PROP = TriggerRegistrar.class.getName() + ".queueCapacity";
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /** Coalescing window in milliseconds, or 0 to execute every match. */
+    private static final String COALESCE_MS_PROP = TriggerRegistrar.class.getName() + ".coalesceMs";
+    private static final long DEFAULT_COALESCE_MS = 100;
+
     private final ProgramManager<ISPProgram> _progMan;
-    private final ExecutorService _pool;
-    private Map<IDBTriggerCondition, List<TriggerReg>> _triggerMap = new HashMap<>();
+    private final ThreadPoolExecutor _pool;
+    private final ScheduledThreadPoolExecutor _timer;
+    private final long _coalesceMs = Long.getLong(COALESCE_MS_PROP, DEFAULT_COALESCE_MS);
+
+    // Replaced wholesale on registration so that matching needs no lock.
+    private volatile Map<IDBTriggerCondition, List<TriggerReg>> _triggerMap = Collections.emptyMap();
+
+    // Actions waiting for their coalescing window to close.
+    private final ConcurrentHashMap<PendingKey, Pending> _pending = new ConcurrentHashMap<>();
+
+    private final LongAdder _executed   = new LongAdder();
+    private final LongAdder _coalesced  = new LongAdder();
+    private final LongAdder _callerRuns = new LongAdder();
+    private final LongAdder _failed     = new LongAdder();
+    private final LongAdder _latency    = new LongAdder();
+    private volatile long _maxLatency;
+
+    private static ThreadFactory threadFactory(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
 
     /**
      * Constructs with the program manager.
      */
     TriggerRegistrar(ProgramManager<ISPProgram> programMan) {
         _progMan = programMan;
-        _pool = Executors.newCachedThreadPool();
+
+        final int threads = Math.max(1, Integer.getInteger(THREADS_PROP, DEFAULT_THREADS));
+        final int capacity = Math.max(1, Integer.getInteger(QUEUE_CAPACITY_PROP, DEFAULT_QUEUE_CAPACITY));
+        _pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity), threadFactory("TriggerAction"),
+                // When the queue is full the submitting thread (usually the
+                // coalescing timer) runs the action itself, so producers slow
+                // down rather than lose actions.
+                (task, pool) -> {
+                    if (!pool.isShutdown()) {
+                        _callerRuns.increment();
+                        task.run();
+                    }
+                });
+        _pool.allowCoreThreadTimeOut(true);
+
+        _timer = new ScheduledThreadPoolExecutor(1, threadFactory("TriggerCoalesce"));
+        _timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+        _timer.allowCoreThreadTimeOut(true);
 
         // Listen to all the programs.
-        List<ISPProgram> progs = programMan.getPrograms();
+        List<ISPProgram> progs = programMan.getResidentPrograms();
         for (ISPProgram prog : progs) {
             prog.addCompositeChangeListener(this);
         }
 
         // Listen to the program manager to make sure we see any new programs.
         programMan.addListener(this);
+        programMan.addResidencyListener(this);
     }
 
 
@@ -46,12 +116,11 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         LOG.log(Level.INFO, "Registering trigger condition: " + condition);
         TriggerReg tr = new TriggerReg(condition, action);
         synchronized (this) {
-            List<TriggerReg> actionList = _triggerMap.get(condition);
-            if (actionList == null) {
-                actionList = new ArrayList<>();
-                _triggerMap.put(condition, actionList);
-            }
+            final Map<IDBTriggerCondition, List<TriggerReg>> m = new HashMap<>(_triggerMap);
+            final List<TriggerReg> actionList = new ArrayList<>(m.getOrDefault(condition, Collections.emptyList()));
             actionList.add(tr);
+            m.put(condition, Collections.unmodifiableList(actionList));
+            _triggerMap = Collections.unmodifiableMap(m);
         }
     }
 
@@ -59,11 +128,14 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         LOG.log(Level.INFO, "Unregistering trigger condition: " + condition);
         TriggerReg tr = new TriggerReg(condition, action);
         synchronized (this) {
-            List<TriggerReg> actionList = _triggerMap.get(condition);
-            if (actionList != null) {
+            final List<TriggerReg> oldList = _triggerMap.get(condition);
+            if (oldList != null) {
+                final Map<IDBTriggerCondition, List<TriggerReg>> m = new HashMap<>(_triggerMap);
+                final List<TriggerReg> actionList = new ArrayList<>(oldList);
                 actionList.remove(tr);
-                if (actionList.isEmpty())
-                    _triggerMap.remove(condition);
+                if (actionList.isEmpty()) m.remove(condition);
+                else m.put(condition, Collections.unmodifiableList(actionList));
+                _triggerMap = Collections.unmodifiableMap(m);
             }
         }
     }
@@ -84,12 +156,15 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
      *
      * @return List of {@link TriggerEvent}
      */
-    private synchronized List<TriggerEvent> _getMatchingRegs(SPCompositeChange change) {
+    private List<TriggerEvent> _getMatchingRegs(SPCompositeChange change) {
         List<TriggerEvent> res = null;
 
+        final ISPNode node = change.getModifiedNode();
         for (Map.Entry<IDBTriggerCondition, List<TriggerReg>> me : _triggerMap.entrySet()) {
 
             IDBTriggerCondition tc = me.getKey();
+            if (!tc.getNodeType().isInstance(node)) continue;
+
             Object handback = tc.matches(change);
             if (handback != null) {
                 if (res == null) res = new ArrayList<>();
@@ -103,24 +178,76 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         return res;
     }
 
+    /**
+     * Identifies actions that may be coalesced: those of the same
+     * registration with equal handbacks.
+     */
+    private static final class PendingKey {
+        final TriggerReg reg;
+        final Object handback;
+
+        PendingKey(TriggerReg reg, Object handback) {
+            this.reg      = reg;
+            this.handback = handback;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final PendingKey that = (PendingKey) o;
+            return reg.equals(that.reg) && handback.equals(that.handback);
+        }
+
+        @Override public int hashCode() {
+            return 31 * reg.hashCode() + handback.hashCode();
+        }
+    }
+
+    /**
+     * An action waiting for its coalescing window to close, with the latest
+     * matching change.
+     */
+    private static final class Pending {
+        final long firstMatch = System.nanoTime();
+        SPCompositeChange change;
+
+        Pending(SPCompositeChange change) {
+            this.change = change;
+        }
+    }
+
     /**
      * A Runnable used to execute a trigger action within a thread pool.
      */
-    private static class TriggerTask implements Runnable {
+    private final class TriggerTask implements Runnable {
         private final SPCompositeChange change;
 
         private final IDBTriggerAction action;
         private final Object handback;
+        private final long firstMatch;
 
-        TriggerTask(SPCompositeChange change, TriggerEvent evt) {
-            this.change = change;
-
-            TriggerReg ltr = evt.reg;
-            this.action = ltr.getTriggerAction();
-            this.handback = evt.handback;
+        TriggerTask(SPCompositeChange change, TriggerReg reg, Object handback, long firstMatch) {
+            this.change     = change;
+            this.action     = reg.getTriggerAction();
+            this.handback   = handback;
+            this.firstMatch = firstMatch;
         }
 
         public void run() {
+            final long latency = System.nanoTime() - firstMatch;
+            _latency.add(latency);
+            if (latency > _maxLatency) _maxLatency = latency; // racy but good enough
+            _executed.increment();
+
+            try {
+                runAction();
+            } catch (RuntimeException ex) {
+                _failed.increment();
+                LOG.log(Level.WARNING, "Trigger action failed: " + action, ex);
+            }
+        }
+
+        private void runAction() {
 
             // Record the start time
             long startTime = 0;
@@ -155,10 +282,49 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
 
         // notify everyone
         for (TriggerEvent evt : actionList) {
-            _pool.submit(new TriggerTask(change, evt));
+            if (_coalesceMs <= 0) {
+                _execute(new TriggerTask(change, evt.reg, evt.handback, System.nanoTime()));
+            } else {
+                _coalesce(change, evt);
+            }
         }
     }
 
+    // Merges the match into a pending action, or starts a new one that will
+    // be executed when the window closes.  Updates and removal of the
+    // pending action are atomic, so a match is never lost between the two.
+    private void _coalesce(SPCompositeChange change, TriggerEvent evt) {
+        final PendingKey key = new PendingKey(evt.reg, evt.handback);
+        final boolean[] added = { false };
+        _pending.compute(key, (k, p) -> {
+            if (p == null) {
+                added[0] = true;
+                return new Pending(change);
+            }
+            p.change = change;
+            return p;
+        });
+
+        if (added[0]) {
+            _timer.schedule(() -> {
+                final Pending p = _pending.remove(key);
+                if (p != null) _execute(new TriggerTask(p.change, key.reg, key.handback, p.firstMatch));
+            }, _coalesceMs, TimeUnit.MILLISECONDS);
+        } else {
+            _coalesced.increment();
+        }
+    }
+
+    private void _execute(TriggerTask task) {
+        _pool.execute(task);
+    }
+
+    TriggerStatistics getStatistics() {
+        return new TriggerStatistics(_pending.size(), _pool.getQueue().size(),
+                _executed.sum(), _coalesced.sum(), _callerRuns.sum(), _failed.sum(),
+                _latency.sum(), _maxLatency);
+    }
+
     @Override
     public void propertyChange(PropertyChangeEvent evt) {
         SPCompositeChange change = (SPCompositeChange) evt;
@@ -169,6 +335,10 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
         pme.getNewProgram().addCompositeChangeListener(TriggerRegistrar.this);
     }
 
+    public void programLoaded(ISPProgram prog) {
+        prog.addCompositeChangeListener(TriggerRegistrar.this);
+    }
+
     public void programReplaced(ProgramEvent<ISPProgram> pme) {
         programRemoved(pme);
         programAdded(pme);
@@ -182,10 +352,12 @@ final class TriggerRegistrar implements PropertyChangeListener, ProgramEventList
      * Cleans up.
      */
     void shutdown() {
+        _timer.shutdownNow();
         _pool.shutdownNow();
         _progMan.removeListener(this);
+        _progMan.removeResidencyListener(this);
 
-        for (ISPProgram o : _progMan.getPrograms())
+        for (ISPProgram o : _progMan.getResidentPrograms())
             o.removeCompositeChangeListener(this);
 
     }
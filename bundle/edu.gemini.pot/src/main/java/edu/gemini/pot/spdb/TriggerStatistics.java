@@ -0,0 +1,46 @@
+package edu.gemini.pot.spdb;
+
+/**
+ * A snapshot of the trigger dispatch statistics gathered since the database
+ * started.
+ */
+public final class TriggerStatistics {
+    /** Trigger actions waiting for their coalescing window to close. */
+    public final int pending;
+
+    /** Trigger actions waiting for a worker thread. */
+    public final int queued;
+
+    /** Trigger actions that have been executed. */
+    public final long executed;
+
+    /** Matches merged into an action that was already pending. */
+    public final long coalesced;
+
+    /** Trigger actions run by the submitting thread because the queue was full. */
+    public final long callerRuns;
+
+    /** Trigger actions that threw an exception. */
+    public final long failed;
+
+    /** Total and maximum time from the first match to the start of execution. */
+    public final long latencyNanos;
+    public final long maxLatencyNanos;
+
+    TriggerStatistics(int pending, int queued, long executed, long coalesced, long callerRuns, long failed, long latencyNanos, long maxLatencyNanos) {
+        this.pending         = pending;
+        this.queued          = queued;
+        this.executed        = executed;
+        this.coalesced       = coalesced;
+        this.callerRuns      = callerRuns;
+        this.failed          = failed;
+        this.latencyNanos    = latencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    @Override public String toString() {
+        final double meanMs = (executed == 0) ? 0.0 : latencyNanos / 1e6 / executed;
+        return String.format("pending=%d, queued=%d, executed=%d, coalesced=%d, callerRuns=%d, failed=%d, latency=%.1fms mean (max %.1fms)",
+                pending, queued, executed, coalesced, callerRuns, failed, meanMs, maxLatencyNanos / 1e6);
+    }
+}
@@ -50,8 +50,9 @@ public final class ConfigBridge {
     private static ConfigSequence mapSequence(ConfigSequence sequence, ConfigValMap map) {
         if (map == ConfigValMapInstances.IDENTITY_MAP) return sequence;
         else {
-            // Map the final config values as requested.
-            final Config[] steps = sequence.getAllSteps();
+            // Map the final config values as requested.  Mapping just the
+            // changes at each step produces the same complete configs.
+            final Config[] steps = sequence.getCompactView();
             for (Config step : steps) {
                 final ItemKey[] keys = step.getKeys();
                 for (ItemKey key : keys) step.putItem(key, map.apply(step.getItemValue(key)));
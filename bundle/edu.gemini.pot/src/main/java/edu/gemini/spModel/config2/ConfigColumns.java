@@ -0,0 +1,280 @@
+package edu.gemini.spModel.config2;
+
+import edu.gemini.shared.util.immutable.MapOp;
+
+import java.util.*;
+
+/**
+ * A columnar representation of the complete configuration at each step of a
+ * {@link ConfigSequence}.  Each item has a column holding its values as runs
+ * of equal values, so an item that never changes over a sequence of any
+ * length costs a single entry.  Item values may be read at any step without
+ * building a {@link Config}, and {@link #view(int)} provides a read-only
+ * Config over a step that shares the columns instead of copying them.
+ *
+ * <p>Like the sequence itself, items are never removed from one step to the
+ * next.  Once introduced, an item keeps its last value until it changes.
+ *
+ * <p>Not MT-safe.
+ */
+final class ConfigColumns {
+
+    // Values of one item, run-length encoded.  Run i starts at step
+    // _starts[i] and lasts until the next run starts.
+    private static final class Column {
+        private int[] _starts    = new int[1];
+        private Object[] _values = new Object[1];
+        private int _runs;
+
+        int firstStep() {
+            return (_runs == 0) ? Integer.MAX_VALUE : _starts[0];
+        }
+
+        void append(int step, Object value) {
+            if (_runs > 0) {
+                if (Objects.equals(_values[_runs - 1], value)) return;
+                if (_starts[_runs - 1] == step) {
+                    // Replaced within the same step.
+                    if ((_runs > 1) && Objects.equals(_values[_runs - 2], value)) {
+                        --_runs;
+                    } else {
+                        _values[_runs - 1] = value;
+                    }
+                    return;
+                }
+            }
+            if (_runs == _starts.length) {
+                _starts = Arrays.copyOf(_starts, _runs * 2);
+                _values = Arrays.copyOf(_values, _runs * 2);
+            }
+            _starts[_runs] = step;
+            _values[_runs] = value;
+            ++_runs;
+        }
+
+        // Index of the run in effect at the given step, or -1 if the item has
+        // not been introduced yet.
+        private int run(int step) {
+            int lo = 0, hi = _runs - 1, res = -1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (_starts[mid] <= step) {
+                    res = mid;
+                    lo  = mid + 1;
+                } else {
+                    hi  = mid - 1;
+                }
+            }
+            return res;
+        }
+
+        Object get(int step) {
+            final int r = run(step);
+            return (r < 0) ? null : _values[r];
+        }
+    }
+
+    private final TreeMap<ItemKey, Column> _columns = new TreeMap<>();
+    private int _size;
+
+    ConfigColumns() {
+    }
+
+    /**
+     * Builds the columns from a list of Configs in which each contains (at
+     * least) the changes from the previous step.
+     */
+    ConfigColumns(List<Config> steps) {
+        for (Config c : steps) appendStep(c);
+    }
+
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Adds a step consisting of the previous step updated with the items in
+     * <code>changes</code>.
+     */
+    void appendStep(Config changes) {
+        final int step = _size++;
+        for (ItemEntry ie : changes.itemEntries()) {
+            Column col = _columns.get(ie.getKey());
+            if (col == null) {
+                col = new Column();
+                _columns.put(ie.getKey(), col);
+            }
+            col.append(step, ie.getItemValue());
+        }
+    }
+
+    /**
+     * Removes from <code>changes</code> every item whose value is the same
+     * as in the last step.
+     */
+    void removeUnchanged(Config changes) {
+        if (_size == 0) return;
+        final int last = _size - 1;
+        for (ItemKey key : changes.getKeys()) {
+            if (contains(last, key) && Objects.equals(get(last, key), changes.getItemValue(key))) {
+                changes.remove(key);
+            }
+        }
+    }
+
+    boolean contains(int step, ItemKey key) {
+        final Column col = _columns.get(key);
+        return (col != null) && (col.firstStep() <= step);
+    }
+
+    Object get(int step, ItemKey key) {
+        final Column col = _columns.get(key);
+        return (col == null) ? null : col.get(step);
+    }
+
+    /**
+     * Gets the value of the item at each step, <code>null</code> at steps
+     * before it is introduced.
+     */
+    Object[] valuesAtEachStep(ItemKey key) {
+        final Object[] res = new Object[_size];
+        final Column col = _columns.get(key);
+        if (col == null) return res;
+        for (int r=0; r<col._runs; ++r) {
+            final int end = (r + 1 < col._runs) ? col._starts[r + 1] : _size;
+            Arrays.fill(res, col._starts[r], end, col._values[r]);
+        }
+        return res;
+    }
+
+    /**
+     * Gets the distinct values of the item, including <code>null</code> if
+     * there are steps at which it is not present.
+     */
+    Set<Object> distinctValues(ItemKey key) {
+        final Set<Object> res = new HashSet<>();
+        if (_size == 0) return res;
+        final Column col = _columns.get(key);
+        if ((col == null) || (col.firstStep() > 0)) res.add(null);
+        if (col != null) res.addAll(Arrays.asList(col._values).subList(0, col._runs));
+        return res;
+    }
+
+    /**
+     * Creates a new, independent Config with the items in effect at the
+     * given step.
+     */
+    DefaultConfig toConfig(int step) {
+        return toConfig(step, _columns);
+    }
+
+    private DefaultConfig toConfig(int step, SortedMap<ItemKey, Column> cols) {
+        final DefaultConfig res = new DefaultConfig();
+        for (Map.Entry<ItemKey, Column> me : cols.entrySet()) {
+            final Column col = me.getValue();
+            if (col.firstStep() <= step) res.putItem(me.getKey(), col.get(step));
+        }
+        return res;
+    }
+
+    /**
+     * Returns a read-only Config backed by these columns that reflects the
+     * items in effect at the given step.  The view is only valid until the
+     * columns are modified.
+     */
+    Config view(int step) {
+        return new StepView(step);
+    }
+
+    private SortedMap<ItemKey, Column> subColumns(ItemKey parent) {
+        return _columns.subMap(parent, new ItemKey(parent.getPath() + ":\uFFFF"));
+    }
+
+    private final class StepView implements Config {
+        private final int _step;
+
+        StepView(int step) {
+            _step = step;
+        }
+
+        private ItemEntry[] entries(SortedMap<ItemKey, Column> cols) {
+            final List<ItemEntry> res = new ArrayList<>(cols.size());
+            for (Map.Entry<ItemKey, Column> me : cols.entrySet()) {
+                final Column col = me.getValue();
+                if (col.firstStep() <= _step) res.add(new ItemEntry(me.getKey(), col.get(_step)));
+            }
+            return res.toArray(new ItemEntry[res.size()]);
+        }
+
+        private ItemKey[] keys(SortedMap<ItemKey, Column> cols) {
+            final List<ItemKey> res = new ArrayList<>(cols.size());
+            for (Map.Entry<ItemKey, Column> me : cols.entrySet()) {
+                if (me.getValue().firstStep() <= _step) res.add(me.getKey());
+            }
+            return res.toArray(ItemKey.EMPTY_ARRAY);
+        }
+
+        public boolean containsItem(ItemKey key) { return contains(_step, key); }
+        public Object getItemValue(ItemKey key)  { return get(_step, key);      }
+
+        public ItemEntry[] itemEntries()                { return entries(_columns);            }
+        public ItemEntry[] itemEntries(ItemKey parent)  { return entries(subColumns(parent));  }
+        public ItemKey[] getKeys()                      { return keys(_columns);               }
+        public ItemKey[] getKeys(ItemKey parent)        { return keys(subColumns(parent));     }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        public int size() {
+            int res = 0;
+            for (Column col : _columns.values()) if (col.firstStep() <= _step) ++res;
+            return res;
+        }
+
+        public Config getAll(ItemKey parent) {
+            return toConfig(_step, subColumns(parent));
+        }
+
+        public Config getAll(ItemKey[] parents) {
+            final DefaultConfig res = new DefaultConfig();
+            for (ItemKey parent : parents) res.putAll(getAll(parent));
+            return res;
+        }
+
+        public <K> Map<K, ItemEntry[]> groupBy(MapOp<ItemEntry, K> f) {
+            return toConfig(_step).groupBy(f);
+        }
+
+        public boolean matches(Config config) {
+            for (ItemEntry ie : config.itemEntries()) {
+                final Object val = getItemValue(ie.getKey());
+                if ((val == null) || !val.equals(ie.getItemValue())) return false;
+            }
+            return true;
+        }
+
+        public boolean equals(Object other) {
+            return toConfig(_step).equals(other);
+        }
+
+        public int hashCode() {
+            return toConfig(_step).hashCode();
+        }
+
+        @Override public String toString() {
+            return toConfig(_step).toString();
+        }
+
+        public void clear()                            { throw new UnsupportedOperationException(); }
+        public Object putItem(ItemKey key, Object item) { throw new UnsupportedOperationException(); }
+        public void putAll(Config config)              { throw new UnsupportedOperationException(); }
+        public Object remove(ItemKey key)              { throw new UnsupportedOperationException(); }
+        public void removeAll(ItemKey parent)          { throw new UnsupportedOperationException(); }
+        public void removeAll(ItemKey[] parents)       { throw new UnsupportedOperationException(); }
+        public void removeAll(Config config)           { throw new UnsupportedOperationException(); }
+        public void retainAll(ItemKey parent)          { throw new UnsupportedOperationException(); }
+        public void retainAll(ItemKey[] parents)       { throw new UnsupportedOperationException(); }
+        public void retainAll(Config config)           { throw new UnsupportedOperationException(); }
+    }
+}
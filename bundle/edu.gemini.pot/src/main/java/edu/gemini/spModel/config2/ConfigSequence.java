@@ -30,6 +30,12 @@ import java.io.IOException;
  * successive steps is available via the {@link #getCompactView()} and
  * {@link #compactIterator()} methods.
  *
+ * <p>The complete configuration at each step is kept in a columnar form,
+ * with the values of each item run-length encoded, rather than as a full
+ * Config per step.  Methods that return Configs create them on demand, and
+ * {@link #stepIterator()} iterates over read-only views of each step that
+ * do not copy the items at all.
+ *
  * <p><b>Note that this class is not mt-safe</b> If multiple threads access a
  * ConfigSequence concurrently, and at least one of the threads modifies the
  * sequence structurally, it <em>must</em> be synchronized externally.
@@ -43,7 +49,7 @@ public class ConfigSequence implements Serializable {
     private List<Config> _configs = new ArrayList<>();
     private boolean _isCompact = true;
 
-    private transient List<Config> _completeConfigs;
+    private transient ConfigColumns _completeConfigs;
 
     // Iterator class used to make copies of the Config object it generates.
     private class CopyIterator implements Iterator<Config> {
@@ -66,6 +72,33 @@ public class ConfigSequence implements Serializable {
         }
     }
 
+    // Iterator over the steps of the complete sequence, producing either a
+    // new Config or a read-only view for each.
+    private static class StepIterator implements Iterator<Config> {
+        private final ConfigColumns _columns;
+        private final boolean _copy;
+        private int _step;
+
+        StepIterator(ConfigColumns columns, boolean copy) {
+            _columns = columns;
+            _copy    = copy;
+        }
+
+        public boolean hasNext() {
+            return _step < _columns.size();
+        }
+
+        public Config next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            final int step = _step++;
+            return _copy ? _columns.toConfig(step) : _columns.view(step);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     public static final ConfigSequence EMPTY = new ConfigSequence();
 
     /**
@@ -127,21 +160,12 @@ public class ConfigSequence implements Serializable {
     }
 
     //
-    // Fills in the transient _completeConfigs list with Config instances in
-    // which every successive Config contains all items that are in effect at
-    // that step.
+    // Fills in the transient _completeConfigs columns with the items that are
+    // in effect at each step.
     //
     private void _complete() {
         if (_completeConfigs != null) return;
-
-        _completeConfigs = new ArrayList<>();
-        if (_configs.size() == 0) return;
-
-        Config curConfig = new DefaultConfig();
-        for (Config config : _configs) {
-            curConfig.putAll(config);
-            _completeConfigs.add(new DefaultConfig(curConfig));
-        }
+        _completeConfigs = new ConfigColumns(_configs);
     }
 
     /**
@@ -157,9 +181,9 @@ public class ConfigSequence implements Serializable {
     public Config[] getAllSteps() {
         _complete();
 
-        Config[] res = _completeConfigs.toArray(DefaultConfig.EMPTY_ARRAY);
+        Config[] res = new Config[_completeConfigs.size()];
         for (int i=0; i<res.length; ++i) {
-            res[i] = new DefaultConfig(res[i]);
+            res[i] = _completeConfigs.toConfig(i);
         }
         return res;
     }
@@ -176,7 +200,8 @@ public class ConfigSequence implements Serializable {
     public ConfigSequence filter(Predicate p) {
         _complete();
         List<Config> res = new ArrayList<>(_completeConfigs.size());
-        for (Config c : _completeConfigs) {
+        for (int i=0; i<_completeConfigs.size(); ++i) {
+            Config c = _completeConfigs.view(i);
             if (p.matches(c)) res.add(c);
         }
         return new ConfigSequence(res.toArray(new Config[res.size()]));
@@ -211,7 +236,10 @@ public class ConfigSequence implements Serializable {
      */
     public Config getStep(int step) {
         _complete();
-        return new DefaultConfig(_completeConfigs.get(step));
+        if ((step < 0) || (step >= _completeConfigs.size())) {
+            throw new IndexOutOfBoundsException("step " + step + ", size " + _completeConfigs.size());
+        }
+        return _completeConfigs.toConfig(step);
     }
 
     /**
@@ -225,8 +253,11 @@ public class ConfigSequence implements Serializable {
      * <code
      */
     public Object getItemValue(int step, ItemKey key) {
-        Config conf = getStep(step);
-        return conf.getItemValue(key);
+        _complete();
+        if ((step < 0) || (step >= _completeConfigs.size())) {
+            throw new IndexOutOfBoundsException("step " + step + ", size " + _completeConfigs.size());
+        }
+        return _completeConfigs.get(step, key);
     }
 
     /**
@@ -242,12 +273,7 @@ public class ConfigSequence implements Serializable {
      */
     public Object[] getItemValueAtEachStep(ItemKey key) {
         _complete();
-        Object[] res = new Object[_completeConfigs.size()];
-        int i = 0;
-        for (Config completeConfig : _completeConfigs) {
-            res[i++] = completeConfig.getItemValue(key);
-        }
-        return res;
+        return _completeConfigs.valuesAtEachStep(key);
     }
 
     /**
@@ -263,10 +289,7 @@ public class ConfigSequence implements Serializable {
      */
     public Object[] getDistinctItemValues(ItemKey key) {
         _complete();
-        Set<Object> s = new HashSet<>();
-        for (Config completeConfig : _completeConfigs) {
-            s.add(completeConfig.getItemValue(key));
-        }
+        Set<Object> s = _completeConfigs.distinctValues(key);
         return s.toArray(new Object[s.size()]);
     }
 
@@ -354,10 +377,8 @@ public class ConfigSequence implements Serializable {
      */
     private int indexMatching(Config template) {
        _complete();
-        int i=0;
-        for (Config conf : _completeConfigs) {
-            if (conf.matches(template)) return i;
-            ++i;
+        for (int i=0; i<_completeConfigs.size(); ++i) {
+            if (_completeConfigs.view(i).matches(template)) return i;
         }
         return -1;
     }
@@ -381,13 +402,9 @@ public class ConfigSequence implements Serializable {
         Config nextConfig = new DefaultConfig(conf);
 
         if (_isCompact && (_completeConfigs != null)) {
-            Config lastConfig = _completeConfigs.get(_completeConfigs.size() - 1);
-            nextConfig.removeAll(lastConfig);
+            _completeConfigs.removeUnchanged(nextConfig);
             _configs.add(nextConfig);
-
-            lastConfig = new DefaultConfig(lastConfig);
-            lastConfig.putAll(nextConfig);
-            _completeConfigs.add(lastConfig);
+            _completeConfigs.appendStep(nextConfig);
         } else {
             _isCompact = false;
             _completeConfigs = null;
@@ -423,7 +440,7 @@ public class ConfigSequence implements Serializable {
      */
     public void clear() {
         _configs.clear();
-        if (_completeConfigs != null) _completeConfigs.clear();
+        _completeConfigs = new ConfigColumns();
         _isCompact = true;
     }
 
@@ -433,7 +450,19 @@ public class ConfigSequence implements Serializable {
      */
     public Iterator<Config> iterator() {
         _complete();
-        return new CopyIterator(_completeConfigs.iterator());
+        return new StepIterator(_completeConfigs, true);
+    }
+
+    /**
+     * Iterates over each step in the sequence like {@link #iterator()}, but
+     * without copying.  Each Config returned is a read-only view of the
+     * items in effect at that step, which throws
+     * <code>UnsupportedOperationException</code> if modified.  Views remain
+     * valid only as long as the sequence is not modified.
+     */
+    public Iterator<Config> stepIterator() {
+        _complete();
+        return new StepIterator(_completeConfigs, false);
     }
 
     /**
@@ -468,8 +497,8 @@ public class ConfigSequence implements Serializable {
     public void removeStep(int step) {
         if (step != (_configs.size() - 1)) {
             _isCompact = false;
-            _completeConfigs = null;
         }
+        _completeConfigs = null;
         _configs.remove(step);
     }
 
@@ -523,7 +552,7 @@ public class ConfigSequence implements Serializable {
         _complete();
         Config[] subconfigs = new Config[to - from];
         for (int i=from; i<to; ++i) {
-            subconfigs[i-from] = _completeConfigs.get(i);
+            subconfigs[i-from] = _completeConfigs.view(i);
         }
         return new ConfigSequence(subconfigs);
     }
@@ -0,0 +1,181 @@
+package edu.gemini.spModel.obs.plannedtime;
+
+import edu.gemini.pot.sp.ISPContainerNode;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPObservationID;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of planned time results keyed by observation and the versions of
+ * all the nodes in the observation.  Because a node's version vector
+ * changes whenever the node is modified, a cached result is valid exactly
+ * as long as the versions match.  Unlike the per-node
+ * {@link edu.gemini.spModel.obs.SPObsCache}, results survive the
+ * replacement of a program by an identical copy, as happens when a program
+ * is synchronized or reloaded.
+ *
+ * <p>Observations whose nodes have not yet been assigned versions (for
+ * example temporary observations that are not part of a program) are never
+ * cached.
+ */
+public final class PlannedTimeCache {
+    private static final String MAX_SIZE_PROP = PlannedTimeCache.class.getName() + ".maxSize";
+    private static final int DEFAULT_MAX_SIZE = 100000;
+
+    public static final PlannedTimeCache instance = new PlannedTimeCache(Integer.getInteger(MAX_SIZE_PROP, DEFAULT_MAX_SIZE));
+
+    /**
+     * The planned time and planned steps for an observation.
+     */
+    static final class Result {
+        final PlannedTimeSummary time;
+        final PlannedStepSummary steps;
+
+        Result(PlannedTimeSummary time, PlannedStepSummary steps) {
+            this.time  = time;
+            this.steps = steps;
+        }
+    }
+
+    private static final class Entry {
+        final SPObservationID obsId;
+        final Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions;
+        final Result result;
+
+        Entry(SPObservationID obsId, Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions, Result result) {
+            this.obsId    = obsId;
+            this.versions = versions;
+            this.result   = result;
+        }
+    }
+
+    private final Map<SPNodeKey, Entry> _entries;
+
+    private final LongAdder _requests   = new LongAdder();
+    private final LongAdder _nodeHits   = new LongAdder();
+    private final LongAdder _versionHits = new LongAdder();
+
+    PlannedTimeCache(final int maxSize) {
+        _entries = new LinkedHashMap<SPNodeKey, Entry>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<SPNodeKey, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    // Collects the versions of all the nodes in the tree rooted at node,
+    // returning false if any node is unversioned.
+    private static boolean collectVersions(ISPNode node, Map<SPNodeKey, VersionVector<LifespanId, Integer>> res) {
+        final VersionVector<LifespanId, Integer> v = node.getVersion();
+        if (v.isEmpty()) return false;
+        res.put(node.getNodeKey(), v);
+        if (node instanceof ISPContainerNode) {
+            for (ISPNode child : ((ISPContainerNode) node).getChildren()) {
+                if (!collectVersions(child, res)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the versions of the observation's nodes, or <code>null</code> if
+     * the observation cannot be cached.  Should be called with the program
+     * read lock held.
+     */
+    static Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions(ISPObservation obs) {
+        final Map<SPNodeKey, VersionVector<LifespanId, Integer>> res = new HashMap<>();
+        return collectVersions(obs, res) ? res : null;
+    }
+
+    /**
+     * Records a request that was satisfied by the observation's own
+     * transient cache.
+     */
+    void recordNodeHit() {
+        _requests.increment();
+        _nodeHits.increment();
+    }
+
+    /**
+     * Finds the cached result for the observation with the given versions.
+     * Records a request, which is a hit if a result is returned.
+     */
+    Result lookup(ISPObservation obs, Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions) {
+        _requests.increment();
+        if (versions == null) return null;
+
+        final Entry e;
+        synchronized (_entries) {
+            e = _entries.get(obs.getNodeKey());
+        }
+        if ((e == null) || !e.versions.equals(versions)) return null;
+
+        final SPObservationID obsId = obs.getObservationID();
+        if ((obsId == null) ? (e.obsId != null) : !obsId.equals(e.obsId)) return null;
+
+        _versionHits.increment();
+        return e.result;
+    }
+
+    void put(ISPObservation obs, Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions, Result result) {
+        if (versions == null) return;
+        final Entry e = new Entry(obs.getObservationID(), versions, result);
+        synchronized (_entries) {
+            _entries.put(obs.getNodeKey(), e);
+        }
+    }
+
+    /**
+     * Discards all cached results and resets the statistics.
+     */
+    public void clear() {
+        synchronized (_entries) {
+            _entries.clear();
+        }
+        _requests.reset();
+        _nodeHits.reset();
+        _versionHits.reset();
+    }
+
+    public int size() {
+        synchronized (_entries) {
+            return _entries.size();
+        }
+    }
+
+    /** Total number of planned time requests for individual observations. */
+    public long getRequestCount() { return _requests.sum(); }
+
+    /** Requests answered from the observation's transient cache. */
+    public long getNodeHitCount() { return _nodeHits.sum(); }
+
+    /** Requests answered from this cache after matching versions. */
+    public long getVersionHitCount() { return _versionHits.sum(); }
+
+    /** Requests that required the planned time to be calculated. */
+    public long getMissCount() {
+        return getRequestCount() - getNodeHitCount() - getVersionHitCount();
+    }
+
+    /**
+     * Fraction of requests that did not require a calculation, or zero if
+     * there have been no requests.
+     */
+    public double getHitRate() {
+        final long requests = getRequestCount();
+        return (requests == 0) ? 0.0 : (double) (requests - getMissCount()) / requests;
+    }
+
+    @Override public String toString() {
+        return String.format("PlannedTimeCache{size=%d, requests=%d, nodeHits=%d, versionHits=%d, hitRate=%.3f}",
+                size(), getRequestCount(), getNodeHitCount(), getVersionHitCount(), getHitRate());
+    }
+}
@@ -2,6 +2,9 @@ package edu.gemini.spModel.obs.plannedtime;
 
 import edu.gemini.pot.sp.ISPObservation;
 import edu.gemini.pot.sp.ISPObservationContainer;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionVector;
 import edu.gemini.spModel.obs.ObsClassService;
 import edu.gemini.spModel.obs.ObsPhase2Status;
 import edu.gemini.spModel.obs.SPObsCache;
@@ -9,6 +12,7 @@ import edu.gemini.spModel.obs.SPObservation;
 import edu.gemini.spModel.obsclass.ObsClass;
 
 import java.util.Collection;
+import java.util.Map;
 
 
 /**
@@ -70,7 +74,9 @@ public final class PlannedTimeSummaryService {
     }
 
     /**
-     * Return the total observing time for the given observation.
+     * Return the total observing time for the given observation.  Results
+     * are cached in the observation itself and, keyed by the versions of
+     * the observation's nodes, in the {@link PlannedTimeCache}.
      *
      * @param obs the observation to examine
      *
@@ -81,26 +87,38 @@ public final class PlannedTimeSummaryService {
         // First check the cache.
         final PlannedTimeSummary cachedTime = SPObsCache.getPlannedTime(obs);
         if (cachedTime != null) {
+            PlannedTimeCache.instance.recordNodeHit();
             return cachedTime;
         }
 
+        obs.getProgramReadLock();
+        try {
+            // Then the version-keyed cache, which survives program replacement.
+            final Map<SPNodeKey, VersionVector<LifespanId, Integer>> versions = PlannedTimeCache.versions(obs);
+            PlannedTimeCache.Result res = PlannedTimeCache.instance.lookup(obs, versions);
+            if (res == null) {
+                res = calc(obs);
+                PlannedTimeCache.instance.put(obs, versions, res);
+            }
+
+            // Cache the values.
+            SPObsCache.setPlannedTime(obs, res.time);
+            SPObsCache.setPlannedSteps(obs, res.steps);
+            return res.time;
+        } finally {
+            obs.returnProgramReadLock();
+        }
+    }
+
+    private static PlannedTimeCache.Result calc(final ISPObservation obs) {
         // Set steps and time to zero for Acq observations.
         // Having zero steps will automatically exclude them from showing up in QPT.
         if (!shouldCountPlannedExecTime(obs)) {
-            final PlannedTimeSummary res = PlannedTimeSummary.ZERO_PLANNED_TIME;
-            final PlannedStepSummary steps = PlannedStepSummary.ZERO_PLANNED_STEPS;
-            SPObsCache.setPlannedTime(obs, res);
-            SPObsCache.setPlannedSteps(obs, steps);
-            return res;
+            return new PlannedTimeCache.Result(PlannedTimeSummary.ZERO_PLANNED_TIME, PlannedStepSummary.ZERO_PLANNED_STEPS);
         }
 
         final PlannedTime pta = PlannedTimeCalculator.instance.calc(obs);
-
-        // Cache the values.
-        final PlannedTimeSummary res = pta.toPlannedTimeSummary();
-        SPObsCache.setPlannedTime(obs, res);
-        SPObsCache.setPlannedSteps(obs, pta.toPlannedStepSummary());
-        return res;
+        return new PlannedTimeCache.Result(pta.toPlannedTimeSummary(), pta.toPlannedStepSummary());
     }
 
     private static boolean shouldCountPlannedExecTime(final ISPObservation obs) {
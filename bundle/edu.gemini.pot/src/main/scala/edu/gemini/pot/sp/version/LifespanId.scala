@@ -1,6 +1,7 @@
 package edu.gemini.pot.sp.version
 
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 
 import scalaz._
 
@@ -9,14 +10,28 @@ import scalaz._
  * VersionVector key to store a node's version information for the lifespan of a
  * particular program in a particular database.  If the program is deleted and
  * imported again from XML, it gets a new life span id.
+ *
+ * There are only a handful of lifespans per program but one reference per
+ * clock of every node, so instances parsed or read from a serialized program
+ * are interned.  New random ids are unique and are not interned.
  */
 case class LifespanId(uuid: UUID) {
   override def toString: String = uuid.toString
+
+  private def readResolve(): AnyRef = LifespanId.intern(this)
 }
 
 object LifespanId {
+  private val interned = new ConcurrentHashMap[UUID, LifespanId]()
+
+  /** Returns the shared instance equal to `id`. */
+  def intern(id: LifespanId): LifespanId = {
+    val prev = interned.putIfAbsent(id.uuid, id)
+    if (prev == null) id else prev
+  }
+
   def random: LifespanId = LifespanId(UUID.randomUUID())
-  def fromString(uuid: String): LifespanId = LifespanId(UUID.fromString(uuid))
+  def fromString(uuid: String): LifespanId = intern(LifespanId(UUID.fromString(uuid)))
 
   implicit def LifespanIdEqual: Equal[LifespanId] = Equal.equalA
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package edu.gemini.pot.sp.version
+
+import edu.gemini.pot.sp.SPNodeKey
+
+import java.util.UUID
+
+/**
+ * A 128-bit hash of all the version information in a program.  It is the
+ * sum of a hash of every (node, lifespan, clock) triple, so it does not
+ * depend on the order of the entries and can be maintained incrementally as
+ * node versions change by subtracting the old node versions and adding the
+ * new ones.
+ *
+ * Two copies of a program with the same hash have (with overwhelming
+ * probability) the same versions for every node, and therefore the same
+ * content.  This allows a VCS sync to compare hashes before exchanging
+ * entire version maps.  Clocks with value zero do not contribute, so they
+ * are equivalent to missing clocks, as in version comparison.
+ */
+final case class VersionHash(hi: Long, lo: Long) {
+  def plus(that: VersionHash): VersionHash  = VersionHash(hi + that.hi, lo + that.lo)
+  def minus(that: VersionHash): VersionHash = VersionHash(hi - that.hi, lo - that.lo)
+
+  override def toString: String = f"$hi%016x$lo%016x"
+}
+
+object VersionHash {
+  val Zero: VersionHash = VersionHash(0L, 0L)
+
+  // MurmurHash3 64-bit finalizer.
+  private def mix(z0: Long): Long = {
+    var z = z0
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L
+    z ^ (z >>> 33)
+  }
+
+  private def hash(seed: Long, k: UUID, l: UUID, clock: Int): Long =
+    mix(seed ^ mix(k.getMostSignificantBits ^ mix(k.getLeastSignificantBits ^ mix(l.getMostSignificantBits ^ mix(l.getLeastSignificantBits + clock)))))
+
+  /** Hash of the versions of a single node. */
+  def entry(k: SPNodeKey, nv: NodeVersions): VersionHash =
+    if ((nv == null) || nv.isEmpty) Zero
+    else {
+      var hi = 0L
+      var lo = 0L
+      nv.clocks.foreach { case (l, c) =>
+        if (c.intValue != 0) {
+          hi += hash(0x9e3779b97f4a7c15L, k.uuid, l.uuid, c.intValue)
+          lo += hash(0x632be59bd9b4e019L, k.uuid, l.uuid, c.intValue)
+        }
+      }
+      VersionHash(hi, lo)
+    }
+
+  /** Hash of the versions of all the nodes in a version map. */
+  def of(vm: VersionMap): VersionHash = {
+    var hi = 0L
+    var lo = 0L
+    vm.foreach { case (k, nv) =>
+      val e = entry(k, nv)
+      hi += e.hi
+      lo += e.lo
+    }
+    VersionHash(hi, lo)
+  }
+
+  /** Updates `h` for the change of node `k`'s versions from `oldNv` to `newNv`. */
+  def update(h: VersionHash, k: SPNodeKey, oldNv: NodeVersions, newNv: NodeVersions): VersionHash =
+    h.minus(entry(k, oldNv)).plus(entry(k, newNv))
+}
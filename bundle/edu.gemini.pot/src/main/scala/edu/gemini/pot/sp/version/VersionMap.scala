@@ -1,6 +1,6 @@
 package edu.gemini.pot.sp.version
 
-import edu.gemini.shared.util.VersionComparison
+import edu.gemini.shared.util.{VersionComparison, VersionVector}
 
 /**
  *
@@ -8,25 +8,41 @@ import edu.gemini.shared.util.VersionComparison
 object VersionMap {
   val ordering = new PartialOrdering[VersionMap]() {
 
-    // If both are the same, keep the same value.  If either is zero, favor
-    // the other.  Otherwise, they conflict.
-    private def combine(i0: Int, i1: Int): Option[Int] = (i0, i1) match {
-      case (a,b) if a == b => Some(a)
-      case (a,0)           => Some(a)
-      case (0,b)           => Some(b)
-      case _               => None
-    }
+    // Folds the comparison of each node into a single result in one pass
+    // over each map, stopping at the first conflict, rather than building
+    // intermediate collections of per-node comparisons, since programs may
+    // have many thousands of nodes.  (The map iterators and lookups still
+    // allocate their entry tuples and Options.)  If both are the same, keep
+    // the same value.  If either is zero, favor the other.  Otherwise, they
+    // conflict.
+    def tryCompare(xvm: VersionMap, yvm: VersionMap): Option[Int] =
+      if (xvm eq yvm) Some(0)
+      else {
+        var res = 0
+
+        def combine(cur: Int): Unit =
+          res = if (cur == VersionVector.Incomparable) cur
+                else if ((cur == 0) || (res == cur)) res
+                else if (res == 0) cur
+                else VersionVector.Incomparable
+
+        val xit = xvm.iterator
+        while (xit.hasNext && (res != VersionVector.Incomparable)) {
+          val (k, xv) = xit.next()
+          yvm.get(k) match {
+            case Some(yv) => if (!(xv eq yv)) combine(xv.compareOrIncomparable(yv))
+            case None     => combine(xv.compareOrIncomparable(EmptyNodeVersions))
+          }
+        }
 
-    def tryCompare(xvm: VersionMap, yvm: VersionMap): Option[Int] = {
-      val zero: Option[Int] = Some(0)
-      (zero/:(xvm.keySet ++ yvm.keySet)) { (iopt,key) =>
-        for {
-          a <- iopt
-          b <- xvm.getOrElse(key, EmptyNodeVersions).tryCompareTo(yvm.getOrElse(key, EmptyNodeVersions))
-          c <- combine(a, b)
-        } yield c
+        val yit = yvm.iterator
+        while (yit.hasNext && (res != VersionVector.Incomparable)) {
+          val (k, yv) = yit.next()
+          if (!xvm.contains(k)) combine(EmptyNodeVersions.compareOrIncomparable(yv))
+        }
+
+        if (res == VersionVector.Incomparable) None else Some(res)
       }
-    }
 
     def lteq(xvm: VersionMap, yvm: VersionMap): Boolean = {
       // a less efficient (probably) but more concise (definitely) way to do this
@@ -68,7 +84,14 @@ object VersionMap {
     * Intuitively, this method returns the `VersionMap` that results from
     * synchronizing two program versions with these maps. */
   def sync(x: VersionMap, y: VersionMap): VersionMap =
-    (x/:y.keySet) { (vm, k) =>
-      vm.updated(k, nodeVersions(x, k).sync(nodeVersions(y, k)))
+    if (x eq y) x
+    else (x/:y) { case (vm, (k, yv)) =>
+      vm.get(k) match {
+        case Some(xv) =>
+          val nv = xv.sync(yv)
+          if (nv eq xv) vm else vm.updated(k, nv)
+        case None     =>
+          vm.updated(k, yv)
+      }
     }
 }
@@ -0,0 +1,92 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.obs.SPObservation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip tests for each of the program storage formats.
+ */
+public final class MemSerializerTest {
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2016A-Q-1"));
+        for (int i=0; i<5; ++i) {
+            final ISPObservation obs = odb.getFactory().createObservation(prog, Instrument.none, null);
+
+            // equal but distinct strings, as read from disk or XML
+            final SPObservation dataObj = (SPObservation) obs.getDataObject();
+            dataObj.setTitle(new StringBuilder("Science Observation").toString());
+            obs.setDataObject(dataObj);
+
+            prog.addObservation(obs);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private void assertSameProgram(ISPProgram copy) {
+        assertEquals(prog.getProgramKey(), copy.getProgramKey());
+        assertEquals(prog.getProgramID(), copy.getProgramID());
+
+        final List<ISPObservation> expected = prog.getAllObservations();
+        final List<ISPObservation> actual   = copy.getAllObservations();
+        assertEquals(expected.size(), actual.size());
+        for (int i=0; i<expected.size(); ++i) {
+            assertEquals(expected.get(i).getNodeKey(), actual.get(i).getNodeKey());
+        }
+    }
+
+    @Test
+    public void testBlobRoundTrip() throws Exception {
+        for (MemSerializer.Format f : MemSerializer.Format.values()) {
+            final byte[] blob = new MemSerializer(f).store(prog);
+            assertSameProgram((ISPProgram) new MemSerializer().load(blob));
+        }
+    }
+
+    @Test
+    public void testFileRoundTrip() throws Exception {
+        final File tmp = File.createTempFile("memSerializerTest", ".sp");
+        try {
+            for (MemSerializer.Format f : MemSerializer.Format.values()) {
+                new MemSerializer(f).store(prog, tmp);
+                assertSameProgram((ISPProgram) new MemSerializer().load(tmp));
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Test
+    public void testCompactIsSmaller() throws Exception {
+        final int java    = new MemSerializer(MemSerializer.Format.JAVA).store(prog).length;
+        final int compact = new MemSerializer(MemSerializer.Format.COMPACT).store(prog).length;
+        assertTrue(compact < java);
+    }
+
+    @Test
+    public void testCompressedIsSmaller() throws Exception {
+        final int java     = new MemSerializer(MemSerializer.Format.JAVA).store(prog).length;
+        final int deflated = new MemSerializer(MemSerializer.Format.COMPACT_DEFLATE).store(prog).length;
+        assertTrue(deflated < java);
+    }
+}
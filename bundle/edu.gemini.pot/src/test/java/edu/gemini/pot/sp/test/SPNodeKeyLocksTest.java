@@ -0,0 +1,80 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPNodeKeyLocks;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests lock reclamation, timed locking and statistics in SPNodeKeyLocks.
+ */
+public final class SPNodeKeyLocksTest {
+    private static final SPNodeKeyLocks LOCKS = SPNodeKeyLocks.instance;
+
+    @Test
+    public void testLockReclaimed() {
+        final SPNodeKey key = new SPNodeKey();
+        final int size = LOCKS.size();
+
+        LOCKS.writeLock(key);
+        LOCKS.readLock(key);
+        assertTrue(LOCKS.isWriteLockHeld(key));
+        assertEquals(size + 1, LOCKS.size());
+
+        LOCKS.readUnlock(key);
+        LOCKS.writeUnlock(key);
+        assertFalse(LOCKS.isWriteLockHeld(key));
+        assertEquals(size, LOCKS.size());
+    }
+
+    @Test
+    public void testTryLockTimesOut() throws Exception {
+        final SPNodeKey key = new SPNodeKey();
+        final ExecutorService ex = Executors.newSingleThreadExecutor();
+
+        LOCKS.writeLock(key);
+        try {
+            final Future<Boolean> f = ex.submit(() -> LOCKS.tryReadLock(key, 10, TimeUnit.MILLISECONDS));
+            assertFalse(f.get());
+        } finally {
+            LOCKS.writeUnlock(key);
+        }
+
+        final Future<Boolean> f = ex.submit(() -> {
+            final boolean res = LOCKS.tryWriteLock(key, 10, TimeUnit.MILLISECONDS);
+            if (res) LOCKS.writeUnlock(key);
+            return res;
+        });
+        assertTrue(f.get());
+        ex.shutdown();
+
+        final SPNodeKeyLocks.LockStatistics s = LOCKS.getStatistics().get(key);
+        assertEquals(2, s.acquisitions);
+        assertEquals(1, s.contended);
+        assertEquals(1, s.timeouts);
+    }
+
+    @Test
+    public void testUncontendedStatisticsReclaimed() {
+        final SPNodeKey key = new SPNodeKey();
+        final long total = LOCKS.getTotalStatistics().acquisitions;
+
+        LOCKS.readLock(key);
+        assertEquals(1, LOCKS.getStatistics().get(key).acquisitions);
+        LOCKS.readUnlock(key);
+
+        assertNull(LOCKS.getStatistics().get(key));
+        assertTrue(LOCKS.getTotalStatistics().acquisitions > total);
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutLock() {
+        LOCKS.readUnlock(new SPNodeKey());
+    }
+}
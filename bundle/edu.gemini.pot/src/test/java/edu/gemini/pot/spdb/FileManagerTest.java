@@ -0,0 +1,67 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.core.SPProgramID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests storing and loading program files.
+ */
+public final class FileManagerTest {
+
+    private static final String LOAD_THREADS_PROP = FileManager.class.getName() + ".loadThreads";
+
+    private IDBDatabaseService odb;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        odb = DBLocalDatabase.createTransient();
+        dir = Files.createTempDirectory("fileManagerTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private ISPProgram createProgram(SPNodeKey key, String id) throws Exception {
+        return odb.getFactory().createProgram(key, SPProgramID.toProgramID(id));
+    }
+
+    @Test
+    public void testParallelLoadResolvesDuplicatesByFileName() throws Exception {
+        // Several files holding the same program key, stored in reverse
+        // order.  Each store uses its own FileManager so that the earlier
+        // files aren't cleaned up.
+        final SPNodeKey key = new SPNodeKey();
+        for (int i=9; i>=1; --i) new FileManager(dir).store(createProgram(key, "GS-2016A-Q-" + i));
+        assertEquals(9, dir.listFiles().length);
+
+        final String oldThreads = System.getProperty(LOAD_THREADS_PROP);
+        System.setProperty(LOAD_THREADS_PROP, "4");
+        try {
+            for (int i=0; i<20; ++i) {
+                final List<ISPProgram> progs = new FileManager(dir).reloadPrograms();
+                assertEquals(1, progs.size());
+                assertEquals(key, progs.get(0).getProgramKey());
+                assertEquals(SPProgramID.toProgramID("GS-2016A-Q-1"), progs.get(0).getProgramID());
+            }
+        } finally {
+            if (oldThreads == null) System.clearProperty(LOAD_THREADS_PROP);
+            else System.setProperty(LOAD_THREADS_PROP, oldThreads);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
+import edu.gemini.pot.sp.memImpl.MemSerializerTool;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.obs.SPObservation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests appending to and replaying program journals.
+ */
+public final class ProgramJournalTest {
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+    private ISPObservation obs;
+    private File snapshot;
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2016A-Q-1"));
+        obs  = odb.getFactory().createObservation(prog, Instrument.none, null);
+        prog.addObservation(obs);
+        setTitle("0");
+
+        snapshot = File.createTempFile("programJournalTest", ".sp");
+        journal  = new File(snapshot.getPath() + FileManager.JOURNAL_SUFFIX);
+        store();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+        snapshot.delete();
+        journal.delete();
+    }
+
+    private void setTitle(String title) {
+        final SPObservation dataObj = (SPObservation) obs.getDataObject();
+        dataObj.setTitle(title);
+        obs.setDataObject(dataObj);
+    }
+
+    private void store() throws Exception {
+        new MemSerializer().store(prog, snapshot);
+    }
+
+    private void append() throws Exception {
+        ProgramJournal.append(journal, prog, Collections.<ISPNode>singletonList(obs));
+    }
+
+    private ISPProgram load() throws Exception {
+        return (ISPProgram) new MemSerializer().load(snapshot);
+    }
+
+    private static String title(ISPProgram p) {
+        return p.getAllObservations().get(0).getDataObject().getTitle();
+    }
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        setTitle("1");
+        append();
+        setTitle("2");
+        append();
+
+        final ISPProgram copy = load();
+        assertEquals("0", title(copy));
+        assertEquals(2, ProgramJournal.replay(journal, copy));
+        assertEquals("2", title(copy));
+        assertEquals(obs.getVersion(), copy.getAllObservations().get(0).getVersion());
+    }
+
+    @Test
+    public void testNoJournal() throws Exception {
+        final ISPProgram copy = load();
+        assertEquals(0, ProgramJournal.replay(journal, copy));
+        assertEquals("0", title(copy));
+    }
+
+    @Test
+    public void testStaleJournalIsSkipped() throws Exception {
+        setTitle("1");
+        append();
+
+        // A newer program file is written but the journal survives, as if
+        // the store crashed before deleting it.
+        setTitle("2");
+        store();
+
+        final ISPProgram copy = load();
+        assertEquals(0, ProgramJournal.replay(journal, copy));
+        assertEquals("2", title(copy));
+    }
+
+    @Test
+    public void testTornTailIsTrimmed() throws Exception {
+        setTitle("1");
+        append();
+        final long complete = journal.length();
+        setTitle("2");
+        append();
+
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(journal.length() - 3);
+        }
+
+        final ISPProgram copy = load();
+        assertEquals(1, ProgramJournal.replay(journal, copy));
+        assertEquals("1", title(copy));
+        assertEquals(complete, journal.length());
+    }
+
+    @Test
+    public void testConvertRefusesJournals() throws Exception {
+        final File dir  = Files.createTempDirectory("programJournalTest").toFile();
+        final File file = new File(dir, "prog" + FileManager.PROGRAM_SUFFIX);
+        final File jnl  = new File(dir, file.getName() + FileManager.JOURNAL_SUFFIX);
+        try {
+            Files.copy(snapshot.toPath(), file.toPath());
+            setTitle("1");
+            ProgramJournal.append(jnl, prog, Collections.<ISPNode>singletonList(obs));
+
+            final byte[] before = Files.readAllBytes(file.toPath());
+            try {
+                MemSerializerTool.convert(dir, MemSerializer.Format.COMPACT);
+                fail("converted a program with a pending journal");
+            } catch (IOException ex) {
+                // expected
+            }
+            assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+            assertEquals(1, ProgramJournal.replay(jnl, (ISPProgram) new MemSerializer().load(file)));
+        } finally {
+            file.delete();
+            jnl.delete();
+            dir.delete();
+        }
+    }
+}
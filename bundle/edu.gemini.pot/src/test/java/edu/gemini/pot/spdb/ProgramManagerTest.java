@@ -0,0 +1,189 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.core.SPProgramID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading programs on demand from the program index.
+ */
+public final class ProgramManagerTest {
+
+    private static final int PROGRAM_COUNT = 3;
+
+    private IDBDatabaseService odb;
+    private File dir;
+    private List<SPNodeKey> keys;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        dir  = Files.createTempDirectory("programManagerTest").toFile();
+        keys = new ArrayList<>();
+
+        final FileManager fm = new FileManager(dir);
+        for (int i=0; i<PROGRAM_COUNT; ++i) {
+            final ISPProgram prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2016A-Q-" + (i+1)));
+            fm.store(prog);
+            keys.add(prog.getProgramKey());
+        }
+
+        // The first indexing deserializes everything and writes programs.idx.
+        new FileManager(dir).indexPrograms();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private static final class CountingLoader implements ProgramManager.ProgramLoader<ISPProgram> {
+        final FileManager fm;
+        final AtomicInteger count = new AtomicInteger();
+
+        CountingLoader(FileManager fm) { this.fm = fm; }
+
+        public ISPProgram load(SPNodeKey key) throws java.io.IOException {
+            count.incrementAndGet();
+            return fm.loadProgram(key);
+        }
+    }
+
+    private static class AddedListener implements ProgramEventListener<ISPProgram> {
+        final List<ProgramEvent<ISPProgram>> added = new ArrayList<>();
+
+        public void programAdded(ProgramEvent<ISPProgram> pme) { added.add(pme); }
+        public void programReplaced(ProgramEvent<ISPProgram> pme) { }
+        public void programRemoved(ProgramEvent<ISPProgram> pme) { }
+    }
+
+    private static final class ResidentListener extends AddedListener implements ProgramManager.ResidencyListener<ISPProgram> {
+        final List<ISPProgram> loaded = new ArrayList<>();
+
+        public void programLoaded(ISPProgram prog) { loaded.add(prog); }
+    }
+
+    private ProgramManager<ISPProgram> programManager(ProgramIndex index, CountingLoader loader, int maxResident) {
+        return new ProgramManager<>(index.loaded, index.unloaded, loader, maxResident);
+    }
+
+    @Test
+    public void testIndexRoundTrip() throws Exception {
+        final ProgramIndex index = new FileManager(dir).indexPrograms();
+        assertEquals(0, index.loaded.size());
+        assertEquals(PROGRAM_COUNT, index.unloaded.size());
+
+        final Set<SPNodeKey> indexed = new HashSet<>();
+        final Set<SPProgramID> ids   = new HashSet<>();
+        for (ProgramIndexEntry e : index.unloaded) {
+            indexed.add(e.key);
+            ids.add(e.progId);
+            assertEquals("2016A", e.semester);
+        }
+        assertEquals(new HashSet<>(keys), indexed);
+        assertTrue(ids.contains(SPProgramID.toProgramID("GS-2016A-Q-1")));
+    }
+
+    @Test
+    public void testLoadOnDemand() throws Exception {
+        final FileManager fm = new FileManager(dir);
+        final CountingLoader loader = new CountingLoader(fm);
+        final ProgramManager<ISPProgram> pm = programManager(fm.indexPrograms(), loader, PROGRAM_COUNT);
+
+        assertEquals(0, pm.getResidentPrograms().size());
+        assertEquals(keys.size(), pm.getProgramKeys().size());
+
+        final ISPProgram p0 = pm.lookupProgram(keys.get(0));
+        assertNotNull(p0);
+        assertEquals(keys.get(0), p0.getProgramKey());
+        assertEquals(1, loader.count.get());
+
+        // Found again without loading.
+        assertSame(p0, pm.lookupProgram(keys.get(0)));
+        assertSame(p0, pm.lookupProgramByID(SPProgramID.toProgramID("GS-2016A-Q-1")));
+        assertEquals(1, loader.count.get());
+
+        assertNull(pm.lookupProgram(new SPNodeKey()));
+        assertEquals(1, loader.count.get());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final FileManager fm = new FileManager(dir);
+        final CountingLoader loader = new CountingLoader(fm);
+        final ProgramManager<ISPProgram> pm = programManager(fm.indexPrograms(), loader, 1);
+
+        final ISPProgram p0 = pm.lookupProgram(keys.get(0));
+        final ISPProgram p1 = pm.lookupProgram(keys.get(1));
+        assertNotNull(p1);
+        assertEquals(2, loader.count.get());
+
+        // p0 was evicted but is still reachable so it is found again rather
+        // than reloaded.
+        assertSame(p0, pm.lookupProgram(keys.get(0)));
+        assertEquals(2, loader.count.get());
+    }
+
+    @Test
+    public void testLazyIteration() throws Exception {
+        final FileManager fm = new FileManager(dir);
+        final CountingLoader loader = new CountingLoader(fm);
+        final ProgramManager<ISPProgram> pm = programManager(fm.indexPrograms(), loader, 1);
+
+        final Iterable<ISPProgram> progs = pm.getPrograms();
+        assertEquals(0, loader.count.get());
+
+        final Set<SPNodeKey> seen = new HashSet<>();
+        for (ISPProgram p : progs) seen.add(p.getProgramKey());
+        assertEquals(new HashSet<>(keys), seen);
+        assertEquals(PROGRAM_COUNT, loader.count.get());
+    }
+
+    @Test
+    public void testReloadEvents() throws Exception {
+        final FileManager fm = new FileManager(dir);
+        final ProgramManager<ISPProgram> pm = programManager(fm.indexPrograms(), new CountingLoader(fm), PROGRAM_COUNT);
+
+        final AddedListener plain = new AddedListener();
+        pm.addListener(plain);
+
+        final ResidentListener resident = new ResidentListener();
+        pm.addListener(resident);
+        pm.addResidencyListener(resident);
+
+        final ISPProgram p0 = pm.lookupProgram(keys.get(0));
+
+        // Ordinary listeners are told about the new copy as an added program.
+        assertEquals(1, plain.added.size());
+        final ProgramEvent<ISPProgram> pme = plain.added.get(0);
+        assertTrue(pme.isReload());
+        assertNull(pme.getOldProgram());
+        assertSame(p0, pme.getNewProgram());
+
+        // Residency listeners only see the load.
+        assertEquals(0, resident.added.size());
+        assertEquals(1, resident.loaded.size());
+        assertSame(p0, resident.loaded.get(0));
+
+        // No further events if the program is already resident.
+        pm.lookupProgram(keys.get(0));
+        assertEquals(1, plain.added.size());
+        assertEquals(1, resident.loaded.size());
+    }
+}
@@ -0,0 +1,108 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBIndexPredicate;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.obs.ObsPhase2Status;
+import edu.gemini.spModel.obs.ObservationStatus;
+import edu.gemini.spModel.obs.SPObservation;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that index-backed queries visit only the matching nodes and track
+ * changes to the programs.
+ */
+public final class QueryIndexTest extends SpdbBaseTestCase {
+
+    public static final class KeyFunctor extends DBAbstractQueryFunctor {
+        private final Set<SPNodeKey> keys = new HashSet<>();
+
+        public Set<SPNodeKey> getKeys() { return keys; }
+
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            keys.add(node.getNodeKey());
+        }
+    }
+
+    private ISPProgram createProgram(String id, int obsCount) throws Exception {
+        final ISPFactory fact = getDatabase().getFactory();
+        final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID(id));
+        for (int i=0; i<obsCount; ++i) prog.addObservation(fact.createObservation(prog, Instrument.none, null));
+        recordProgram(prog);
+        return prog;
+    }
+
+    private Set<SPNodeKey> queryObs(DBIndexPredicate pred) {
+        return getDatabase().getQueryRunner().queryObservations(pred, new KeyFunctor()).getKeys();
+    }
+
+    private Set<SPNodeKey> queryProgs(DBIndexPredicate pred) {
+        return getDatabase().getQueryRunner().queryPrograms(pred, new KeyFunctor()).getKeys();
+    }
+
+    private static void setPhase2Status(ISPObservation obs, ObsPhase2Status status) {
+        final SPObservation dataObj = (SPObservation) obs.getDataObject();
+        dataObj.setPhase2Status(status);
+        obs.setDataObject(dataObj);
+    }
+
+    @Test
+    public void testSemester() throws Exception {
+        final ISPProgram a = createProgram("GS-2016A-Q-1", 2);
+        final ISPProgram b = createProgram("GS-2016B-Q-2", 3);
+
+        assertEquals(setOf(a.getProgramKey()), queryProgs(DBIndexPredicate.ALL.withSemester("2016A")));
+        assertEquals(keys(b), queryObs(DBIndexPredicate.ALL.withSemester("2016B")));
+        assertEquals(2, queryProgs(DBIndexPredicate.ALL).size());
+    }
+
+    @Test
+    public void testStatusChange() throws Exception {
+        final ISPProgram a = createProgram("GS-2016A-Q-1", 2);
+        createProgram("GS-2016A-Q-2", 2);
+
+        final DBIndexPredicate inactive = DBIndexPredicate.ALL.withStatus(ObservationStatus.INACTIVE);
+        assertTrue(queryObs(inactive).isEmpty());
+
+        final ISPObservation obs = a.getAllObservations().get(0);
+        setPhase2Status(obs, ObsPhase2Status.INACTIVE);
+        assertEquals(setOf(obs.getNodeKey()), queryObs(inactive));
+        assertEquals(setOf(a.getProgramKey()), queryProgs(inactive));
+
+        setPhase2Status(obs, ObsPhase2Status.PI_TO_COMPLETE);
+        assertTrue(queryObs(inactive).isEmpty());
+    }
+
+    @Test
+    public void testStructureChange() throws Exception {
+        final ISPProgram a = createProgram("GS-2016A-Q-1", 1);
+        final DBIndexPredicate sem = DBIndexPredicate.ALL.withSemester("2016A");
+        assertEquals(1, queryObs(sem).size());
+
+        a.addObservation(getDatabase().getFactory().createObservation(a, Instrument.none, null));
+        assertEquals(keys(a), queryObs(sem));
+
+        getDatabase().removeProgram(a.getProgramKey());
+        assertTrue(queryObs(sem).isEmpty());
+    }
+
+    private static Set<SPNodeKey> keys(ISPProgram prog) {
+        final Set<SPNodeKey> res = new HashSet<>();
+        for (ISPObservation obs : prog.getAllObservations()) res.add(obs.getNodeKey());
+        return res;
+    }
+
+    private static Set<SPNodeKey> setOf(SPNodeKey key) {
+        final Set<SPNodeKey> res = new HashSet<>();
+        res.add(key);
+        return res;
+    }
+}
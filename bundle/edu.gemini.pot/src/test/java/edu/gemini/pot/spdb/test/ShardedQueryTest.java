@@ -0,0 +1,109 @@
+package edu.gemini.pot.spdb.test;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBProgramListFunctor;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.IDBFunctor;
+import edu.gemini.pot.spdb.IDBShardedQueryFunctor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that sharded query functors produce the same results as a
+ * sequential query.
+ */
+public final class ShardedQueryTest extends SpdbBaseTestCase {
+
+    private static final int PROGRAM_COUNT = 10;
+
+    // Sharding is only enabled with a parallelism greater than one, so it is
+    // set explicitly rather than depending on the available processors.
+    private static final String QUERY_PARALLELISM_PROP = "edu.gemini.pot.spdb.DatabaseManager.queryParallelism";
+
+    private String oldParallelism;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        oldParallelism = System.getProperty(QUERY_PARALLELISM_PROP);
+        System.setProperty(QUERY_PARALLELISM_PROP, "4");
+        super.setUp();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        try {
+            super.tearDown();
+        } finally {
+            if (oldParallelism == null) System.clearProperty(QUERY_PARALLELISM_PROP);
+            else System.setProperty(QUERY_PARALLELISM_PROP, oldParallelism);
+        }
+    }
+
+    public static final class ObsCountFunctor extends DBAbstractQueryFunctor implements IDBShardedQueryFunctor {
+        private int count;
+        private int shards;
+
+        public int getCount() { return count; }
+        public int getShards() { return shards; }
+
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            ++count;
+        }
+
+        public IDBShardedQueryFunctor newShard() {
+            return new ObsCountFunctor();
+        }
+
+        public void mergeResults(Collection<IDBFunctor> functorCollection) {
+            for (IDBFunctor f : functorCollection) {
+                final ObsCountFunctor shard = (ObsCountFunctor) f;
+                count += shard.getCount();
+                ++shards;
+                if (shard.getException() != null) setException(shard.getException());
+            }
+        }
+    }
+
+    private Set<SPNodeKey> createPrograms() throws Exception {
+        final Set<SPNodeKey> keys = new HashSet<>();
+        for (int i=0; i<PROGRAM_COUNT; ++i) {
+            final ISPProgram prog = createProgram();
+            for (int j=0; j<i; ++j) {
+                final ISPObservation obs = getDatabase().getFactory().createObservation(prog, Instrument.none, null);
+                prog.addObservation(obs);
+            }
+            keys.add(prog.getProgramKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testObservationCount() throws Exception {
+        createPrograms();
+
+        final ObsCountFunctor f = getDatabase().getQueryRunner().queryObservations(new ObsCountFunctor());
+        assertNull(f.getException());
+        assertEquals(PROGRAM_COUNT * (PROGRAM_COUNT - 1) / 2, f.getCount());
+        assertEquals(PROGRAM_COUNT, f.getShards());
+    }
+
+    @Test
+    public void testProgramList() throws Exception {
+        final Set<SPNodeKey> keys = createPrograms();
+
+        final DBProgramListFunctor f = getDatabase().getQueryRunner().queryPrograms(new DBProgramListFunctor());
+        assertNull(f.getException());
+        assertEquals(keys, new HashSet<>(f.getKeyList()));
+    }
+}
@@ -6,9 +6,11 @@ package edu.gemini.pot.spdb.test;
 import edu.gemini.pot.sp.*;
 import edu.gemini.pot.spdb.IDBTriggerAction;
 import edu.gemini.pot.spdb.IDBTriggerCondition;
+import edu.gemini.pot.spdb.TriggerStatistics;
 import edu.gemini.spModel.data.ISPDataObject;
 import edu.gemini.spModel.pio.ParamSet;
 import edu.gemini.spModel.pio.PioFactory;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -19,6 +21,8 @@ import java.util.logging.Level;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -178,6 +182,10 @@ public class TriggerCase extends SpdbBaseTestCase {
      * non-null trigger message, generate a trigger.
      */
     public static class TestTriggerCondition implements IDBTriggerCondition {
+        @Override public Class<? extends ISPNode> getNodeType() {
+            return ISPObsComponent.class;
+        }
+
         public Object matches(SPCompositeChange change) {
 //            System.out.println("*** composite change");
             String propName = SPUtil.getDataObjectPropertyName();
@@ -213,6 +221,12 @@ public class TriggerCase extends SpdbBaseTestCase {
     }
 
     public static class TestTriggerAction implements IDBTriggerAction {
+        private final Semaphore _done;
+
+        public TestTriggerAction(Semaphore done) {
+            _done = done;
+        }
+
         public void doTriggerAction(SPCompositeChange change, Object handback)
                  {
 
@@ -228,15 +242,27 @@ public class TriggerCase extends SpdbBaseTestCase {
             ProgramDataObject pdo = (ProgramDataObject) prog.getDataObject();
             pdo.addTriggerMessage(message);
             prog.setDataObject(pdo);
+
+            _done.release();
         }
     }
 
+    // A coalescing window far longer than the gap between two back-to-back
+    // updates, so that they are always merged.
+    private static final String COALESCE_MS_PROP = "edu.gemini.pot.spdb.TriggerRegistrar.coalesceMs";
+    private static final long COALESCE_MS = 1000;
+
+    // Released once for each executed trigger action.
+    private final Semaphore _done = new Semaphore(0);
+    private String _oldCoalesceMs;
+
     private ISPProgram _prog;
     private ISPObsComponent _triggerComp;
     private ISPObsComponent _nonTriggerComp;
 
     @Before
     public void setUp() throws Exception {
+        _oldCoalesceMs = System.setProperty(COALESCE_MS_PROP, String.valueOf(COALESCE_MS));
         super.setUp();
         _prog = createProgram();
         _prog.setDataObject(new ProgramDataObject());
@@ -250,6 +276,16 @@ public class TriggerCase extends SpdbBaseTestCase {
         _prog.setObsComponents(obsCompList);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        try {
+            super.tearDown();
+        } finally {
+            if (_oldCoalesceMs == null) System.clearProperty(COALESCE_MS_PROP);
+            else System.setProperty(COALESCE_MS_PROP, _oldCoalesceMs);
+        }
+    }
+
     private ISPObsComponent _createObsComponent(ISPProgram prog, SPComponentType type)
             throws Exception {
         ISPObsComponent obsComp;
@@ -261,7 +297,12 @@ public class TriggerCase extends SpdbBaseTestCase {
 
     private void _leaseTrigger() throws Exception {
         getDatabase().registerTrigger(new TestTriggerCondition(),
-                                      new TestTriggerAction());
+                                      new TestTriggerAction(_done));
+    }
+
+    // Waits for the next trigger action to finish.
+    private void _awaitAction() throws Exception {
+        assertTrue(_done.tryAcquire(COALESCE_MS * 10, TimeUnit.MILLISECONDS));
     }
 
     private void _assertMessages(String[] expected) throws Exception {
@@ -285,22 +326,40 @@ public class TriggerCase extends SpdbBaseTestCase {
         tdo.setTriggerMessage("message1");
         _triggerComp.setDataObject(tdo);
 
-        // Make sure it happened (after a short delay since it is async ...).
-        Thread.sleep(1000);
+        // Make sure it happened (it is async ...).
+        _awaitAction();
         _assertMessages(new String[] {"message1"});
 
         // Do something that shouldn't generate a trigger.
         _nonTriggerComp.setDataObject(tdo);
 
-        // Make sure nothing happened.
-        Thread.sleep(1000);
-        _assertMessages(new String[] {"message1"});
-
         // Do a second trigger.
         tdo.setTriggerMessage("message2");
         _triggerComp.setDataObject(tdo);
-        Thread.sleep(1000);
+        _awaitAction();
         _assertMessages(new String[] {"message1", "message2"});
+
+        // Make sure nothing else happened.
+        assertEquals(2, getDatabase().getTriggerStatistics().executed);
      }
 
+    @Test public void testCoalescing() throws Exception {
+        _leaseTrigger();
+
+        // Two quick matches for the same node are merged into one action,
+        // which sees the latest state.
+        TriggerDataObject tdo = (TriggerDataObject) _triggerComp.getDataObject();
+        tdo.setTriggerMessage("message1");
+        _triggerComp.setDataObject(tdo);
+        tdo.setTriggerMessage("message2");
+        _triggerComp.setDataObject(tdo);
+
+        _awaitAction();
+        _assertMessages(new String[] {"message2"});
+
+        final TriggerStatistics stats = getDatabase().getTriggerStatistics();
+        assertEquals(1, stats.executed);
+        assertEquals(1, stats.coalesced);
+    }
+
 }
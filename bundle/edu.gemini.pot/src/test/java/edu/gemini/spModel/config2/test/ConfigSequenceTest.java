@@ -512,6 +512,31 @@ public class ConfigSequenceTest extends TestCase {
         assertFalse(it.hasNext());
     }
 
+    public void testStepIterator() {
+        assertFalse(_emptySeq.stepIterator().hasNext());
+
+        // Each view should match the corresponding complete step.
+        Config[] steps = _seq.getAllSteps();
+        Iterator<Config> it = _seq.stepIterator();
+        for (Config step : steps) {
+            assertTrue(it.hasNext());
+            Config view = it.next();
+            assertEquals(step, view);
+            assertEquals(step.size(), view.size());
+            assertEquals(step.getItemValue(_changeKey), view.getItemValue(_changeKey));
+        }
+        assertFalse(it.hasNext());
+
+        // Views are read-only.
+        Config view = _seq.stepIterator().next();
+        try {
+            view.putItem(new ItemKey("test"), "test");
+            fail("should throw unsupported operation");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
     public void testIsEmpty() {
         assertTrue(_emptySeq.isEmpty());
         assertFalse(_seq.isEmpty());
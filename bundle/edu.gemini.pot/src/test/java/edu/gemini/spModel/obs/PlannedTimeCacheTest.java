@@ -0,0 +1,51 @@
+package edu.gemini.spModel.obs;
+
+import edu.gemini.pot.sp.ISPSeqComponent;
+import edu.gemini.spModel.obs.plannedtime.PlannedTimeCache;
+import edu.gemini.spModel.obs.plannedtime.PlannedTimeSummary;
+import edu.gemini.spModel.obs.plannedtime.PlannedTimeSummaryService;
+import edu.gemini.spModel.seqcomp.SeqRepeatObserve;
+import edu.gemini.spModel.test.SpModelTestBase;
+import org.junit.Test;
+
+/**
+ * Tests that planned time results are reused while an observation's
+ * versions are unchanged and recalculated when they change.
+ */
+public class PlannedTimeCacheTest extends SpModelTestBase {
+    private static final PlannedTimeCache CACHE = PlannedTimeCache.instance;
+
+    private ISPSeqComponent addObsCount(int obsCount) throws Exception {
+        ISPSeqComponent comp = addSeqComponent(getObs().getSeqComponent(), SeqRepeatObserve.SP_TYPE);
+        SeqRepeatObserve rep = new SeqRepeatObserve();
+        rep.setStepCount(obsCount);
+        comp.setDataObject(rep);
+        return comp;
+    }
+
+    @Test public void testVersionHit() throws Exception {
+        addObsCount(2);
+
+        PlannedTimeSummary pt0 = PlannedTimeSummaryService.getTotalTime(getObs());
+
+        // Discarding the transient cache in the observation, as happens when
+        // the program is replaced, falls back to the version-keyed cache.
+        long hits = CACHE.getVersionHitCount();
+        SPObsCache.setObsCache(getObs(), null);
+        PlannedTimeSummary pt1 = PlannedTimeSummaryService.getTotalTime(getObs());
+        assertTrue(CACHE.getVersionHitCount() > hits);
+        assertEquals(pt0.getExecTime(), pt1.getExecTime());
+    }
+
+    @Test public void testChangeInvalidates() throws Exception {
+        ISPSeqComponent comp = addObsCount(1);
+        PlannedTimeSummary pt0 = PlannedTimeSummaryService.getTotalTime(getObs());
+
+        SeqRepeatObserve rep = (SeqRepeatObserve) comp.getDataObject();
+        rep.setStepCount(3);
+        comp.setDataObject(rep);
+
+        PlannedTimeSummary pt1 = PlannedTimeSummaryService.getTotalTime(getObs());
+        assertTrue(pt1.getExecTime() > pt0.getExecTime());
+    }
+}
@@ -0,0 +1,31 @@
+package edu.gemini.pot.sp.version
+
+import edu.gemini.pot.sp.{ISPFactory, ISPProgram, ProgramGen, ProgramTestSupport}
+import edu.gemini.spModel.rich.pot.sp._
+import org.scalacheck.Gen
+
+object VersionHashSpec extends ProgramTestSupport {
+
+  val genTestProg: Gen[ISPFactory => ISPProgram] =
+    ProgramGen.genProg
+
+  "the program version hash" should {
+    "match the hash of the program's version map after edits" ! forAllPrograms { (odb, progs) =>
+      progs.forall { p =>
+        p.toStream.take(5).foreach { n =>
+          val dob = n.getDataObject
+          dob.setTitle(dob.getTitle + " (edited)")
+          n.setDataObject(dob)
+        }
+        p.getVersionHash == VersionHash.of(p.getVersions)
+      }
+    }
+
+    "be the same for copies with the same versions" ! forAllPrograms { (odb, progs) =>
+      progs.forall { p =>
+        val cp = odb.getFactory.copyWithSameKeys(p)
+        cp.getVersionHash == p.getVersionHash
+      }
+    }
+  }
+}
@@ -24,8 +24,15 @@ object VersionComparison {
       case None             => Conflicting
     }
 
+  /** Converts the result of `VersionVector.compareOrIncomparable`. */
+  def fromInt(i: Int): VersionComparison =
+    if (i == VersionVector.Incomparable) Conflicting
+    else if (i < 0) Older
+    else if (i > 0) Newer
+    else Same
+
   def compare[K, V : Integral](vv0: VersionVector[K, V], vv1: VersionVector[K, V]): VersionComparison =
-    VersionComparison(vv0.tryCompareTo(vv1))
+    fromInt(vv0.compareOrIncomparable(vv1))
 
   implicit def VersionComparisonEqual: Equal[VersionComparison] = Equal.equalA
 
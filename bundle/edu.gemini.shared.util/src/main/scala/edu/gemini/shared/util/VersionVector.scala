@@ -9,14 +9,30 @@ import scala.math.Numeric.Implicits._
 
 import scalaz._
 
+// Version vectors are held for every node of every program, and almost all
+// of them have only one or two clocks.  They are therefore backed by the
+// default immutable Map, which has dedicated classes for up to four entries,
+// rather than a ListMap with its node per entry and linear lookup.
 object VersionVector {
-  def empty[K, V : Integral] = VersionVector(ListMap.empty[K, V])
+  /**
+   * Result of `compareOrIncomparable` for vectors that cannot be ordered.
+   */
+  final val Incomparable = Int.MinValue
+
+  def empty[K, V : Integral] = VersionVector(Map.empty[K, V])
   def apply[K, V : Integral](elems: (K, V)*): VersionVector[K, V] =
-    VersionVector(ListMap(elems: _*))
+    VersionVector(Map(elems: _*))
 
 
   def javaInt[K](): VersionVector[K, java.lang.Integer]  = empty
-  def javaInt[K](m: java.util.Map[K, java.lang.Integer]) = VersionVector(ListMap.empty ++ m.asScala)
+  def javaInt[K](m: java.util.Map[K, java.lang.Integer]) = VersionVector(Map.empty[K, java.lang.Integer] ++ m.asScala)
+
+  // Combines the running result of a comparison with the comparison of one
+  // more clock.
+  private def combine(res: Int, cur: Int): Int =
+    if ((cur == 0) || (res == cur)) res
+    else if (res == 0) cur
+    else Incomparable
 
   implicit def VvEqual[K : Equal, V : Equal]: Equal[VersionVector[K, V]] = Equal.equalA
 }
@@ -53,11 +69,16 @@ case class VersionVector[K, V : Integral](clocks: Map[K, V]) extends PartiallyOr
    * returned contains all the keys in either vector where the value in each
    * case is the max of the value in either for that key.
    */
-  def sync(that: VersionVector[K, V]) =
-    VersionVector((clocks/:that.clocks) {(m, tup) =>
-      val (k, v) = tup
-      m.updated(k, intg.max(v, m.getOrElse(k, zero)))
-    })
+  def sync(that: VersionVector[K, V]): VersionVector[K, V] =
+    if ((that eq this) || that.isEmpty) this
+    else if (isEmpty) that
+    else {
+      var m = clocks
+      that.clocks.foreach { case (k, v) =>
+        if (!m.contains(k) || intg.gt(v, m(k))) m = m.updated(k, v)
+      }
+      if (m eq clocks) this else VersionVector(m)
+    }
 
 
   /**
@@ -71,23 +92,47 @@ case class VersionVector[K, V : Integral](clocks: Map[K, V]) extends PartiallyOr
       case _ => None
     }
 
-  private def combinedKeys(that: VersionVector[K, V]): Set[K] =
-    clocks.keySet | that.clocks.keySet
-
-  private def tryCompareVectors(that: VersionVector[K, V]): Option[Int] = {
-    val zero: Option[Int] = Some(0)
-    (zero/:combinedKeys(that)) {(res, k) =>
-      res flatMap { i =>
-        val cur = intg.compare(this(k), that(k)).signum
-        i.signum match {
-          case 0 => Some(cur)
-          case x if (cur == 0) || (cur == x) => res
-          case _ => None
-        }
+  private def tryCompareVectors(that: VersionVector[K, V]): Option[Int] =
+    compareOrIncomparable(that) match {
+      case VersionVector.Incomparable => None
+      case i                          => Some(i)
+    }
+
+  /**
+   * Like `tryCompareTo`, but returns -1, 0, or 1 directly, or
+   * `VersionVector.Incomparable` if the vectors conflict.  This is a single
+   * loop over the clocks of each vector that returns an unboxed result
+   * rather than an `Option`, for use when comparing the versions of entire
+   * programs.  (Iterating the clocks still creates an entry tuple per
+   * clock.)
+   */
+  def compareOrIncomparable(that: VersionVector[K, V]): Int =
+    if ((that eq this) || (that.clocks eq clocks)) 0
+    else {
+      var res = 0
+      val it0 = clocks.iterator
+      while (it0.hasNext && (res != VersionVector.Incomparable)) {
+        val (k, v) = it0.next()
+        res = VersionVector.combine(res, intg.compare(v, that(k)).signum)
       }
+
+      // Clocks only in that vector are implicitly 0 in this one.
+      val it1 = that.clocks.iterator
+      while (it1.hasNext && (res != VersionVector.Incomparable)) {
+        val (k, v) = it1.next()
+        if (!clocks.contains(k)) res = VersionVector.combine(res, intg.compare(zero, v).signum)
+      }
+      res
     }
-  }
 
   def compare(that: VersionVector[K, V]): VersionComparison =
     VersionComparison.compare(this, that)
+
+  // Vectors stored before the switch away from ListMap are converted as they
+  // are read.
+  private def readResolve(): AnyRef =
+    clocks match {
+      case _: ListMap[_, _] => VersionVector(Map.empty[K, V] ++ clocks)
+      case _                => this
+    }
 }
\ No newline at end of file
@@ -63,4 +63,21 @@ class VersionVectorTest {
     assertEquals(Some(-1), v8115.tryCompareTo(v8116))
     assertEquals(Some( 1), v8116.tryCompareTo(v8115))
   }
+
+  @Test def testCompareOrIncomparable() {
+    val d2 = VersionVector("Clinton" -> 1992, "Obama" -> 2012)
+    val d4 = VersionVector("Clinton" -> 1992, "Carter" -> 1976)
+    assertEquals( 0, d.compareOrIncomparable(VersionVector("Obama" -> 2008, "Clinton" -> 1992)))
+    assertEquals( 1, d2.compareOrIncomparable(d))
+    assertEquals(-1, VersionVector.empty[String, Int].compareOrIncomparable(d))
+    assertEquals(VersionVector.Incomparable, d4.compareOrIncomparable(d))
+    assertEquals(VersionComparison.Conflicting, d.compare(d4))
+  }
+
+  @Test def testSyncUnchanged() {
+    // Syncing with an older vector returns the same instance.
+    val d2 = VersionVector("Clinton" -> 1992)
+    assertSame(d, d sync d2)
+    assertSame(d, d sync VersionVector.empty[String, Int])
+  }
 }
@@ -27,6 +27,17 @@ trait VcsLog {
   def log(op: VcsOp, pid: SPProgramID, subject: Subject): VcsEvent =
     log(op, pid, geminiPrincipals(subject))
 
+  /** Log an event to the database without waiting for it to be written. Events are written in the order in which
+    * they are logged, and are visible to subsequent selects.
+    * @param op the kind of operation
+    * @param pid science program id
+    * @param principals set of principals assocated with this event
+    */
+  def logAsync(op: VcsOp, pid: SPProgramID, principals: Set[GeminiPrincipal]): Unit = {
+    log(op, pid, principals)
+    ()
+  }
+
   /** Select `VcsEventSet`s for the specified program, from newest to oldest. Because there may be many such sets,
     * `offset` and `size` must be specified. This mechanism can be used to provide a "paged" user interface.
     * @param pid science program
@@ -45,6 +56,9 @@ trait VcsLog {
     }.toSet
 
   def selectLastSyncTimestamps(): SPProgramID ==>> Map[GeminiPrincipal, Long]
+
+  /** Write any pending events and release resources. */
+  def close(): Unit = ()
 }
 
 object VcsLog {
@@ -52,27 +66,47 @@ object VcsLog {
 
   def apply(dir: File): IO[VcsLog] = {
     import impl.PersistentVcsLog2._
+    import impl.VcsLogWriter
     import doobie.imports._
     import java.sql.Timestamp
+    import scalaz.syntax.std.list._
 
     for {
       p <- IO(dir.getAbsolutePath) // can throw
       _ <- IO(require(dir.mkdirs() || dir.isDirectory, s"Not a valid directory: $p"))
       xa = DriverManagerTransactor[IO]("org.h2.Driver", s"jdbc:h2:$p;DB_CLOSE_ON_EXIT=FALSE;TRACE_LEVEL_FILE=4", "", "")
       x <- checkSchema(p).transact(xa)
+      w <- IO(new VcsLogWriter(xa, VcsLogWriter.FlushPolicy.Default))
     } yield new VcsLog {
 
-      def archive(f: File): Unit =
+      // OCSINF-118: if the principal set is empty, add an anonymous principal
+      private def entry(op: VcsOp, pid: SPProgramID, principals: Set[GeminiPrincipal]): Entry =
+        Entry(op, new Timestamp(System.currentTimeMillis), pid, principals.toList.toNel.getOrElse(Anonymous))
+
+      // Reads and backups wait for pending writes so that they see every event logged before them.
+      def archive(f: File): Unit = {
+        w.flush()
         doArchive(f).transact(xa).unsafePerformIO
+      }
 
       def log(op: VcsOp, pid: SPProgramID, principals: Set[GeminiPrincipal]): VcsEvent =
-        doLog(op, new Timestamp(System.currentTimeMillis), pid, principals.toList).transact(xa).unsafePerformIO
+        w.write(entry(op, pid, principals))
 
-      def selectByProgram(pid: SPProgramID, offset: Int, size: Int): (List[VcsEventSet], Boolean) =
+      override def logAsync(op: VcsOp, pid: SPProgramID, principals: Set[GeminiPrincipal]): Unit =
+        w.enqueue(entry(op, pid, principals))
+
+      def selectByProgram(pid: SPProgramID, offset: Int, size: Int): (List[VcsEventSet], Boolean) = {
+        w.flush()
         doSelectByProgram(pid, offset, size).transact(xa).unsafePerformIO
+      }
 
-      override def selectLastSyncTimestamps(): SPProgramID ==>> Map[GeminiPrincipal, Long] =
+      override def selectLastSyncTimestamps(): SPProgramID ==>> Map[GeminiPrincipal, Long] = {
+        w.flush()
         doSelectLastSyncTimestamps().transact(xa).unsafePerformIO
+      }
+
+      override def close(): Unit =
+        w.close()
 
     }
   }
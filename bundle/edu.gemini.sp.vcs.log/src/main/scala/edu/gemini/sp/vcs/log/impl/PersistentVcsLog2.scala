@@ -29,7 +29,7 @@ object PersistentVcsLog2 {
 
   // The idea here is that when we change the schema, we update this number and add a case to the upgradeFrom
   // function below. This may end up being difficult in practice but at least we have a mechanism to do it.
-  val SchemaVersion = 4
+  val SchemaVersion = 5
 
   // These are DB-specific, sadly
   val DUPLICATE_KEY = SqlState("what is it?")
@@ -53,8 +53,10 @@ object PersistentVcsLog2 {
         OP VARCHAR NOT NULL,
         TIMESTAMP TIMESTAMP NOT NULL,
         PROGRAM_ID VARCHAR NOT NULL,
-        PRINCIPAL_HASH VARCHAR NOT NULL
+        PRINCIPAL_HASH VARCHAR NOT NULL,
+        SET_ID INTEGER NOT NULL DEFAULT 0
       );
+      create index EVENT_SET_IDX on EVENT (PROGRAM_ID, SET_ID);
 
       create table EVENT_PRINCIPAL (
         EVENT_ID INTEGER NOT NULL,
@@ -125,6 +127,24 @@ object PersistentVcsLog2 {
           update VERSION set VALUE = 4";
         """.update.run.void
 
+      // Event sets are now assigned as events are written rather than
+      // computed on every read.
+      case 4 =>
+        for {
+          _  <- info("Assigning existing events to event sets.")
+          _  <- sql"alter table EVENT add (SET_ID INTEGER NOT NULL DEFAULT 0)".update.run
+          es <- sql"""
+                  select   EVENT_ID, PROGRAM_ID, TIMESTAMP, PRINCIPAL_HASH
+                  from     EVENT
+                  order by PROGRAM_ID, EVENT_ID
+                """.query[(Int, String, Timestamp, String)].list
+          _  <- Update[(Int, Int)]("update EVENT set SET_ID = ? where EVENT_ID = ?").updateMany(assignSets(es))
+          _  <- sql"""
+                  create index EVENT_SET_IDX on EVENT (PROGRAM_ID, SET_ID);
+                  update VERSION set VALUE = 5;
+                """.update.run
+        } yield ()
+
       // Newer versions here
 
       case n =>
@@ -132,51 +152,135 @@ object PersistentVcsLog2 {
 
     }
 
-  def insertJoin(eid: Id[VcsEvent], pid: Id[GeminiPrincipal]): ConnectionIO[Int] =
-    sql"""
-      insert into EVENT_PRINCIPAL (EVENT_ID, PRINCIPAL_ID)
-      values ($eid, $pid)
-    """.update.run
+  def insertJoins(joins: List[(Id[VcsEvent], Id[GeminiPrincipal])]): ConnectionIO[Int] =
+    Update[(Id[VcsEvent], Id[GeminiPrincipal])](
+      "insert into EVENT_PRINCIPAL (EVENT_ID, PRINCIPAL_ID) values (?, ?)"
+    ).updateMany(joins)
 
   // OCSINF-118: if the principal set is empty, add an anonymous principal
   def doLog(op: VcsOp, time:Timestamp, pid: SPProgramID, principals: List[GeminiPrincipal]): ConnectionIO[VcsEvent] =
     doLog2(op, time, pid, principals.toNel.getOrElse(Anonymous))
 
-  // Log implementation. Insert the event, insert the principals, hook them up, read it back.
   def doLog2(op: VcsOp, time:Timestamp, pid: SPProgramID, principals: NonEmptyList[GeminiPrincipal]): ConnectionIO[VcsEvent] =
-    for {
-      ids <- principals.traverse(insertPrincipal)
-      eid <- insertEvent(op, time, pid, PersistentVcsUtil.setHash(ids.map(_.n)))
-      _   <- ids.traverse(insertJoin(eid, _))
-      e   <- selectEvent(eid)
-    } yield e
+    doLogBatch(List(Entry(op, time, pid, principals)), Map.empty, Map.empty).map(_.events.head)
+
+  /** An event to be logged. */
+  final case class Entry(op: VcsOp, time: Timestamp, pid: SPProgramID, principals: NonEmptyList[GeminiPrincipal])
+
+  /** The most recent event for a program, which determines whether the next
+    * event continues its event set.
+    */
+  final case class LastEvent(id: Id[VcsEvent], time: Timestamp, principalHash: String, set: Int)
+
+  /** The events logged by a batch, along with the principal ids and last
+    * events known after the batch, which the caller may cache for the next.
+    */
+  final case class Batch(
+    events:     List[VcsEvent],
+    principals: Map[GeminiPrincipal, Id[GeminiPrincipal]],
+    last:       Map[SPProgramID, LastEvent])
+
+  // Log implementation.  Canonicalize the principals (unless already known),
+  // insert the events, then hook them up to their principals in one go.
+  def doLogBatch(
+    entries:    List[Entry],
+    principals: Map[GeminiPrincipal, Id[GeminiPrincipal]],
+    last:       Map[SPProgramID, LastEvent]
+  ): ConnectionIO[Batch] = {
+
+    def principalIds(known: Map[GeminiPrincipal, Id[GeminiPrincipal]], ps: NonEmptyList[GeminiPrincipal]): ConnectionIO[Map[GeminiPrincipal, Id[GeminiPrincipal]]] =
+      ps.toList.foldLeftM[ConnectionIO, Map[GeminiPrincipal, Id[GeminiPrincipal]]](known) { (m, p) =>
+        if (m.contains(p)) m.point[ConnectionIO] else insertPrincipal(p).map(id => m + (p -> id))
+      }
 
-  // An uninspiring type that we're selecting twice below.
-  type U = ((Id[VcsEvent], VcsOp, Timestamp, SPProgramID, String), (String, String))
+    type S = (Batch, List[(Id[VcsEvent], Id[GeminiPrincipal])])
+
+    entries.foldLeftM[ConnectionIO, S]((Batch(Nil, principals, last), Nil)) { case ((b, joins), e) =>
+      for {
+        ps  <- principalIds(b.principals, e.principals)
+        ids  = e.principals.map(ps)
+        prev <- b.last.get(e.pid).fold(selectLastEvent(e.pid))(l => Option(l).point[ConnectionIO])
+        l   <- insertEvent(e.op, e.time, e.pid, PersistentVcsUtil.setHash(ids.map(_.n)), prev)
+      } yield {
+        val evt = VcsEvent(l.id.n, e.op, e.time.getTime, e.pid, e.principals.toList.toSet)
+        (Batch(evt :: b.events, ps, b.last + (e.pid -> l)), ids.toList.map(l.id -> _) ++ joins)
+      }
+    }.flatMap { case (b, joins) =>
+      insertJoins(joins.reverse).as(b.copy(events = b.events.reverse))
+    }
+  }
 
-  // To select by program we join with the principal table and stream results back, chunking by
-  // program and principals and then decoding into a stream of event sets. We can then drop the
-  // offset and take the size. This is rather complex and should be revisited.
+  // An event continues the set of the program's previous event if it has the
+  // same principals and follows it within the TimeSlice.
+  def continues(prev: LastEvent, time: Timestamp, principalHash: String): Boolean =
+    (prev.principalHash == principalHash) && (time.getTime - prev.time.getTime < TimeSlice)
+
+  // Assign existing events, ordered by program and then id, to event sets.
+  // Returns (set, event id) pairs.
+  def assignSets(es: List[(Int, String, Timestamp, String)]): List[(Int, Int)] =
+    es.foldLeft((List.empty[(Int, Int)], Option.empty[(String, LastEvent)])) { case ((res, prev), (id, pid, ts, hash)) =>
+      val set = prev.collect {
+        case (p, l) if p == pid && continues(l, ts, hash) => l.set
+      }.getOrElse(id)
+      ((set, id) :: res, Some((pid, LastEvent(Id(id), ts, hash, set))))
+    }._1.reverse
+
+  // Event sets are assigned as events are written, so a page of sets for a
+  // program can be selected directly by set id.  The first event in each set
+  // has the set's id and, like all the events in the set, its principals.
   def doSelectByProgram(pid: SPProgramID, offset: Int, size: Int): ConnectionIO[(List[VcsEventSet], Boolean)] =
-    sql"""
-      select   E.EVENT_ID, E.OP, E.TIMESTAMP, E.PROGRAM_ID, E.PRINCIPAL_HASH, P.CLASS, P.NAME
-      from     EVENT E
-      join     EVENT_PRINCIPAL J on J.EVENT_ID = E.EVENT_ID
-      join     PRINCIPAL P on P.PRINCIPAL_ID = J.PRINCIPAL_ID
-      where    E.PROGRAM_ID = $pid
-      order by E.EVENT_ID desc
-    """.query[U].process.chunkBy2 {
-      case (((_, _, ts0, pid0, ph0), _), ((_, _, ts1, pid1, ph1), _)) =>
-        (ts0.getTime - ts1.getTime < TimeSlice) && (pid0 == pid1) && (ph0 == ph1)
-    } .map(decode2)
-      .drop(offset)
-      .take(size + 1)
-      .vector
-      .map { v =>
-        (v.take(size).toList, v.size > size)
+    for {
+      sets <- sql"""
+                select   SET_ID
+                from     EVENT
+                where    PROGRAM_ID = $pid
+                group by SET_ID
+                order by SET_ID desc
+                limit    ${size + 1}
+                offset   $offset
+              """.query[Int].list
+      page  = sets.take(size)
+      ess  <- page.headOption.fold(Map.empty[Int, VcsEventSet].point[ConnectionIO]) { hi =>
+                selectEventSets(pid, page.last, hi)
+              }
+    } yield (page.flatMap(ess.get), sets.size > size)
+
+  def selectEventSets(pid: SPProgramID, lo: Int, hi: Int): ConnectionIO[Map[Int, VcsEventSet]] =
+    for {
+      rows <- sql"""
+                select   SET_ID, OP, count(*), min(EVENT_ID), max(EVENT_ID), min(TIMESTAMP), max(TIMESTAMP)
+                from     EVENT
+                where    PROGRAM_ID = $pid
+                and      SET_ID between $lo and $hi
+                group by SET_ID, OP
+              """.query[(Int, VcsOp, Long, Int, Int, Timestamp, Timestamp)].list
+      ps   <- sql"""
+                select E.SET_ID, P.CLASS, P.NAME
+                from   EVENT E
+                join   EVENT_PRINCIPAL J on J.EVENT_ID = E.EVENT_ID
+                join   PRINCIPAL P on P.PRINCIPAL_ID = J.PRINCIPAL_ID
+                where  E.PROGRAM_ID = $pid
+                and    E.SET_ID between $lo and $hi
+                and    E.EVENT_ID = E.SET_ID
+              """.query[(Int, String, String)].list
+    } yield {
+      val gps = ps.groupBy(_._1).mapValues(_.map { case (_, c, n) => GeminiPrincipal(c, n) }.toSet)
+      rows.groupBy(_._1).map { case (set, rs) =>
+        val principals = gps.getOrElse(set, Set.empty[GeminiPrincipal])
+        set -> VcsEventSet(
+          rs.map(_._4).min to rs.map(_._5).max,
+          // As when sets were computed from joined rows, ops are counted once per principal.
+          rs.map { r => r._2 -> r._3.toInt * principals.size }.toMap,
+          (rs.map(_._6.getTime).min, rs.map(_._7.getTime).max),
+          pid,
+          principals)
       }
+    }
+
+  // An uninspiring type that we're selecting below.
+  type U = ((Id[VcsEvent], VcsOp, Timestamp, SPProgramID, String), (String, String))
 
-  // Selecting a single event is a special case of the above, and uses the same decoder.
+  // Select a single event, with one row per principal.
   def selectEvent(id: Id[VcsEvent]): ConnectionIO[VcsEvent] =
     sql"""
       select E.EVENT_ID, E.OP, E.TIMESTAMP, E.PROGRAM_ID, E.PRINCIPAL_HASH, P.CLASS, P.NAME
@@ -194,26 +298,6 @@ object PersistentVcsLog2 {
     }
   }
 
-  // Decode a chunk of rows, which must be uniform and no-empty.
-  def decode2(chunk: Vector[U]): VcsEventSet = {
-
-    // Pull rollup data out of the chunk
-    val ids:Set[Int] = chunk.map(_._1._1.n).toSet
-    val ops:Map[VcsOp, Int] = chunk.map(_._1._2).groupBy(identity).mapValues(_.length)
-    val tss:Set[Long] = chunk.map(_._1._3.getTime).toSet
-    val pid:SPProgramID = chunk.head._1._4
-    val gps:Set[GeminiPrincipal] = chunk.map(_._2).map(p => GeminiPrincipal(p._1, p._2)).toSet
-
-    // And construct our event set!
-    VcsEventSet(
-      ids.min to ids.max,
-      ops.toSeq.toMap, // Hack: ops is actually a MapLike and isn't serializable
-      (tss.min, tss.max),
-      pid,
-      gps)
-
-  }
-
   val EmptyTsMap = ==>>.empty[SPProgramID, Map[GeminiPrincipal, Long]]
 
   def doSelectLastSyncTimestamps(): ConnectionIO[SPProgramID ==>> Map[GeminiPrincipal, Long]] =
@@ -232,12 +316,27 @@ object PersistentVcsLog2 {
          }
        }
 
-  // Insert the event and return its Id
-  def insertEvent(op: VcsOp, time: Timestamp, pid: SPProgramID, principalHash:String): ConnectionIO[Id[VcsEvent]] =
+  // Insert the event, adding it to the set of the program's previous event
+  // or else starting a new set with the event's own id.
+  def insertEvent(op: VcsOp, time: Timestamp, pid: SPProgramID, principalHash: String, prev: Option[LastEvent]): ConnectionIO[LastEvent] = {
+    val set = prev.filter(continues(_, time, principalHash)).map(_.set)
+    for {
+      eid <- sql"""
+               insert into EVENT (OP, TIMESTAMP, PROGRAM_ID, PRINCIPAL_HASH, SET_ID)
+               values ($op, $time, $pid, $principalHash, ${set.getOrElse(0)})
+             """.update.withUniqueGeneratedKeys[Id[VcsEvent]]("EVENT_ID")
+      s   <- set.fold(sql"update EVENT set SET_ID = ${eid.n} where EVENT_ID = ${eid.n}".update.run.as(eid.n))(_.point[ConnectionIO])
+    } yield LastEvent(eid, time, principalHash, s)
+  }
+
+  def selectLastEvent(pid: SPProgramID): ConnectionIO[Option[LastEvent]] =
     sql"""
-      insert into EVENT (OP, TIMESTAMP, PROGRAM_ID, PRINCIPAL_HASH)
-      values ($op, $time, $pid, $principalHash)
-    """.update.withUniqueGeneratedKeys[Id[VcsEvent]]("EVENT_ID")
+      select   EVENT_ID, TIMESTAMP, PRINCIPAL_HASH, SET_ID
+      from     EVENT
+      where    PROGRAM_ID = $pid
+      order by EVENT_ID desc
+      limit    1
+    """.query[(Int, Timestamp, String, Int)].option.map(_.map { case (id, ts, h, s) => LastEvent(Id(id), ts, h, s) })
 
   // Canonicalize a principal. To be more efficient we do the lookup first, and if that fails we
   // insert. This means we there's a race we need to handle.
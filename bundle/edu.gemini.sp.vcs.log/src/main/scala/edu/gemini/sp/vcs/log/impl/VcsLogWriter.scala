@@ -0,0 +1,175 @@
+package edu.gemini.sp.vcs.log.impl
+
+import edu.gemini.sp.vcs.log.VcsEvent
+import edu.gemini.spModel.core.SPProgramID
+import edu.gemini.util.security.principal.GeminiPrincipal
+import doobie.imports._
+import java.util.concurrent.{CompletableFuture, ExecutionException, LinkedBlockingQueue}
+import java.util.concurrent.TimeUnit.{MILLISECONDS, NANOSECONDS}
+import java.util.concurrent.locks.{Lock, ReentrantReadWriteLock}
+import java.util.logging.Level
+import scala.annotation.tailrec
+import scala.util.control.NonFatal
+import scalaz.effect.IO
+
+/**
+ * Writes log events on a single background thread, grouping the events that
+ * arrive within the flush delay into one transaction.  The queue is bounded,
+ * so callers block rather than accumulate unbounded work when the database
+ * falls behind.  Principal ids and the last event of each program are cached
+ * on the writer thread so that most events need no lookups.
+ */
+final class VcsLogWriter(xa: Transactor[IO], policy: VcsLogWriter.FlushPolicy) {
+  import PersistentVcsLog2._
+  import VcsLogWriter._
+
+  private val queue = new LinkedBlockingQueue[Request](policy.queueCapacity)
+
+  // Callers hold the read lock while checking closed and queueing, and
+  // close holds the write lock while setting it and queueing Stop, so that
+  // nothing can be queued after Stop and then never be answered.
+  private val closeLock = new ReentrantReadWriteLock
+  private var closed    = false
+
+  private val thread = new Thread(new Runnable {
+    def run(): Unit = loop(Map.empty, Map.empty)
+  }, "VcsLogWriter")
+  thread.setDaemon(true)
+  thread.start()
+
+  /** Queues the entry to be written, returning without waiting. */
+  def enqueue(e: Entry): Unit =
+    put(Write(e, None))
+
+  /** Writes the entry, along with any entries queued before it, and returns
+    * the logged event.
+    */
+  def write(e: Entry): VcsEvent = {
+    val f = new CompletableFuture[VcsEvent]
+    put(Write(e, Some(f)))
+    await(f)
+  }
+
+  /** Waits until all entries queued so far have been written. */
+  def flush(): Unit = {
+    val f = new CompletableFuture[Unit]
+    put(Barrier(f))
+    await(f)
+  }
+
+  /** Writes any queued entries and stops the writer thread. */
+  def close(): Unit = {
+    val stop = locked(closeLock.writeLock) {
+      val wasOpen = !closed
+      if (wasOpen) {
+        closed = true
+        queue.put(Stop)
+      }
+      wasOpen
+    }
+    if (stop) thread.join()
+  }
+
+  // A caller blocked on a full queue holds the read lock, but the writer
+  // thread keeps draining the queue without the lock so close still gets it.
+  private def put(r: Request): Unit =
+    locked(closeLock.readLock) {
+      if (closed) throw new IllegalStateException("The VCS log has been closed.")
+      else queue.put(r)
+    }
+
+  private def locked[A](l: Lock)(a: => A): A = {
+    l.lock()
+    try a finally l.unlock()
+  }
+
+  private def await[A](f: CompletableFuture[A]): A =
+    try f.get() catch {
+      case ex: ExecutionException => throw ex.getCause
+    }
+
+  // Collects requests until the batch is full or the deadline passes.  A
+  // request that someone is waiting on makes the deadline immediate, so
+  // anything already queued is still included but nothing more is awaited.
+  @tailrec private def gather(acc: List[Request], n: Int, deadline: Long): List[Request] =
+    if (n >= policy.maxBatch) acc.reverse
+    else {
+      val d    = if (acc.head.urgent) 0L else deadline
+      val wait = d - System.nanoTime
+      Option(if (wait > 0) queue.poll(wait, NANOSECONDS) else queue.poll()) match {
+        case Some(r) => gather(r :: acc, n + 1, d)
+        case None    => acc.reverse
+      }
+    }
+
+  @tailrec private def loop(principals: Map[GeminiPrincipal, Id[GeminiPrincipal]], last: Map[SPProgramID, LastEvent]): Unit = {
+    val first = queue.take()
+    val rs    = gather(List(first), 1, System.nanoTime + MILLISECONDS.toNanos(policy.maxDelayMs))
+    val ws    = rs.collect { case w: Write => w }
+
+    val (ps, ls) = if (ws.isEmpty) (principals, last) else writeAll(ws, principals, last)
+
+    rs.foreach {
+      case Barrier(f) => f.complete(())
+      case _          => ()
+    }
+
+    if (!rs.contains(Stop)) loop(ps, ls)
+  }
+
+  // Writes the batch in one transaction.  If that fails, the caches may not
+  // reflect the database so they are dropped, and the entries are retried
+  // one at a time so that a single bad entry doesn't lose the others.
+  private def writeAll(ws: List[Write], principals: Map[GeminiPrincipal, Id[GeminiPrincipal]], last: Map[SPProgramID, LastEvent]): (Map[GeminiPrincipal, Id[GeminiPrincipal]], Map[SPProgramID, LastEvent]) =
+    try {
+      val b = doLogBatch(ws.map(_.entry), principals, last).transact(xa).unsafePerformIO
+      ws.zip(b.events).foreach { case (w, e) => w.result.foreach(_.complete(e)) }
+      (b.principals, b.last)
+    } catch {
+      case NonFatal(ex) if ws.size > 1 =>
+        Log.log(Level.WARNING, s"Could not write a batch of ${ws.size} VCS log events, retrying individually.", ex)
+        ws.foldLeft((Map.empty[GeminiPrincipal, Id[GeminiPrincipal]], Map.empty[SPProgramID, LastEvent])) { case ((ps, ls), w) =>
+          writeAll(List(w), ps, ls)
+        }
+      case NonFatal(ex) =>
+        Log.log(Level.WARNING, s"Could not write VCS log event ${ws.head.entry}", ex)
+        ws.head.result.foreach(_.completeExceptionally(ex))
+        (Map.empty, Map.empty)
+    }
+
+}
+
+object VcsLogWriter {
+
+  /** Limits on batching: the most entries written in one transaction, how
+    * long to wait for more entries once one arrives, and how many entries may
+    * be queued before callers block.
+    */
+  final case class FlushPolicy(maxBatch: Int, maxDelayMs: Long, queueCapacity: Int)
+
+  object FlushPolicy {
+    private val prefix = classOf[VcsLogWriter].getName
+
+    val Default = FlushPolicy(
+      Integer.getInteger(prefix + ".batchSize",     256).intValue,
+      java.lang.Long.getLong(prefix + ".flushDelayMs", 250L).longValue,
+      Integer.getInteger(prefix + ".queueCapacity", 4096).intValue)
+  }
+
+  private sealed trait Request {
+    def urgent: Boolean
+  }
+
+  private final case class Write(entry: PersistentVcsLog2.Entry, result: Option[CompletableFuture[VcsEvent]]) extends Request {
+    def urgent: Boolean = result.isDefined
+  }
+
+  private final case class Barrier(done: CompletableFuture[Unit]) extends Request {
+    def urgent: Boolean = true
+  }
+
+  private case object Stop extends Request {
+    def urgent: Boolean = true
+  }
+
+}
@@ -16,15 +16,21 @@ class Activator extends BundleActivator {
 
   import Activator._
 
+  private var log: Option[VcsLog] = None
+
   def start(ctx: BundleContext) {
     val root:File = Option(ctx.getProperty(BUNDLE_PROP_DIR)).fold(getExternalDataFile(ctx, "spdb"))(new File(_))
     val file:File = new File(OcsVersionUtil.getVersionDir(root, Version.current), "vcs")
     file.mkdirs()
     LOG.info(s"VCS log storage is at ${file.getAbsolutePath}")
-    ctx.registerService(classOf[VcsLog], VcsLog(file).unsafePerformIO, null)
+    val vcsLog = VcsLog(file).unsafePerformIO
+    log = Some(vcsLog)
+    ctx.registerService(classOf[VcsLog], vcsLog, null)
   }
 
   def stop(ctx: BundleContext) {
+    log.foreach(_.close())
+    log = None
   }
 
 }
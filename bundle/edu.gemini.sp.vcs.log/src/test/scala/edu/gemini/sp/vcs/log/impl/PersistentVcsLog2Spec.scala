@@ -10,6 +10,7 @@ import edu.gemini.spModel.core.Affiliate.CHILE
 import java.io.File
 import java.sql.Timestamp
 import java.util.TimeZone
+import java.util.concurrent.{Callable, Executors, TimeUnit}
 import scala.sys.process._
 
 object PersistentVcsLog2Spec extends Specification {
@@ -145,6 +146,48 @@ object PersistentVcsLog2Spec extends Specification {
       }
     }
 
+    "assign a batch of events to event sets as they are written" in go {
+      val ps  = principals.toNel.get
+      val t0  = System.currentTimeMillis - 10 * TimeSlice
+      val es  = List(
+        Entry(OpFetch, new Timestamp(t0),                 pid, ps),
+        Entry(OpStore, new Timestamp(t0 + 1000),          pid, ps),
+        Entry(OpFetch, new Timestamp(t0 + 2 * TimeSlice), pid, ps),
+        Entry(OpFetch, new Timestamp(t0 + 2 * TimeSlice), pid, Anonymous)
+      )
+      for {
+        _  <- checkSchema("«in memory»")
+        b  <- doLogBatch(es, Map.empty, Map.empty)
+        ss <- doSelectByProgram(pid, 0, 10)
+      } yield {
+        (b.events.map(_.op) must_== es.map(_.op)) and
+        (ss._1.map(_.ops) must_== List(
+          Map(OpFetch -> 1),
+          Map(OpFetch -> ps.size),
+          Map(OpFetch -> ps.size, OpStore -> ps.size))) and
+        (ss._2 must_== false)
+      }
+    }
+
+  }
+
+  "writer" should {
+
+    "answer or refuse each request that races with close" in {
+      val xa   = DriverManagerTransactor[IO]("org.h2.Driver", s"jdbc:h2:mem:ks${serialId.getAndIncrement};DB_CLOSE_DELAY=-1")
+      val w    = new VcsLogWriter(xa, VcsLogWriter.FlushPolicy(16, 10L, 4))
+      val pool = Executors.newFixedThreadPool(4)
+      try {
+        val fs = List.fill(100)(pool.submit(new Callable[Unit] {
+          def call(): Unit =
+            try w.flush() catch { case _: IllegalStateException => () }
+        }))
+        w.close()
+        fs.foreach(_.get(10, TimeUnit.SECONDS)) // would time out on a lost request
+        w.flush() must throwA[IllegalStateException]
+      } finally pool.shutdownNow()
+    }
+
   }
 
   "selectByProgram" should {
@@ -36,6 +36,22 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
   private def checkCancel(cancelled: AtomicBoolean): VcsAction[Unit] =
     if (cancelled.get()) VcsAction.fail(Cancelled) else VcsAction.unit
 
+  // Compares the hash of the local program's versions with that of the remote
+  // peer.  If they match the two copies are identical, there is nothing to
+  // pull or push, and `body` is skipped.  This is the common case for
+  // background syncs, and costs a single small request instead of exchanging
+  // the entire version map and diffing the whole program.
+  private def unlessUnchanged[A >: Neither.type](id: SPProgramID, client: Client)(body: => VcsAction[(A, VersionMap)]): VcsAction[(A, VersionMap)] =
+    client.versionHash(id) >>= {
+      case None     => body
+      case Some(rh) =>
+        for {
+          u   <- user
+          lvm <- server.read(id, u) { p => (p.getVersionHash == rh).option(p.getVersions) }
+          res <- lvm.fold(body) { vm => VcsAction((Neither: A, vm)) }
+        } yield res
+    }
+
   /** Checks-out the indicated program from the remote peer, copying it into
     * the local database. */
   def checkout(id: SPProgramID, peer: Peer, cancelled: AtomicBoolean): VcsAction[ISPProgram] =
@@ -98,10 +114,14 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
     * a `PullResult` which indicates whether the local program was updated along
     * with the resulting `VersionMap`.
     */
-  def pull(id: SPProgramID, peer: Peer, cancelled: AtomicBoolean): VcsAction[(PullResult, VersionMap)] =
-    pull0(id, Client(peer), cancelled).map { e =>
-      (e.localUpdate.fold(LocalOnly, Neither), e.remoteVm)
+  def pull(id: SPProgramID, peer: Peer, cancelled: AtomicBoolean): VcsAction[(PullResult, VersionMap)] = {
+    val client = Client(peer)
+    unlessUnchanged[PullResult](id, client) {
+      pull0(id, client, cancelled).map { e =>
+        (e.localUpdate.fold(LocalOnly, Neither), e.remoteVm)
+      }
     }
+  }
 
   /** Provides an action that pushes local changes to the remote peer, merging
     * them with the remote version of the program if necessary.  When performed,
@@ -120,19 +140,21 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
     case class LocalProg(key: SPNodeKey, diff: ProgramDiff, vm: VersionMap)
 
     val client = Client(peer)
-    for {
-      diffState <- client.diffState(id)
-      _         <- checkCancel(cancelled)
-      u         <- user
-      lp        <- server.read(id, u) { p => LocalProg(p.getProgramKey, ProgramDiff.compare(p, diffState), p.getVersions) }
-      _         <- validateProgKey(lp.key, diffState)
-      _         <- checkCancel(cancelled)
-      res       <- lp.diff.plan.compare(diffState.vm) match {
-        case Newer => client.storeDiffs(id, lp.diff.plan).map { updated => (updated.fold(RemoteOnly, Neither), lp.vm) }
-        case Same  => VcsAction((Neither, lp.vm))
-        case _     => VcsAction.fail(NeedsUpdate)
-      }
-    } yield res
+    unlessUnchanged[PushResult](id, client) {
+      for {
+        diffState <- client.diffState(id)
+        _         <- checkCancel(cancelled)
+        u         <- user
+        lp        <- server.read(id, u) { p => LocalProg(p.getProgramKey, ProgramDiff.compare(p, diffState), p.getVersions) }
+        _         <- validateProgKey(lp.key, diffState)
+        _         <- checkCancel(cancelled)
+        res       <- lp.diff.plan.compare(diffState.vm) match {
+          case Newer => client.storeDiffs(id, lp.diff.plan).map { updated => (updated.fold(RemoteOnly, Neither), lp.vm) }
+          case Same  => VcsAction((Neither, lp.vm))
+          case _     => VcsAction.fail(NeedsUpdate)
+        }
+      } yield res
+    }
   }
 
   /**
@@ -144,19 +166,21 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
    * also returns the resulting `VersionMap` of the remote program. */
   def sync(id: SPProgramID, peer: Peer, cancelled: AtomicBoolean): VcsAction[(ProgramLocationSet, VersionMap)] = {
     val client = Client(peer)
-    for {
-      eval <- pull0(id, client, cancelled)
-      s0    = eval.localUpdate.fold(LocalOnly, Neither)
-      res  <- eval match {
-        case MergeEval(_,     _,   rvm, _, false) =>
-          VcsAction((s0, rvm))
-
-        case MergeEval(diffs, lvm, rvm, _, true)  =>
-          client.storeDiffs(id, diffs).map { updated =>
-            if (updated) (s0 + Remote, eval.plan.vm(rvm)) else (s0, rvm)
-          }
-      }
-    } yield res
+    unlessUnchanged[ProgramLocationSet](id, client) {
+      for {
+        eval <- pull0(id, client, cancelled)
+        s0    = eval.localUpdate.fold(LocalOnly, Neither)
+        res  <- eval match {
+          case MergeEval(_,     _,   rvm, _, false) =>
+            VcsAction((s0, rvm))
+
+          case MergeEval(diffs, lvm, rvm, _, true)  =>
+            client.storeDiffs(id, diffs).map { updated =>
+              if (updated) (s0 + Remote, eval.plan.vm(rvm)) else (s0, rvm)
+            }
+        }
+      } yield res
+    }
   }
 
   /** Returns a `VcsAction` that will sync the program with the remote peer,
@@ -181,6 +205,11 @@ class Vcs(user: VcsAction[Set[Principal]], server: VcsServer, service: Peer => V
     val s = service(peer)
 
     def version(id: SPProgramID): VcsAction[VersionMap]  = s.version(id).liftVcs
+
+    // Peers that predate version hashes fail the request, in which case the
+    // hash is simply unavailable and the full comparison is done instead.
+    def versionHash(id: SPProgramID): VcsAction[Option[VersionHash]] =
+      VcsAction(s.versionHash(id).toOption)
     def add(p: ISPProgram): VcsAction[Unit]              = s.add(p).liftVcs
     def checkout(id: SPProgramID): VcsAction[ISPProgram] = s.checkout(id).liftVcs
     def diffState(id: SPProgramID): VcsAction[DiffState] = s.diffState(id).liftVcs
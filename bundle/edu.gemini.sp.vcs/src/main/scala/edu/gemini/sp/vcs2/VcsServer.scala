@@ -1,7 +1,7 @@
 package edu.gemini.sp.vcs2
 
 import edu.gemini.pot.sp.{ISPFactory, SPNodeKeyLocks, ISPProgram, SPNodeKey}
-import edu.gemini.pot.sp.version.VersionMap
+import edu.gemini.pot.sp.version.{VersionHash, VersionMap}
 import edu.gemini.pot.spdb.{DBIDClashException, IDBDatabaseService}
 import edu.gemini.shared.util.VersionComparison.{Same, Newer}
 import edu.gemini.sp.vcs2.VcsAction._
@@ -125,6 +125,9 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
     override def version(id: SPProgramID): TryVcs[VersionMap] =
       vs.read(id, user)(_.getVersions).unsafeRun
 
+    override def versionHash(id: SPProgramID): TryVcs[VersionHash] =
+      vs.read(id, user)(_.getVersionHash).unsafeRun
+
     override def add(p: ISPProgram): TryVcs[Unit] =
       (for {
         id <- (Option(p.getProgramID) \/> MissingId).liftVcs
@@ -139,7 +142,7 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
 
     override def fetchDiffs(id: SPProgramID, state: DiffState): TryVcs[ProgramDiff.Transport] =
       vs.read(id, user) { p =>
-        vcsLog.log(OpFetch, id, geminiPrincipals)
+        vcsLog.logAsync(OpFetch, id, geminiPrincipals)
         ProgramDiff.compare(p, state)
       }.map(_.encode).unsafeRun
 
@@ -161,7 +164,7 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
           cc <- conflictCheck(mp)
         } yield vc && cc,
         identity,
-        (f, p, _) => (mp.merge(f, p) >> VcsAction(vcsLog.log(OpStore, id, geminiPrincipals))).as(())
+        (f, p, _) => (mp.merge(f, p) >> VcsAction(vcsLog.logAsync(OpStore, id, geminiPrincipals))).as(())
       ).unsafeRun
     }
 
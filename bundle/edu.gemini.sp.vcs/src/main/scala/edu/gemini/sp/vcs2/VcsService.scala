@@ -1,7 +1,7 @@
 package edu.gemini.sp.vcs2
 
 import edu.gemini.pot.sp.ISPProgram
-import edu.gemini.pot.sp.version.VersionMap
+import edu.gemini.pot.sp.version.{VersionHash, VersionMap}
 import edu.gemini.sp.vcs2.VcsFailure.VcsException
 import edu.gemini.sp.vcs.log.VcsEventSet
 import edu.gemini.spModel.core.{Peer, SPProgramID}
@@ -20,6 +20,11 @@ trait VcsService {
   /** Fetches the `VersionMap`. */
   def version(id: SPProgramID): TryVcs[VersionMap]
 
+  /** Fetches the hash of the `VersionMap`, which can be compared with that of
+    * another copy of the program to determine whether they differ at all
+    * without transferring the version maps themselves. */
+  def versionHash(id: SPProgramID): TryVcs[VersionHash]
+
   /** Add the given program, copying it to the remote database. */
   def add(p: ISPProgram): TryVcs[Unit]
 
@@ -68,5 +73,8 @@ object VcsService {
 
     override def version(id: SPProgramID) =
       call(_.version(id))
+
+    override def versionHash(id: SPProgramID) =
+      call(_.versionHash(id))
   }
 }
\ No newline at end of file
@@ -10,8 +10,11 @@ import edu.gemini.spModel.io.impl.SpIOTags;
 import edu.gemini.spModel.io.impl.VersionVectorPio;
 import edu.gemini.spModel.pio.*;
 import edu.gemini.spModel.pio.xml.PioXmlFactory;
+import edu.gemini.spModel.pio.xml.PioXmlStreamWriter;
 import edu.gemini.spModel.pio.xml.PioXmlUtil;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
@@ -36,6 +39,35 @@ public enum PioDocumentBuilder {
         return doc;
     }
 
+    /**
+     * Writes the XML for the document that {@link #toDocument} would create
+     * without building it first.  Only the container and param sets of the
+     * node currently being written are held in memory, so large programs can
+     * be exported in constant space.  The output is identical to writing the
+     * result of {@link #toDocument} with {@link PioXmlUtil#write}.
+     */
+    public void write(ISPNode node, Writer w) throws IOException {
+        final PioFactory factory = new PioXmlFactory();
+        final PioXmlStreamWriter out = new PioXmlStreamWriter(w);
+        out.startDocument(factory.createDocument());
+        _writeContainer(factory, node, out);
+        if (node instanceof ISPProgram) {
+            out.write(VersionVectorPio.toContainer(factory, ((ISPProgram) node).getVersions()));
+        }
+        out.endDocument();
+    }
+
+    private void _writeContainer(PioFactory factory, ISPNode node, PioXmlStreamWriter out) throws IOException {
+        out.start(_createContainer(factory, node));
+        if (node instanceof ISPContainerNode) {
+            final List<ISPNode> l = ((ISPContainerNode) node).getChildren();
+            if (l != null) {
+                for (ISPNode sub : l) _writeContainer(factory, sub, out);
+            }
+        }
+        out.end();
+    }
+
     private String _getProgId(ISPNode node)  {
         SPProgramID progId = node.getProgramID();
         if (progId != null) {
@@ -70,6 +102,20 @@ public enum PioDocumentBuilder {
     // Add a container element. The node should be the one corresponding to the data object.
     // The new element will be added under the given parent element.
     private void _addContainer(PioFactory factory, Document doc, ISPNode node, ContainerParent parent) {
+        final Container container = _createContainer(factory, node);
+
+        // Add elements for the user objects
+        //_addUserObjects(factory, node, container);
+
+        parent.addContainer(container);
+
+        // Add elements for the sub-nodes
+        _addSubNodes(factory, doc, node, container);
+    }
+
+    // Create a container element for the node, with its attributes and param
+    // sets but without any sub-nodes.
+    private Container _createContainer(PioFactory factory, ISPNode node) {
         ISPDataObject dataObject = node.getDataObject();
 
         Container container = factory.createContainer("", "", "");
@@ -94,14 +140,7 @@ public enum PioDocumentBuilder {
                 container.addParamSet(cParamSet);
             }
         }
-
-        // Add elements for the user objects
-        //_addUserObjects(factory, node, container);
-
-        parent.addContainer(container);
-
-        // Add elements for the sub-nodes
-        _addSubNodes(factory, doc, node, container);
+        return container;
     }
 
 
@@ -36,6 +36,9 @@ import java.util.logging.Logger;
 public class ExportXmlApp {
     private static final Logger LOG = Logger.getLogger(ExportXmlApp.class.getName());
 
+    private static final int THREADS =
+            Integer.getInteger(ExportXmlApp.class.getName() + ".threads", Runtime.getRuntime().availableProcessors());
+
     static class SimpleEmailer {
         static private List<String> lines = new ArrayList<String>();
 
@@ -231,32 +234,34 @@ public class ExportXmlApp {
 
 
     private int _exportAll(File dest, Collection<Collection<DBProgramKeyAndId>> all, NodeType type) {
-        ExecutorService[] execs = new ExecutorService[all.size()];
-        for (int i = 0; i < execs.length; ++i) {
-            execs[i] = Executors.newSingleThreadExecutor();
-        }
-        if (execs.length > 1) {
-            System.out.println("*** " + execs.length + "-way parallel export.");
+        // Workers share one pool so that the export scales with the number
+        // of cores rather than the number of database slaves.
+        final int threads = Math.max(1, THREADS);
+        final ExecutorService exec = Executors.newFixedThreadPool(threads);
+        if (threads > 1) {
+            System.out.println("*** " + threads + "-way parallel export.");
         }
 
+        final long start = System.currentTimeMillis();
         int sum = 0;
         int i = 0;
         for (Collection<DBProgramKeyAndId> slaveProgs : all) {
             for (DBProgramKeyAndId key : slaveProgs) {
-                execs[i].execute(new ExportWorker(_database, i, dest, key, type, _user));
+                exec.execute(new ExportWorker(_database, i, dest, key, type, _user));
             }
             sum += slaveProgs.size();
             ++i;
         }
 
-        for (ExecutorService exec : execs) {
-            exec.shutdown();
-            try {
-                exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                // empty
-            }
+        exec.shutdown();
+        try {
+            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // empty
         }
+
+        final long ms = System.currentTimeMillis() - start;
+        System.out.println(String.format("*** Exported %d %s(s) in %d ms.", sum, type.name(), ms));
         return sum;
     }
 
@@ -11,18 +11,11 @@ import edu.gemini.spModel.data.ISPDataObject;
 import edu.gemini.spModel.gemini.init.ObservationNI;
 import edu.gemini.spModel.gemini.obscomp.SPProgram;
 import edu.gemini.spModel.gemini.phase1.GsaPhase1Data;
+import edu.gemini.spModel.io.impl.migration.MigrationChain;
 import edu.gemini.spModel.io.impl.migration.to2009B.To2009B;
 import edu.gemini.spModel.io.impl.migration.to2010B.ToGnirsAtGn;
 import edu.gemini.spModel.io.impl.migration.to2014A.AddMissingStaticInstrumentParams;
 import edu.gemini.spModel.io.impl.migration.to2014A.To2014A;
-import edu.gemini.spModel.io.impl.migration.to2015A.To2015A;
-import edu.gemini.spModel.io.impl.migration.to2015B.To2015B;
-import edu.gemini.spModel.io.impl.migration.to2016A.To2016A;
-import edu.gemini.spModel.io.impl.migration.to2016B.To2016B;
-import edu.gemini.spModel.io.impl.migration.to2016B.To2016B2;
-import edu.gemini.spModel.io.impl.migration.to2017A.To2017A;
-import edu.gemini.spModel.io.impl.migration.to2017B.To2017B;
-import edu.gemini.spModel.io.impl.migration.to2018A.To2018A;
 import edu.gemini.spModel.io.impl.migration.toPalote.Grillo2Palote;
 import edu.gemini.spModel.obs.SPObservation;
 import edu.gemini.spModel.obscomp.SPGroup;
@@ -215,29 +208,9 @@ public final class PioSpXmlParser {
 
     // Parse the top level document element
     private ISPRootNode _parseDocument(Document doc) throws Exception {
-        // Mutate pre-2015A template folders to be readable.
-        To2015A.updateProgram(doc);
-
-        // Update pre-2015B target model
-        To2015B.updateProgram(doc);
-
-        // Update pre-2016A programs
-        To2016A.updateProgram(doc);
-
-        // Update pre-2016B programs
-        To2016B.updateProgram(doc);
-
-        // Update pre-2016B-2 programs
-        To2016B2.updateProgram(doc);
-
-        // Update pre-2017A programs
-        To2017A.updateProgram(doc);
-
-        // Update pre-2017B programs
-        To2017B.updateProgram(doc);
-
-        // Update pre-2018A programs
-        To2018A.updateProgram(doc);
+        // Apply the migrations for pre-2018A programs.  Migrations that
+        // don't apply to the program's version are skipped.
+        MigrationChain.migrate(doc);
 
         // We will special case the Phase 1 container.
         Container p1Container = null;
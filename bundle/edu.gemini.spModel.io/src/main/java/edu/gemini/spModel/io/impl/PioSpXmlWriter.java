@@ -19,8 +19,6 @@ import edu.gemini.pot.sp.ISPNightlyRecord;
 import edu.gemini.pot.sp.ISPProgram;
 import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.spModel.io.PioDocumentBuilder;
-import edu.gemini.spModel.pio.Document;
-import edu.gemini.spModel.pio.xml.PioXmlUtil;
 
 public class PioSpXmlWriter {
     private static final Logger LOG = Logger.getLogger(PioSpXmlWriter.class.getName());
@@ -79,10 +77,8 @@ public class PioSpXmlWriter {
      * Write a program document
      */
     public boolean printDocument(ISPProgram prog) {
-        Document doc = PioDocumentBuilder.instance.toDocument(prog);
-
         try {
-            PioXmlUtil.write(doc, _writer);
+            PioDocumentBuilder.instance.write(prog, _writer);
             _writer.close();
         } catch (Exception ex) {
             LOG.log(Level.WARNING, "problem writting science program", ex);
@@ -96,10 +92,8 @@ public class PioSpXmlWriter {
      * Write a program document
      */
     public boolean printDocument(ISPNightlyRecord record) {
-        Document doc = PioDocumentBuilder.instance.toDocument(record);
-
         try {
-            PioXmlUtil.write(doc, _writer);
+            PioDocumentBuilder.instance.write(record, _writer);
             _writer.close();
         } catch (Exception ex) {
             LOG.log(Level.WARNING, "problem writing the nightly record", ex);
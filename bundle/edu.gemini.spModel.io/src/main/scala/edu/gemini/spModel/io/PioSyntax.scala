@@ -5,6 +5,7 @@ import edu.gemini.spModel.data.ISPDataObject
 import edu.gemini.spModel.pio.{Container, ContainerParent, ParamSet}
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
 import scala.util.Try
 
 
@@ -17,9 +18,17 @@ object PioSyntax {
     def containers: List[Container] =
       p.getContainers.asInstanceOf[java.util.List[Container]].asScala.toList
 
+    // Each container's children followed by all the descendants of each
+    // child in turn, collected in a single pass.
     def allContainers: List[Container] = {
-      val cs = containers
-      cs ++ cs.flatMap(_.allContainers)
+      val buf = ListBuffer.empty[Container]
+      def go(parent: ContainerParent): Unit = {
+        val cs = parent.containers
+        buf ++= cs
+        cs.foreach(go)
+      }
+      go(p)
+      buf.toList
     }
 
     def findContainers(spc: SPComponentType): List[Container] =
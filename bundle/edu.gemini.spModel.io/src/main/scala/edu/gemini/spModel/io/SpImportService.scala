@@ -91,7 +91,26 @@ class SpImportService(db: IDBDatabaseService) {
   def importRootNodeXml(rdr: java.io.Reader, query: DuplicateQuery[ISPRootNode] = alwaysAnswer(Skip)): Try[ISPRootNode] =
     importXml(rdr, query, rootOps)
 
-  private def importXml[N <: ISPRootNode : Manifest](rdr: java.io.Reader, query: DuplicateQuery[N], ops: ImportOps[N]): Try[N] = {
+  /**
+   * Parses a program or plan without importing it, so that callers can
+   * parse concurrently and then import with `importRootNode`.
+   */
+  def parseRootNodeXml(rdr: java.io.Reader): Try[ISPRootNode] =
+    parse[ISPRootNode](rdr)
+
+  /** Imports a program or plan obtained from `parseRootNodeXml`. */
+  def importRootNode(im: ISPRootNode, query: DuplicateQuery[ISPRootNode] = alwaysAnswer(Skip)): Try[ISPRootNode] =
+    importParsed(Try(im), query, rootOps)
+
+  private def parse[N <: ISPRootNode : Manifest](rdr: java.io.Reader): Try[N] = {
+    val clazz = implicitly[Manifest[N]].runtimeClass
+    Try(parser.parseDocument(rdr)).filter(clazz.isInstance).map(_.asInstanceOf[N])
+  }
+
+  private def importXml[N <: ISPRootNode : Manifest](rdr: java.io.Reader, query: DuplicateQuery[N], ops: ImportOps[N]): Try[N] =
+    importParsed(parse[N](rdr), query, ops)
+
+  private def importParsed[N <: ISPRootNode : Manifest](tryIm: Try[N], query: DuplicateQuery[N], ops: ImportOps[N]): Try[N] = {
     val clazz = implicitly[Manifest[N]].runtimeClass
 
     def lookup(k: SPNodeKey): Option[ISPRootNode] =
@@ -105,9 +124,6 @@ class SpImportService(db: IDBDatabaseService) {
       exOpt.forall(matches)
     }
 
-    // imported program: Try[N]
-    val tryIm = Try(parser.parseDocument(rdr)).filter(clazz.isInstance).map(_.asInstanceOf[N])
-
     // existing program: Try[Option[N]]
     val tryEx = tryIm.map(im => (im, lookup(im.getNodeKey))).filter {
       case (im, optEx) => compatible(im, optEx)
@@ -21,14 +21,26 @@ trait Migration {
 
   def conversions: List[Document => Unit]
 
+  /** Conversions applied to each container of the given type, after all the
+    * `conversions`.  A container conversion may only read and modify the
+    * param sets of the container it is given and its descendants, and may not
+    * add or remove containers.  This allows `MigrationChain` to apply the
+    * container conversions of consecutive migrations in a single traversal of
+    * the document.
+    */
+  def containerConversions: List[(SPComponentType, Container => Unit)] = Nil
+
+  /** Whether the document is older than the `version`. */
+  def appliesTo(d: Document): Boolean =
+    MigrationChain.programVersion(d).exists(_.compareTo(version) < 0)
+
   /** Applies all conversion functions in order if the document is older than
     * the `version`.
     */
   def updateProgram(d: Document): Unit =
-    d.containers.find(_.getKind == SpIOTags.PROGRAM).filter { c =>
-      c.getVersion.compareTo(version) < 0
-    }.foreach { _ =>
+    if (appliesTo(d)) {
       conversions.foreach(_.apply(d))
+      MigrationChain.traverse(d, containerConversions.map { case (t, f) => (this, t, f) })
     }
 
   val ParamSetBase               = "base"
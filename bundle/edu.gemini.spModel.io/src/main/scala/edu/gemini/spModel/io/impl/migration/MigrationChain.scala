@@ -0,0 +1,127 @@
+package edu.gemini.spModel.io.impl.migration
+
+import edu.gemini.pot.sp.SPComponentType
+import edu.gemini.spModel.io.PioSyntax._
+import edu.gemini.spModel.io.impl.SpIOTags
+import edu.gemini.spModel.io.impl.migration.to2015A.To2015A
+import edu.gemini.spModel.io.impl.migration.to2015B.To2015B
+import edu.gemini.spModel.io.impl.migration.to2016A.To2016A
+import edu.gemini.spModel.io.impl.migration.to2016B.{To2016B, To2016B2}
+import edu.gemini.spModel.io.impl.migration.to2017A.To2017A
+import edu.gemini.spModel.io.impl.migration.to2017B.To2017B
+import edu.gemini.spModel.io.impl.migration.to2018A.To2018A
+import edu.gemini.spModel.pio.{Container, Document, Version}
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.{Level, Logger}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+/**
+ * The whole-document migrations applied on import, in order.  The program
+ * version is read once to select the migrations that apply, so a current
+ * document is not touched at all.  Container conversions of consecutive
+ * migrations are deferred and applied together in one traversal of the
+ * document, up to the next migration with whole-document conversions.
+ * Time spent in each migration is accumulated and available from `timings`.
+ */
+object MigrationChain {
+  private val Log = Logger.getLogger(getClass.getName)
+
+  // To2015A predates the Migration trait and checks versions itself.
+  private object To2015AStep extends Migration {
+    val version = To2015A.version
+    val conversions: List[Document => Unit] = List(To2015A.updateProgram _)
+  }
+
+  val migrations: List[Migration] =
+    List(To2015AStep, To2015B, To2016A, To2016B, To2016B2, To2017A, To2017B, To2018A)
+
+  /** Accumulated time spent in a migration. */
+  final case class Timing(migration: String, documents: Long, nanos: Long) {
+    def millis: Double = nanos / 1000000.0
+  }
+
+  private final class Counter {
+    val documents = new AtomicLong
+    val nanos     = new AtomicLong
+  }
+
+  private val counters = new ConcurrentHashMap[Migration, Counter]
+  migrations.foreach(m => counters.put(m, new Counter))
+
+  private def name(m: Migration): String =
+    if (m eq To2015AStep) "To2015A" else m.getClass.getSimpleName.stripSuffix("$")
+
+  private def record(m: Migration, nanos: Long): Unit =
+    Option(counters.get(m)).foreach(_.nanos.addAndGet(nanos))
+
+  /** Time spent in each migration since startup or the last `resetTimings`. */
+  def timings: List[Timing] =
+    migrations.map { m =>
+      val c = counters.get(m)
+      Timing(name(m), c.documents.get, c.nanos.get)
+    }
+
+  def resetTimings(): Unit =
+    counters.values.asScala.foreach { c =>
+      c.documents.set(0)
+      c.nanos.set(0)
+    }
+
+  /** Version of the program in the document, if it contains a program. */
+  def programVersion(d: Document): Option[Version] =
+    d.containers.find(_.getKind == SpIOTags.PROGRAM).map(_.getVersion)
+
+  /** The migrations that apply to a program of the given version, in order. */
+  def applicable(v: Version): List[Migration] =
+    migrations.filter(m => v.compareTo(m.version) < 0)
+
+  /** Applies all applicable migrations to the document. */
+  def migrate(d: Document): Unit =
+    programVersion(d).map(applicable).filter(_.nonEmpty).foreach { ms =>
+      val start   = System.nanoTime
+      val pending = ListBuffer.empty[(Migration, SPComponentType, Container => Unit)]
+
+      def flush(): Unit =
+        if (pending.nonEmpty) {
+          traverse(d, pending.toList)
+          pending.clear()
+        }
+
+      ms.foreach { m =>
+        counters.get(m).documents.incrementAndGet()
+        if (m.conversions.nonEmpty) {
+          flush()
+          val t0 = System.nanoTime
+          m.conversions.foreach(_.apply(d))
+          record(m, System.nanoTime - t0)
+        }
+        m.containerConversions.foreach { case (t, f) => pending += ((m, t, f)) }
+      }
+      flush()
+
+      if (Log.isLoggable(Level.FINE)) {
+        Log.fine(s"Applied ${ms.map(name).mkString(", ")} in ${(System.nanoTime - start) / 1000000} ms")
+      }
+    }
+
+  /** Applies the container conversions, in order, to each container of the
+    * matching type in a single traversal of the document.
+    */
+  def traverse(d: Document, cs: List[(Migration, SPComponentType, Container => Unit)]): Unit =
+    if (cs.nonEmpty) {
+      val byType = cs.groupBy(_._2)
+      d.allContainers.foreach { c =>
+        c.componentType.flatMap(byType.get).foreach { fs =>
+          fs.foreach { case (m, _, f) =>
+            val t0 = System.nanoTime
+            f(c)
+            record(m, System.nanoTime - t0)
+          }
+        }
+      }
+    }
+}
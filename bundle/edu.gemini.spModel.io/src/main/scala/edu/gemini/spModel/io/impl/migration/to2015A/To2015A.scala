@@ -25,6 +25,8 @@ import scala.collection.JavaConverters._
 object To2015A {
   private val Version_2015A = Version.`match`("2015A-1")
 
+  def version: Version = Version_2015A
+
   private val TemplateFolderName     = TemplateFolder.SP_TYPE.readableStr
   private val TemplateGroupName      = TemplateGroup.SP_TYPE.readableStr
   private val TemplateParametersName = TemplateParameters.SP_TYPE.readableStr
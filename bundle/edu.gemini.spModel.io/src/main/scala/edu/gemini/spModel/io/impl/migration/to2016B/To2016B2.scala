@@ -1,12 +1,13 @@
 package edu.gemini.spModel.io.impl.migration.to2016B
 
+import edu.gemini.pot.sp.SPComponentType
 import edu.gemini.spModel.io.PioSyntax
 import edu.gemini.spModel.io.impl.migration.Migration
 import edu.gemini.spModel.obs.ObsParamSetCodecs._
 import edu.gemini.spModel.obs.SchedulingBlock
 import edu.gemini.spModel.obs.SchedulingBlock.Duration
 import edu.gemini.spModel.obs.SchedulingBlock.Duration._
-import edu.gemini.spModel.pio.{Document, Version}
+import edu.gemini.spModel.pio.{Container, Document, Version}
 import edu.gemini.spModel.pio.codec._
 import PioSyntax._
 
@@ -18,16 +19,18 @@ object To2016B2 extends Migration {
   val kSbStart    = "schedulingBlockStart";
   val kSbDuration = "schedulingBlockDuration";
 
-  val conversions: List[Document => Unit] = List(
-    updateSchedulingBlocks // order matters!
+  val conversions: List[Document => Unit] = Nil
+
+  override val containerConversions: List[(SPComponentType, Container => Unit)] = List(
+    SPComponentType.OBSERVATION_BASIC -> updateSchedulingBlocks _
   )
 
   // If there is a scheduling block, replace the old 2-Param encoding with the new ParamSet
   // encoding, interpreting any existing duration as explicit. There is no way to distinguish in
   // the old model.
-  def updateSchedulingBlocks(d: Document): Unit =
+  def updateSchedulingBlocks(c: Container): Unit =
     for {
-      o <- obs(d)
+      o <- Option(c.getParamSet(ParamSetObservation)).toList
       s <- o.long(kSbStart)
       d <- List(o.long(kSbDuration).fold[Duration](Unstated)(Explicit(_)))
     } {
@@ -22,26 +22,25 @@ object To2017A extends Migration {
   val version = Version.`match`("2017A-1")
 
   val conversions: List[Document => Unit] =
-    List(updateExecutedGnirs, updateNonSiderealTargets)
+    List(updateNonSiderealTargets)
+
+  override val containerConversions: List[(SPComponentType, Container => Unit)] =
+    List(SPComponentType.OBSERVATION_BASIC -> updateExecutedGnirs _)
 
   val fact = new PioXmlFactory
 
   // REL-2646: Updates executed GNIRS observations with a flag that tells the
   // sequence generation code to use the old, incorrect, observing wavelength
   // calculation that existed before 2017A.
-  private def updateExecutedGnirs(d: Document): Unit = {
+  private def updateExecutedGnirs(o: Container): Unit = {
     def gnirs(obs: Container): Option[ParamSet] =
       for {
         g <- obs.findContainers(SPComponentType.INSTRUMENT_GNIRS).headOption
         d <- g.dataObject
       } yield d
 
-    def hasGnirs(obs: Container): Boolean =
-      gnirs(obs).isDefined
-
     for {
-      o <- findObservations(d)(c => hasGnirs(c) && isExecuted(c))
-      d <- gnirs(o)
+      d <- gnirs(o) if isExecuted(o)
     } Pio.addBooleanParam(fact, d, InstGNIRS.OVERRIDE_ACQ_OBS_WAVELENGTH_PROP.getName, false)
   }
 
@@ -1,11 +1,11 @@
 package edu.gemini.spModel.io.impl.migration.to2017B
 
+import edu.gemini.pot.sp.SPComponentType
 import edu.gemini.spModel.io.PioSyntax._
-import edu.gemini.spModel.io.impl.SpIOTags
 import edu.gemini.spModel.io.impl.migration.Migration
 import edu.gemini.spModel.pio.xml.PioXmlFactory
 
-import edu.gemini.spModel.pio.{Pio, Document, Version}
+import edu.gemini.spModel.pio.{Container, Pio, Document, Version}
 
 import scalaz._, Scalaz._
 
@@ -15,16 +15,17 @@ object To2017B extends Migration {
 
   val version = Version.`match`("2017B-1")
 
-  val conversions: List[Document => Unit] =
-    List(updateTimeAccounting)
+  val conversions: List[Document => Unit] = Nil
+
+  override val containerConversions: List[(SPComponentType, Container => Unit)] =
+    List(SPComponentType.PROGRAM_BASIC -> updateTimeAccounting _)
 
   val fact = new PioXmlFactory
 
   // Changes the old implicit program award in hours to an explicit program
   // award in milliseconds and adds explicit partner award of 0.
-  private def updateTimeAccounting(d: Document): Unit =
+  private def updateTimeAccounting(cont: Container): Unit =
     for {
-      cont <- d.containers.find(_.getKind == SpIOTags.PROGRAM)
       dobj <- cont.dataObject
       tact <- dobj.paramSet("timeAcct")
       aloc <- tact.paramSets("timeAcctAlloc")
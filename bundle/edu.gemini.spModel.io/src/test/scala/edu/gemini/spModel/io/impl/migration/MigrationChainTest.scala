@@ -0,0 +1,26 @@
+package edu.gemini.spModel.io.impl.migration
+
+import edu.gemini.spModel.io.impl.migration.to2016B.To2016B2
+import edu.gemini.spModel.io.impl.migration.to2017A.To2017A
+import edu.gemini.spModel.io.impl.migration.to2017B.To2017B
+import edu.gemini.spModel.io.impl.migration.to2018A.To2018A
+import edu.gemini.spModel.pio.Version
+
+import org.specs2.mutable.Specification
+
+class MigrationChainTest extends Specification {
+
+  "MigrationChain" should {
+    "skip every migration for a current program" in {
+      MigrationChain.applicable(Version.`match`("2018A-1")) must beEmpty
+    }
+
+    "select only the migrations newer than the program, in order" in {
+      MigrationChain.applicable(Version.`match`("2016B-1")) must_== List(To2016B2, To2017A, To2017B, To2018A)
+    }
+
+    "apply every migration to an old program" in {
+      MigrationChain.applicable(Version.`match`("2009A-1")) must_== MigrationChain.migrations
+    }
+  }
+}
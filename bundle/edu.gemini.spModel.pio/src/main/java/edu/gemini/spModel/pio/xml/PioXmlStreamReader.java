@@ -0,0 +1,129 @@
+package edu.gemini.spModel.pio.xml;
+
+import edu.gemini.spModel.pio.PioNode;
+import org.dom4j.Element;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads PIO XML with a StAX pull parser, building the same element tree that
+ * the dom4j <code>SAXReader</code> configured by {@link PioXmlUtil} builds:
+ * whitespace-only text is dropped and adjacent text is merged.  Pulling
+ * events avoids the SAX callback machinery and dom4j's intermediate content
+ * handler, which dominate the cost of reading large programs.
+ */
+public final class PioXmlStreamReader {
+
+    private static final Pattern DOCTYPE = Pattern.compile(
+            "<!DOCTYPE\\s+(\\S+)(?:\\s+PUBLIC\\s+[\"']([^\"']*)[\"'])?(?:\\s+(?:SYSTEM\\s+)?[\"']([^\"']*)[\"'])?");
+
+    private static final XMLResolver RESOLVER = (publicId, systemId, baseUri, namespace) -> {
+        try {
+            return PioEntityResolver.INSTANCE.resolveEntity(publicId, systemId).getByteStream();
+        } catch (RuntimeException ex) {
+            throw new XMLStreamException(ex.getMessage(), ex);
+        }
+    };
+
+    // XMLInputFactory instances are thread safe once configured.
+    private static final XMLInputFactory FACTORY = _createFactory();
+
+    private static XMLInputFactory _createFactory() {
+        final XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        f.setXMLResolver(RESOLVER);
+        return f;
+    }
+
+    private PioXmlStreamReader() {
+        // defeat instantiation
+    }
+
+    public static PioNode read(Reader rdr) throws XMLStreamException {
+        final XMLStreamReader xr = FACTORY.createXMLStreamReader(rdr);
+        try {
+            return _read(xr);
+        } finally {
+            xr.close();
+        }
+    }
+
+    private static PioNode _read(XMLStreamReader xr) throws XMLStreamException {
+        final PioXmlDocumentFactory factory = PioXmlDocumentFactory.INSTANCE;
+        final Deque<Element> stack = new ArrayDeque<>();
+        final StringBuilder text = new StringBuilder();
+
+        String docType = null;
+        Element root = null;
+
+        while (xr.hasNext()) {
+            switch (xr.next()) {
+                case XMLStreamConstants.DTD:
+                    docType = xr.getText();
+                    break;
+
+                case XMLStreamConstants.START_ELEMENT:
+                    _flushText(stack, text);
+                    final Element e = factory.createElement(xr.getLocalName());
+                    for (int i = 0; i < xr.getAttributeCount(); ++i) {
+                        e.addAttribute(xr.getAttributeLocalName(i), xr.getAttributeValue(i));
+                    }
+                    if (stack.isEmpty()) {
+                        root = e;
+                    } else {
+                        stack.peek().add(e);
+                    }
+                    stack.push(e);
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    _flushText(stack, text);
+                    stack.pop();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!stack.isEmpty()) text.append(xr.getText());
+                    break;
+
+                default:
+                    // comments, processing instructions, etc. are dropped
+            }
+        }
+
+        if (root == null) throw new XMLStreamException("Document has no root element");
+
+        final org.dom4j.Document dom4jDoc = factory.createDocument(root);
+        if (docType != null) {
+            final Matcher m = DOCTYPE.matcher(docType);
+            if (m.find()) dom4jDoc.addDocType(m.group(1), m.group(2), m.group(3));
+        }
+        return ((PioNodeElement) root).getPioNode();
+    }
+
+    // Adds accumulated text to the current element unless it is all
+    // whitespace, as SAXReader does when stripping whitespace text.
+    private static void _flushText(Deque<Element> stack, StringBuilder text) {
+        if (text.length() == 0) return;
+        for (int i = 0; i < text.length(); ++i) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                stack.peek().addText(text.toString());
+                break;
+            }
+        }
+        text.setLength(0);
+    }
+}
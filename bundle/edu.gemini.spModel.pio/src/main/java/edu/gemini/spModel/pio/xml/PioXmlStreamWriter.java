@@ -0,0 +1,230 @@
+package edu.gemini.spModel.pio.xml;
+
+import edu.gemini.spModel.pio.Document;
+import edu.gemini.spModel.pio.PioNode;
+import org.dom4j.Attribute;
+import org.dom4j.DocumentType;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes a PIO document incrementally, so that a large document need never
+ * be held in memory in its entirety.  A client opens the document, then opens
+ * and closes elements for nodes whose children it will supply as it goes,
+ * writing complete nodes (typically small param sets) in between.
+ *
+ * <p>The output is formatted exactly as {@link PioXmlUtil#write} formats a
+ * complete document, so the two may be used interchangeably.
+ */
+public final class PioXmlStreamWriter {
+    private static final String INDENT = "  ";
+    private static final String NEWLINE = "\n";
+
+    private final Writer _writer;
+
+    // Names of the elements that have been started but not ended.
+    private final Deque<String> _open = new ArrayDeque<>();
+
+    // Whether the start tag of the innermost open element is still waiting
+    // for its closing '>' because no content has been written yet.
+    private boolean _pendingStartTag;
+
+    public PioXmlStreamWriter(Writer writer) {
+        _writer = writer;
+    }
+
+    /**
+     * Writes the XML declaration and document type of the given (typically
+     * empty) document and starts its root element.
+     */
+    public void startDocument(Document doc) throws IOException {
+        final Element root = ((PioNodeImpl) doc).getElement();
+        _writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        _writer.write(NEWLINE);
+
+        final org.dom4j.Document dom4jDoc = root.getDocument();
+        final DocumentType docType = (dom4jDoc == null) ? null : dom4jDoc.getDocType();
+        if (docType != null) {
+            docType.write(_writer);
+            _writer.write(NEWLINE);
+        }
+        start(doc);
+    }
+
+    /**
+     * Starts the element for the given node, writing its attributes and any
+     * content it already has.  Further content may be written until the
+     * matching call to {@link #end}.
+     */
+    public void start(PioNode node) throws IOException {
+        final Element e = ((PioNodeImpl) node).getElement();
+        _openStartTag(e);
+        _open.push(e.getQualifiedName());
+        _pendingStartTag = true;
+        for (int i = 0; i < e.nodeCount(); ++i) _writeChild(e.node(i));
+    }
+
+    /**
+     * Writes the complete element for the given node, including all of its
+     * content.
+     */
+    public void write(PioNode node) throws IOException {
+        _closePendingStartTag();
+        _writeElement(((PioNodeImpl) node).getElement());
+    }
+
+    /**
+     * Ends the innermost element started with {@link #start}.
+     */
+    public void end() throws IOException {
+        final String name = _open.pop();
+        if (_pendingStartTag) {
+            _writer.write("/>");
+            _pendingStartTag = false;
+        } else {
+            _newline(_open.size());
+            _writer.write("</");
+            _writer.write(name);
+            _writer.write(">");
+        }
+    }
+
+    /**
+     * Ends the root element and any other open elements, and flushes the
+     * output.
+     */
+    public void endDocument() throws IOException {
+        while (!_open.isEmpty()) end();
+        _writer.write(NEWLINE);
+        _writer.flush();
+    }
+
+    private int _level() {
+        return _open.size();
+    }
+
+    private void _newline(int level) throws IOException {
+        _writer.write(NEWLINE);
+        for (int i = 0; i < level; ++i) _writer.write(INDENT);
+    }
+
+    private void _closePendingStartTag() throws IOException {
+        if (_pendingStartTag) {
+            _writer.write(">");
+            _pendingStartTag = false;
+        }
+    }
+
+    private void _openStartTag(Element e) throws IOException {
+        _closePendingStartTag();
+        _newline(_level());
+        _writer.write("<");
+        _writer.write(e.getQualifiedName());
+        for (int i = 0; i < e.attributeCount(); ++i) {
+            final Attribute a = e.attribute(i);
+            _writer.write(" ");
+            _writer.write(a.getQualifiedName());
+            _writer.write("=\"");
+            _escape(a.getValue(), true);
+            _writer.write("\"");
+        }
+    }
+
+    private void _writeChild(Node n) throws IOException {
+        if (n instanceof Element) {
+            _closePendingStartTag();
+            _writeElement((Element) n);
+        }
+    }
+
+    // Element content is placed on separate, indented lines unless the
+    // element contains only text, which is written inline.
+    private void _writeElement(Element e) throws IOException {
+        _openStartTag(e);
+
+        final int size = e.nodeCount();
+        if (size == 0) {
+            _writer.write("/>");
+            return;
+        }
+        _writer.write(">");
+
+        boolean textOnly = true;
+        for (int i = 0; i < size; ++i) {
+            final short t = e.node(i).getNodeType();
+            if ((t == Node.ELEMENT_NODE) || (t == Node.COMMENT_NODE)) {
+                textOnly = false;
+                break;
+            }
+        }
+
+        if (textOnly) {
+            for (int i = 0; i < size; ++i) _writeText(e.node(i));
+        } else {
+            _open.push(e.getQualifiedName());
+            for (int i = 0; i < size; ++i) {
+                final Node n = e.node(i);
+                if (n instanceof Element) {
+                    _writeElement((Element) n);
+                } else if (n.getNodeType() == Node.COMMENT_NODE) {
+                    _newline(_level());
+                    _writer.write("<!--");
+                    _writer.write(n.getText());
+                    _writer.write("-->");
+                } else {
+                    _writeText(n);
+                }
+            }
+            _open.pop();
+            _newline(_level());
+        }
+
+        _writer.write("</");
+        _writer.write(e.getQualifiedName());
+        _writer.write(">");
+    }
+
+    private void _writeText(Node n) throws IOException {
+        if (n.getNodeType() == Node.CDATA_SECTION_NODE) {
+            _writer.write("<![CDATA[");
+            _writer.write(n.getText());
+            _writer.write("]]>");
+        } else {
+            _escape(n.getText(), false);
+        }
+    }
+
+    private void _escape(String s, boolean attribute) throws IOException {
+        if (s == null) return;
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '<':  _writer.write("&lt;");  break;
+                case '>':  _writer.write("&gt;");  break;
+                case '&':  _writer.write("&amp;"); break;
+                case '"':
+                    if (attribute) _writer.write("&quot;");
+                    else _writer.write(c);
+                    break;
+                case '\t':
+                case '\n':
+                case '\r':
+                    _writer.write(c);
+                    break;
+                default:
+                    if (c < 32) {
+                        _writer.write("&#");
+                        _writer.write(Integer.toString(c));
+                        _writer.write(";");
+                    } else {
+                        _writer.write(c);
+                    }
+            }
+        }
+    }
+}
@@ -22,6 +22,14 @@ import java.io.*;
 public final class PioXmlUtil {
     private static final Logger LOG = Logger.getLogger(PioXmlUtil.class.getName());
 
+    /**
+     * Set to read documents with the dom4j SAXReader rather than the StAX
+     * based {@link PioXmlStreamReader}.
+     */
+    public static final String SAX_READER_PROP = PioXmlUtil.class.getName() + ".saxReader";
+
+    private static final boolean USE_SAX_READER = Boolean.getBoolean(SAX_READER_PROP);
+
     private PioXmlUtil() {
         // defeat instantiation
     }
@@ -47,6 +55,15 @@ public final class PioXmlUtil {
     }
 
     public static PioNode read(Reader rdr) throws PioXmlException {
+        if (!USE_SAX_READER) {
+            try {
+                return PioXmlStreamReader.read(rdr);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Problem reading the document", ex);
+                throw PioXmlException.newException(ex);
+            }
+        }
+
         SAXReader reader = new SAXReader(PioXmlDocumentFactory.INSTANCE, false);
         reader.setEntityResolver(PioEntityResolver.INSTANCE);
         reader.setStripWhitespaceText(true);
@@ -0,0 +1,81 @@
+package edu.gemini.spModel.pio.xml.test;
+
+import edu.gemini.spModel.pio.Container;
+import edu.gemini.spModel.pio.Document;
+import edu.gemini.spModel.pio.ParamSet;
+import edu.gemini.spModel.pio.Pio;
+import edu.gemini.spModel.pio.PioFactory;
+import edu.gemini.spModel.pio.PioNode;
+import edu.gemini.spModel.pio.xml.PioXmlFactory;
+import edu.gemini.spModel.pio.xml.PioXmlStreamWriter;
+import edu.gemini.spModel.pio.xml.PioXmlUtil;
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+
+/**
+ * Test cases for the {@link PioXmlStreamWriter} and the StAX based reading
+ * done by {@link PioXmlUtil#read(String)}.
+ */
+public class PioXmlStreamTest extends TestCase {
+
+    private PioFactory _fact;
+
+    public void setUp() {
+        _fact = new PioXmlFactory();
+    }
+
+    private Container _createContainer(String name, int paramCount) {
+        final Container c = _fact.createContainer("kind", "type", "1.0");
+        c.setName(name);
+        final ParamSet ps = _fact.createParamSet("data \"" + name + "\"");
+        for (int i = 0; i < paramCount; ++i) {
+            Pio.addParam(_fact, ps, "p" + i, "<" + i + "> & \"" + i + "\"\tx");
+        }
+        Pio.addParam(_fact, ps, "multi", "  leading and trailing  ");
+        c.addParamSet(ps);
+        c.addParamSet(_fact.createParamSet("empty"));
+        return c;
+    }
+
+    public void testWriteMatchesDom() throws Exception {
+        // Build the whole document for the DOM output.
+        final Document doc = _fact.createDocument();
+        final Container root = _createContainer("root", 3);
+        doc.addContainer(root);
+        final Container child = _createContainer("child", 2);
+        root.addContainer(child);
+        child.addContainer(_createContainer("leaf", 0));
+        root.addContainer(_createContainer("sibling", 1));
+        doc.addContainer(_createContainer("trailer", 1));
+        final String expected = PioXmlUtil.toXmlString(doc);
+
+        // Stream the same document a container at a time.
+        final StringWriter sw = new StringWriter();
+        final PioXmlStreamWriter out = new PioXmlStreamWriter(sw);
+        out.startDocument(_fact.createDocument());
+        out.start(_createContainer("root", 3));
+        out.start(_createContainer("child", 2));
+        out.start(_createContainer("leaf", 0));
+        out.end();
+        out.end();
+        out.start(_createContainer("sibling", 1));
+        out.end();
+        out.end();
+        out.write(_createContainer("trailer", 1));
+        out.endDocument();
+
+        assertEquals(expected, sw.toString());
+    }
+
+    public void testReadRoundTrip() throws Exception {
+        final Container c = _createContainer("root", 4);
+        c.addContainer(_createContainer("child", 2));
+
+        final PioNode n = PioXmlUtil.read(PioXmlUtil.toXmlString(c));
+        assertTrue(n instanceof Container);
+        PioTestUtil.assertEquals(PioXmlUtil.toElement(c), PioXmlUtil.toElement(n));
+        final ParamSet ps = ((Container) n).getParamSet("data \"root\"");
+        assertEquals("  leading and trailing  ", Pio.getValue(ps, "multi"));
+    }
+}
@@ -1,5 +1,7 @@
 package edu.gemini.spdb.reports;
 
+import edu.gemini.pot.spdb.DBIndexPredicate;
+
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +64,16 @@ public interface ITable extends Serializable {
 	 */
 	List<Map<IColumn, Object>> getRows(Object domainObject);
 
+	/**
+	 * Returns a predicate over the database indexes that selects at least
+	 * the domain objects for which getRows() can return rows, so that the
+	 * query need not visit the others. The default selects everything.
+	 * @return a DBIndexPredicate
+	 */
+	default DBIndexPredicate getIndexPredicate() {
+		return DBIndexPredicate.ALL;
+	}
+
 	/**
 	 * Returns the table's display name, for display purposes. This should
 	 * probably be a service property instead.
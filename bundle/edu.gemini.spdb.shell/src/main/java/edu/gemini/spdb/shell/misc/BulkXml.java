@@ -0,0 +1,185 @@
+package edu.gemini.spdb.shell.misc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Support shared by the bulk XML export and import commands: options,
+ * checkpoints that allow an interrupted run to be resumed, and progress
+ * reporting.
+ */
+public final class BulkXml {
+
+    private BulkXml() {
+        // defeat instantiation
+    }
+
+    /** Default number of programs encoded or parsed at once. */
+    public static final int DEFAULT_THREADS =
+            Integer.getInteger(BulkXml.class.getName() + ".threads", Runtime.getRuntime().availableProcessors());
+
+    static final String XML_SUFFIX     = ".xml";
+    static final String GZ_XML_SUFFIX  = ".xml.gz";
+    static final String ARCHIVE_SUFFIX = ".zip";
+
+    /**
+     * Options for a bulk run, parsed from shell arguments of the form
+     * <code>-threads=N</code>, <code>-gzip</code>, <code>-zip</code> and
+     * <code>-resume</code>.
+     */
+    public static final class Options {
+        public static final Options DEFAULT = new Options(DEFAULT_THREADS, false, false, false);
+
+        public final int threads;
+        public final boolean gzip;
+        public final boolean archive;
+        public final boolean resume;
+
+        public Options(int threads, boolean gzip, boolean archive, boolean resume) {
+            if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+            this.threads = threads;
+            this.gzip    = gzip;
+            this.archive = archive;
+            this.resume  = resume;
+        }
+
+        public static boolean isOption(String arg) {
+            return arg.startsWith("-");
+        }
+
+        /**
+         * Parses the options in the given arguments, ignoring any argument
+         * that is not an option.
+         *
+         * @throws IllegalArgumentException if an option is not recognized
+         */
+        public static Options parse(List<String> args) {
+            int threads     = DEFAULT_THREADS;
+            boolean gzip    = false;
+            boolean archive = false;
+            boolean resume  = false;
+            for (String arg : args) {
+                if (!isOption(arg)) continue;
+                if ("-gzip".equals(arg)) {
+                    gzip = true;
+                } else if ("-zip".equals(arg)) {
+                    archive = true;
+                } else if ("-resume".equals(arg)) {
+                    resume = true;
+                } else if (arg.startsWith("-threads=")) {
+                    try {
+                        threads = Integer.parseInt(arg.substring("-threads=".length()));
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("Could not parse thread count: " + arg);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unknown option '" + arg + "', expected one of { -threads=N, -gzip, -zip, -resume }");
+                }
+            }
+            return new Options(threads, gzip, archive, resume);
+        }
+    }
+
+    /**
+     * Records the names of the items that have been completely processed, one
+     * per line, so that a later run can skip them.
+     */
+    static final class Checkpoint {
+        private final File file;
+        private final Set<String> done;
+        private BufferedWriter out;
+
+        Checkpoint(File file, boolean resume) throws IOException {
+            this.file = file;
+            if (resume && file.exists()) {
+                done = new HashSet<>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+                System.out.println(String.format("Resuming from %s: %d item(s) already done.", file, done.size()));
+            } else {
+                done = Collections.emptySet();
+            }
+            out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        boolean isDone(String name) {
+            return done.contains(name);
+        }
+
+        synchronized void markDone(String name) throws IOException {
+            out.write(name);
+            out.newLine();
+            out.flush();
+        }
+
+        synchronized void close() {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                System.out.println("Could not close checkpoint " + file + ": " + ex);
+            }
+        }
+    }
+
+    /**
+     * Reports the progress and timing of each item, and a summary at the end.
+     */
+    static final class Progress {
+        private final String verb;
+        private final int total;
+        private final long start = System.nanoTime();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failed    = new AtomicInteger();
+        private final AtomicLong bytes        = new AtomicLong();
+
+        Progress(String verb, int total) {
+            this.verb  = verb;
+            this.total = total;
+        }
+
+        void done(String name, long nanos, long size, String detail) {
+            final int n = completed.incrementAndGet();
+            bytes.addAndGet(size);
+            System.out.println(String.format("[%d/%d] %s %s (%,d ms, %,d bytes)%s",
+                    n + failed.get(), total, verb, name, TimeUnit.NANOSECONDS.toMillis(nanos), size,
+                    (detail == null) ? "" : ": " + detail));
+        }
+
+        void failed(String name, Throwable t) {
+            final int n = failed.incrementAndGet();
+            System.out.println(String.format("[%d/%d] %s failed for %s: %s", n + completed.get(), total, verb, name, t));
+        }
+
+        int failures() {
+            return failed.get();
+        }
+
+        String summary(int skipped) {
+            final long ms  = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            final int  ok  = completed.get();
+            return String.format("%s %d item(s) (%,d bytes) in %,d ms, %.1f/s; %d failed, %d skipped.",
+                    verb, ok, bytes.get(), ms, ok * 1000.0 / ms, failed.get(), skipped);
+        }
+    }
+
+    static void shutdownAndWait(ExecutorService exec) {
+        exec.shutdown();
+        try {
+            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
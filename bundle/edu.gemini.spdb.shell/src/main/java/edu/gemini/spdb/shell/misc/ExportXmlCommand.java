@@ -1,33 +1,62 @@
 package edu.gemini.spdb.shell.misc;
 
 import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBAbstractFunctor;
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.spModel.core.SPProgramID;
-import edu.gemini.spModel.io.SpExportFunctor;
+import edu.gemini.spModel.io.PioDocumentBuilder;
 import edu.gemini.spModel.util.DBProgramInfo;
 import edu.gemini.spModel.util.DBProgramListFunctor;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
- * Adapted from ExportXML in spModel-io.
+ * Adapted from ExportXML in spModel-io.  Programs are encoded in parallel by
+ * a pool of threads, each streaming the XML straight to its own (optionally
+ * gzipped) file or, for a zip archive, to a buffer that is then appended to
+ * the archive.  Completed programs are recorded in a checkpoint so that an
+ * interrupted export can be resumed.
  */
 public final class ExportXmlCommand {
+    private static final String CHECKPOINT = ".xml-export.checkpoint";
+
     private final IDBDatabaseService db;
     private final File path;
     private final Set<Principal> user;
+    private final BulkXml.Options opts;
 
     public ExportXmlCommand(final IDBDatabaseService db, final File path, Set<Principal> user) {
-		super();
-		this.db = db;
-		this.path = path;
+        this(db, path, user, BulkXml.Options.DEFAULT);
+    }
+
+    public ExportXmlCommand(final IDBDatabaseService db, final File path, Set<Principal> user, BulkXml.Options opts) {
+        this.db   = db;
+        this.path = path;
         this.user = user;
-	}
+        this.opts = opts;
+    }
 
     public void exportXML() {
     	_exportRoots(path, Collections.<SPProgramID>emptyList());
@@ -39,63 +68,227 @@ public final class ExportXmlCommand {
 
     // Export the given programs to the given dest dir.
     // If the progIds list is empty, all programs and plans are exported.
+    // Only the keys or ids are collected up front; each root is looked up by
+    // the encoder that exports it, so that the programs needn't all be
+    // resident at once.
     private void _exportRoots(File dest, List<SPProgramID> progIds) {
+        final List<Item> items = new ArrayList<>();
         if (progIds.size() == 0) {
             final DBProgramListFunctor progFunc = db.getQueryRunner(user).queryPrograms(new DBProgramListFunctor());
-            final List<DBProgramInfo> dbProgInfoList = progFunc.getList();
-            for (DBProgramInfo pi : dbProgInfoList) _exportRootAsXml(dest, db.lookupProgram(pi.nodeKey));
+            for (DBProgramInfo pi : progFunc.getList()) items.add(new Item(pi, false));
 
             final DBProgramListFunctor planFunc = db.getQueryRunner(user).queryNightlyPlans(new DBProgramListFunctor());
-            final List<DBProgramInfo> dbPlanInfoList = planFunc.getList();
-            for (DBProgramInfo pi : dbPlanInfoList) _exportRootAsXml(dest, db.lookupNightlyPlan(pi.nodeKey));
+            for (DBProgramInfo pi : planFunc.getList()) items.add(new Item(pi, true));
         } else {
-            for (SPProgramID id : progIds) {
-                final ISPRootNode root = lookup(id);
-                if (root != null) _exportRootAsXml(dest, root);
-            }
+            for (SPProgramID id : progIds) items.add(new Item(id));
+        }
+
+        try {
+            _export(dest, items);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
     }
 
-    private final ISPRootNode lookup(SPProgramID id) {
-        final ISPRootNode prog = db.lookupProgramByID(id);
-        if (prog != null) return prog;
+    // A program or plan to export, identified by key or by id.
+    private static final class Item {
+        final String name;
+        final SPNodeKey key;
+        final boolean plan;
+        final SPProgramID id;
 
-        final ISPRootNode plan = db.lookupNightlyRecordByID(id);
-        if (plan != null) return plan;
+        Item(DBProgramInfo pi, boolean plan) {
+            this.name = (pi.programID == null) ? pi.nodeKey.toString() : pi.programID.stringValue();
+            this.key  = pi.nodeKey;
+            this.plan = plan;
+            this.id   = null;
+        }
 
-        System.out.println(id + ": not found");
-        return null;
+        Item(SPProgramID id) {
+            this.name = id.stringValue();
+            this.key  = null;
+            this.plan = false;
+            this.id   = id;
+        }
     }
 
-    private static final String fileName(ISPRootNode root) {
-        final SPProgramID progId  = root.getProgramID();
-        final SPNodeKey   progKey = root.getProgramKey();
-        return (progId == null) ? progKey.toString() : progId.stringValue();
-    }
+    // Hands each item to the pool of encoders, which stream the XML to the
+    // sink.  Only the pool's threads encode at once, so the amount of XML
+    // held in memory is bounded even for an archive.
+    private void _export(File dest, List<Item> items) throws IOException {
+        final BulkXml.Checkpoint checkpoint = new BulkXml.Checkpoint(new File(dest, CHECKPOINT), opts.resume);
+        final Sink sink = opts.archive ? new ArchiveSink(dest) : new FileSink(dest, opts.gzip);
+        final BulkXml.Progress progress = new BulkXml.Progress("Exported", items.size());
+
+        System.out.println(String.format("Exporting %d program(s)/plan(s) with %d thread(s) to %s", items.size(), opts.threads, sink));
+
+        final ExecutorService encoders = Executors.newFixedThreadPool(opts.threads);
 
-    /**
-     * Export an ISPProgram as an XML file.
-     */
-    private void _exportRootAsXml(File dest, ISPRootNode root) {
-        final File file = new File(dest, fileName(root) + ".xml");
-        System.out.println("Exporting to " + file);
+        int skipped = 0;
         try {
-            final SpExportFunctor functor = db.getQueryRunner(user).execute(new SpExportFunctor(), root);
-            final String msg = functor.getProblem();
-            final String xml = functor.getXmlProgram();
-            if (msg != null || xml == null) {
-                System.out.println("Error writing " + file + ": " + msg);
-                return;
+            for (final Item item : items) {
+                final String name = item.name;
+                if (checkpoint.isDone(name)) {
+                    ++skipped;
+                    continue;
+                }
+
+                encoders.execute(() -> {
+                    final long start = System.nanoTime();
+                    try {
+                        final ISPRootNode root = lookup(item);
+                        if (root == null) throw new IOException("not found");
+                        final long size = sink.write(name, os -> _encode(root, os));
+                        checkpoint.markDone(name);
+                        progress.done(name, System.nanoTime() - start, size, null);
+                    } catch (Exception ex) {
+                        progress.failed(name, ex);
+                    }
+                });
             }
-            final FileOutputStream fOut = new FileOutputStream(file);
+        } finally {
+            BulkXml.shutdownAndWait(encoders);
             try {
-                fOut.write(xml.getBytes());
+                sink.close();
             } finally {
-                fOut.close();
+                checkpoint.close();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+
+        System.out.println(progress.summary(skipped));
     }
-}
 
+    private void _encode(ISPRootNode root, OutputStream os) throws IOException {
+        final EncodeFunctor functor = db.getQueryRunner(user).execute(new EncodeFunctor(os), root);
+        if (functor.getException() != null) throw new IOException(functor.getException());
+    }
+
+    // Streams the XML for the node it is executed on, inside the query
+    // runner so that the usual permission checks and locking apply.  Only
+    // meaningful for a local database, since the stream isn't serializable.
+    private static final class EncodeFunctor extends DBAbstractFunctor {
+        private final transient OutputStream os;
+
+        EncodeFunctor(OutputStream os) {
+            this.os = os;
+        }
+
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            try {
+                final Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 64 * 1024);
+                PioDocumentBuilder.instance.write(node, w);
+                w.flush();
+            } catch (IOException ex) {
+                setException(ex);
+            }
+        }
+    }
+
+    // Writes the XML for one item to an output stream.
+    private interface Encoder {
+        void encode(OutputStream os) throws IOException;
+    }
+
+    // Roots may be removed after they are listed, in which case null is
+    // returned.
+    private ISPRootNode lookup(Item item) {
+        if (item.key != null) {
+            return item.plan ? db.lookupNightlyPlan(item.key) : db.lookupProgram(item.key);
+        }
+
+        final ISPRootNode prog = db.lookupProgramByID(item.id);
+        return (prog != null) ? prog : db.lookupNightlyRecordByID(item.id);
+    }
+
+    // Destination for the exported XML, used by all the encoders at once.
+    private interface Sink {
+        /** Writes an item, encoding it on the calling thread, and returns its size in bytes. */
+        long write(String name, Encoder enc) throws IOException;
+        void close() throws IOException;
+    }
+
+    // Counts the bytes written through it.
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class FileSink implements Sink {
+        private final File dest;
+        private final boolean gzip;
+
+        FileSink(File dest, boolean gzip) {
+            this.dest = dest;
+            this.gzip = gzip;
+        }
+
+        public long write(String name, Encoder enc) throws IOException {
+            final File file = new File(dest, name + (gzip ? BulkXml.GZ_XML_SUFFIX : BulkXml.XML_SUFFIX));
+            final CountingOutputStream cos = new CountingOutputStream(new FileOutputStream(file));
+            try (OutputStream os = gzip ? new GZIPOutputStream(cos, 64 * 1024)
+                                        : new BufferedOutputStream(cos, 64 * 1024)) {
+                enc.encode(os);
+            }
+            return cos.count;
+        }
+
+        public void close() {
+        }
+
+        @Override public String toString() {
+            return dest + (gzip ? " (gzipped)" : "");
+        }
+    }
+
+    // Each run writes a new archive so that a resumed export doesn't lose
+    // the entries written before it was interrupted.  Entries can't be
+    // interleaved, so each is encoded into a buffer and appended whole.
+    private static final class ArchiveSink implements Sink {
+        private final File file;
+        private final ZipOutputStream zip;
+
+        ArchiveSink(File dest) throws IOException {
+            final String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            File f = new File(dest, "export-" + stamp + BulkXml.ARCHIVE_SUFFIX);
+            for (int i=1; f.exists(); ++i) f = new File(dest, "export-" + stamp + "-" + i + BulkXml.ARCHIVE_SUFFIX);
+            file = f;
+            zip  = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        }
+
+        public long write(String name, Encoder enc) throws IOException {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+            enc.encode(bos);
+            synchronized (zip) {
+                zip.putNextEntry(new ZipEntry(name + BulkXml.XML_SUFFIX));
+                bos.writeTo(zip);
+                zip.closeEntry();
+                // Flush so that completed entries are on disk when checkpointed.
+                zip.flush();
+            }
+            return bos.size();
+        }
+
+        public void close() throws IOException {
+            synchronized (zip) {
+                zip.close();
+            }
+        }
+
+        @Override public String toString() {
+            return file.toString();
+        }
+    }
+}
@@ -8,36 +8,65 @@ import edu.gemini.spdb.shell.migrate.Migrate2014B;
 import scala.util.Failure;
 import scala.util.Try;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
-import java.io.StringReader;
-import java.nio.channels.FileChannel.MapMode;
-import java.nio.charset.Charset;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.security.Principal;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 /**
- * Adapted from ImportXML in spModel-io
+ * Adapted from ImportXML in spModel-io.  A single reader thread reads the
+ * XML files (plain, gzipped or bundled in zip archives) and hands them to a
+ * pool of threads that parse and import them.  Imported files are recorded
+ * in a checkpoint so that an interrupted import can be resumed.
  */
 public class ImportXmlCommand {
+    private static final String CHECKPOINT = ".xml-import.checkpoint";
 
     private final IDBDatabaseService database;
     private final SpImportService imp;
     private final SpImportService.ImportDirective impDirective;
     private final File path;
+    private final BulkXml.Options opts;
+    private final ConcurrentMap<String, Object> importLocks = new ConcurrentHashMap<>();
 
     public ImportXmlCommand(IDBDatabaseService database, File path, SpImportService.ImportDirective impDirective) {
+        this(database, path, impDirective, BulkXml.Options.DEFAULT);
+    }
+
+    public ImportXmlCommand(IDBDatabaseService database, File path, SpImportService.ImportDirective impDirective, BulkXml.Options opts) {
         if (impDirective == null) impDirective = SpImportService.Skip$.MODULE$;
         this.database = database;
         this.imp  = new SpImportService(database);
 		this.path = path;
         this.impDirective = impDirective;
+        this.opts = opts;
 	}
 
+    private static boolean isImportable(String name) {
+        return name.endsWith(BulkXml.XML_SUFFIX) || name.endsWith(BulkXml.GZ_XML_SUFFIX) || name.endsWith(BulkXml.ARCHIVE_SUFFIX);
+    }
+
     private List<File> filesToImport(List filesAndDirs) {
         final List<File> res = new ArrayList<File>();
         for (Iterator it=filesAndDirs.iterator(); it.hasNext(); ) {
@@ -47,7 +76,7 @@ public class ImportXmlCommand {
             } else {
                 final File[] lst = input.listFiles(new FilenameFilter() {
                     public boolean accept(File dir, String name) {
-                        return name.endsWith(".xml");
+                        return isImportable(name);
                     }
                 });
                 for (int i=0; i<lst.length; ++i) res.add(lst[i]);
@@ -59,14 +88,129 @@ public class ImportXmlCommand {
 
     // Import the given XML files or directories containing XML files.
     // The argument is a list of File objects.
-    private void importFiles(List<File> files) {
+    private void importFiles(List<File> files) throws IOException {
         final List<File> inputFiles = filesToImport(files);
-        System.out.println("Importing " + inputFiles.size() + " file(s).");
-        for (File f : inputFiles) importFile(f);
+        System.out.println(String.format("Importing %d file(s) with %d thread(s).", inputFiles.size(), opts.threads));
+
+        final File dir = path.isDirectory() ? path : path.getAbsoluteFile().getParentFile();
+        final BulkXml.Checkpoint checkpoint = new BulkXml.Checkpoint(new File(dir, CHECKPOINT), opts.resume);
+
+        final BulkXml.Progress progress = new BulkXml.Progress("Imported", countItems(inputFiles, checkpoint));
+        final ExecutorService parsers = Executors.newFixedThreadPool(opts.threads);
+        final Semaphore inFlight = new Semaphore(opts.threads * 2);
+
+        final Reader reader = new Reader(checkpoint, progress, parsers, inFlight);
+        try {
+            for (File f : inputFiles) reader.read(f);
+        } finally {
+            BulkXml.shutdownAndWait(parsers);
+            checkpoint.close();
+        }
+        System.out.println(progress.summary(reader.skipped));
+    }
+
+    private static boolean isImportable(ZipEntry e) {
+        return !e.isDirectory() && e.getName().endsWith(BulkXml.XML_SUFFIX);
+    }
+
+    // Counts the files and archive entries that remain to be imported.  Only
+    // the central directory of an archive is read, so this is cheap.
+    private static int countItems(List<File> files, BulkXml.Checkpoint checkpoint) {
+        int count = 0;
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(BulkXml.ARCHIVE_SUFFIX)) {
+                if (!checkpoint.isDone(name)) ++count;
+            } else {
+                try (ZipFile zip = new ZipFile(file)) {
+                    for (Enumeration<? extends ZipEntry> en = zip.entries(); en.hasMoreElements(); ) {
+                        final ZipEntry e = en.nextElement();
+                        if (isImportable(e) && !checkpoint.isDone(name + "!" + e.getName())) ++count;
+                    }
+                } catch (IOException ex) {
+                    ++count; // reading it will fail and be reported as one item
+                }
+            }
+        }
+        return count;
     }
 
     public void importXML() {
-    	importFiles(Collections.singletonList(path));
+        try {
+            importFiles(Collections.singletonList(path));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    // The reader stage, which runs on the calling thread.
+    private final class Reader {
+        private final BulkXml.Checkpoint checkpoint;
+        private final BulkXml.Progress progress;
+        private final ExecutorService parsers;
+        private final Semaphore inFlight;
+        int skipped;
+
+        Reader(BulkXml.Checkpoint checkpoint, BulkXml.Progress progress, ExecutorService parsers, Semaphore inFlight) {
+            this.checkpoint = checkpoint;
+            this.progress   = progress;
+            this.parsers    = parsers;
+            this.inFlight   = inFlight;
+        }
+
+        void read(File file) {
+            final String name = file.getName();
+            try {
+                if (name.endsWith(BulkXml.ARCHIVE_SUFFIX)) {
+                    try (ZipInputStream zis = new ZipInputStream(new FileInputStream(file))) {
+                        ZipEntry e;
+                        while ((e = zis.getNextEntry()) != null) {
+                            final String entryName = name + "!" + e.getName();
+                            if (!isImportable(e)) continue;
+                            if (checkpoint.isDone(entryName)) {
+                                ++skipped;
+                            } else {
+                                submit(entryName, readAll(zis));
+                            }
+                        }
+                    }
+                } else if (checkpoint.isDone(name)) {
+                    ++skipped;
+                } else if (name.endsWith(BulkXml.GZ_XML_SUFFIX)) {
+                    try (InputStream is = new GZIPInputStream(new FileInputStream(file), 64 * 1024)) {
+                        submit(name, readAll(is));
+                    }
+                } else {
+                    submit(name, Files.readAllBytes(file.toPath()));
+                }
+            } catch (Throwable e) {
+                progress.failed(name, e);
+            }
+        }
+
+        private void submit(final String name, final byte[] xml) {
+            inFlight.acquireUninterruptibly();
+            parsers.execute(() -> {
+                try {
+                    importXml(name, xml, checkpoint, progress);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+        final byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = is.read(buf)) >= 0) bos.write(buf, 0, n);
+        return bos.toByteArray();
+    }
+
+    private static <T> T get(Try<T> t) throws Throwable {
+        if (t.isFailure()) throw ((Failure<T>) t).exception();
+        return t.get();
     }
 
     private class Dup implements SpImportService.DuplicateQuery<ISPRootNode> {
@@ -81,29 +225,30 @@ public class ImportXmlCommand {
         }
     }
 
-    // Import the given XML file.
-    private void importFile(File file) {
-        System.out.println("Importing: " + file.getName() + " ...");
+    // Import the XML read from the given file or archive entry.
+    private void importXml(String name, byte[] xml, BulkXml.Checkpoint checkpoint, BulkXml.Progress progress) {
+        final long start = System.nanoTime();
         try {
-            final String xml = Charset.forName("UTF-8")
-                    .decode(new FileInputStream(file).getChannel().map(MapMode.READ_ONLY, 0, file.length()))
-                    .toString();
+            final ISPRootNode parsed = get(imp.parseRootNodeXml(new InputStreamReader(new ByteArrayInputStream(xml), StandardCharsets.UTF_8)));
+            final SPProgramID pid = parsed.getProgramID();
+            final String idStr = pid == null ? parsed.getProgramKey().toString() : pid.stringValue();
 
+            // Parsing runs in parallel but imports of the same program are
+            // serialized, since each one checks for an existing copy before
+            // storing its own.
             final Dup dup = new Dup();
-            final Try<ISPRootNode> t = imp.importRootNodeXml(new StringReader(xml), dup);
-            if (t.isFailure()) throw ((Failure<ISPRootNode>) t).exception();
-
-            final ISPRootNode root = t.get();
-            if (root instanceof ISPProgram) {
-                Migrate2014B.migrateOne(database, (ISPProgram) root, Collections.<Principal>emptySet());
+            synchronized (importLocks.computeIfAbsent(idStr, k -> new Object())) {
+                final ISPRootNode root = get(imp.importRootNode(parsed, dup));
+                if (root instanceof ISPProgram) {
+                    Migrate2014B.migrateOne(database, (ISPProgram) root, Collections.<Principal>emptySet());
+                }
             }
 
-            final SPProgramID pid = root.getProgramID();
-            final String idStr = pid == null ? root.getProgramKey().toString() : pid.stringValue();
-            System.out.println(String.format("=> %s: %s", idStr, dup.importAction()));
+            checkpoint.markDone(name);
+            progress.done(name, System.nanoTime() - start, xml.length, String.format("%s: %s", idStr, dup.importAction()));
         } catch (Throwable e) {
             e.printStackTrace();
-            System.out.println("Import failed for: " + file + ": " + e.toString());
+            progress.failed(name, e);
         }
     }
 }
@@ -18,6 +18,7 @@ import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
 import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationProvider;
 import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationProviderHolder;
 import edu.gemini.spModel.gemini.inst.InstRegistry;
+import edu.gemini.spdb.shell.misc.BulkXml;
 import edu.gemini.spdb.shell.misc.EphemerisPurgeCommand;
 import static edu.gemini.spdb.shell.misc.EphemerisPurgeCommand.*;
 import edu.gemini.spdb.shell.misc.ExportXmlCommand;
@@ -35,6 +36,7 @@ import java.nio.file.Path;
 import static java.nio.file.StandardOpenOption.*;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -94,6 +96,11 @@ class Commands {
     }
 
     public String importXml(final File path, final String option) throws Throwable {
+        return importXml(path, option, new String[0]);
+    }
+
+    // import xml files with bulk options (-threads=N, -resume)
+    public String importXml(final File path, final String option, final String... flags) throws Throwable {
         try {
             final SpImportService.ImportDirective op;
             if ("keep".equals(option)) {
@@ -106,7 +113,14 @@ class Commands {
                 return ("Option must be one of { copy, keep, replace }");
             }
 
-            new ImportXmlCommand(db(), path, op).importXML();
+            final BulkXml.Options opts;
+            try {
+                opts = BulkXml.Options.parse(Arrays.asList(flags));
+            } catch (IllegalArgumentException ex) {
+                return ex.getMessage();
+            }
+
+            new ImportXmlCommand(db(), path, op, opts).importXML();
 
             return "Done.";
 
@@ -129,12 +143,21 @@ class Commands {
         return new Right<>(pids);
     }
 
-    public String exportXml(final File path, final String... progIdStrings) {
+    // Program ids may be mixed with bulk options (-threads=N, -gzip, -zip, -resume)
+    public String exportXml(final File path, final String... args) {
         if (!path.isDirectory()) return ("Not a directory: " + path);
 
+        final BulkXml.Options opts;
+        try {
+            opts = BulkXml.Options.parse(Arrays.asList(args));
+        } catch (IllegalArgumentException ex) {
+            return ex.getMessage();
+        }
+        final String[] progIdStrings = Stream.of(args).filter(a -> !BulkXml.Options.isOption(a)).toArray(String[]::new);
+
         return parsePids(progIdStrings).biFold(err -> err, pids -> {
             try {
-                new ExportXmlCommand(db(), path, user).exportXML(pids);
+                new ExportXmlCommand(db(), path, user, opts).exportXML(pids);
             } catch (RuntimeException e) {
                 e.printStackTrace();
                 throw e;
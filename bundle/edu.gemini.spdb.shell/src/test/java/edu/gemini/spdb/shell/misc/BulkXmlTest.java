@@ -0,0 +1,198 @@
+package edu.gemini.spdb.shell.misc;
+
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.io.SpImportService;
+import edu.gemini.util.security.principal.StaffPrincipal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the bulk XML export and import commands.
+ */
+public final class BulkXmlTest {
+
+    private static final Set<Principal> STAFF = Collections.<Principal>singleton(StaffPrincipal.Gemini());
+    private static final List<String> IDS = Arrays.asList("GS-2016A-Q-1", "GS-2016A-Q-2", "GS-2016A-Q-3");
+
+    private IDBDatabaseService odb;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        odb = DBLocalDatabase.createTransient();
+        for (String id : IDS) {
+            odb.put(odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID(id)));
+        }
+        dir = Files.createTempDirectory("bulkXmlTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+        delete(dir);
+    }
+
+    private static void delete(File f) {
+        final File[] files = f.listFiles();
+        if (files != null) for (File c : files) delete(c);
+        f.delete();
+    }
+
+    private static BulkXml.Options options(boolean gzip, boolean archive, boolean resume) {
+        return new BulkXml.Options(2, gzip, archive, resume);
+    }
+
+    private void export(BulkXml.Options opts) {
+        new ExportXmlCommand(odb, dir, STAFF, opts).exportXML();
+    }
+
+    private Set<String> files(String suffix) {
+        final Set<String> res = new HashSet<>();
+        for (String name : dir.list()) if (name.endsWith(suffix)) res.add(name);
+        return res;
+    }
+
+    private static Set<String> names(String suffix) {
+        final Set<String> res = new HashSet<>();
+        for (String id : IDS) res.add(id + suffix);
+        return res;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        final byte[] bytes = new byte[64 * 1024];
+        final StringBuilder buf = new StringBuilder();
+        int n;
+        while ((n = is.read(bytes)) >= 0) buf.append(new String(bytes, 0, n, StandardCharsets.UTF_8));
+        return buf.toString();
+    }
+
+    private List<String> checkpoint(String name) throws IOException {
+        return Files.readAllLines(new File(dir, name).toPath(), StandardCharsets.UTF_8);
+    }
+
+    private void writeCheckpoint(String name, String... done) throws IOException {
+        Files.write(new File(dir, name).toPath(), Arrays.asList(done), StandardCharsets.UTF_8);
+    }
+
+    private IDBDatabaseService importInto(BulkXml.Options opts) {
+        final IDBDatabaseService copy = DBLocalDatabase.createTransient();
+        new ImportXmlCommand(copy, dir, SpImportService.Skip$.MODULE$, opts).importXML();
+        return copy;
+    }
+
+    private static Set<String> programIds(IDBDatabaseService db) {
+        final Set<String> res = new HashSet<>();
+        for (String id : IDS) if (db.lookupProgramByID(SPProgramID.toProgramID(id)) != null) res.add(id);
+        return res;
+    }
+
+    @Test
+    public void testGzipExportAndImport() throws Exception {
+        export(options(true, false, false));
+        assertEquals(names(BulkXml.GZ_XML_SUFFIX), files(BulkXml.GZ_XML_SUFFIX));
+        assertEquals(Collections.emptySet(), files(BulkXml.XML_SUFFIX));
+
+        for (String id : IDS) {
+            try (InputStream is = new GZIPInputStream(new FileInputStream(new File(dir, id + BulkXml.GZ_XML_SUFFIX)))) {
+                assertTrue(read(is).contains(id));
+            }
+        }
+
+        final IDBDatabaseService copy = importInto(options(false, false, false));
+        try {
+            assertEquals(new HashSet<>(IDS), programIds(copy));
+        } finally {
+            copy.getDBAdmin().shutdown();
+        }
+    }
+
+    @Test
+    public void testArchiveExportAndImport() throws Exception {
+        export(options(false, true, false));
+        assertEquals(Collections.emptySet(), files(BulkXml.XML_SUFFIX));
+
+        final Set<String> archives = files(BulkXml.ARCHIVE_SUFFIX);
+        assertEquals(1, archives.size());
+
+        final Set<String> entries = new HashSet<>();
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(new File(dir, archives.iterator().next())))) {
+            ZipEntry e;
+            while ((e = zis.getNextEntry()) != null) {
+                entries.add(e.getName());
+                assertTrue(read(zis).contains(e.getName().replace(BulkXml.XML_SUFFIX, "")));
+            }
+        }
+        assertEquals(names(BulkXml.XML_SUFFIX), entries);
+
+        final IDBDatabaseService copy = importInto(options(false, false, false));
+        try {
+            assertEquals(new HashSet<>(IDS), programIds(copy));
+        } finally {
+            copy.getDBAdmin().shutdown();
+        }
+    }
+
+    @Test
+    public void testExportResume() throws Exception {
+        final String checkpoint = ".xml-export.checkpoint";
+        writeCheckpoint(checkpoint, IDS.get(0));
+
+        // Items in the checkpoint are skipped when resuming ...
+        export(options(false, false, true));
+        final Set<String> expected = names(BulkXml.XML_SUFFIX);
+        expected.remove(IDS.get(0) + BulkXml.XML_SUFFIX);
+        assertEquals(expected, files(BulkXml.XML_SUFFIX));
+        assertEquals(new HashSet<>(IDS), new HashSet<>(checkpoint(checkpoint)));
+
+        // ... and a second archive resumed from a complete checkpoint is empty.
+        export(options(false, true, true));
+        final Set<String> archives = files(BulkXml.ARCHIVE_SUFFIX);
+        assertEquals(1, archives.size());
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(new File(dir, archives.iterator().next())))) {
+            assertNull(zis.getNextEntry());
+        }
+
+        // Without -resume, the checkpoint is started afresh.
+        export(options(false, false, false));
+        assertEquals(names(BulkXml.XML_SUFFIX), files(BulkXml.XML_SUFFIX));
+        assertEquals(IDS.size(), checkpoint(checkpoint).size());
+    }
+
+    @Test
+    public void testImportResume() throws Exception {
+        export(options(false, false, false));
+
+        final String checkpoint = ".xml-import.checkpoint";
+        writeCheckpoint(checkpoint, IDS.get(0) + BulkXml.XML_SUFFIX);
+
+        final IDBDatabaseService copy = importInto(options(false, false, true));
+        try {
+            assertEquals(new HashSet<>(IDS.subList(1, IDS.size())), programIds(copy));
+            assertEquals(names(BulkXml.XML_SUFFIX), new HashSet<>(checkpoint(checkpoint)));
+        } finally {
+            copy.getDBAdmin().shutdown();
+        }
+    }
+}
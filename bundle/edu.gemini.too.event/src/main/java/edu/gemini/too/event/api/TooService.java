@@ -7,6 +7,14 @@ import java.util.List;
  */
 public interface TooService {
 
+    /**
+     * Longest time in milliseconds that the service waits for events in a
+     * single call to {@link #awaitEvents}.  Clients should allow the call to
+     * take somewhat longer than this before giving up on it, otherwise the
+     * service keeps waiting for a client that is gone.
+     */
+    long MAX_AWAIT_MS = 20 * 1000L;
+
     /**
      * Gets the time of the last ToO event according to the server's clock.
      * Clients should use this method to get the initial timestamp with which
@@ -36,4 +44,19 @@ public interface TooService {
      * the given time
      */
     List<TooEvent> events(TooTimestamp since);
+
+    /**
+     * Waits for TooEvents visible to the caller that happen after the given
+     * time.  Returns as soon as there are any, or with an empty list once the
+     * timeout expires.  This allows clients to learn of events as they happen
+     * without polling.  The service waits no longer than
+     * {@link #MAX_AWAIT_MS} in a single call.
+     *
+     * @param since     events before and on this timestamp are filtered from
+     *                  the results
+     * @param timeoutMs maximum time to wait for events in milliseconds
+     * @return TooEvents that have happened since the given time, or an empty
+     * list if there were none before the timeout
+     */
+    List<TooEvent> awaitEvents(TooTimestamp since, long timeoutMs);
 }
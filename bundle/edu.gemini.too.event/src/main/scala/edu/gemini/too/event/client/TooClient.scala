@@ -3,26 +3,44 @@ package edu.gemini.too.event.client
 import edu.gemini.too.event.api.{TooTimestamp, TooService, TooPublisher}
 import edu.gemini.util.trpc.client.TrpcClient
 
-import java.util.{Timer, TimerTask}
 import java.util.logging.{Level, Logger}
 
 import scala.collection.JavaConverters._
 import scalaz._
 import edu.gemini.util.security.auth.keychain.KeyChain
 
+object TooClient {
+
+  /** How long each request waits for events on the server. */
+  val AwaitTimeMs = TooService.MAX_AWAIT_MS
+
+  /** How long each request may take before the client gives up on it. */
+  val ReadTimeoutMs = AwaitTimeMs + 10 * 1000L
+}
+
 /**
- * Polls a remote TooService at a given host and port.
+ * Receives events from a remote TooService at a given host and port.  The
+ * client waits on the server for events, which are returned as soon as they
+ * happen.  If the server doesn't support waiting for events, it falls back to
+ * polling every `pollPeriodMs`.  After a failure it waits `pollPeriodMs`
+ * before trying again.
  */
 class TooClient(kc: KeyChain, dbHost: String, dbPort: Int, pollPeriodMs: Long) extends TooPublisher {
+  import TooClient._
+
   private val LOG = Logger.getLogger(classOf[TooClient].getName)
 
-  private val task = new TimerTask {
+  private class Receiver extends Runnable {
+    @volatile var running = true
+
     var timestamp = Option.empty[TooTimestamp]
     var exception = Option.empty[Exception] // sorry, trying to avoid an exception per poll when the dbHost is down
+    var canAwait  = true
 
     private def call[T](op: TooService => T): Option[T] = {
 
-      val remoteService = TrpcClient(dbHost, dbPort).withKeyChain(kc)
+      // Allow the read to take a bit longer than the server will wait.
+      val remoteService = TrpcClient(dbHost, dbPort, TrpcClient.ConnectTimeout, ReadTimeoutMs.toInt).withKeyChain(kc)
 
       (remoteService { remote => op(remote[TooService]) }) match {
         case \/-(t)  =>
@@ -31,6 +49,10 @@ class TooClient(kc: KeyChain, dbHost: String, dbPort: Int, pollPeriodMs: Long) e
           }
           exception = None
           Some(t)
+        case -\/(ex: NoSuchMethodException) if canAwait =>
+          LOG.info("%s:%d doesn't support waiting for ToO events, falling back to polling.".format(dbHost, dbPort))
+          canAwait = false
+          None
         case -\/(ex) =>
           if (!exception.exists(_.getClass == ex.getClass)) {
             ex match {
@@ -49,36 +71,61 @@ class TooClient(kc: KeyChain, dbHost: String, dbPort: Int, pollPeriodMs: Long) e
       timestamp = timestamp orElse call(_.lastEventTimestamp())
     }
 
-    def run() {
+    // Returns true if events were successfully received (or waited for).
+    private def receive(): Boolean = {
       initTimestamp()
-      timestamp foreach { since =>
-        call(_.events(since)) foreach { lst =>
-            lst.asScala foreach { evt =>
-              timestamp = Some(evt.timestamp)
-              publish(evt)
-            }
+      timestamp.exists { since =>
+        val awaiting = canAwait
+        val result   = call(s => if (awaiting) s.awaitEvents(since, AwaitTimeMs) else s.events(since))
+        result foreach { lst =>
+          lst.asScala foreach { evt =>
+            timestamp = Some(evt.timestamp)
+            if (running) publish(evt)
+          }
+        }
+        result.isDefined && awaiting
+      }
+    }
+
+    def run() {
+      while (running) {
+        val awaited = receive()
+
+        // Pause between polls, and after failures, but not between waits.
+        if (running && !awaited) {
+          try {
+            Thread.sleep(pollPeriodMs)
+          } catch {
+            case _: InterruptedException => // stopping
+          }
         }
       }
     }
   }
 
-  private var timer = Option.empty[Timer]
+  private var receiver = Option.empty[(Receiver, Thread)]
 
   def start() {
     synchronized {
-      if (timer.isEmpty) {
-        LOG.info("Start polling %s:%d for ToO events.".format(dbHost, dbPort))
-        timer = Some(new Timer)
-        timer foreach { _.schedule(task, 0, pollPeriodMs)}
+      if (receiver.isEmpty) {
+        LOG.info("Start receiving ToO events from %s:%d.".format(dbHost, dbPort))
+        val r = new Receiver
+        val t = new Thread(r, "TooClient %s:%d".format(dbHost, dbPort))
+        t.setDaemon(true)
+        receiver = Some((r, t))
+        t.start()
       }
     }
   }
 
   def stop() {
     synchronized {
-      timer foreach { _.cancel() }
-      timer = None
-      LOG.info("Stop polling %s:%d for ToO events.".format(dbHost, dbPort))
+      receiver foreach { case (r, t) =>
+        r.running = false
+        t.interrupt()
+      }
+      receiver = None
+      LOG.info("Stop receiving ToO events from %s:%d.".format(dbHost, dbPort))
     }
   }
 }
@@ -11,6 +11,7 @@ import edu.gemini.too.event.api.{TooEvent, TooService => TooServiceApi, TooPubli
 import edu.gemini.util.security.permission.ProgramPermission
 import edu.gemini.util.security.policy.ImplicitPolicy
 
+import scala.annotation.tailrec
 import scala.collection.JavaConverters._
 import scala.concurrent.Future
 import scala.concurrent.ExecutionContext.Implicits.global
@@ -18,13 +19,16 @@ import java.security.Principal
 
 object TooService {
   val DefaultEventRetentionTime = 30 * 60 * 1000
+
+  /** Longest time that a remote client may wait for events in one call. */
+  val MaxAwaitTime = TooServiceApi.MAX_AWAIT_MS
 }
 
 /**
  * The TooService is notified by the database whenever the TooCondition matches
  * a change event.  It creates a correspond TooEvent, publishes it to any local
- * subscribers and holds on to it (for a limited time) in case remote clients
- * should poll for updates.
+ * subscribers, wakes up remote clients waiting for events and holds on to it
+ * (for a limited time) in case remote clients should poll for updates.
  *
  * @param eventRetentionTime minimum tme that ToO events will be kept
  */
@@ -37,11 +41,28 @@ class TooService(db: IDBDatabaseService, val site: Site, val eventRetentionTime:
   def serviceApi(ps: java.util.Set[Principal]): TooServiceApi =
     new TooServiceApi {
 
-      def events(since: TooTimestamp): java.util.List[TooEvent] = {
-        def isVisible(evt: TooEvent): Boolean =
-          ImplicitPolicy.forJava.hasPermission(db, ps, new ProgramPermission.Read(evt.report.getObservationId.getProgramID))
+      def isVisible(evt: TooEvent): Boolean =
+        ImplicitPolicy.forJava.hasPermission(db, ps, new ProgramPermission.Read(evt.report.getObservationId.getProgramID))
 
+      def events(since: TooTimestamp): java.util.List[TooEvent] =
         (recentEvents takeWhile { _.timestamp > since} filter { isVisible }).reverse.asJava
+
+      def awaitEvents(since: TooTimestamp, timeoutMs: Long): java.util.List[TooEvent] = {
+        val deadline = System.currentTimeMillis + (timeoutMs min TooService.MaxAwaitTime)
+
+        // Wait for new events, checking each one for visibility only once and
+        // outside of the lock.  If none of them are visible, keep waiting.
+        @tailrec def await(since: TooTimestamp): List[TooEvent] = {
+          val fresh = outer.synchronized {
+            def remaining = deadline - System.currentTimeMillis
+            while (!recentEvents.headOption.exists(_.timestamp > since) && remaining > 0) outer.wait(remaining)
+            recentEvents takeWhile { _.timestamp > since }
+          }
+          val visible = fresh filter { isVisible }
+          if (visible.nonEmpty || fresh.isEmpty) visible else await(fresh.head.timestamp)
+        }
+
+        await(since).reverse.asJava
       }
 
       def lastEventTimestamp: TooTimestamp =
@@ -64,6 +85,7 @@ class TooService(db: IDBDatabaseService, val site: Site, val eventRetentionTime:
     synchronized {
       recentEvents = events ++ (recentEvents filter { _.timestamp > cutoff })
       timestamp    = time
+      if (events.nonEmpty) notifyAll()
     }
 
     if (obsList.nonEmpty) Future {
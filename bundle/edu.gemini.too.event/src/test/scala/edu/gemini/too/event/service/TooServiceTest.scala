@@ -0,0 +1,69 @@
+package edu.gemini.too.event.service
+
+import edu.gemini.pot.sp.{ISPObservation, Instrument, SPNodeKey}
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
+import edu.gemini.spModel.core.{SPProgramID, Site}
+import edu.gemini.too.event.client.TooClient
+import edu.gemini.util.security.principal.StaffPrincipal
+import org.junit.{After, Before, Test}
+import org.junit.Assert._
+
+import java.security.Principal
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Tests waiting for ToO events.
+ */
+class TooServiceTest {
+
+  private var odb: IDBDatabaseService = _
+  private var obs: ISPObservation     = _
+  private var service: TooService     = _
+
+  private val staff: java.util.Set[Principal] = Set[Principal](StaffPrincipal.Gemini).asJava
+
+  @Before
+  def setUp(): Unit = {
+    odb = DBLocalDatabase.createTransient()
+    val prog = odb.getFactory.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2016A-Q-1"))
+    obs = odb.getFactory.createObservation(prog, Instrument.none, null)
+    prog.addObservation(obs)
+    odb.put(prog)
+    service = new TooService(odb, Site.GS)
+  }
+
+  @After
+  def tearDown(): Unit =
+    odb.getDBAdmin.shutdown()
+
+  @Test
+  def returnsEmptyAfterTimeout(): Unit = {
+    val start  = System.currentTimeMillis
+    val events = service.serviceApi(staff).awaitEvents(service.lastEventTimestamp, 200)
+    assertTrue(events.isEmpty)
+    assertTrue(System.currentTimeMillis - start >= 200)
+  }
+
+  @Test
+  def wakesUpOnEvent(): Unit = {
+    val since = service.lastEventTimestamp
+    val pool  = Executors.newSingleThreadExecutor()
+    try {
+      // Whether the event happens before or during the wait, the call returns
+      // with it long before the timeout.
+      val f = pool.submit(new Callable[java.util.List[_]] {
+        def call(): java.util.List[_] = service.serviceApi(staff).awaitEvents(since, TooService.MaxAwaitTime)
+      })
+      Thread.sleep(1) // the event must be in a later millisecond than since
+      service.doTriggerAction(null, obs)
+      assertEquals(1, f.get(TooService.MaxAwaitTime / 2, TimeUnit.MILLISECONDS).size)
+    } finally pool.shutdownNow()
+  }
+
+  @Test
+  def awaitIsCapped(): Unit =
+    assertTrue(TooService.MaxAwaitTime < TooClient.ReadTimeoutMs)
+
+}
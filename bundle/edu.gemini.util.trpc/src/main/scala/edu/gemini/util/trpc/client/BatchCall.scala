@@ -0,0 +1,21 @@
+package edu.gemini.util.trpc.client
+
+import edu.gemini.util.trpc.common._
+
+import scalaz._
+import Scalaz._
+
+/**
+ * A remote call recorded in a `TrpcClient` batch.  Its result is available
+ * once the batch has been sent.
+ */
+final class BatchCall[A] private[client] () {
+  @volatile private var outcome: Option[Try[AnyRef]] = None
+
+  private[client] def complete(r: Try[AnyRef]): Unit =
+    outcome = Some(r)
+
+  /** The result of the call, or the exception it threw. */
+  def result: Try[A] =
+    outcome.fold((new IllegalStateException("The batch has not been sent."): Exception).left[A])(_.map(_.asInstanceOf[A]))
+}
@@ -6,9 +6,10 @@ import edu.gemini.util.security.auth.keychain.Action._
 import edu.gemini.util.ssl.GemSslSocketFactory
 import edu.gemini.util.trpc.common._
 
-import java.io.IOException
+import java.io.{ByteArrayInputStream, IOException}
 import java.lang.reflect.{UndeclaredThrowableException, Proxy, Method, InvocationHandler}
 import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.{Level, Logger=>JLogger}
 import javax.net.ssl.{SSLSession, HostnameVerifier, HttpsURLConnection}
 import javax.servlet.http.HttpServletResponse
@@ -26,6 +27,41 @@ object TrpcClient {
   val ConnectTimeout = 20 * 1000
   val ReadTimeout    = 0
 
+  // Optional transport features advertised by each server we've talked to.
+  private val advertised = new ConcurrentHashMap[(String, Int), Set[String]]()
+
+  private def serverFeatures(host: String, port: Int): Set[String] =
+    Option(advertised.get((host, port))).getOrElse(Set.empty)
+
+  private def learnFeatures(host: String, port: Int, header: String): Unit =
+    advertised.put((host, port), Wire.parseFeatures(header))
+
+  // Placeholder results for calls recorded in a batch, which must be of the
+  // right primitive type if the method returns one.
+  private val defaultValue: Class[_] => AnyRef = Map[Class[_], AnyRef](
+    java.lang.Boolean.TYPE   -> java.lang.Boolean.FALSE,
+    java.lang.Byte.TYPE      -> java.lang.Byte.valueOf(0.toByte),
+    java.lang.Character.TYPE -> java.lang.Character.valueOf(0.toChar),
+    java.lang.Double.TYPE    -> java.lang.Double.valueOf(0.0),
+    java.lang.Float.TYPE     -> java.lang.Float.valueOf(0.0f),
+    java.lang.Integer.TYPE   -> java.lang.Integer.valueOf(0),
+    java.lang.Long.TYPE      -> java.lang.Long.valueOf(0L),
+    java.lang.Short.TYPE     -> java.lang.Short.valueOf(0.toShort)
+  ).withDefaultValue(null)
+
+  // Sends batched calls with `post`, in a single request if the server
+  // supports batches or else one at a time.  The server serializes each
+  // result of a batch separately.
+  private[client] def sendBatch(calls: List[Wire.Call], parallel: Boolean, supported: Boolean)(post: (String, Array[AnyRef], Any) => Try[AnyRef]): List[Try[AnyRef]] =
+    if (calls.isEmpty) Nil
+    else if (supported) {
+      val args = Array[AnyRef](calls.toArray, java.lang.Boolean.valueOf(parallel))
+      post(Wire.BatchPath, args, Wire.BatchPath).get.asInstanceOf[Array[Array[Byte]]].toList.map { bytes =>
+        closing(new ByteArrayInputStream(bytes).readRaw)(_.next[Try[AnyRef]])
+      }
+    } else
+      calls.map { c => catching(post(c.clazz + "/" + c.method, c.args, c.method)) }
+
   private val hostnameVerifier: HostnameVerifier = new HostnameVerifier {
      def verify(s: String, sslSession: SSLSession) = true
   }
@@ -117,48 +153,128 @@ class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTime
    */
   def proxy[A](c: Class[A]): A = proxy(Manifest.classType(c))
 
+  /**
+   * Records remote calls so that they can be sent in a single request.  Each
+   * call returns a `BatchCall` whose result is available once the batch has
+   * been sent.
+   */
+  final class Batch private[TrpcClient] () {
+    private[TrpcClient] val calls = List.newBuilder[(Wire.Call, BatchCall[_])]
+
+    /** Records the single remote call made by `f` on a service of type `A`. */
+    def apply[A: Manifest, B](f: A => B): BatchCall[B] = {
+      val m = manifest[A]
+      var recorded: Option[Wire.Call] = None
+      val handler = new InvocationHandler {
+        def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef = {
+          if (recorded.isDefined) throw new IllegalStateException("Only one remote call may be made per batch entry.")
+          recorded = Some(Wire.Call(m.erasure.getName, method.getName, args))
+          defaultValue(method.getReturnType)
+        }
+      }
+      f(Proxy.newProxyInstance(getClass.getClassLoader, Array(m.erasure), handler).asInstanceOf[A])
+
+      val call = new BatchCall[B]
+      calls += ((recorded.getOrElse(throw new IllegalStateException("No remote call was made.")), call))
+      call
+    }
+  }
+
+  /**
+   * Sends several remote calls in a single round trip.  The calls are
+   * recorded by `f` and then executed by the server, in order or, if
+   * `parallel`, concurrently.  A failure of any one call doesn't affect the
+   * others; each is reported in its own `BatchCall`. The outer `Try` fails
+   * only if the batch itself cannot be sent. Invoke as
+   * <code>
+   * val result = client.batch() { b => (b[IFoo](_.foo()), b[IBar](_.bar(42))) }
+   * result.map { case (foo, bar) => (foo.result, bar.result) }
+   * </code>
+   * Servers that don't support batches are sent the calls one at a time.
+   */
+  def batch[A](parallel: Boolean = false)(f: Batch => A): Try[A] = catching {
+    val b     = new Batch
+    val a     = f(b)
+    val calls = b.calls.result()
+
+    val results = sendBatch(calls.map(_._1), parallel, serverFeatures(host, port)(Wire.Batch)) { (path, args, what) =>
+      post(path, args, what)
+    }
+
+    calls.zip(results).foreach { case ((_, bc), r) => bc.complete(r) }
+    a.right
+  }
+
   private def proxy[A](implicit m: Manifest[A]): A = {
     val handler = new InvocationHandler {
 
-      def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef = {
-        val start = currentTimeMillis
-        try {
-          val url = "https://%s:%d/trpc/%s/%s".format(host, port, m.erasure.getName, method.getName)
-          val conn = new URL(url).openConnection.asInstanceOf[HttpsURLConnection]
-          conn.setSSLSocketFactory(GemSslSocketFactory.get)
-          conn.setHostnameVerifier(hostnameVerifier)
-          conn.setConnectTimeout(connectTimeout)
-          conn.setChunkedStreamingMode(1024 * 16) // 16k blocks (?)
-          conn.setDoOutput(true)
-          conn.setDoInput(true)
-          conn.setReadTimeout(readTimeout)
-
-          if (Log.isLoggable(Level.FINE))
-            Log.fine("Sending %d principals:".format(keys.size) + keys.map(p => "\n\t" + p))
-
-          closing(conn.getOutputStream)(_.writeRaw(Version.current, (args, keys))) // note that args may be null
-          conn.getResponseCode match {
-            case HttpServletResponse.SC_OK => closing(conn.getInputStream)(_.readRaw.next[Try[AnyRef]]) match {
-              case \/-(a) => a
-              case -\/(e) =>
-                val localFrames = new Exception().getStackTrace.drop(2) // throw away the proxy frames (?)
-                val markerFrame = new StackTraceElement("***** EXCEPTION THROW FROM SERVER", "", "<none>", 0)
-                e.setStackTrace(localFrames ++ Array(markerFrame) ++ e.getStackTrace)
-                throw e
-            }
-            case code => throw new IOException("%d %s: %s".format(code, conn.getResponseMessage, url)) // can we do better?
-          }
-        } finally {
-          val elapsed = currentTimeMillis - start
-          val level = if (elapsed > Warn) Level.WARNING else Level.FINE
-          if (Log.isLoggable(level))
-            Log.log(level, "%s on %s:%d took %d ms.".format(method, host, port, elapsed))
+      def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef =
+        post(m.erasure.getName + "/" + method.getName, args, method) match {
+          case \/-(a) => a
+          case -\/(e) =>
+            val localFrames = new Exception().getStackTrace.drop(2) // throw away the proxy frames (?)
+            val markerFrame = new StackTraceElement("***** EXCEPTION THROW FROM SERVER", "", "<none>", 0)
+            e.setStackTrace(localFrames ++ Array(markerFrame) ++ e.getStackTrace)
+            throw e
         }
-      }
 
     }
 
     Proxy.newProxyInstance(getClass.getClassLoader, Array(m.erasure), handler).asInstanceOf[A]
   }
 
+  // Posts a request to /trpc/<path> and returns the server's result, which is
+  // either the value returned by the call or the exception that it threw.
+  private def post(path: String, args: Array[AnyRef], what: Any): Try[AnyRef] = {
+    val start = currentTimeMillis
+    try {
+      val url = "https://%s:%d/trpc/%s".format(host, port, path)
+      val conn = new URL(url).openConnection.asInstanceOf[HttpsURLConnection]
+      conn.setSSLSocketFactory(GemSslSocketFactory.get)
+      conn.setHostnameVerifier(hostnameVerifier)
+      conn.setConnectTimeout(connectTimeout)
+      conn.setDoOutput(true)
+      conn.setDoInput(true)
+      conn.setReadTimeout(readTimeout)
+
+      if (Log.isLoggable(Level.FINE))
+        Log.fine("Sending %d principals:".format(keys.size) + keys.map(p => "\n\t" + p))
+
+      // Use the optional features only once the server has told us that
+      // it understands them.
+      val features = serverFeatures(host, port)
+      val compact  = Wire.CompactEnabled && features(Wire.Compact) && Wire.CompactCodec.supports(args)
+      val raw      = Wire.request(Version.current, args, keys, compact) // note that args may be null
+      val gzip     = features(Wire.Gzip) && raw.length >= Wire.CompressThreshold
+      val body     = if (gzip) Wire.gzip(raw) else raw
+
+      conn.setRequestProperty(Wire.AcceptEncoding, Wire.Gzip)
+      if (gzip) conn.setRequestProperty(Wire.ContentEncoding, Wire.Gzip)
+      if (compact) conn.setRequestProperty(Wire.CodecHeader, Wire.Compact)
+
+      // A fixed length body and a fully consumed response let the JDK keep
+      // the connection alive and reuse it for the next call to this server.
+      conn.setFixedLengthStreamingMode(body.length)
+      closing(conn.getOutputStream)(_.write(body))
+
+      conn.getResponseCode match {
+        case HttpServletResponse.SC_OK =>
+          learnFeatures(host, port, conn.getHeaderField(Wire.FeaturesHeader))
+          closing(conn.getInputStream) { is =>
+            val r = Wire.decoding(is, conn.getContentEncoding).readRaw.next[Try[AnyRef]]
+            Wire.drain(is)
+            r
+          }
+        case code =>
+          Option(conn.getErrorStream).foreach(es => closing(es)(Wire.drain))
+          throw new IOException("%d %s: %s".format(code, conn.getResponseMessage, url)) // can we do better?
+      }
+    } finally {
+      val elapsed = currentTimeMillis - start
+      val level = if (elapsed > Warn) Level.WARNING else Level.FINE
+      if (Log.isLoggable(level))
+        Log.log(level, "%s on %s:%d took %d ms.".format(what, host, port, elapsed))
+    }
+  }
+
 }
@@ -0,0 +1,158 @@
+package edu.gemini.util.trpc.common
+
+import edu.gemini.spModel.core.SPProgramID
+
+import java.io._
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.zip.{GZIPInputStream, GZIPOutputStream}
+import java.{lang => jl}
+
+/**
+ * Transport details shared by the client and the servlet.  Optional features
+ * are negotiated: the servlet advertises what it supports in a response
+ * header and the client only uses a feature once a previous response from
+ * the same server has advertised it, so that old clients and servers keep
+ * working with plain serialized, uncompressed requests.
+ */
+object Wire {
+
+  /** Response header listing the optional features the server supports. */
+  val FeaturesHeader = "X-Trpc-Features"
+
+  /** Request header naming the codec used for the arguments, if not plain. */
+  val CodecHeader    = "X-Trpc-Codec"
+
+  val AcceptEncoding  = "Accept-Encoding"
+  val ContentEncoding = "Content-Encoding"
+
+  val Gzip    = "gzip"
+  val Compact = "compact"
+  val Batch   = "batch"
+
+  val Features: Set[String] = Set(Gzip, Compact, Batch)
+
+  /**
+   * Path to which batches are posted in place of a service class name.  The
+   * arguments are an `Array[Call]` and a `java.lang.Boolean` indicating
+   * whether the calls may be executed in parallel.  The result is an
+   * `Array[Try[AnyRef]]` with the outcome of each call.
+   */
+  val BatchPath = "_batch"
+
+  /** A single call in a batch. */
+  final case class Call(clazz: String, method: String, args: Array[AnyRef])
+
+  /** Bodies smaller than this many bytes are not worth compressing. */
+  val CompressThreshold: Int =
+    Integer.getInteger("edu.gemini.util.trpc.compressThreshold", 4 * 1024)
+
+  /** Whether the client uses the compact argument codec when it can. */
+  val CompactEnabled: Boolean =
+    Option(System.getProperty("edu.gemini.util.trpc.compact")).forall(_.toBoolean)
+
+  def parseFeatures(header: String): Set[String] =
+    Option(header).fold(Set.empty[String])(_.split(",").map(_.trim).filter(_.nonEmpty).toSet)
+
+  def formatFeatures(fs: Set[String]): String =
+    fs.toList.sorted.mkString(",")
+
+  def gzip(bytes: Array[Byte]): Array[Byte] = {
+    val bos = new ByteArrayOutputStream(bytes.length / 2)
+    closing(new GZIPOutputStream(bos, BufSize))(_.write(bytes))
+    bos.toByteArray
+  }
+
+  /** Wraps `is` to undo the given content encoding, if any. */
+  def decoding(is: InputStream, contentEncoding: String): InputStream =
+    if (Gzip.equalsIgnoreCase(contentEncoding)) new GZIPInputStream(is, BufSize) else is
+
+  /** Reads and discards the rest of the stream so that the connection can be reused. */
+  def drain(is: InputStream): Unit = {
+    val buf = new Array[Byte](BufSize)
+    while (is.read(buf) >= 0) {}
+  }
+
+  /**
+   * Serializes a request.  The compact form writes the arguments with
+   * `CompactCodec` followed by the serialized version and keys, otherwise
+   * everything is serialized together.
+   */
+  def request(version: AnyRef, args: Array[AnyRef], keys: AnyRef, compact: Boolean): Array[Byte] = {
+    val bos = new ByteArrayOutputStream
+    if (compact) {
+      val dos = new DataOutputStream(bos)
+      CompactCodec.write(dos, args)
+      dos.flush()
+      bos.writeRaw(version, keys)
+    } else {
+      bos.writeRaw(version, (args, keys))
+    }
+    bos.toByteArray
+  }
+
+  /**
+   * A codec for argument arrays made up entirely of common, small values
+   * which avoids the class descriptors and object headers that Java
+   * serialization would write for them.
+   */
+  object CompactCodec {
+    private val TNull     = 0
+    private val TString   = 1
+    private val TInteger  = 2
+    private val TLong     = 3
+    private val TBoolean  = 4
+    private val TDouble   = 5
+    private val TProgramId = 6
+
+    def supports(args: Array[AnyRef]): Boolean =
+      (args == null) || args.forall {
+        case null | _: String | _: jl.Integer | _: jl.Long | _: jl.Boolean | _: jl.Double | _: SPProgramID => true
+        case _ => false
+      }
+
+    private def writeString(out: DataOutputStream, s: String): Unit = {
+      val bytes = s.getBytes(UTF_8)
+      out.writeInt(bytes.length)
+      out.write(bytes)
+    }
+
+    private def readString(in: DataInputStream): String = {
+      val bytes = new Array[Byte](in.readInt())
+      in.readFully(bytes)
+      new String(bytes, UTF_8)
+    }
+
+    def write(out: DataOutputStream, args: Array[AnyRef]): Unit =
+      if (args == null) out.writeInt(-1)
+      else {
+        out.writeInt(args.length)
+        args.foreach {
+          case null           => out.writeByte(TNull)
+          case s: String      => out.writeByte(TString);    writeString(out, s)
+          case i: jl.Integer  => out.writeByte(TInteger);   out.writeInt(i)
+          case l: jl.Long     => out.writeByte(TLong);      out.writeLong(l)
+          case b: jl.Boolean  => out.writeByte(TBoolean);   out.writeBoolean(b)
+          case d: jl.Double   => out.writeByte(TDouble);    out.writeDouble(d)
+          case p: SPProgramID => out.writeByte(TProgramId); writeString(out, p.stringValue)
+          case a              => throw new NotSerializableException(s"Unsupported compact argument type: ${a.getClass.getName}")
+        }
+      }
+
+    def read(in: DataInputStream): Array[AnyRef] = {
+      val n = in.readInt()
+      if (n < 0) null
+      else Array.fill[AnyRef](n) {
+        in.readByte() match {
+          case TNull      => null
+          case TString    => readString(in)
+          case TInteger   => jl.Integer.valueOf(in.readInt())
+          case TLong      => jl.Long.valueOf(in.readLong())
+          case TBoolean   => jl.Boolean.valueOf(in.readBoolean())
+          case TDouble    => jl.Double.valueOf(in.readDouble())
+          case TProgramId => SPProgramID.toProgramID(readString(in))
+          case t          => throw new StreamCorruptedException(s"Unknown compact argument tag: $t")
+        }
+      }
+    }
+  }
+}
@@ -7,11 +7,12 @@ import edu.gemini.util.osgi.SecureServiceFactory.BundleContextOps
 import edu.gemini.util.security.auth.keychain._
 import edu.gemini.util.security.auth.keychain.Action._
 import edu.gemini.util.trpc.auth._
+import edu.gemini.util.trpc.server
 import edu.gemini.util.trpc.server.TrpcServlet
 import java.io.File
 import java.security.Principal
 import java.util
-import org.osgi.framework.{ServiceReference, BundleContext, BundleActivator}
+import org.osgi.framework.{BundleEvent, BundleListener, ServiceReference, BundleContext, BundleActivator}
 import org.osgi.service.http.HttpService
 import org.osgi.util.tracker.{ServiceTrackerCustomizer, ServiceTracker}
 
@@ -30,6 +31,16 @@ class Activator extends BundleActivator with ExternalStorage {
 
   private var tracker: ServiceTracker[_, _] = null
 
+  // Resolved service methods are cached by class, so forget them when a
+  // bundle that may have provided the classes stops or is uninstalled.
+  private val bundleListener = new BundleListener {
+    def bundleChanged(e: BundleEvent): Unit =
+      e.getType match {
+        case BundleEvent.STOPPED | BundleEvent.UNRESOLVED | BundleEvent.UNINSTALLED => server.clearMethodCache()
+        case _                                                                      => // ignore
+      }
+  }
+
   // The generic TrpcServlet doesn't know how to resolve a class name into a service, so we have to implement that bit.
   // The reasoning is that we have to know about OSGi over here, but the TrpcServlet doesn't.
   class Servlet(ks: KeyService) extends TrpcServlet(ks) {
@@ -94,6 +105,8 @@ class Activator extends BundleActivator with ExternalStorage {
     } { _.unregister(Alias) }
     tracker.open()
 
+    context.addBundleListener(bundleListener)
+
   }
 
   def toInitialPeer(s: String, site:Site): Option[(Peer, String)] =
@@ -109,6 +122,8 @@ class Activator extends BundleActivator with ExternalStorage {
     }
 
   def stop(context: BundleContext) {
+    context.removeBundleListener(bundleListener)
+    server.clearMethodCache()
     tracker.close()
     tracker = null
   }
@@ -2,6 +2,7 @@ package edu.gemini.util.trpc.server
 
 import javax.servlet.http.{HttpServletResponse, HttpServletRequest, HttpServlet}
 import edu.gemini.util.trpc.common._
+import java.io.{ByteArrayOutputStream, NotSerializableException}
 import java.lang.reflect.InvocationTargetException
 import edu.gemini.util.security.auth.keychain._
 import edu.gemini.util.security.auth.keychain.Action._
@@ -12,10 +13,66 @@ import Scalaz._
 import edu.gemini.spModel.core.{VersionException, Version}
 import java.util.logging.{Level, Logger}
 import scala.util.DynamicVariable
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
+import java.util.concurrent.atomic.AtomicInteger
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.concurrent.duration.Duration
+
+object TrpcServlet {
+
+  /** Number of threads on which the calls of parallel batches are executed. */
+  val BatchThreads: Int =
+    Integer.getInteger(classOf[TrpcServlet].getName + ".batchThreads", 8)
+
+  private def bytes(r: Try[AnyRef]): Array[Byte] = {
+    val bos = new ByteArrayOutputStream
+    bos.writeRaw(r)
+    bos.toByteArray
+  }
+
+  /**
+   * Serializes a batch result on its own, so that it is serialized only
+   * once. A result that can't be serialized is replaced with a failure so
+   * that one bad result can't spoil the whole response.
+   */
+  def serialized(r: Try[AnyRef]): Array[Byte] =
+    try bytes(r) catch {
+      case e: Exception =>
+        val msg = r.fold(t => s"Could not serialize ${t.getClass.getName}: ${t.getMessage}",
+                         a => s"Could not serialize result of type ${a.getClass.getName}")
+        bytes((new NotSerializableException(msg): Exception).left[AnyRef])
+    }
+
+}
 
 abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
+  import TrpcServlet._
+
   val Log = Logger.getLogger(this.getClass.getName)
 
+  // Calls of parallel batches run on a bounded pool of their own rather than
+  // on the global execution context, which they would otherwise compete for
+  // with everything else in the JVM while blocking on service calls.
+  private lazy val batchExecutor: ExecutorService =
+    Executors.newFixedThreadPool(BatchThreads, new ThreadFactory {
+      private val count = new AtomicInteger()
+      def newThread(r: Runnable): Thread = {
+        val t = new Thread(r, s"TrpcServlet batch ${count.incrementAndGet()}")
+        t.setDaemon(true)
+        t
+      }
+    })
+
+  private lazy val batchContext: ExecutionContext =
+    ExecutionContext.fromExecutorService(batchExecutor)
+
+  @volatile private var batchStarted = false
+
+  override def destroy(): Unit = {
+    if (batchStarted) batchExecutor.shutdown()
+    super.destroy()
+  }
+
   // TODO: we can replace the try/catch stuff with Validation.fromTryCatchThrowable in Scalaz 7.1
 
   // The idea is that you pass class, method, args and get back a result or a throwable.
@@ -27,27 +84,37 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
 
       // Our result object is either an exception or a valid result
       val result:Try[AnyRef] = for {
-        c <- req.path(0) // name of our service class
+        c <- req.path(0) // name of our service class, or the batch path
         r <- catching {  // capture any exceptions thrown within, and turn to Failure
-          for {
-            n  <- req.path(1) // the name of our method
-            a  <- req.payload // our argument array
-            ps <- subject(a._2)
-            a <- withService(c, ps) { t => t.getClass.getCompatibleMethod(n, a._1).map { m =>
-                try {
-                  m.setAccessible(true) // public stuff isn't visible if the class isn't public
-                  m.invoke(t, a._1: _*)
-                } catch {
-                  case ite:InvocationTargetException => throw ite.getCause // unwrap the exception
-                }
-              }
-            }
-          } yield a
+          if (c == Wire.BatchPath)
+            for {
+              a  <- req.payload // the batched calls and parallel flag
+              ps <- subject(a._2)
+              r  <- batch(a._1, ps)
+            } yield r
+          else
+            for {
+              n  <- req.path(1) // the name of our method
+              a  <- req.payload // our argument array
+              ps <- subject(a._2)
+              r  <- invoke(c, n, a._1, ps)
+            } yield r
         }
       } yield r
 
-      // Either way, send it back.
-      closing(res.getOutputStream)(_.writeRaw(result))
+      // Either way, send it back, compressed if the client accepts it and it
+      // is worth it.  Sending a content length allows the connection to be
+      // kept alive and reused for the client's next call.
+      val bos = new ByteArrayOutputStream
+      bos.writeRaw(result)
+      val raw   = bos.toByteArray
+      val gzip  = req.acceptsGzip && raw.length >= Wire.CompressThreshold
+      val bytes = if (gzip) Wire.gzip(raw) else raw
+
+      res.setHeader(Wire.FeaturesHeader, Wire.formatFeatures(Wire.Features))
+      if (gzip) res.setHeader(Wire.ContentEncoding, Wire.Gzip)
+      res.setContentLength(bytes.length)
+      closing(res.getOutputStream)(_.write(bytes))
 
     } catch {
       case t: Exception =>
@@ -57,6 +124,41 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
 
   }
 
+  /** Invokes the named method on a service of the named class. */
+  def invoke(clazz: String, method: String, args: Array[AnyRef], ps: Set[Principal]): Try[AnyRef] =
+    withService(clazz, ps) { t => t.getClass.getCompatibleMethod(method, args).map { m =>
+        try {
+          m.invoke(t, args: _*)
+        } catch {
+          case ite:InvocationTargetException => throw ite.getCause // unwrap the exception
+        }
+      }
+    }
+
+  /**
+   * Executes a batch of calls, in order or in parallel, isolating the
+   * failure of any one call from the others.  This includes a result that
+   * can't be serialized, which is reported as a failure of its call.  Each
+   * result is returned in serialized form, see `serialized`.
+   */
+  def batch(args: Array[AnyRef], ps: Set[Principal]): Try[AnyRef] = lift {
+    val calls    = args(0).asInstanceOf[Array[Wire.Call]].toList
+    val parallel = args(1).asInstanceOf[java.lang.Boolean].booleanValue
+
+    def run(c: Wire.Call): Array[Byte] =
+      serialized(catching(invoke(c.clazz, c.method, c.args, ps)))
+
+    val results =
+      if (parallel && calls.size > 1) {
+        implicit val ec = batchContext
+        batchStarted = true
+        Await.result(Future.traverse(calls)(c => Future(run(c))), Duration.Inf)
+      } else
+        calls.map(run)
+
+    results.toArray
+  }
+
   def subject(ps:Set[Key]): Try[Set[Principal]] = try {
     ps.collect { case a if auth.validateKey(a).isRight => a.get._1 : Principal } .toSet.right
   } catch {
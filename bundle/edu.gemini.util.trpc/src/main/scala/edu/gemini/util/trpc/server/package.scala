@@ -6,12 +6,26 @@ import Scalaz._
 import javax.servlet.http.{HttpServletResponse, HttpServletRequest}
 import java.{lang => jl}
 import java.lang.reflect.Method
-import java.io.{InvalidClassException, ByteArrayOutputStream, ByteArrayInputStream, ObjectInputStream}
+import java.io.{BufferedInputStream, DataInputStream, InvalidClassException, ByteArrayOutputStream, ByteArrayInputStream, ObjectInputStream}
+import java.util.concurrent.ConcurrentHashMap
 import edu.gemini.spModel.core.{VersionException, Version}
 import edu.gemini.util.security.auth.keychain._
 
 package object server {
 
+  // Resolved methods by class, name and argument types.  Resolution walks the
+  // class hierarchy reflectively, which is needlessly slow to repeat for every
+  // request when the same handful of service methods are called over and over.
+  // The keys and methods refer to service classes, so the cache must be
+  // cleared when a bundle goes away or it would keep the bundle's class loader
+  // alive.
+  private case class MethodKey(c: Class[_], name: String, argTypes: List[Class[_]])
+  private val methodCache = new ConcurrentHashMap[MethodKey, Option[Method]]()
+
+  /** Forgets all resolved methods, releasing the classes that declare them. */
+  private[trpc] def clearMethodCache(): Unit =
+    methodCache.clear()
+
   implicit class RichHttpServletRequest(req: HttpServletRequest) {
 
     lazy val pathElems = req.getPathInfo.split("/").drop(1)
@@ -19,11 +33,19 @@ package object server {
     def param(s: String): Try[String] =
       Option(req.getParameter(s)) \/> new IllegalArgumentException("Required request parameter %s was not found.".format(s))
 
+    def acceptsGzip: Boolean =
+      Option(req.getHeader(Wire.AcceptEncoding)).exists(_.toLowerCase.contains(Wire.Gzip))
+
     def payload: Try[(Array[AnyRef], Set[Key])] =
       lift {
 
+        // Undo any compression and read compact arguments, if sent that way
+        val in      = new BufferedInputStream(Wire.decoding(req.getInputStream, req.getHeader(Wire.ContentEncoding)), BufSize)
+        val compact = Option(req.getHeader(Wire.CodecHeader)).contains(Wire.Compact)
+        val args    = compact option Wire.CompactCodec.read(new DataInputStream(in))
+
         // Get our object stream
-        val ios = req.getInputStream.readRaw
+        val ios = in.readRaw
 
         // Check serial compatibility
         try {
@@ -36,8 +58,8 @@ package object server {
             throw new VersionException(Version.current, Version.Compatibility.serial);
         }
 
-        // Next hunk is our payload
-        ios.next[(Array[AnyRef], Set[Key])]
+        // Next hunk is our payload, or just the keys if the arguments came first
+        args.fold(ios.next[(Array[AnyRef], Set[Key])])(a => (a, ios.next[Set[Key]]))
 
       }
 
@@ -76,7 +98,13 @@ package object server {
           a <- ~Option(args).map(_.toList)
         } yield Option(a).map(_.getClass).orNull
 
-      val om = getCompatibleMethod0(c, name, argTypes)
+      val key = MethodKey(c, name, argTypes)
+      val om  = Option(methodCache.get(key)).getOrElse {
+        val m = getCompatibleMethod0(c, name, argTypes)
+        m.foreach(_.setAccessible(true)) // public stuff isn't visible if the class isn't public
+        methodCache.putIfAbsent(key, m)
+        m
+      }
       om.\/>(new NoSuchMethodException("%s.%s(%s)".format(c.getName, name, argTypes.mkString(", "))))
     }
 
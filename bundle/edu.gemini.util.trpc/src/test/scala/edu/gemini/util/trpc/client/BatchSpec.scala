@@ -0,0 +1,108 @@
+package edu.gemini.util.trpc.client
+
+import edu.gemini.util.trpc.common._
+import edu.gemini.util.trpc.server.TrpcServlet
+import java.io.NotSerializableException
+import java.security.Principal
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import org.specs2.mutable.Specification
+import scalaz._
+import Scalaz._
+
+object BatchSpec {
+
+  trait Service {
+    def echo(s: String): String
+    def fail(s: String): String
+    def opaque(s: String): AnyRef
+    def rendezvous(s: String): String
+  }
+
+  // A service whose `rendezvous` calls only return once two of them are
+  // running at the same time.
+  class ServiceImpl extends Service {
+    val latch = new CountDownLatch(2)
+
+    def echo(s: String): String = s
+    def fail(s: String): String = throw new IllegalArgumentException(s)
+    def opaque(s: String): AnyRef = new Object
+    def rendezvous(s: String): String = {
+      latch.countDown()
+      if (!latch.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("Not run in parallel.")
+      Thread.currentThread.getName
+    }
+  }
+
+  class Servlet(service: Service) extends TrpcServlet(null) {
+    protected def withService[B](clazz: String, ps: Set[Principal])(f: Any => B): B =
+      if (clazz == classOf[Service].getName) f(service)
+      else throw new NoSuchElementException(clazz)
+  }
+
+  def call(method: String, arg: String): Wire.Call =
+    Wire.Call(classOf[Service].getName, method, Array[AnyRef](arg))
+
+}
+
+class BatchSpec extends Specification {
+  import BatchSpec._
+
+  // Runs the calls through `sendBatch`, delivering each post straight to a
+  // servlet rather than over HTTP, and returns the results along with the
+  // posted paths.
+  def send(calls: List[Wire.Call], parallel: Boolean, supported: Boolean): (List[Try[AnyRef]], List[String]) = {
+    val servlet = new Servlet(new ServiceImpl)
+    val paths   = List.newBuilder[String]
+    try {
+      val rs = TrpcClient.sendBatch(calls, parallel, supported) { (path, args, _) =>
+        paths += path
+        if (path == Wire.BatchPath) servlet.batch(args, Set.empty)
+        else path.split("/") match {
+          case Array(c, m) => servlet.invoke(c, m, args, Set.empty)
+        }
+      }
+      (rs, paths.result())
+    } finally servlet.destroy()
+  }
+
+  def value(r: Try[AnyRef]): Option[AnyRef] = r.toOption
+
+  def error(r: Try[AnyRef]): Option[Class[_]] = r.swap.toOption.map(_.getClass)
+
+  "batch" should {
+
+    "send all calls in a single request when supported" in {
+      val (rs, paths) = send(List(call("echo", "a"), call("echo", "b")), parallel = false, supported = true)
+      paths must_== List(Wire.BatchPath)
+      rs.map(value) must_== List(Some("a"), Some("b"))
+    }
+
+    "fall back to one request per call when the server doesn't advertise batches" in {
+      val calls       = List(call("echo", "a"), call("fail", "b"), call("echo", "c"))
+      val (rs, paths) = send(calls, parallel = true, supported = false)
+      paths must_== calls.map(c => c.clazz + "/" + c.method)
+      rs.map(value) must_== List(Some("a"), None, Some("c"))
+      error(rs(1)) must_== Some(classOf[IllegalArgumentException])
+    }
+
+    "isolate the failure of one call from the others" in {
+      val (rs, _) = send(List(call("echo", "a"), call("fail", "b"), call("echo", "c")), parallel = false, supported = true)
+      rs.map(value) must_== List(Some("a"), None, Some("c"))
+      error(rs(1)) must_== Some(classOf[IllegalArgumentException])
+    }
+
+    "report a result that can't be serialized as a failure of its call" in {
+      val (rs, _) = send(List(call("opaque", "a"), call("echo", "b")), parallel = false, supported = true)
+      error(rs(0)) must_== Some(classOf[NotSerializableException])
+      value(rs(1)) must_== Some("b")
+    }
+
+    "run parallel batches concurrently on the servlet's own threads" in {
+      val (rs, _) = send(List(call("rendezvous", "a"), call("rendezvous", "b")), parallel = true, supported = true)
+      rs.flatMap(value).collect { case s: String => s } must haveSize(2)
+      rs.flatMap(value).forall(_.toString.startsWith("TrpcServlet batch")) must beTrue
+    }
+
+  }
+
+}
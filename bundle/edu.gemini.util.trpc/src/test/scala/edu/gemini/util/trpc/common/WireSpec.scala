@@ -0,0 +1,95 @@
+package edu.gemini.util.trpc.common
+
+import edu.gemini.spModel.core.{SPProgramID, Version}
+import edu.gemini.util.security.auth.keychain.Key
+import edu.gemini.util.trpc.server._
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream}
+import java.lang.reflect.{InvocationHandler, Method, Proxy}
+import java.{lang => jl}
+import javax.servlet.ServletInputStream
+import javax.servlet.http.HttpServletRequest
+import org.specs2.mutable.Specification
+
+class WireSpec extends Specification {
+
+  val compactArgs: Array[AnyRef] = Array(
+    null,
+    "",
+    "Ünïcødé",
+    jl.Integer.valueOf(-42),
+    jl.Long.valueOf(Long.MaxValue),
+    jl.Boolean.TRUE,
+    jl.Double.valueOf(Double.NaN),
+    SPProgramID.toProgramID("GS-2016A-Q-1"))
+
+  def roundTrip(args: Array[AnyRef]): Array[AnyRef] = {
+    val bos = new ByteArrayOutputStream
+    val dos = new DataOutputStream(bos)
+    Wire.CompactCodec.write(dos, args)
+    dos.flush()
+    Wire.CompactCodec.read(new DataInputStream(new ByteArrayInputStream(bos.toByteArray)))
+  }
+
+  // A request carrying the given body and headers.  Only the parts that
+  // `payload` uses are implemented.
+  def request(body: Array[Byte], headers: Map[String, String]): HttpServletRequest = {
+    val in = new ByteArrayInputStream(body)
+    val sis = new ServletInputStream {
+      override def read(): Int = in.read()
+      override def read(b: Array[Byte], off: Int, len: Int): Int = in.read(b, off, len)
+    }
+    Proxy.newProxyInstance(getClass.getClassLoader, Array(classOf[HttpServletRequest]), new InvocationHandler {
+      def invoke(proxy: AnyRef, m: Method, args: Array[AnyRef]): AnyRef =
+        m.getName match {
+          case "getInputStream" => sis
+          case "getHeader"      => headers.get(args(0).asInstanceOf[String]).orNull
+          case n                => throw new UnsupportedOperationException(n)
+        }
+    }).asInstanceOf[HttpServletRequest]
+  }
+
+  def payload(args: Array[AnyRef], compact: Boolean, gzip: Boolean): (Array[AnyRef], Set[Key]) = {
+    val raw  = Wire.request(Version.current, args, Set.empty[Key], compact)
+    val body = if (gzip) Wire.gzip(raw) else raw
+    val hs   = (if (compact) Map(Wire.CodecHeader -> Wire.Compact) else Map.empty[String, String]) ++
+               (if (gzip) Map(Wire.ContentEncoding -> Wire.Gzip) else Map.empty[String, String])
+    request(body, hs).payload.get
+  }
+
+  "CompactCodec" should {
+
+    "round trip every supported argument type" in {
+      Wire.CompactCodec.supports(compactArgs) must beTrue
+      roundTrip(compactArgs).toList must_== compactArgs.toList
+    }
+
+    "round trip empty and null argument arrays" in {
+      roundTrip(Array.empty[AnyRef]).toList must_== Nil
+      roundTrip(null) must beNull
+    }
+
+    "not support other argument types" in {
+      Wire.CompactCodec.supports(Array[AnyRef](new java.util.Date)) must beFalse
+    }
+
+  }
+
+  "Wire.request" should {
+
+    "be read back by payload in every combination of codec and encoding" in {
+      val decoded = for {
+        compact <- List(false, true)
+        gzip    <- List(false, true)
+      } yield payload(compactArgs, compact, gzip)
+
+      decoded.map { case (as, ks) => (as.toList, ks) } must_== List.fill(4)((compactArgs.toList, Set.empty[Key]))
+    }
+
+    "preserve null arguments" in {
+      payload(null, compact = true, gzip = true)._1 must beNull
+      payload(null, compact = false, gzip = false)._1 must beNull
+    }
+
+  }
+
+}
@@ -2,6 +2,7 @@ package jsky.app.ot.shared.gemini.obscat;
 
 import edu.gemini.pot.sp.*;
 import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.DBIndexPredicate;
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.pot.spdb.IDBQueryRunner;
 import edu.gemini.shared.util.immutable.Option;
@@ -39,6 +40,7 @@ import edu.gemini.spModel.type.DisplayableSpType;
 import edu.gemini.spModel.util.SPTreeUtil;
 import edu.gemini.util.security.permission.ProgramPermission;
 import edu.gemini.util.security.policy.ImplicitPolicyForJava;
+import jsky.catalog.ArraySearchCondition;
 import jsky.catalog.SearchCondition;
 import jsky.coords.DMS;
 import jsky.coords.HMS;
@@ -92,6 +94,66 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     }
 
 
+    /**
+     * Returns an index predicate that selects at least the programs that
+     * can contain matching observations, for use with
+     * <code>{@link IDBQueryRunner#queryPrograms(DBIndexPredicate, edu.gemini.pot.spdb.IDBQueryFunctor)}</code>.
+     * Only conditions that select from a list of plain values for the
+     * active flag, queue band or observation status are used, all other
+     * conditions are still checked by the functor itself.
+     */
+    public DBIndexPredicate getIndexPredicate() {
+        DBIndexPredicate res = DBIndexPredicate.ALL;
+        if (_sc == null) return res;
+
+        for (SearchCondition a_sc : _sc) {
+            final String[] values = _stringValues(a_sc);
+            if (values == null) continue;
+
+            final String name = a_sc.getName();
+            if (name.equals(ObsCatalogInfo.ACTIVE)) {
+                final Set<String> s = new HashSet<>(Arrays.asList(values));
+                final boolean yes = s.contains(SPProgram.Active.YES.name());
+                final boolean no  = s.contains(SPProgram.Active.NO.name());
+                if (yes != no) res = res.withActive(yes);
+            } else if (name.equals(ObsCatalogInfo.QUEUE_BAND)) {
+                res = res.withBand(values);
+            } else if (name.equals(ObsCatalogInfo.OBS_STATUS)) {
+                final ObservationStatus[] status = _statusValues(values);
+                if (status != null) res = res.withStatus(status);
+            }
+        }
+        return res;
+    }
+
+    // Gets the values of a condition that matches any of a non-empty list of
+    // strings, or null for any other condition.
+    private static String[] _stringValues(SearchCondition sc) {
+        if (!(sc instanceof ArraySearchCondition)) return null;
+        final Object[] values = ((ArraySearchCondition) sc).getValues();
+        if ((values == null) || (values.length == 0)) return null;
+
+        final String[] res = new String[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            if (!(values[i] instanceof String)) return null;
+            res[i] = (String) values[i];
+        }
+        return res;
+    }
+
+    private static ObservationStatus[] _statusValues(String[] values) {
+        final ObservationStatus[] res = new ObservationStatus[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            try {
+                res[i] = ObservationStatus.valueOf(values[i]);
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        return res;
+    }
+
+
     /**
      * Called once before the first call to <code>isDone()</code> or
      * <code>execute</code>.  Provides an opportunity for the functor
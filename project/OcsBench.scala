@@ -0,0 +1,20 @@
+import sbt._
+import pl.project13.scala.sbt.JmhPlugin
+
+trait OcsBench { this: OcsBundle =>
+
+  // JMH benchmarks for ODB and science hot paths.  The ITC benchmarks reuse
+  // the baseline test fixtures, hence the dependency on its test classes.
+  lazy val bench = project.in(file("bench")).enablePlugins(JmhPlugin).dependsOn(
+    bundle_edu_gemini_ags,
+    bundle_edu_gemini_catalog,
+    bundle_edu_gemini_itc     % "compile->compile;compile->test",
+    bundle_edu_gemini_itc_shared,
+    bundle_edu_gemini_pot,
+    bundle_edu_gemini_sp_vcs,
+    bundle_edu_gemini_spModel_core,
+    bundle_edu_gemini_spModel_io,
+    bundle_edu_gemini_spModel_pio
+  )
+
+}
@@ -7,6 +7,7 @@ object OcsBuild extends Build
   with OcsBundleSettings // bundle project definitions
   with OcsApp         // application project definitions
   with OcsAppSettings // settings for app projects
+  with OcsBench       // benchmark project
   with OcsKey         // ocs-provided keys
 {
   val ScalaZVersion = "7.2.13"